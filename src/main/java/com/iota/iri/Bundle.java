@@ -9,8 +9,7 @@ import java.util.Map;
 import com.iota.iri.hash.Curl;
 import com.iota.iri.hash.ISS;
 import com.iota.iri.model.Transaction;
-import com.iota.iri.service.storage.StorageBundle;
-import com.iota.iri.service.storage.StorageTransactions;
+import com.iota.iri.service.storage.StorageProviders;
 import com.iota.iri.utils.Converter;
 
 /**
@@ -25,11 +24,10 @@ public class Bundle {
 
     public Bundle(final byte[] bundle) {
 
-        final long bundlePointer = StorageBundle.instance().bundlePointer(bundle);
-        if (bundlePointer == 0) {
+        final Map<Long, Transaction> bundleTransactions = loadTransactionsFromTangle(bundle);
+        if (bundleTransactions.isEmpty()) {
         	return;
         }
-        final Map<Long, Transaction> bundleTransactions = loadTransactionsFromTangle(bundlePointer);
         
         for (Transaction transaction : bundleTransactions.values()) {
 
@@ -47,7 +45,7 @@ public class Bundle {
 
                     if (transaction.currentIndex != i || transaction.lastIndex != lastIndex
                             || ((bundleValue += transaction.value) < -Transaction.SUPPLY || bundleValue > Transaction.SUPPLY)) {
-                        StorageTransactions.instance().setTransactionValidity(instanceTransactions.get(0).pointer, -1);
+                        StorageProviders.instance().setTransactionValidity(instanceTransactions.get(0).pointer, -1);
                         break;
                     }
 
@@ -88,7 +86,7 @@ public class Bundle {
                                             final int[] addressTrits = new int[Transaction.ADDRESS_TRINARY_SIZE];
                                             address.squeeze(addressTrits, 0, addressTrits.length);
                                             if (!Arrays.equals(Converter.bytes(addressTrits, 0, Transaction.ADDRESS_TRINARY_SIZE), transaction.address)) {
-                                                StorageTransactions.instance().setTransactionValidity(instanceTransactions.get(0).pointer, -1);
+                                                StorageProviders.instance().setTransactionValidity(instanceTransactions.get(0).pointer, -1);
                                                 break MAIN_LOOP;
                                             }
                                         } else {
@@ -96,16 +94,16 @@ public class Bundle {
                                         }
                                     }
 
-                                    StorageTransactions.instance().setTransactionValidity(instanceTransactions.get(0).pointer, 1);
+                                    StorageProviders.instance().setTransactionValidity(instanceTransactions.get(0).pointer, 1);
                                     transactions.add(instanceTransactions);
                                 } else {
-                                	StorageTransactions.instance().setTransactionValidity(instanceTransactions.get(0).pointer, -1);
+                                	StorageProviders.instance().setTransactionValidity(instanceTransactions.get(0).pointer, -1);
                                 }
                             } else {
                                 transactions.add(instanceTransactions);
                             }
                         } else {
-                            StorageTransactions.instance().setTransactionValidity(instanceTransactions.get(0).pointer, -1);
+                            StorageProviders.instance().setTransactionValidity(instanceTransactions.get(0).pointer, -1);
                         }
                         break;
 
@@ -121,12 +119,11 @@ public class Bundle {
     }
 
 
-    private Map<Long, Transaction> loadTransactionsFromTangle(final long bundlePointer) {
+    private Map<Long, Transaction> loadTransactionsFromTangle(final byte[] bundle) {
         final Map<Long, Transaction> bundleTransactions = new HashMap<>();
-        for (final long transactionPointer : StorageBundle.instance().bundleTransactions(bundlePointer)) {
-            bundleTransactions
-                .put(transactionPointer, StorageTransactions.instance()
-                .loadTransaction(transactionPointer));
+        for (final Transaction transaction : StorageProviders.instance()
+                .loadTransactions(StorageProviders.instance().bundleTransactions(bundle))) {
+            bundleTransactions.put(transaction.pointer, transaction);
         }
         return bundleTransactions;
     }
@@ -15,7 +15,7 @@ import com.iota.iri.conf.Configuration.DefaultConfSettings;
 import com.iota.iri.service.API;
 import com.iota.iri.service.Node;
 import com.iota.iri.service.TipsManager;
-import com.iota.iri.service.storage.Storage;
+import com.iota.iri.service.storage.StorageProviders;
 import com.sanityinc.jargs.CmdLineParser;
 import com.sanityinc.jargs.CmdLineParser.Option;
 
@@ -44,7 +44,8 @@ public class IRI {
 
         try {
 
-            Storage.instance().init();
+            StorageProviders.instance().init();
+            Snapshot.init();
             Node.instance().init();
             TipsManager.instance().init();
             API.instance().init();
@@ -74,6 +75,15 @@ public class IRI {
         final Option<String> remoteLimitApi = parser.addStringOption("remote-limit-api");
         final Option<String> neighbors = parser.addStringOption('n', "neighbors");
         final Option<Boolean> experimental = parser.addBooleanOption('e', "experimental");
+        final Option<Boolean> transactionIndex = parser.addBooleanOption("transaction-index");
+        final Option<String> storageEngine = parser.addStringOption("storage-engine");
+        final Option<String> journalSyncInterval = parser.addStringOption("journal-sync-interval");
+        final Option<String> checkpointInterval = parser.addStringOption("checkpoint-interval");
+        final Option<String> flushInterval = parser.addStringOption("flush-interval");
+        final Option<String> flushRate = parser.addStringOption("flush-rate");
+        final Option<String> pruningDepth = parser.addStringOption("pruning-depth");
+        final Option<String> storageShards = parser.addStringOption("storage-shards");
+        final Option<String> storagePaths = parser.addStringOption("storage-paths");
         final Option<Boolean> help = parser.addBooleanOption('h', "help");
 
         try {
@@ -136,6 +146,67 @@ public class IRI {
             Configuration.put(DefaultConfSettings.EXPERIMENTAL, "true");
         }
 
+        if (parser.getOptionValue(transactionIndex) != null) {
+            log.info("In-memory transaction index enabled.");
+            Configuration.put(DefaultConfSettings.TRANSACTION_INDEX, "true");
+        }
+
+        final String vstorageengine = parser.getOptionValue(storageEngine);
+        if (vstorageengine != null) {
+            if (!StorageProviders.engines().contains(vstorageengine)) {
+                log.error("Invalid storage engine '{}', available engines: {}", vstorageengine, StorageProviders.engines());
+                printUsage();
+            }
+            log.info("Storage engine: {}", vstorageengine);
+            Configuration.put(DefaultConfSettings.STORAGE_ENGINE, vstorageengine);
+        }
+
+        final String vjournalsyncinterval = parser.getOptionValue(journalSyncInterval);
+        if (vjournalsyncinterval != null) {
+            log.info("Storage journal synced every {} ms", vjournalsyncinterval);
+            Configuration.put(DefaultConfSettings.JOURNAL_SYNC_INTERVAL, vjournalsyncinterval);
+        }
+
+        final String vcheckpointinterval = parser.getOptionValue(checkpointInterval);
+        if (vcheckpointinterval != null) {
+            log.info("Storage checkpointed every {} ms", vcheckpointinterval);
+            Configuration.put(DefaultConfSettings.CHECKPOINT_INTERVAL, vcheckpointinterval);
+        }
+
+        final String vflushinterval = parser.getOptionValue(flushInterval);
+        if (vflushinterval != null) {
+            log.info("Storage flushed every {} ms", vflushinterval);
+            Configuration.put(DefaultConfSettings.FLUSH_INTERVAL, vflushinterval);
+        }
+
+        final String vflushrate = parser.getOptionValue(flushRate);
+        if (vflushrate != null) {
+            log.info("Storage flushed at up to {} MB/s", vflushrate);
+            Configuration.put(DefaultConfSettings.FLUSH_RATE, vflushrate);
+        }
+
+        final String vpruningdepth = parser.getOptionValue(pruningDepth);
+        if (vpruningdepth != null) {
+            log.info("Transactions pruned {} milestones below the latest solid one", vpruningdepth);
+            Configuration.put(DefaultConfSettings.PRUNING_DEPTH, vpruningdepth);
+        }
+
+        final String vstorageshards = parser.getOptionValue(storageShards);
+        if (vstorageshards != null) {
+            if (!vstorageshards.matches("\\d{1,2}") || Integer.bitCount(Integer.parseInt(vstorageshards)) != 1 || Integer.parseInt(vstorageshards) > 64) {
+                log.error("Invalid number of storage shards '{}', a power of 2 up to 64", vstorageshards);
+                printUsage();
+            }
+            log.info("Transactions stored in {} shards", vstorageshards);
+            Configuration.put(DefaultConfSettings.STORAGE_SHARDS, vstorageshards);
+        }
+
+        final String vstoragepaths = parser.getOptionValue(storagePaths);
+        if (vstoragepaths != null) {
+            log.info("Storage shards spread over {}", vstoragepaths);
+            Configuration.put(DefaultConfSettings.STORAGE_PATHS, vstoragepaths);
+        }
+
         if (Integer.parseInt(cport) < 1024) {
             log.warn("Warning: api port value seems too low.");
         }
@@ -155,6 +226,15 @@ public class IRI {
                 "[{-h}] [{--headless}] " +
                 "[{-d,--debug}] " +
                 "[{-e,--experimental}]" +
+                "[{--transaction-index}]" +
+                "[{--storage-engine} file|memory|log]" +
+                "[{--journal-sync-interval} 100]" +
+                "[{--checkpoint-interval} 60000]" +
+                "[{--flush-interval} 1000]" +
+                "[{--flush-rate} 64]" +
+                "[{--pruning-depth} 0]" +
+                "[{--storage-shards} 1]" +
+                "[{--storage-paths} '<directories>']" +
                 "[{--remote}]" +
                 // + "[{-t,--testnet} false] " // -> TBDiscussed (!)
                 "[{-n,--neighbors} '<list of neighbors>'] ", NAME, VERSION);
@@ -170,7 +250,7 @@ public class IRI {
                 API.instance().shutDown();
                 TipsManager.instance().shutDown();
                 Node.instance().shutdown();
-                Storage.instance().shutdown();
+                StorageProviders.instance().shutdown();
 
             } catch (final Exception e) {
                 log.error("Exception occurred shutting down IOTA node: ", e);
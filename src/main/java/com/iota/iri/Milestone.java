@@ -13,11 +13,10 @@ import com.iota.iri.hash.Curl;
 import com.iota.iri.hash.ISS;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
-import com.iota.iri.service.storage.Storage;
-import com.iota.iri.service.storage.StorageAddresses;
-import com.iota.iri.service.storage.StorageScratchpad;
 import com.iota.iri.service.storage.AbstractStorage;
-import com.iota.iri.service.storage.StorageTransactions;
+import com.iota.iri.service.storage.StorageProviders;
+import com.iota.iri.service.storage.TransactionView;
+import com.iota.iri.service.storage.VisitedSet;
 import com.iota.iri.utils.Converter;
 
 public class Milestone {
@@ -33,15 +32,26 @@ public class Milestone {
     public static int latestSolidSubtangleMilestoneIndex = MILESTONE_START_INDEX;
 
     private static final Set<Long> analyzedMilestoneCandidates = new HashSet<>();
+    private static int numberOfMilestoneCandidates; // Posting lists only grow, an unchanged size means nothing new to analyze
     private static final Map<Integer, Hash> milestones = new ConcurrentHashMap<>();
 
+    public static Hash milestone(final int index) { // Null unless the milestone of "index" was found
+        return milestones.get(index);
+    }
+
     public static void updateLatestMilestone() { // refactor
 
-        for (final Long pointer : StorageAddresses.instance().addressesOf(COORDINATOR)) {
+        final long[] milestoneCandidates = StorageProviders.instance().addressTransactions(COORDINATOR.bytes());
+        if (milestoneCandidates.length == numberOfMilestoneCandidates) {
+            return;
+        }
+        numberOfMilestoneCandidates = milestoneCandidates.length;
+
+        for (final long pointer : milestoneCandidates) {
 
             if (analyzedMilestoneCandidates.add(pointer)) {
 
-                final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
+                final Transaction transaction = StorageProviders.instance().loadTransaction(pointer);
                 if (transaction.currentIndex == 0) {
 
                     final int index = (int) Converter.longValue(transaction.trits(), Transaction.TAG_TRINARY_OFFSET, 15);
@@ -52,7 +62,7 @@ public class Milestone {
 
                             if (bundleTransactions.get(0).pointer == transaction.pointer) {
 
-                                final Transaction transaction2 = StorageTransactions.instance().loadTransaction(transaction.trunkTransactionPointer);
+                                final Transaction transaction2 = StorageProviders.instance().loadTransaction(transaction.trunkTransactionPointer);
                                 if (transaction2.type == AbstractStorage.FILLED_SLOT
                                         && transaction.branchTransactionPointer == transaction2.trunkTransactionPointer) {
 
@@ -104,25 +114,27 @@ public class Milestone {
 
                 boolean solid = true;
 
-                synchronized (StorageScratchpad.instance().getAnalyzedTransactionsFlags()) {
-
-                	StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
+                try (final VisitedSet analyzedTransactions = VisitedSet.acquire()) {
 
                     final Queue<Long> nonAnalyzedTransactions = new LinkedList<>();
-                    nonAnalyzedTransactions.offer(StorageTransactions.instance().transactionPointer(milestone.bytes()));
+                    nonAnalyzedTransactions.offer(StorageProviders.instance().transactionPointer(milestone.bytes()));
+                    final TransactionView transaction2 = new TransactionView();
                     Long pointer;
                     while ((pointer = nonAnalyzedTransactions.poll()) != null) {
 
-                        if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
+                        if (analyzedTransactions.add(pointer) && !Snapshot.solidEntryPoint(pointer)) {
 
-                            final Transaction transaction2 = StorageTransactions.instance().loadTransaction(pointer);
-                            if (transaction2.type == AbstractStorage.PREFILLED_SLOT) {
+                            StorageProviders.instance().loadTransaction(pointer, transaction2);
+                            if (transaction2.type() == AbstractStorage.PREFILLED_SLOT) {
                                 solid = false;
-                                break;
+                                StorageProviders.instance().prioritizeMissingTransaction(pointer);
+                                if (milestoneIndex != latestMilestoneIndex) { // All the holes of the latest milestone get requested first, for older ones one is enough to know they aren't solid
+                                    break;
+                                }
 
                             } else {
-                                nonAnalyzedTransactions.offer(transaction2.trunkTransactionPointer);
-                                nonAnalyzedTransactions.offer(transaction2.branchTransactionPointer);
+                                nonAnalyzedTransactions.offer(transaction2.trunkTransactionPointer());
+                                nonAnalyzedTransactions.offer(transaction2.branchTransactionPointer());
                             }
                         }
                     }
@@ -13,6 +13,10 @@ public class Neighbor {
     private int numberOfNewTransactions;
     private int numberOfInvalidTransactions;
 
+    private int numberOfRequestsInFlight; // Maintained by the RequestScheduler
+    private int numberOfAnsweredRequests;
+    private int numberOfTimedOutRequests;
+
     public Neighbor(final InetSocketAddress address) {
         this.address = address;
     }
@@ -58,6 +62,22 @@ public class Neighbor {
     	numberOfInvalidTransactions++;
     }
     
+    public void incRequestsInFlight() {
+    	numberOfRequestsInFlight++;
+    }
+    
+    public void decRequestsInFlight() {
+    	numberOfRequestsInFlight--;
+    }
+    
+    public void incAnsweredRequests() {
+    	numberOfAnsweredRequests++;
+    }
+    
+    public void incTimedOutRequests() {
+    	numberOfTimedOutRequests++;
+    }
+    
     public int getNumberOfAllTransactions() {
 		return numberOfAllTransactions;
 	}
@@ -69,4 +89,16 @@ public class Neighbor {
     public int getNumberOfNewTransactions() {
 		return numberOfNewTransactions;
 	}
+    
+    public int getNumberOfRequestsInFlight() {
+		return numberOfRequestsInFlight;
+	}
+    
+    public int getNumberOfAnsweredRequests() {
+		return numberOfAnsweredRequests;
+	}
+    
+    public int getNumberOfTimedOutRequests() {
+		return numberOfTimedOutRequests;
+	}
 }
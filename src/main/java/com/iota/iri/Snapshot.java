@@ -1,14 +1,284 @@
 package com.iota.iri;
 
-import com.iota.iri.model.Hash;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.service.storage.AbstractStorage;
+import com.iota.iri.service.storage.StorageProviders;
+import com.iota.iri.service.storage.TransactionView;
+import com.iota.iri.service.storage.VisitedSet;
 
+/**
+ * Ledger state the traversals of the tangle start from.
+ *
+ * {@link #initialState} is the state of the genesis. With "--pruning-depth" set, the milestone tracker takes a
+ * local snapshot whenever the latest solid milestone is that many milestones past the previous one: the state once
+ * every transaction confirmed by the milestone is applied, saved into local.snapshot, and the solid entry points,
+ * the confirmed transactions which are still approved by unconfirmed ones (and the milestone itself). Every path
+ * from a newer transaction into the confirmed ones goes through a solid entry point, so traversals stop there and
+ * the other confirmed transactions are pruned from the storage.
+ */
 public class Snapshot {
 
+    private static final Logger log = LoggerFactory.getLogger(Snapshot.class);
+
+    private static final String LOCAL_SNAPSHOT_FILE_NAME = "local.snapshot";
+    private static final long MAGIC = 0x495249534e415031L; // "IRISNAP1"
+
     public static final Map<Hash, Long> initialState = new HashMap<>();
 
+    private static final class LocalSnapshot {
+
+        final int index;
+        final Hash milestone;
+        final Map<Hash, Long> state;
+        final Set<Hash> solidEntryPoints;
+        final Set<Long> solidEntryPointPointers; // Only valid until the storage is compacted, i.e. for the current run
+
+        LocalSnapshot(final int index, final Hash milestone, final Map<Hash, Long> state, final Set<Hash> solidEntryPoints, final Set<Long> solidEntryPointPointers) {
+            this.index = index;
+            this.milestone = milestone;
+            this.state = state;
+            this.solidEntryPoints = solidEntryPoints;
+            this.solidEntryPointPointers = solidEntryPointPointers;
+        }
+    }
+
+    private static volatile LocalSnapshot localSnapshot = new LocalSnapshot(Milestone.MILESTONE_START_INDEX, Hash.NULL_HASH, initialState, Collections.emptySet(), Collections.emptySet());
+
+    public static Map<Hash, Long> state() { // Of the latest local snapshot, or the initial one, not to be modified
+        return localSnapshot.state;
+    }
+
+    public static int index() {
+        return localSnapshot.index;
+    }
+
+    public static boolean solidEntryPoint(final long pointer) { // Confirmed by the latest local snapshot, traversals don't go past it
+        return localSnapshot.solidEntryPointPointers.contains(pointer);
+    }
+
+    public static void init() throws IOException { // Loads the latest local snapshot once the storage is initialized
+
+        final Path path = path();
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+            if (input.readLong() != MAGIC) {
+                throw new IOException("Not a local snapshot: " + path);
+            }
+            final int index = input.readInt();
+            final Hash milestone = readHash(input);
+            final Map<Hash, Long> state = new HashMap<>();
+            for (int i = input.readInt(); i > 0; i--) {
+                state.put(readHash(input), input.readLong());
+            }
+            final Set<Hash> solidEntryPoints = new HashSet<>();
+            for (int i = input.readInt(); i > 0; i--) {
+                solidEntryPoints.add(readHash(input));
+            }
+
+            final Set<Long> solidEntryPointPointers = new HashSet<>();
+            for (final Hash solidEntryPoint : solidEntryPoints) {
+                long pointer = StorageProviders.instance().transactionPointer(solidEntryPoint.bytes());
+                if (pointer == 0) { // An engine which doesn't persist anything, it gets requested
+                    pointer = StorageProviders.instance().storeTransaction(solidEntryPoint.bytes(), null, false);
+                }
+                solidEntryPointPointers.add(Math.abs(pointer));
+            }
+            localSnapshot = new LocalSnapshot(index, milestone, state, solidEntryPoints, solidEntryPointPointers);
+
+            if (index > Milestone.latestSolidSubtangleMilestoneIndex) {
+                Milestone.latestMilestone = Milestone.latestSolidSubtangleMilestone = milestone;
+                Milestone.latestMilestoneIndex = Milestone.latestSolidSubtangleMilestoneIndex = index;
+            }
+            log.info("Local snapshot of milestone #{} loaded, {} addresses, {} solid entry points", index, state.size(), solidEntryPoints.size());
+        }
+    }
+
+    public static void update(final int latestSolidSubtangleMilestoneIndex) throws IOException { // Called by the milestone tracker
+
+        final int depth = Configuration.integer(DefaultConfSettings.PRUNING_DEPTH);
+        if (depth <= 0) {
+            return;
+        }
+        final LocalSnapshot previous = localSnapshot;
+        for (int index = latestSolidSubtangleMilestoneIndex - depth; index > previous.index; index--) {
+            final Hash milestone = Milestone.milestone(index);
+            if (milestone != null) {
+                take(index, milestone, previous);
+                return;
+            }
+        }
+    }
+
+    private static void take(final int index, final Hash milestone, final LocalSnapshot previous) throws IOException {
+
+        final long beginningTime = System.currentTimeMillis();
+        final long milestonePointer = StorageProviders.instance().transactionPointer(milestone.bytes());
+        final Map<Hash, Long> state = new HashMap<>(previous.state);
+        final Set<Hash> solidEntryPoints = new HashSet<>();
+        final Set<Long> solidEntryPointPointers = new HashSet<>();
+        final List<Long> prunedPointers = new ArrayList<>();
+
+        try (final VisitedSet confirmedTransactions = VisitedSet.acquire()) {
+
+            final List<Long> confirmedPointers = new ArrayList<>();
+            final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(milestonePointer));
+            final TransactionView transaction = new TransactionView();
+            Long pointer;
+            while ((pointer = nonAnalyzedTransactions.poll()) != null) {
+
+                if (confirmedTransactions.add(pointer)) {
+
+                    confirmedPointers.add(pointer);
+                    if (previous.solidEntryPointPointers.contains(pointer)) { // Applied by the previous snapshot already
+                        continue;
+                    }
+
+                    StorageProviders.instance().loadTransaction(pointer, transaction);
+                    if (transaction.type() == AbstractStorage.PREFILLED_SLOT) {
+                        log.warn("Milestone #{} is not solid, no local snapshot taken", index);
+                        return;
+                    }
+                    if (transaction.currentIndex() == 0 && !apply(transaction, state)) {
+                        log.error("Milestone #{} confirms an invalid bundle, no local snapshot taken", index);
+                        return;
+                    }
+                    nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer());
+                    nonAnalyzedTransactions.offer(transaction.branchTransactionPointer());
+                }
+            }
+
+            final Iterator<Map.Entry<Hash, Long>> stateIterator = state.entrySet().iterator();
+            while (stateIterator.hasNext()) {
+
+                final Map.Entry<Hash, Long> entry = stateIterator.next();
+                if (entry.getValue() <= 0) {
+
+                    if (entry.getValue() < 0) {
+                        log.error("Ledger inconsistency detected at milestone #{}, no local snapshot taken", index);
+                        return;
+                    }
+                    stateIterator.remove();
+                }
+            }
+
+            for (final long confirmedPointer : confirmedPointers) {
+
+                final Hash hash = StorageProviders.instance().loadTransaction(confirmedPointer, transaction).hash();
+                final long[] approvers = StorageProviders.instance().approveeTransactions(hash.bytes());
+                boolean solidEntryPoint = confirmedPointer == milestonePointer;
+                for (int i = 0; !solidEntryPoint && i < approvers.length; i++) {
+                    solidEntryPoint = !confirmedTransactions.contains(approvers[i]);
+                }
+                if (solidEntryPoint) {
+                    solidEntryPoints.add(hash);
+                    solidEntryPointPointers.add(confirmedPointer);
+                } else {
+                    prunedPointers.add(confirmedPointer);
+                }
+            }
+            for (final Hash solidEntryPoint : previous.solidEntryPoints) { // Still only approved by unconfirmed transactions
+                final long solidEntryPointPointer = Math.abs(StorageProviders.instance().transactionPointer(solidEntryPoint.bytes()));
+                if (!confirmedTransactions.contains(solidEntryPointPointer)) {
+                    solidEntryPoints.add(solidEntryPoint);
+                    solidEntryPointPointers.add(solidEntryPointPointer);
+                }
+            }
+        }
+
+        final LocalSnapshot snapshot = new LocalSnapshot(index, milestone, state, solidEntryPoints, solidEntryPointPointers);
+        save(snapshot); // Before anything is pruned
+        StorageProviders.instance().prune(prunedPointers.stream().mapToLong(Long::longValue).toArray());
+        localSnapshot = snapshot;
+
+        log.info("Local snapshot of milestone #{} taken in {} ms, {} addresses, {} solid entry points, {} transactions pruned",
+                index, System.currentTimeMillis() - beginningTime, state.size(), solidEntryPoints.size(), prunedPointers.size());
+    }
+
+    private static boolean apply(final TransactionView tail, final Map<Hash, Long> state) { // False if the bundle is invalid
+
+        final Bundle bundle = new Bundle(tail.bundle().bytes());
+        for (final List<Transaction> bundleTransactions : bundle.getTransactions()) {
+
+            if (bundleTransactions.get(0).pointer == tail.pointer()) {
+
+                bundleTransactions.stream().filter(bundleTransaction -> bundleTransaction.value != 0).forEach(bundleTransaction -> {
+                    final Hash address = new Hash(bundleTransaction.address);
+                    final Long value = state.get(address);
+                    state.put(address, value == null ? bundleTransaction.value : (value + bundleTransaction.value));
+                });
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void save(final LocalSnapshot snapshot) throws IOException { // Written aside, forced, then moved over the former one
+
+        final Path path = path(), temporaryPath = path.resolveSibling(LOCAL_SNAPSHOT_FILE_NAME + ".tmp");
+        try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+
+            output.writeLong(MAGIC);
+            output.writeInt(snapshot.index);
+            output.write(snapshot.milestone.bytes());
+            output.writeInt(snapshot.state.size());
+            for (final Map.Entry<Hash, Long> entry : snapshot.state.entrySet()) {
+                output.write(entry.getKey().bytes());
+                output.writeLong(entry.getValue());
+            }
+            output.writeInt(snapshot.solidEntryPoints.size());
+            for (final Hash solidEntryPoint : snapshot.solidEntryPoints) {
+                output.write(solidEntryPoint.bytes());
+            }
+        }
+        try (final FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Hash readHash(final DataInputStream input) throws IOException {
+
+        final byte[] bytes = new byte[Hash.SIZE_IN_BYTES];
+        input.readFully(bytes);
+        return new Hash(bytes);
+    }
+
+    private static Path path() {
+        return Paths.get(Configuration.string(DefaultConfSettings.DB_PATH), LOCAL_SNAPSHOT_FILE_NAME);
+    }
+
     static {
 
         initialState.put(Hash.NULL_HASH, 1096393528376314L);
@@ -26,6 +26,16 @@ public class Configuration {
         REMOTEAPILIMIT,
         NEIGHBORS,
         DEBUG,
+        DB_PATH,
+        TRANSACTION_INDEX,
+        STORAGE_ENGINE,
+        JOURNAL_SYNC_INTERVAL, // ms between the fsyncs of the storage journal, 0 for one per store
+        CHECKPOINT_INTERVAL, // ms between the storage checkpoints, 0 for none until shutdown
+        FLUSH_INTERVAL, // ms between the passes of the storage flusher
+        FLUSH_RATE, // MB/s of dirty pages the storage flusher forces at most, 0 to leave them to the OS until the checkpoints
+        PRUNING_DEPTH, // milestones below the latest solid one at which a local snapshot is taken and older transactions pruned, 0 to keep everything
+        STORAGE_SHARDS, // files transactions.iri is split into by the first byte of the hashes, a power of 2, each holds up to 1 / shards of the ~1 billion transactions the storage can
+        STORAGE_PATHS, // comma separated directories the storage shards are spread over, the database directory if empty
         EXPERIMENTAL // experimental features.
     }
 
@@ -39,6 +49,16 @@ public class Configuration {
         conf.put(DefaultConfSettings.HEADLESS.name(), "false");
         conf.put(DefaultConfSettings.DEBUG.name(), "false");
         conf.put(DefaultConfSettings.REMOTEAPILIMIT.name(), "");
+        conf.put(DefaultConfSettings.DB_PATH.name(), "");
+        conf.put(DefaultConfSettings.TRANSACTION_INDEX.name(), "false");
+        conf.put(DefaultConfSettings.STORAGE_ENGINE.name(), "file");
+        conf.put(DefaultConfSettings.JOURNAL_SYNC_INTERVAL.name(), "100");
+        conf.put(DefaultConfSettings.CHECKPOINT_INTERVAL.name(), "60000");
+        conf.put(DefaultConfSettings.FLUSH_INTERVAL.name(), "1000");
+        conf.put(DefaultConfSettings.FLUSH_RATE.name(), "64");
+        conf.put(DefaultConfSettings.PRUNING_DEPTH.name(), "0");
+        conf.put(DefaultConfSettings.STORAGE_SHARDS.name(), "1");
+        conf.put(DefaultConfSettings.STORAGE_PATHS.name(), "");
         conf.put(DefaultConfSettings.EXPERIMENTAL.name(), "false");
     }
 
@@ -3,6 +3,7 @@ package com.iota.iri.model;
 import com.iota.iri.hash.Curl;
 import com.iota.iri.utils.Converter;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class Hash {
@@ -22,6 +23,14 @@ public class Hash {
         hashCode = Arrays.hashCode(this.bytes);
     }
 
+    public Hash(final ByteBuffer buffer, final int offset, final int size) { // Absolute reads, the position of a shared buffer is left alone
+        this.bytes = new byte[SIZE_IN_BYTES];
+        for (int i = 0; i < size; i++) {
+            this.bytes[i] = buffer.get(offset + i);
+        }
+        hashCode = Arrays.hashCode(this.bytes);
+    }
+
     public Hash(final byte[] bytes) {
         this(bytes, 0, SIZE_IN_BYTES);
     }
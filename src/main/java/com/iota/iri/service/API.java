@@ -10,16 +10,15 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -42,13 +41,11 @@ import com.iota.iri.hash.Curl;
 import com.iota.iri.hash.PearlDiver;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
+import com.iota.iri.service.storage.PointerCursor;
 import com.iota.iri.service.storage.Storage;
-import com.iota.iri.service.storage.StorageAddresses;
-import com.iota.iri.service.storage.StorageApprovers;
-import com.iota.iri.service.storage.StorageBundle;
-import com.iota.iri.service.storage.StorageScratchpad;
-import com.iota.iri.service.storage.StorageTags;
-import com.iota.iri.service.storage.StorageTransactions;
+import com.iota.iri.service.storage.StorageProviders;
+import com.iota.iri.service.storage.TransactionView;
+import com.iota.iri.service.storage.VisitedSet;
 import com.iota.iri.utils.Converter;
 
 import io.undertow.Undertow;
@@ -101,7 +98,7 @@ public class API {
         sendResponse(exchange, response, beginningTime);
     }
 
-    private AbstractResponse process(final String requestString, InetSocketAddress sourceAddress) throws UnsupportedEncodingException {
+    AbstractResponse process(final String requestString, InetSocketAddress sourceAddress) throws UnsupportedEncodingException {
 
         try {
 
@@ -173,8 +170,17 @@ public class API {
                             Runtime.getRuntime().totalMemory(), Milestone.latestMilestone, Milestone.latestMilestoneIndex,
                             Milestone.latestSolidSubtangleMilestone, Milestone.latestSolidSubtangleMilestoneIndex,
                             Node.instance().howManyNeighbors(), Node.instance().queuedTransactionsSize(),
-                            System.currentTimeMillis(), StorageTransactions.instance().tips().size(),
-                            StorageScratchpad.instance().getNumberOfTransactionsToRequest());
+                            System.currentTimeMillis(), StorageProviders.instance().numberOfTips(),
+                            StorageProviders.instance().numberOfMissingTransactions(),
+                            RequestScheduler.instance().getNumberOfRequestsInFlight(), RequestScheduler.instance().getNumberOfAnsweredRequests(),
+                            RequestScheduler.instance().getNumberOfTimedOutRequests(), RequestScheduler.instance().getNumberOfDuplicatedRequests());
+                }
+                case "getStorageInfo": {
+                    return GetStorageInfoResponse.create(StorageProviders.instance().transactionsFilterMemory(),
+                            StorageProviders.instance().transactionsFilterRejections(),
+                            StorageProviders.instance().transactionsFilterFalsePositiveRate(),
+                            StorageProviders.instance().dirtyBytes(), StorageProviders.instance().flushedBytes(),
+                            StorageProviders.instance().averageFlushLatency(), StorageProviders.instance().maxFlushLatency());
                 }
                 case "getTips": {
                     return getTipsStatement();
@@ -235,7 +241,7 @@ public class API {
     private AbstractResponse getTrytesStatement(List<String> hashes) {
         final List<String> elements = new LinkedList<>();
         for (final String hash : hashes) {
-            final Transaction transaction = StorageTransactions.instance().loadTransaction((new Hash(hash)).bytes());
+            final Transaction transaction = StorageProviders.instance().loadTransaction((new Hash(hash)).bytes());
             if (transaction != null) {
                 elements.add(Converter.trytes(transaction.trits()));
             }
@@ -257,14 +263,15 @@ public class API {
 
     private AbstractResponse getTipsStatement() {
         return GetTipsResponse.create(
-                StorageTransactions.instance().tips().stream().map(Hash::toString).collect(Collectors.toList()));
+                StorageProviders.instance().tips().stream().map(Hash::toString).collect(Collectors.toList()));
     }
 
     private AbstractResponse storeTransactionStatement(final List<String> trys) {
+        final List<Transaction> transactions = new ArrayList<>(trys.size());
         for (final String trytes : trys) {
-            final Transaction transaction = new Transaction(Converter.trits(trytes));
-            StorageTransactions.instance().storeTransaction(transaction.hash, transaction, false);
+            transactions.add(new Transaction(Converter.trits(trytes)));
         }
+        StorageProviders.instance().storeTransactions(transactions);
         return AbstractResponse.createEmptyResponse();
     }
 
@@ -280,14 +287,12 @@ public class API {
         int numberOfNonMetTransactions = transactions.size();
         final boolean[] inclusionStates = new boolean[numberOfNonMetTransactions];
 
-        synchronized (StorageScratchpad.instance().getAnalyzedTransactionsFlags()) {
-
-            StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
+        try (final VisitedSet analyzedTransactions = VisitedSet.acquire()) {
 
             final Queue<Long> nonAnalyzedTransactions = new LinkedList<>();
             for (final Hash tip : tips) {
 
-                final long pointer = StorageTransactions.instance().transactionPointer(tip.bytes());
+                final long pointer = StorageProviders.instance().transactionPointer(tip.bytes());
                 if (pointer <= 0) {
                     return ErrorResponse.create("One of the tips absents");
                 }
@@ -295,18 +300,19 @@ public class API {
             }
 
             {
+                final TransactionView transaction = new TransactionView();
                 Long pointer;
                 MAIN_LOOP:
                 while ((pointer = nonAnalyzedTransactions.poll()) != null) {
 
-                    if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
+                    if (analyzedTransactions.add(pointer) && !Snapshot.solidEntryPoint(pointer)) { // The transactions below the local snapshot may be pruned
 
-                        final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-                        if (transaction.type == Storage.PREFILLED_SLOT) {
+                        StorageProviders.instance().loadTransaction(pointer, transaction);
+                        if (transaction.type() == Storage.PREFILLED_SLOT) {
                             return ErrorResponse.create("The subtangle is not solid");
                         } else {
 
-                            final Hash transactionHash = new Hash(transaction.hash, 0, Transaction.HASH_SIZE);
+                            final Hash transactionHash = transaction.hash();
                             for (int i = 0; i < inclusionStates.length; i++) {
 
                                 if (!inclusionStates[i] && transactionHash.equals(transactions.get(i))) {
@@ -318,8 +324,8 @@ public class API {
                                     }
                                 }
                             }
-                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
+                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer());
+                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer());
                         }
                     }
                 }
@@ -329,72 +335,80 @@ public class API {
     }
 
     private AbstractResponse findTransactionStatement(final Map<String, Object> request) {
-        final Set<Long> bundlesTransactions = new HashSet<>();
+        final List<PointerCursor> criteria = new ArrayList<>(); // One union of cursors per field, intersected
         if (request.containsKey("bundles")) {
+            final List<PointerCursor> bundlesTransactions = new ArrayList<>();
             for (final String bundle : (List<String>) request.get("bundles")) {
-                bundlesTransactions.addAll(StorageBundle.instance()
-                        .bundleTransactions(StorageBundle.instance().bundlePointer((new Hash(bundle)).bytes())));
+                bundlesTransactions.add(StorageProviders.instance()
+                        .bundleTransactionsCursor((new Hash(bundle)).bytes()));
             }
+            addCriterion(criteria, bundlesTransactions);
         }
 
-        final Set<Long> addressesTransactions = new HashSet<>();
         if (request.containsKey("addresses")) {
             final List<String> addresses = (List<String>) request.get("addresses");
             log.debug("Searching: {}", addresses.stream().reduce((a, b) -> a += ',' + b));
 
+            final List<PointerCursor> addressesTransactions = new ArrayList<>();
             for (final String address : addresses) {
                 if (address.length() != 81) {
                     log.error("Address {} doesn't look a valid address", address);
                 }
-                addressesTransactions.addAll(StorageAddresses.instance()
-                        .addressTransactions(StorageAddresses.instance().addressPointer((new Hash(address)).bytes())));
+                addressesTransactions.add(StorageProviders.instance()
+                        .addressTransactionsCursor((new Hash(address)).bytes()));
             }
+            addCriterion(criteria, addressesTransactions);
         }
 
-        final Set<Long> tagsTransactions = new HashSet<>();
         if (request.containsKey("tags")) {
+            final List<PointerCursor> tagsTransactions = new ArrayList<>();
             for (String tag : (List<String>) request.get("tags")) {
                 while (tag.length() < Curl.HASH_LENGTH / Converter.NUMBER_OF_TRITS_IN_A_TRYTE) {
                     tag += Converter.TRYTE_ALPHABET.charAt(0);
                 }
-                tagsTransactions.addAll(StorageTags.instance()
-                        .tagTransactions(StorageTags.instance().tagPointer((new Hash(tag)).bytes())));
+                tagsTransactions.add(StorageProviders.instance()
+                        .tagTransactionsCursor((new Hash(tag)).bytes()));
             }
+            addCriterion(criteria, tagsTransactions);
         }
 
-        final Set<Long> approveeTransactions = new HashSet<>();
-
         if (request.containsKey("approvees")) {
+            final List<PointerCursor> approveeTransactions = new ArrayList<>();
             for (final String approvee : (List<String>) request.get("approvees")) {
-                approveeTransactions.addAll(StorageApprovers.instance().approveeTransactions(
-                        StorageApprovers.instance().approveePointer((new Hash(approvee)).bytes())));
+                approveeTransactions.add(StorageProviders.instance().approveeTransactionsCursor(
+                        (new Hash(approvee)).bytes()));
             }
+            addCriterion(criteria, approveeTransactions);
         }
 
-        // need refactoring
-        final Set<Long> foundTransactions = bundlesTransactions.isEmpty() ? (addressesTransactions.isEmpty()
-                ? (tagsTransactions.isEmpty()
-                ? (approveeTransactions.isEmpty() ? new HashSet<>() : approveeTransactions) : tagsTransactions)
-                : addressesTransactions) : bundlesTransactions;
-
-        if (!addressesTransactions.isEmpty()) {
-            foundTransactions.retainAll(addressesTransactions);
-        }
-        if (!tagsTransactions.isEmpty()) {
-            foundTransactions.retainAll(tagsTransactions);
-        }
-        if (!approveeTransactions.isEmpty()) {
-            foundTransactions.retainAll(approveeTransactions);
+        final int offset = request.containsKey("offset") ? ((Double) request.get("offset")).intValue() : 0;
+        final int limit = request.containsKey("limit") ? ((Double) request.get("limit")).intValue() : Integer.MAX_VALUE;
+        if (offset < 0 || limit < 0) {
+            return ErrorResponse.create("Illegal 'offset' or 'limit'");
         }
 
-        final List<String> elements = foundTransactions.stream()
-                .map(pointer -> new Hash(StorageTransactions.instance().loadTransaction(pointer).hash, 0,
-                        Transaction.HASH_SIZE).toString())
-                .collect(Collectors.toCollection(LinkedList::new));
+        final PointerCursor foundTransactions = PointerCursor.intersection(criteria);
+        final TransactionView transactionView = new TransactionView();
+        final List<String> elements = new LinkedList<>();
+        int skipped = 0;
+        for (long pointer = foundTransactions.seek(1); pointer != 0 && elements.size() < limit; pointer = foundTransactions.next()) {
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                elements.add(StorageProviders.instance().loadTransaction(pointer, transactionView).hash().toString());
+            }
+        }
 
         return FindTransactionsResponse.create(elements);
     }
 
+    private static void addCriterion(final List<PointerCursor> criteria, final List<PointerCursor> cursors) {
+        final PointerCursor cursor = PointerCursor.union(cursors);
+        if (cursor.seek(1) != 0) { // A field matching nothing doesn't filter
+            criteria.add(cursor);
+        }
+    }
+
     private AbstractResponse broadcastTransactionStatement(final List<String> trytes2) {
         for (final String tryte : trytes2) {
             final Transaction transaction = new Transaction(Converter.trits(tryte));
@@ -416,36 +430,36 @@ public class API {
         final Map<Hash, Long> balances = new HashMap<>();
         for (final Hash address : addresses) {
             balances.put(address,
-                    Snapshot.initialState.containsKey(address) ? Snapshot.initialState.get(address) : Long.valueOf(0));
+                    Snapshot.state().containsKey(address) ? Snapshot.state().get(address) : Long.valueOf(0));
         }
 
         final Hash milestone = Milestone.latestSolidSubtangleMilestone;
         final int milestoneIndex = Milestone.latestSolidSubtangleMilestoneIndex;
 
-        synchronized (StorageScratchpad.instance().getAnalyzedTransactionsFlags()) {
-
-            StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
+        try (final VisitedSet analyzedTransactions = VisitedSet.acquire()) {
 
             final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(
-                    Collections.singleton(StorageTransactions.instance().transactionPointer(milestone.bytes())));
+                    Collections.singleton(StorageProviders.instance().transactionPointer(milestone.bytes())));
+            final TransactionView transaction = new TransactionView();
             Long pointer;
             while ((pointer = nonAnalyzedTransactions.poll()) != null) {
 
-                if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
+                if (analyzedTransactions.add(pointer) && !Snapshot.solidEntryPoint(pointer)) { // Its value and the ones below are in the snapshot state
 
-                    final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
+                    StorageProviders.instance().loadTransaction(pointer, transaction);
 
-                    if (transaction.value != 0) {
+                    final long value = transaction.value();
+                    if (value != 0) {
 
-                        final Hash address = new Hash(transaction.address, 0, Transaction.ADDRESS_SIZE);
+                        final Hash address = transaction.address();
                         final Long balance = balances.get(address);
                         if (balance != null) {
 
-                            balances.put(address, balance + transaction.value);
+                            balances.put(address, balance + value);
                         }
                     }
-                    nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                    nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
+                    nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer());
+                    nonAnalyzedTransactions.offer(transaction.branchTransactionPointer());
                 }
             }
         }
@@ -22,7 +22,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
-import com.iota.iri.model.Hash;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,9 +32,8 @@ import com.iota.iri.conf.Configuration;
 import com.iota.iri.conf.Configuration.DefaultConfSettings;
 import com.iota.iri.hash.Curl;
 import com.iota.iri.model.Transaction;
-import com.iota.iri.service.storage.Storage;
-import com.iota.iri.service.storage.StorageScratchpad;
-import com.iota.iri.service.storage.StorageTransactions;
+import com.iota.iri.service.storage.IStorageProvider;
+import com.iota.iri.service.storage.StorageProviders;
 
 /**
  * The class node is responsible for managing Thread's connection.
@@ -191,9 +189,10 @@ public class Node {
                                     neighbor.incAllTransactions();
                                     final Transaction receivedTransaction = new Transaction(receivingPacket.getData(),
                                             receivedTransactionTrits, curl);
-                                    if (StorageTransactions.instance().storeTransaction(receivedTransaction.hash,
+                                    if (StorageProviders.instance().storeTransaction(receivedTransaction.hash,
                                             receivedTransaction, false) != 0) {
                                         neighbor.incNewTransactions();
+                                        RequestScheduler.instance().transactionReceived(neighbor, receivedTransaction.hash);
                                         broadcast(receivedTransaction);
                                     }
 
@@ -206,27 +205,21 @@ public class Node {
                                                 ++randomTipBroadcastCounter % 3 == 0) {
                                             log.info("Experimental: Random Tip Broadcaster.");
 
-                                            final String [] tips = StorageTransactions.instance().tips().stream()
-                                                    .map(Hash::toString)
-                                                    .toArray(size -> new String[size]);
-                                            final String rndTipHash = tips[rnd.nextInt(tips.length)];
-
-                                            transactionPointer = StorageTransactions.instance()
-                                                    .transactionPointer(rndTipHash.getBytes());
+                                            transactionPointer = StorageProviders.instance().randomTipPointer(rnd);
                                         } else {
-                                            transactionPointer = StorageTransactions.instance()
+                                            transactionPointer = StorageProviders.instance()
                                                     .transactionPointer(Milestone.latestMilestone.bytes());
                                         }
                                     } else {
-                                        transactionPointer = StorageTransactions.instance().transactionPointer(requestedTransaction);
+                                        transactionPointer = StorageProviders.instance().transactionPointer(requestedTransaction);
                                     }
-                                    if (transactionPointer > Storage.CELLS_OFFSET - Storage.SUPER_GROUPS_OFFSET) {
+                                    if (transactionPointer > IStorageProvider.NULL_TRANSACTION_POINTER) {
                                         synchronized (sendingPacket) {
                                             System.arraycopy(
-                                                    StorageTransactions.instance()
+                                                    StorageProviders.instance()
                                                             .loadTransaction(transactionPointer).bytes,
                                                     0, sendingPacket.getData(), 0, Transaction.SIZE);
-                                            StorageScratchpad.instance().transactionToRequest(sendingPacket.getData(),
+                                            RequestScheduler.instance().transactionToRequest(neighbor, sendingPacket.getData(),
                                                     Transaction.SIZE);
                                             neighbor.send(sendingPacket);
                                         }
@@ -265,7 +258,7 @@ public class Node {
                                 synchronized (sendingPacket) {
                                     System.arraycopy(transaction.bytes, 0, sendingPacket.getData(), 0,
                                             Transaction.SIZE);
-                                    StorageScratchpad.instance().transactionToRequest(sendingPacket.getData(),
+                                    RequestScheduler.instance().transactionToRequest(neighbor, sendingPacket.getData(),
                                             Transaction.SIZE);
                                     neighbor.send(sendingPacket);
                                 }
@@ -291,13 +284,15 @@ public class Node {
             while (!shuttingDown.get()) {
 
                 try {
-                    final Transaction transaction = StorageTransactions.instance()
-                            .loadMilestone(Milestone.latestMilestone);
-                    System.arraycopy(transaction.bytes, 0, tipRequestingPacket.getData(), 0, Transaction.SIZE);
-                    System.arraycopy(transaction.hash, 0, tipRequestingPacket.getData(), Transaction.SIZE,
-                            Transaction.HASH_SIZE);
+                    final Transaction transaction = StorageProviders.instance()
+                            .loadTransaction(Milestone.latestMilestone.bytes());
+                    if (transaction != null) {
+                        System.arraycopy(transaction.bytes, 0, tipRequestingPacket.getData(), 0, Transaction.SIZE);
+                        System.arraycopy(transaction.hash, 0, tipRequestingPacket.getData(), Transaction.SIZE,
+                                Transaction.HASH_SIZE);
 
-                    neighbors.forEach(n -> n.send(tipRequestingPacket));
+                        neighbors.forEach(n -> n.send(tipRequestingPacket));
+                    }
 
                     Thread.sleep(5000);
                 } catch (final Exception e) {
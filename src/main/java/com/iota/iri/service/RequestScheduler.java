@@ -0,0 +1,189 @@
+package com.iota.iri.service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import com.iota.iri.Neighbor;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.service.storage.StorageProviders;
+
+/**
+ * Decides which missing transaction each outgoing packet asks its neighbor for.
+ *
+ * Every request is remembered with the neighbor it went to. A hash isn't asked for again while a request
+ * for it is in flight, a request which isn't answered within {@link #REQUEST_TIMEOUT} ms times out and the
+ * hash waits for an exponentially growing backoff before it is retried, preferably with another neighbor.
+ * Neighbors which answer get more requests in flight than the ones which let them time out. A hash which
+ * arrives is forgotten right away, one which is no longer asked for (e.g. stored through the API meanwhile)
+ * is forgotten {@link #FORGET_DELAY} ms after its last timeout.
+ */
+public class RequestScheduler {
+
+    private static final RequestScheduler instance = new RequestScheduler(System::currentTimeMillis,
+            (buffer, offset) -> StorageProviders.instance().transactionToRequest(buffer, offset), () -> Node.instance().howManyNeighbors());
+
+    private static final long REQUEST_TIMEOUT = 2000;
+    private static final long MIN_BACKOFF = 2000, MAX_BACKOFF = 5 * 60 * 1000;
+    private static final long FORGET_DELAY = 2 * MAX_BACKOFF; // After a timeout, longer than any backoff
+    private static final int MIN_REQUESTS_IN_FLIGHT = 4, MAX_REQUESTS_IN_FLIGHT = 64; // Per neighbor
+    private static final int MAX_CANDIDATES = 8; // Missing hashes looked at per packet
+
+    private static class Request {
+
+        final Hash hash;
+        Neighbor neighbor; // Null unless the request is in flight
+        Neighbor previousNeighbor;
+        long sendingTime;
+        long retryTime;
+        int numberOfAttempts;
+
+        Request(final Hash hash) {
+            this.hash = hash;
+        }
+    }
+
+    private static class Timeout { // Of one attempt, the request may have been sent again since
+
+        final Request request;
+        final long time;
+
+        Timeout(final Request request, final long time) {
+            this.request = request;
+            this.time = time;
+        }
+    }
+
+    interface Source { // Of the missing hashes, the storage outside of the tests
+
+        boolean transactionToRequest(byte[] buffer, int offset); // False if none is missing
+    }
+
+    private final LongSupplier clock;
+    private final Source source;
+    private final IntSupplier numberOfNeighbors;
+
+    private final Map<Hash, Request> requests = new HashMap<>();
+    // In the order of their sending and timeout times, so only the heads are ever looked at. A request which was answered
+    // or sent again meanwhile is skipped when it comes out.
+    private final ArrayDeque<Request> requestsInFlight = new ArrayDeque<>();
+    private final ArrayDeque<Timeout> timeouts = new ArrayDeque<>();
+    private final byte[] candidate = new byte[Transaction.HASH_SIZE];
+
+    private int numberOfRequestsInFlight;
+    private long numberOfAnsweredRequests, numberOfTimedOutRequests, numberOfDuplicatedRequests;
+
+    RequestScheduler(final LongSupplier clock, final Source source, final IntSupplier numberOfNeighbors) {
+        this.clock = clock;
+        this.source = source;
+        this.numberOfNeighbors = numberOfNeighbors;
+    }
+
+    public synchronized void transactionToRequest(final Neighbor neighbor, final byte[] buffer, final int offset) {
+
+        final long now = clock.getAsLong();
+        expire(now);
+
+        if (neighbor.getNumberOfRequestsInFlight() < maxRequestsInFlight(neighbor)) {
+
+            for (int i = 0; i < MAX_CANDIDATES && source.transactionToRequest(candidate, 0); i++) {
+
+                final Hash hash = new Hash(candidate, 0, Transaction.HASH_SIZE);
+                Request request = requests.get(hash);
+                if (request == null) {
+                    requests.put(hash, request = new Request(hash));
+                } else if (request.neighbor != null || request.retryTime > now
+                        || (request.previousNeighbor == neighbor && numberOfNeighbors.getAsInt() > 1)) {
+                    continue;
+                } else {
+                    numberOfDuplicatedRequests++;
+                }
+
+                request.neighbor = request.previousNeighbor = neighbor;
+                request.sendingTime = now;
+                request.numberOfAttempts++;
+                requestsInFlight.add(request);
+                neighbor.incRequestsInFlight();
+                numberOfRequestsInFlight++;
+
+                System.arraycopy(candidate, 0, buffer, offset, Transaction.HASH_SIZE);
+                return;
+            }
+        }
+
+        System.arraycopy(Hash.NULL_HASH.bytes(), 0, buffer, offset, Transaction.HASH_SIZE);
+    }
+
+    public synchronized void transactionReceived(final Neighbor neighbor, final byte[] hash) { // From whoever sends it, only the neighbor it was asked from is credited
+
+        final Request request = requests.remove(new Hash(hash, 0, Transaction.HASH_SIZE));
+        if (request != null && request.neighbor != null) {
+
+            if (neighbor == request.neighbor) {
+                neighbor.incAnsweredRequests();
+                numberOfAnsweredRequests++;
+            }
+            request.neighbor.decRequestsInFlight();
+            request.neighbor = null;
+            numberOfRequestsInFlight--;
+        }
+    }
+
+    private static int maxRequestsInFlight(final Neighbor neighbor) { // Scales with the share of answered requests, new neighbors get the benefit of the doubt
+
+        final long answered = neighbor.getNumberOfAnsweredRequests(), timedOut = neighbor.getNumberOfTimedOutRequests();
+        return (int) (MIN_REQUESTS_IN_FLIGHT + (MAX_REQUESTS_IN_FLIGHT - MIN_REQUESTS_IN_FLIGHT) * (answered + 1) / (answered + timedOut + 1));
+    }
+
+    private void expire(final long now) {
+
+        Request request;
+        while ((request = requestsInFlight.peek()) != null && now - request.sendingTime >= REQUEST_TIMEOUT) {
+
+            requestsInFlight.poll();
+            if (request.neighbor != null) { // Not answered, a request is only queued again once it timed out
+
+                request.neighbor.decRequestsInFlight();
+                request.neighbor.incTimedOutRequests();
+                request.neighbor = null;
+                request.retryTime = now + Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(request.numberOfAttempts - 1, 16));
+                timeouts.add(new Timeout(request, now));
+                numberOfRequestsInFlight--;
+                numberOfTimedOutRequests++;
+            }
+        }
+
+        Timeout timeout;
+        while ((timeout = timeouts.peek()) != null && now - timeout.time >= FORGET_DELAY) {
+
+            timeouts.poll();
+            request = timeout.request;
+            if (request.neighbor == null && request.sendingTime < timeout.time && requests.get(request.hash) == request) { // Not sent again since
+                requests.remove(request.hash);
+            }
+        }
+    }
+
+    public synchronized int getNumberOfRequestsInFlight() {
+        return numberOfRequestsInFlight;
+    }
+
+    public synchronized long getNumberOfAnsweredRequests() {
+        return numberOfAnsweredRequests;
+    }
+
+    public synchronized long getNumberOfTimedOutRequests() {
+        return numberOfTimedOutRequests;
+    }
+
+    public synchronized long getNumberOfDuplicatedRequests() { // Hashes asked for again after a timeout
+        return numberOfDuplicatedRequests;
+    }
+
+    public static RequestScheduler instance() {
+        return instance;
+    }
+}
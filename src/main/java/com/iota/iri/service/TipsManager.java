@@ -20,9 +20,9 @@ import com.iota.iri.Snapshot;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
 import com.iota.iri.service.storage.Storage;
-import com.iota.iri.service.storage.StorageApprovers;
-import com.iota.iri.service.storage.StorageScratchpad;
-import com.iota.iri.service.storage.StorageTransactions;
+import com.iota.iri.service.storage.StorageProviders;
+import com.iota.iri.service.storage.TransactionView;
+import com.iota.iri.service.storage.VisitedSet;
 
 public class TipsManager {
 
@@ -48,6 +48,7 @@ public class TipsManager {
                     }
                     if (previousSolidSubtangleLatestMilestoneIndex != Milestone.latestSolidSubtangleMilestoneIndex) {
                     	log.info("Latest SOLID SUBTANGLE milestone has changed from #" + previousSolidSubtangleLatestMilestoneIndex + " to #" + Milestone.latestSolidSubtangleMilestoneIndex);
+                        Snapshot.update(Milestone.latestSolidSubtangleMilestoneIndex);
                     }
                     Thread.sleep(5000);
 
@@ -66,36 +67,35 @@ public class TipsManager {
 
         final Hash preferableMilestone = Milestone.latestSolidSubtangleMilestone;
 
-        synchronized (StorageScratchpad.instance().getAnalyzedTransactionsFlags()) {
+        try (final VisitedSet confirmedTransactions = VisitedSet.acquire(); final VisitedSet analyzedTransactions = VisitedSet.acquire()) {
 
-        	StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
-
-            Map<Hash, Long> state = new HashMap<>(Snapshot.initialState);
+            Map<Hash, Long> state = new HashMap<>(Snapshot.state());
 
             {
                 int numberOfAnalyzedTransactions = 0;
 
-                final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(StorageTransactions.instance().transactionPointer((extraTip == null ? preferableMilestone : extraTip).bytes())));
+                final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(StorageProviders.instance().transactionPointer((extraTip == null ? preferableMilestone : extraTip).bytes())));
+                final TransactionView transaction = new TransactionView();
                 Long pointer;
                 while ((pointer = nonAnalyzedTransactions.poll()) != null) {
 
-                    if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
+                    if (confirmedTransactions.add(pointer) && !Snapshot.solidEntryPoint(pointer)) { // The local snapshot accounts for the rest
 
                         numberOfAnalyzedTransactions++;
 
-                        final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-                        if (transaction.type == Storage.PREFILLED_SLOT) {
+                        StorageProviders.instance().loadTransaction(pointer, transaction);
+                        if (transaction.type() == Storage.PREFILLED_SLOT) {
                             return null;
                         } else {
 
-                            if (transaction.currentIndex == 0) {
+                            if (transaction.currentIndex() == 0) {
 
                                 boolean validBundle = false;
 
-                                final Bundle bundle = new Bundle(transaction.bundle);
+                                final Bundle bundle = new Bundle(transaction.bundle().bytes());
                                 for (final List<Transaction> bundleTransactions : bundle.getTransactions()) {
 
-                                    if (bundleTransactions.get(0).pointer == transaction.pointer) {
+                                    if (bundleTransactions.get(0).pointer == transaction.pointer()) {
 
                                         validBundle = true;
 
@@ -113,8 +113,8 @@ public class TipsManager {
                                 }
                             }
 
-                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
+                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer());
+                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer());
                         }
                     }
                 }
@@ -136,48 +136,49 @@ public class TipsManager {
                 }
             }
 
-            StorageScratchpad.instance().saveAnalyzedTransactionsFlags();
-            StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
-
             final Set<Hash> tailsToAnalyze = new HashSet<>();
 
             Hash tip = preferableMilestone;
             if (extraTip != null) {
 
-                Transaction transaction = StorageTransactions.instance().loadTransaction(StorageTransactions.instance().transactionPointer(tip.bytes()));
-                while (depth-- > 0 && !tip.equals(Hash.NULL_HASH)) {
+                final TransactionView transaction = StorageProviders.instance().loadTransaction(StorageProviders.instance().transactionPointer(tip.bytes()), new TransactionView());
+                while (depth-- > 0 && !tip.equals(Hash.NULL_HASH) && !Snapshot.solidEntryPoint(transaction.pointer())) {
 
-                    tip = new Hash(transaction.hash, 0, Transaction.HASH_SIZE);
+                    tip = transaction.hash();
                     do {
-                        transaction = StorageTransactions.instance().loadTransaction(transaction.trunkTransactionPointer);
-                    } while (transaction.currentIndex != 0);
+                        StorageProviders.instance().loadTransaction(transaction.trunkTransactionPointer(), transaction);
+                    } while (transaction.currentIndex() != 0);
                 }
             }
-            final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(StorageTransactions.instance().transactionPointer(tip.bytes())));
+            final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(StorageProviders.instance().transactionPointer(tip.bytes())));
+            final TransactionView view = new TransactionView();
             Long pointer;
             while ((pointer = nonAnalyzedTransactions.poll()) != null) {
 
-                if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
+                if (analyzedTransactions.add(pointer)) {
 
-                    final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
+                    StorageProviders.instance().loadTransaction(pointer, view);
+                    final Hash hash = view.hash();
 
-                    if (transaction.currentIndex == 0) {
-                        tailsToAnalyze.add(new Hash(transaction.hash, 0, Transaction.HASH_SIZE));
+                    if (view.currentIndex() == 0) {
+                        tailsToAnalyze.add(hash);
                     }
 
-                    StorageApprovers.instance().approveeTransactions(StorageApprovers.instance().approveePointer(transaction.hash)).forEach(nonAnalyzedTransactions::offer);
+                    for (final long approver : StorageProviders.instance().approveeTransactions(hash.bytes())) {
+                        nonAnalyzedTransactions.offer(approver);
+                    }
                 }
             }
 
             if (extraTip != null) {
 
-                StorageScratchpad.instance().loadAnalyzedTransactionsFlags();
+                analyzedTransactions.copyFrom(confirmedTransactions);
 
                 final Iterator<Hash> tailsToAnalyzeIterator = tailsToAnalyze.iterator();
                 while (tailsToAnalyzeIterator.hasNext()) {
 
-                    final Transaction tail = StorageTransactions.instance().loadTransaction(tailsToAnalyzeIterator.next().bytes());
-                    if (StorageScratchpad.instance().analyzedTransactionFlag(tail.pointer)) {
+                    final Transaction tail = StorageProviders.instance().loadTransaction(tailsToAnalyzeIterator.next().bytes());
+                    if (confirmedTransactions.contains(tail.pointer)) {
                         tailsToAnalyzeIterator.remove();
                     }
                 }
@@ -188,24 +189,24 @@ public class TipsManager {
             int bestRating = 0;
             for (final Hash tail : tailsToAnalyze) {
 
-            	StorageScratchpad.instance().loadAnalyzedTransactionsFlags();
+            	analyzedTransactions.copyFrom(confirmedTransactions);
 
                 Set<Hash> extraTransactions = new HashSet<>();
 
                 nonAnalyzedTransactions.clear();
-                nonAnalyzedTransactions.offer(StorageTransactions.instance().transactionPointer(tail.bytes()));
+                nonAnalyzedTransactions.offer(StorageProviders.instance().transactionPointer(tail.bytes()));
                 while ((pointer = nonAnalyzedTransactions.poll()) != null) {
 
-                    if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
+                    if (analyzedTransactions.add(pointer) && !Snapshot.solidEntryPoint(pointer)) {
 
-                        final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-                        if (transaction.type == Storage.PREFILLED_SLOT) {
+                        StorageProviders.instance().loadTransaction(pointer, view);
+                        if (view.type() == Storage.PREFILLED_SLOT) {
                             extraTransactions = null;
                             break;
                         } else {
-                            extraTransactions.add(new Hash(transaction.hash, 0, Transaction.HASH_SIZE));
-                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
+                            extraTransactions.add(view.hash());
+                            nonAnalyzedTransactions.offer(view.trunkTransactionPointer());
+                            nonAnalyzedTransactions.offer(view.branchTransactionPointer());
                         }
                     }
                 }
@@ -216,7 +217,7 @@ public class TipsManager {
 
                     for (final Hash extraTransaction : extraTransactions) {
 
-                        final Transaction transaction = StorageTransactions.instance().loadTransaction(extraTransaction.bytes());
+                        final Transaction transaction = StorageProviders.instance().loadTransaction(extraTransaction.bytes());
                         if (transaction != null && transaction.currentIndex == 0) {
 
                             final Bundle bundle = new Bundle(transaction.bundle);
@@ -246,7 +247,7 @@ public class TipsManager {
 
                         for (final Hash extraTransaction : extraTransactions) {
 
-                            final Transaction transaction = StorageTransactions.instance().loadTransaction(extraTransaction.bytes());
+                            final Transaction transaction = StorageProviders.instance().loadTransaction(extraTransaction.bytes());
                             if (transaction.value != 0) {
                                 final Hash address = new Hash(transaction.address);
                                 final Long value = stateCopy.get(address);
@@ -14,6 +14,7 @@ public class GetNeighborsResponse extends AbstractResponse {
 
     	private String address;
     	public int numberOfAllTransactions, numberOfNewTransactions, numberOfInvalidTransactions;
+    	public int numberOfAnsweredRequests, numberOfTimedOutRequests;
 
         public String getAddress() {
             return address;
@@ -27,6 +28,12 @@ public class GetNeighborsResponse extends AbstractResponse {
         public int getNumberOfInvalidTransactions() {
 			return numberOfInvalidTransactions;
 		}
+        public int getNumberOfAnsweredRequests() {
+            return numberOfAnsweredRequests;
+        }
+        public int getNumberOfTimedOutRequests() {
+            return numberOfTimedOutRequests;
+        }
 
         public static Neighbor createFrom(com.iota.iri.Neighbor n) {
         	Neighbor ne = new Neighbor();
@@ -34,6 +41,8 @@ public class GetNeighborsResponse extends AbstractResponse {
         	ne.numberOfAllTransactions = n.getNumberOfAllTransactions();
         	ne.numberOfInvalidTransactions = n.getNumberOfInvalidTransactions();
         	ne.numberOfNewTransactions = n.getNumberOfNewTransactions();
+        	ne.numberOfAnsweredRequests = n.getNumberOfAnsweredRequests();
+        	ne.numberOfTimedOutRequests = n.getNumberOfTimedOutRequests();
         	return ne;
         }
     }
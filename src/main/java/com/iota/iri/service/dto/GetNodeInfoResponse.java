@@ -23,12 +23,17 @@ public class GetNodeInfoResponse extends AbstractResponse {
     private long time;
     private int tips;
     private int transactionsToRequest;
+    private int requestsInFlight;
+    private long requestsAnswered;
+    private long requestsTimedOut;
+    private long requestsDuplicated;
 
 	public static AbstractResponse create(String appName, String appVersion, int jreAvailableProcessors, long jreFreeMemory,
 	        String jreVersion, long maxMemory, long totalMemory, Hash latestMilestone, int latestMilestoneIndex,
 	        Hash latestSolidSubtangleMilestone, int latestSolidSubtangleMilestoneIndex,
 	        int neighbors, int packetsQueueSize,
-	        long currentTimeMillis, int tips, int numberOfTransactionsToRequest) {
+	        long currentTimeMillis, int tips, int numberOfTransactionsToRequest,
+	        int numberOfRequestsInFlight, long numberOfAnsweredRequests, long numberOfTimedOutRequests, long numberOfDuplicatedRequests) {
 		final GetNodeInfoResponse res = new GetNodeInfoResponse();
 		res.appName = appName;
 		res.appVersion = appVersion;
@@ -49,6 +54,10 @@ public class GetNodeInfoResponse extends AbstractResponse {
 		res.time = currentTimeMillis;
 		res.tips = tips;
 		res.transactionsToRequest = numberOfTransactionsToRequest;
+		res.requestsInFlight = numberOfRequestsInFlight;
+		res.requestsAnswered = numberOfAnsweredRequests;
+		res.requestsTimedOut = numberOfTimedOutRequests;
+		res.requestsDuplicated = numberOfDuplicatedRequests;
 		return res;
 	}
 
@@ -116,4 +125,20 @@ public class GetNodeInfoResponse extends AbstractResponse {
 		return transactionsToRequest;
 	}
 
+	public int getRequestsInFlight() {
+		return requestsInFlight;
+	}
+
+	public long getRequestsAnswered() {
+		return requestsAnswered;
+	}
+
+	public long getRequestsTimedOut() {
+		return requestsTimedOut;
+	}
+
+	public long getRequestsDuplicated() {
+		return requestsDuplicated;
+	}
+
 }
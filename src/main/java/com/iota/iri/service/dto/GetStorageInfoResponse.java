@@ -0,0 +1,54 @@
+package com.iota.iri.service.dto;
+
+public class GetStorageInfoResponse extends AbstractResponse {
+
+	private long transactionFilterMemory;
+	private long transactionFilterRejections;
+	private double transactionFilterFalsePositiveRate;
+	private long dirtyBytes;
+	private long flushedBytes;
+	private long averageFlushLatency;
+	private long maxFlushLatency;
+
+	public static AbstractResponse create(long transactionFilterMemory, long transactionFilterRejections,
+	        double transactionFilterFalsePositiveRate, long dirtyBytes, long flushedBytes,
+	        long averageFlushLatency, long maxFlushLatency) {
+		final GetStorageInfoResponse res = new GetStorageInfoResponse();
+		res.transactionFilterMemory = transactionFilterMemory;
+		res.transactionFilterRejections = transactionFilterRejections;
+		res.transactionFilterFalsePositiveRate = transactionFilterFalsePositiveRate;
+		res.dirtyBytes = dirtyBytes;
+		res.flushedBytes = flushedBytes;
+		res.averageFlushLatency = averageFlushLatency;
+		res.maxFlushLatency = maxFlushLatency;
+		return res;
+	}
+
+	public long getTransactionFilterMemory() {
+		return transactionFilterMemory;
+	}
+
+	public long getTransactionFilterRejections() {
+		return transactionFilterRejections;
+	}
+
+	public double getTransactionFilterFalsePositiveRate() {
+		return transactionFilterFalsePositiveRate;
+	}
+
+	public long getDirtyBytes() {
+		return dirtyBytes;
+	}
+
+	public long getFlushedBytes() {
+		return flushedBytes;
+	}
+
+	public long getAverageFlushLatency() {
+		return averageFlushLatency;
+	}
+
+	public long getMaxFlushLatency() {
+		return maxFlushLatency;
+	}
+}
@@ -3,6 +3,13 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Transaction;
 
 public abstract class AbstractStorage {
 
@@ -20,16 +27,6 @@ public abstract class AbstractStorage {
 	
     public final static int CELLS_OFFSET = SUPER_GROUPS_OFFSET + SUPER_GROUPS_SIZE;
 
-    public final static int TRANSACTIONS_TO_REQUEST_OFFSET = 0, TRANSACTIONS_TO_REQUEST_SIZE = CHUNK_SIZE;
-	
-    public final static int ANALYZED_TRANSACTIONS_FLAGS_OFFSET = TRANSACTIONS_TO_REQUEST_OFFSET
-            + TRANSACTIONS_TO_REQUEST_SIZE,
-            ANALYZED_TRANSACTIONS_FLAGS_SIZE = MAX_NUMBER_OF_CHUNKS * CELLS_PER_CHUNK / Byte.SIZE;
-
-    public final static int ANALYZED_TRANSACTIONS_FLAGS_COPY_OFFSET = ANALYZED_TRANSACTIONS_FLAGS_OFFSET
-            + ANALYZED_TRANSACTIONS_FLAGS_SIZE,
-            ANALYZED_TRANSACTIONS_FLAGS_COPY_SIZE = ANALYZED_TRANSACTIONS_FLAGS_SIZE;
-
     public final static int GROUP = 0; // transactions GROUP means that's it's a non-leaf node (leafs store transaction bytes)
     public final static int PREFILLED_SLOT = 1; // means that we know only hash of the tx, the rest is unknown yet: only another tx references that hash
     public final static int FILLED_SLOT = -1; //  knows the hash only coz another tx references that hash
@@ -38,13 +35,19 @@ public abstract class AbstractStorage {
 
     protected static final byte[] ZEROED_BUFFER = new byte[CELL_SIZE];
 	
-    protected static final byte[] mainBuffer = new byte[CELL_SIZE];
-    protected static final byte[] auxBuffer = new byte[CELL_SIZE];
-    
+    private static final ThreadLocal<byte[]> writeBuffer = ThreadLocal.withInitial(() -> new byte[CELL_SIZE]);
+    private static final ThreadLocal<byte[]> readBuffer = ThreadLocal.withInitial(() -> new byte[CELL_SIZE]);
+
+    protected static final StorageLock storageLock = new StorageLock();
+
 	public static long value(final byte[] buffer, final int offset) {
         return ((long)(buffer[offset] & 0xFF)) + (((long)(buffer[offset + 1] & 0xFF)) << 8) + (((long)(buffer[offset + 2] & 0xFF)) << 16) + (((long)(buffer[offset + 3] & 0xFF)) << 24) + (((long)(buffer[offset + 4] & 0xFF)) << 32) + (((long)(buffer[offset + 5] & 0xFF)) << 40) + (((long)(buffer[offset + 6] & 0xFF)) << 48) + (((long)(buffer[offset + 7] & 0xFF)) << 56);
     }
 
+    public static long value(final ByteBuffer buffer, final int offset) { // Absolute read, doesn't touch the position of a shared chunk
+        return ((long)(buffer.get(offset) & 0xFF)) + (((long)(buffer.get(offset + 1) & 0xFF)) << 8) + (((long)(buffer.get(offset + 2) & 0xFF)) << 16) + (((long)(buffer.get(offset + 3) & 0xFF)) << 24) + (((long)(buffer.get(offset + 4) & 0xFF)) << 32) + (((long)(buffer.get(offset + 5) & 0xFF)) << 40) + (((long)(buffer.get(offset + 6) & 0xFF)) << 48) + (((long)(buffer.get(offset + 7) & 0xFF)) << 56);
+    }
+
     public static void setValue(final byte[] buffer, final int offset, final long value) {
 
         buffer[offset] = (byte)value;
@@ -68,9 +71,101 @@ public abstract class AbstractStorage {
         }
     }
 	
-	protected void emptyMainBuffer() {
-        System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-	}
+    // Cell access: chunks are shared by all threads, so they are only ever touched with absolute indexes or
+    // through a private duplicate, and cells are staged in per-thread buffers
+
+    protected static byte[] writeBuffer() { // Only used by writers, which hold the storage lock exclusively
+        return writeBuffer.get();
+    }
+
+    protected static byte[] readBuffer() { // Must not be handed out, its content is only valid until the next read by the same thread
+        return readBuffer.get();
+    }
+
+    protected static void readCell(final ByteBuffer[] chunks, final long pointer, final byte[] buffer) {
+        ((ByteBuffer) chunks[(int) (pointer >> 27)].duplicate().position((int) (pointer & (CHUNK_SIZE - 1)))).get(buffer);
+    }
+
+    protected static void writeCell(final ByteBuffer[] chunks, final long pointer, final byte[] buffer) {
+        ((ByteBuffer) chunks[(int) (pointer >> 27)].duplicate().position((int) (pointer & (CHUNK_SIZE - 1)))).put(buffer);
+    }
+
+    protected static byte cellType(final ByteBuffer[] chunks, final long pointer) {
+        return chunks[(int) (pointer >> 27)].get((int) (pointer & (CHUNK_SIZE - 1)) + Transaction.TYPE_OFFSET);
+    }
+
+    protected static long cellValue(final ByteBuffer[] chunks, final long pointer, final int offset) {
+        return value(chunks[(int) (pointer >> 27)], (int) (pointer & (CHUNK_SIZE - 1)) + offset);
+    }
+
+    protected static void setCellValue(final ByteBuffer[] chunks, final long pointer, final int offset, final long value) { // A single store, a process dying in the middle of it leaves either the old or the new value
+        chunks[(int) (pointer >> 27)].putLong((int) (pointer & (CHUNK_SIZE - 1)) + offset, Long.reverseBytes(value)); // Little-endian into the big-endian chunk
+    }
+
+    protected static void emptyCell(final byte[] buffer) {
+        System.arraycopy(ZEROED_BUFFER, 0, buffer, 0, CELL_SIZE);
+    }
+
+    protected static long mapChunks(final FileChannel channel, final long channelOffset, final ByteBuffer[] chunks, final StorageManifest manifest) throws IOException { // Chunk #0 (the super groups) is mapped by the caller, returns the next pointer
+
+        final long channelSize = channel.size() - channelOffset;
+        long nextPointer = manifest.nextPointer();
+        final boolean clean = manifest.clean() && nextPointer >= SUPER_GROUPS_SIZE && nextPointer <= channelSize;
+        if (nextPointer < SUPER_GROUPS_SIZE || nextPointer > channelSize) {
+            nextPointer = SUPER_GROUPS_SIZE; // No usable manifest, the whole file is scanned
+        } else if (!clean) {
+            nextPointer &= -CHUNK_SIZE; // Not shut down cleanly, only the chunks appended since the last checkpoint are scanned
+        }
+
+        for (int i = 1; i < (int) (nextPointer >> 27); i++) {
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, channelOffset + ((long) i << 27), CHUNK_SIZE);
+        }
+
+        if (clean) {
+            chunks[(int) (nextPointer >> 27)] = channel.map(FileChannel.MapMode.READ_WRITE, channelOffset + (nextPointer & -CHUNK_SIZE), CHUNK_SIZE);
+
+        } else {
+
+            final byte[] buffer = new byte[CELL_SIZE];
+            while (true) {
+
+                if ((nextPointer & (CHUNK_SIZE - 1)) == 0) {
+                    chunks[(int) (nextPointer >> 27)] = channel.map(FileChannel.MapMode.READ_WRITE, channelOffset + nextPointer, CHUNK_SIZE);
+                }
+                if (channelSize - nextPointer > CHUNK_SIZE) {
+                    nextPointer += CHUNK_SIZE;
+                } else {
+
+                    readCell(chunks, nextPointer, buffer);
+                    boolean empty = true;
+                    for (final int value : buffer) {
+                        if (value != 0) {
+                            empty = false;
+                            break;
+                        }
+                    }
+                    if (empty) {
+                        break;
+                    }
+                    nextPointer += CELL_SIZE;
+                }
+            }
+        }
+
+        manifest.checkpoint(nextPointer, false);
+        return nextPointer;
+    }
+
+    protected static Path path(final String fileName) { // Relative to the database directory unless absolute, e.g. a shard on another drive
+        return Paths.get(Configuration.string(DefaultConfSettings.DB_PATH)).resolve(fileName);
+    }
+
+    long size() { // Bytes of the storage file in use
+        return 0;
+    }
+
+    void register(final StorageFlusher flusher) { // Hands over the mapped files to keep clean in the background, if any
+    }
 
     public abstract void init() throws IOException;
 
@@ -0,0 +1,87 @@
+package com.iota.iri.service.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pages of a mapped file written since the {@link StorageFlusher} last forced their chunk, one bit per 4 KB page
+ * and one per chunk to find them quickly.
+ *
+ * Writers mark a position once they have written it, under the storage write lock. The flusher drains the bits of
+ * a chunk before forcing it, so a write racing with a flush is forced by it or marked for the next one. The marks
+ * only tell the flusher what is worth forcing and how many bytes that is, the checkpoints and the shutdown force
+ * every chunk whatever they say.
+ */
+final class DirtyPages {
+
+    static final int PAGE_SHIFT = 12;
+    private static final int WORDS_PER_CHUNK = (AbstractStorage.CHUNK_SIZE >> PAGE_SHIFT) >> 6;
+
+    private final AtomicLongArray chunks = new AtomicLongArray(AbstractStorage.MAX_NUMBER_OF_CHUNKS >> 6);
+    private final AtomicLongArray[] pages = new AtomicLongArray[AbstractStorage.MAX_NUMBER_OF_CHUNKS]; // Created by the writer, the flusher skips the ones it doesn't see yet
+
+    void mark(final long position) {
+
+        final int chunk = (int) (position >> 27);
+        AtomicLongArray chunkPages = pages[chunk];
+        if (chunkPages == null) {
+            pages[chunk] = chunkPages = new AtomicLongArray(WORDS_PER_CHUNK);
+        }
+        final int page = (int) (position & (AbstractStorage.CHUNK_SIZE - 1)) >> PAGE_SHIFT;
+        set(chunkPages, page);
+        set(chunks, chunk);
+    }
+
+    int nextDirtyChunk(final int from) { // -1 if no chunk from "from" on is dirty
+
+        for (int i = from >> 6; i < chunks.length(); i++) {
+            long word = chunks.get(i);
+            if (i == from >> 6) {
+                word &= -1L << from;
+            }
+            if (word != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return -1;
+    }
+
+    int dirtyPages(final int chunk) {
+
+        final AtomicLongArray chunkPages = pages[chunk];
+        int count = 0;
+        for (int i = 0; chunkPages != null && i < WORDS_PER_CHUNK; i++) {
+            count += Long.bitCount(chunkPages.get(i));
+        }
+        return count;
+    }
+
+    long dirtyBytes() {
+
+        long count = 0;
+        for (int chunk = nextDirtyChunk(0); chunk >= 0; chunk = nextDirtyChunk(chunk + 1)) {
+            count += dirtyPages(chunk);
+        }
+        return count << PAGE_SHIFT;
+    }
+
+    int drain(final int chunk) { // Clears the marks of "chunk" before it is forced, returns the number of pages they were on
+
+        long word;
+        while (((word = chunks.get(chunk >> 6)) & 1L << chunk) != 0 && !chunks.compareAndSet(chunk >> 6, word, word & ~(1L << chunk)));
+
+        final AtomicLongArray chunkPages = pages[chunk];
+        int count = 0;
+        for (int i = 0; chunkPages != null && i < WORDS_PER_CHUNK; i++) {
+            if (chunkPages.get(i) != 0) {
+                count += Long.bitCount(chunkPages.getAndSet(i, 0));
+            }
+        }
+        return count;
+    }
+
+    private static void set(final AtomicLongArray bits, final int index) { // Read first, most marks hit a bit which is set already
+
+        long word;
+        while (((word = bits.get(index >> 6)) & 1L << index) == 0 && !bits.compareAndSet(index >> 6, word, word | 1L << index));
+    }
+}
@@ -2,19 +2,18 @@ package com.iota.iri.service.storage;
 
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
-import com.iota.iri.service.storage.file.Storage;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Random;
 
 /**
- * Created by Adrian on 26.02.2017.
+ * The mmapped tries of {@link Storage}, i.e. transactions.iri and the bundle, address, tag and approver files.
  */
-public class FileStorageProvider implements IStorageProvider{
+public class FileStorageProvider implements IStorageProvider {
 
     @Override
-    public void init() throws IOException{
+    public void init() throws IOException {
         Storage.instance().init();
     }
 
@@ -24,94 +23,162 @@ public class FileStorageProvider implements IStorageProvider{
     }
 
     @Override
-    public List<Transaction> getTagTransactions(byte[] hash) {
-        return null;
+    public long transactionPointer(final byte[] hash) {
+        return StorageTransactions.instance().transactionPointer(hash);
     }
 
     @Override
-    public List<Transaction> getAddressTransactions(byte[] hash) {
-        return null;
+    public Transaction loadTransaction(final long pointer) {
+        return StorageTransactions.instance().loadTransaction(pointer);
     }
 
     @Override
-    public List<Transaction> getApproveeTransactions(byte[] hash) {
-        return null;
+    public Transaction loadTransaction(final byte[] hash) {
+        return StorageTransactions.instance().loadTransaction(hash);
     }
 
     @Override
-    public List<Transaction> getBundleTransactions(byte[] hash) {
-        return null;
+    public TransactionView loadTransaction(final long pointer, final TransactionView view) {
+        return StorageTransactions.instance().loadTransaction(pointer, view);
     }
 
     @Override
-    public List<Transaction> getTagsTransactions(byte[] hash) {
-        return null;
+    public List<Transaction> loadTransactions(final long[] pointers) {
+        return StorageTransactions.instance().loadTransactions(pointers);
     }
 
     @Override
-    public Transaction getTransaction(byte[] hash) {
-        return null;
+    public long storeTransaction(final byte[] hash, final Transaction transaction, final boolean tip) {
+        return StorageTransactions.instance().storeTransaction(hash, transaction, tip);
     }
 
     @Override
-    public long storeTransaction(byte[] hash, Transaction transaction, boolean tip) {
-        return 0;
+    public long[] storeTransactions(final List<Transaction> transactions) {
+        return StorageTransactions.instance().storeTransactions(transactions);
     }
 
     @Override
-    public void setTransactionValidity(byte[] hash, int validity) {
+    public void setTransactionValidity(final long pointer, final int validity) {
+        StorageTransactions.instance().setTransactionValidity(pointer, validity);
+    }
 
+    @Override
+    public void prune(final long[] pointers) throws IOException { // Dropped by the compaction at the next startup
+        Storage.instance().prune(pointers);
     }
 
     @Override
-    public List<Hash> tips() {
-        return null;
+    public long[] bundleTransactions(final byte[] bundle) {
+        return StorageBundle.instance().bundleTransactions(StorageBundle.instance().bundlePointer(bundle));
     }
 
     @Override
-    public boolean tipFlag(byte[] hash) {
-        return false;
+    public long[] addressTransactions(final byte[] address) {
+        return StorageAddresses.instance().addressTransactions(StorageAddresses.instance().addressPointer(address));
     }
 
     @Override
-    public ByteBuffer getAnalyzedTransactionsFlags() {
-        return null;
+    public long[] tagTransactions(final byte[] tag) {
+        return StorageTags.instance().tagTransactions(StorageTags.instance().tagPointer(tag));
     }
 
     @Override
-    public int getNumberOfTransactionsToRequest() {
-        return 0;
+    public long[] approveeTransactions(final byte[] approvee) {
+        return StorageApprovers.instance().approveeTransactions(StorageApprovers.instance().approveePointer(approvee));
     }
 
     @Override
-    public void transactionToRequest(byte[] buffer, int offset) {
+    public PointerCursor bundleTransactionsCursor(final byte[] bundle) {
+        return StorageBundle.instance().bundleTransactionsCursor(StorageBundle.instance().bundlePointer(bundle));
+    }
 
+    @Override
+    public PointerCursor addressTransactionsCursor(final byte[] address) {
+        return StorageAddresses.instance().addressTransactionsCursor(StorageAddresses.instance().addressPointer(address));
     }
 
     @Override
-    public void clearAnalyzedTransactionsFlags() {
+    public PointerCursor tagTransactionsCursor(final byte[] tag) {
+        return StorageTags.instance().tagTransactionsCursor(StorageTags.instance().tagPointer(tag));
+    }
 
+    @Override
+    public PointerCursor approveeTransactionsCursor(final byte[] approvee) {
+        return StorageApprovers.instance().approveeTransactionsCursor(StorageApprovers.instance().approveePointer(approvee));
     }
 
     @Override
-    public boolean analyzedTransactionFlag(long pointer) {
-        return false;
+    public List<Hash> tips() {
+        return StorageTransactions.instance().tips();
     }
 
     @Override
-    public boolean setAnalyzedTransactionFlag(long pointer) {
-        return false;
+    public int numberOfTips() {
+        return StorageTransactions.instance().numberOfTips();
     }
 
     @Override
-    public void saveAnalyzedTransactionsFlags() {
+    public long randomTipPointer(final Random random) {
+        return StorageTransactions.instance().randomTipPointer(random);
+    }
 
+    @Override
+    public boolean tipFlag(final long pointer) {
+        return StorageTransactions.instance().tipFlag(pointer);
     }
 
     @Override
-    public void loadAnalyzedTransactionsFlags() {
+    public boolean transactionToRequest(final byte[] buffer, final int offset) {
+        return StorageTransactions.instance().transactionToRequest(buffer, offset);
+    }
 
+    @Override
+    public void prioritizeMissingTransaction(final long pointer) {
+        StorageTransactions.instance().prioritizeMissingTransaction(pointer);
     }
 
+    @Override
+    public int numberOfMissingTransactions() {
+        return StorageTransactions.instance().numberOfMissingTransactions();
+    }
 
+    @Override
+    public long transactionsFilterMemory() {
+        return StorageTransactions.instance().transactionsFilterMemory();
+    }
+
+    @Override
+    public long transactionsFilterRejections() {
+        return StorageTransactions.instance().transactionsFilterRejections();
+    }
+
+    @Override
+    public double transactionsFilterFalsePositiveRate() {
+        return StorageTransactions.instance().transactionsFilterFalsePositiveRate();
+    }
+
+    @Override
+    public long storageSize() {
+        return Storage.instance().size();
+    }
+
+    @Override
+    public long dirtyBytes() {
+        return Storage.instance().flusher().dirtyBytes();
+    }
+
+    @Override
+    public long flushedBytes() {
+        return Storage.instance().flusher().flushedBytes();
+    }
+
+    @Override
+    public long averageFlushLatency() {
+        return Storage.instance().flusher().averageFlushLatency();
+    }
+
+    @Override
+    public long maxFlushLatency() {
+        return Storage.instance().flusher().maxFlushLatency();
+    }
 }
@@ -4,54 +4,110 @@ import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Random;
 
 /**
- * Created by Adrian on 24.02.2017.
+ * Storage engine of the node, everything outside this package goes through the one returned by
+ * {@link StorageProviders#instance()}.
+ *
+ * Transactions are addressed by pointers: a positive pointer is a stored transaction, a negative one is a
+ * transaction which was referenced but hasn't arrived yet (its absolute value is its pointer once it arrives)
+ * and 0 means unknown. Pointers are spaced by {@link AbstractStorage#CELL_SIZE} starting from
+ * {@link #NULL_TRANSACTION_POINTER}, whatever the engine lays its records out like, {@link VisitedSet} relies on it.
  */
 public interface IStorageProvider {
 
+    long NULL_TRANSACTION_POINTER = AbstractStorage.CELLS_OFFSET - AbstractStorage.SUPER_GROUPS_OFFSET; // The first transaction stored is the null one, which approves itself
+
     // helper methods
     void init() throws IOException;
 
     void shutdown();
 
     // trx
-    List<Transaction> getTagTransactions(final byte[] hash);
+    long transactionPointer(final byte[] hash);
+
+    Transaction loadTransaction(final long pointer);
+
+    Transaction loadTransaction(final byte[] hash); // Null unless the transaction is stored
+
+    TransactionView loadTransaction(final long pointer, final TransactionView view); // Positions "view" over the transaction, nothing is copied
+
+    List<Transaction> loadTransactions(final long[] pointers); // In the order of "pointers"
+
+    long storeTransaction(final byte[] hash, final Transaction transaction, final boolean tip); // Returns the pointer or 0 if the transaction was already in the storage and "transaction" value is not null
+
+    default long[] storeTransactions(final List<Transaction> transactions) { // The pointers in the order of "transactions", 0 for the ones already stored, engines may store the batch in any order
+        final long[] pointers = new long[transactions.size()];
+        for (int i = 0; i < pointers.length; i++) {
+            pointers[i] = storeTransaction(transactions.get(i).hash, transactions.get(i), false);
+        }
+        return pointers;
+    }
+
+    void setTransactionValidity(final long pointer, final int validity);
 
-    List<Transaction> getAddressTransactions(final byte[] hash);
+    default void prune(final long[] pointers) throws IOException { // Below a local snapshot, the engines which can't drop transactions keep them, traversals stop at the snapshot anyway
+    }
 
-    List<Transaction> getApproveeTransactions(final byte[] hash);
+    // indexes, the pointers of the stored transactions with the given field
+    long[] bundleTransactions(final byte[] bundle);
 
-    List<Transaction> getBundleTransactions(final byte[] hash);
+    long[] addressTransactions(final byte[] address);
 
-    List<Transaction> getTagsTransactions(final byte[] hash);
+    long[] tagTransactions(final byte[] tag);
 
-    Transaction getTransaction(final byte[] hash);
+    long[] approveeTransactions(final byte[] approvee); // The approvers of "approvee"
 
-    long storeTransaction(final byte[] hash, final Transaction transaction, final boolean tip);
+    // the same, walked lazily, the engines which keep no posting lists sort the whole index entry upfront
+    default PointerCursor bundleTransactionsCursor(final byte[] bundle) {
+        return PointerCursor.of(bundleTransactions(bundle));
+    }
 
-    void setTransactionValidity(final byte[] hash, final int validity);
+    default PointerCursor addressTransactionsCursor(final byte[] address) {
+        return PointerCursor.of(addressTransactions(address));
+    }
 
+    default PointerCursor tagTransactionsCursor(final byte[] tag) {
+        return PointerCursor.of(tagTransactions(tag));
+    }
+
+    default PointerCursor approveeTransactionsCursor(final byte[] approvee) {
+        return PointerCursor.of(approveeTransactions(approvee));
+    }
+
+    // tips
     List<Hash> tips();
 
-    boolean tipFlag(final byte[] hash);
+    int numberOfTips();
+
+    long randomTipPointer(final Random random); // 0 if there are no tips
+
+    boolean tipFlag(final long pointer);
 
     // scratchpad
-    ByteBuffer getAnalyzedTransactionsFlags();
+    boolean transactionToRequest(final byte[] buffer, final int offset); // Copies the hash of a missing transaction into "buffer", false if none is missing
+
+    void prioritizeMissingTransaction(final long pointer); // For missing ancestors of the latest milestone
+
+    int numberOfMissingTransactions();
+
+    // metrics, 0 for the engines without a transactions filter
+    long transactionsFilterMemory();
 
-    int getNumberOfTransactionsToRequest();
+    long transactionsFilterRejections();
 
-    void transactionToRequest(final byte[] buffer, final int offset);
+    double transactionsFilterFalsePositiveRate();
 
-    void clearAnalyzedTransactionsFlags();
+    long storageSize(); // Bytes in use on disk, 0 for the engines which don't persist anything
 
-    boolean analyzedTransactionFlag(long pointer);
+    // flushing, 0 for the engines which don't map their files
+    long dirtyBytes(); // Written but not forced yet, as far as the flusher knows
 
-    boolean setAnalyzedTransactionFlag(long pointer);
+    long flushedBytes(); // Forced by the flusher since startup
 
-    void saveAnalyzedTransactionsFlags();
+    long averageFlushLatency(); // Of forcing a chunk, in microseconds
 
-    void loadAnalyzedTransactionsFlags();
-}
\ No newline at end of file
+    long maxFlushLatency();
+}
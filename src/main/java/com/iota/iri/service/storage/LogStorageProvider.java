@@ -0,0 +1,516 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Append-only storage: records are written one after another into segment files and never rewritten.
+ *
+ * A record is a kind byte followed by its body, the kind being written last so that a record torn by a crash
+ * reads as the end of the log. A transaction is the cell layout of {@link StorageTransactions} from the hash
+ * to the pointers of the approved transactions, without the cell padding, so views read it straight from the
+ * segment. A reference is only the hash of a transaction approved or requested before it arrived, and a
+ * validity change is the slot of the transaction with its new validity. Once a segment is full it is forced
+ * and remapped read-only, only the last one is ever written to.
+ *
+ * Nothing but the log is persisted: the indexes of {@link RecordIndex}, the tips and the missing transactions
+ * are rebuilt at startup by replaying the segments with the code which applies a record when it's appended.
+ */
+public class LogStorageProvider implements IStorageProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(LogStorageProvider.class);
+
+    private static final String SEGMENT_FILE_NAME = "transactions-%06d.log";
+    private static final int SEGMENT_SIZE = 1 << 26;
+
+    private static final byte END = 0, TRANSACTION = 1, REFERENCE = 2, TIP_REFERENCE = 3, VALIDITY = 4;
+    private static final int TRANSACTION_SIZE = Transaction.BRANCH_TRANSACTION_POINTER_OFFSET + Transaction.BRANCH_TRANSACTION_POINTER_SIZE - Transaction.HASH_OFFSET;
+    private static final int REFERENCE_SIZE = Transaction.HASH_SIZE;
+    private static final int VALIDITY_SIZE = Integer.BYTES + Byte.BYTES;
+
+    // In the state of the slot, the validity is its most significant byte, i.e. the first one of the big-endian int, where views read it
+    private static final int TIP_FLAG = 1, PREFILLED_FLAG = 2, VALIDITY_SHIFT = 24;
+
+    private final StorageLock lock = new StorageLock();
+
+    private volatile ByteBuffer[] segments;
+    private int numberOfSegments;
+    private FileChannel channel; // Of the last segment
+    private int position; // End of the last segment
+    private long sealedSize;
+
+    private RecordIndex index;
+    private int numberOfSlots;
+
+    private final PointerSet tips = new PointerSet();
+    private MissingTransactions missingTransactions;
+
+    @Override
+    public void init() throws IOException {
+
+        final long beginningTime = System.currentTimeMillis();
+
+        segments = new ByteBuffer[16];
+        numberOfSegments = 0;
+        sealedSize = 0;
+        index = new RecordIndex(records);
+        numberOfSlots = 0;
+        tips.clear();
+        missingTransactions = new MissingTransactions();
+
+        openSegment(0);
+        while (true) {
+
+            final ByteBuffer segment = segments[numberOfSegments - 1];
+            while (position < SEGMENT_SIZE && segment.get(position) != END) {
+                final byte kind = segment.get(position);
+                apply(kind, location(numberOfSegments - 1, position + 1));
+                position += 1 + size(kind);
+            }
+
+            if (!Files.exists(segmentPath(numberOfSegments))) {
+                break;
+            }
+            seal();
+            openSegment(numberOfSegments);
+        }
+
+        if (numberOfSlots == 0) {
+
+            final byte[] buffer = AbstractStorage.writeBuffer(); // The null transaction, which approves itself
+            AbstractStorage.emptyCell(buffer);
+            AbstractStorage.setValue(buffer, Transaction.TRUNK_TRANSACTION_POINTER_OFFSET, NULL_TRANSACTION_POINTER);
+            AbstractStorage.setValue(buffer, Transaction.BRANCH_TRANSACTION_POINTER_OFFSET, NULL_TRANSACTION_POINTER);
+            apply(TRANSACTION, append(TRANSACTION, buffer, Transaction.HASH_OFFSET, TRANSACTION_SIZE));
+        }
+
+        log.info("Log storage initialized with {} records from {} segments in {} ms", numberOfSlots, numberOfSegments, System.currentTimeMillis() - beginningTime);
+    }
+
+    @Override
+    public void shutdown() {
+
+        lock.write(() -> {
+            if (numberOfSegments > 0) {
+                AbstractStorage.flush(segments[numberOfSegments - 1]);
+                try {
+                    channel.close();
+                } catch (final IOException e) {
+                    log.error("Shutting down log storage error: ", e);
+                }
+            }
+            segments = new ByteBuffer[0];
+            numberOfSegments = 0;
+        });
+
+        log.info("Log storage flushed");
+    }
+
+    private static Path segmentPath(final int segment) {
+        return AbstractStorage.path(String.format(SEGMENT_FILE_NAME, segment));
+    }
+
+    private static long location(final int segment, final int offset) { // Of the body of a record
+        return (long) segment << 32 | offset;
+    }
+
+    private static int size(final byte kind) { // Of the body
+        switch (kind) {
+            case TRANSACTION:
+                return TRANSACTION_SIZE;
+            case REFERENCE:
+            case TIP_REFERENCE:
+                return REFERENCE_SIZE;
+            case VALIDITY:
+                return VALIDITY_SIZE;
+            default:
+                throw new IllegalStateException("Unknown log record kind: " + kind);
+        }
+    }
+
+    private void openSegment(final int segment) throws IOException {
+
+        if (segment == segments.length) {
+            segments = Arrays.copyOf(segments, segments.length << 1);
+        }
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments[segment] = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        numberOfSegments = segment + 1;
+        position = 0;
+    }
+
+    private void seal() throws IOException { // Readers still holding the writable mapping of the segment see the same bytes
+
+        final int segment = numberOfSegments - 1;
+        AbstractStorage.flush(segments[segment]);
+        segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+        channel.close();
+        sealedSize += position;
+    }
+
+    private long append(final byte kind, final byte[] buffer, final int offset, final int size) { // Returns the location of the body
+
+        if (position + 1 + size > SEGMENT_SIZE) {
+            try {
+                seal();
+                openSegment(numberOfSegments);
+            } catch (final IOException e) {
+                log.error("Caught exception while opening a new segment:", e);
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        final ByteBuffer segment = segments[numberOfSegments - 1];
+        ((ByteBuffer) segment.duplicate().position(position + 1)).put(buffer, offset, size);
+        segment.put(position, kind);
+        final long location = location(numberOfSegments - 1, position + 1);
+        position += 1 + size;
+        return location;
+    }
+
+    private final RecordIndex.Records records = new RecordIndex.Records() {
+
+        @Override
+        public ByteBuffer buffer(final int slot) {
+            return segments[(int) (index.location(slot) >>> 32)];
+        }
+
+        @Override
+        public int offset(final int slot) { // Only the hash of a reference is there
+            return (int) index.location(slot) - Transaction.HASH_OFFSET;
+        }
+    };
+
+    private int apply(final byte kind, final long location) { // Updates the indexes with a record of the log, returns the slot it's about
+
+        final ByteBuffer segment = segments[(int) (location >>> 32)];
+        final int offset = (int) location;
+
+        switch (kind) {
+
+            case TRANSACTION: {
+
+                final byte[] hash = AbstractStorage.readBuffer();
+                for (int i = 0; i < Transaction.HASH_SIZE; i++) {
+                    hash[i] = segment.get(offset + i);
+                }
+                final int validity = segment.get(offset - Transaction.HASH_OFFSET + Transaction.VALIDITY_OFFSET);
+                final int trunkSlot = RecordIndex.slot(AbstractStorage.value(segment, offset - Transaction.HASH_OFFSET + Transaction.TRUNK_TRANSACTION_POINTER_OFFSET));
+                final int branchSlot = RecordIndex.slot(AbstractStorage.value(segment, offset - Transaction.HASH_OFFSET + Transaction.BRANCH_TRANSACTION_POINTER_OFFSET));
+
+                int slot = index.find(hash, 0);
+                if (slot < 0) {
+                    slot = add(location, TIP_FLAG | (validity & 0xFF) << VALIDITY_SHIFT);
+                } else { // Was referenced, its tip flag stays as it was
+                    index.setLocation(slot, location);
+                    index.setState(slot, (index.state(slot) & TIP_FLAG) | (validity & 0xFF) << VALIDITY_SHIFT);
+                    missingTransactions.remove(RecordIndex.pointer(slot));
+                }
+
+                if (trunkSlot != slot) { // Only the null transaction approves itself
+                    clearTipFlag(trunkSlot);
+                }
+                if (branchSlot != slot) {
+                    clearTipFlag(branchSlot);
+                }
+                index.index(slot, trunkSlot, branchSlot);
+                return slot;
+            }
+
+            case REFERENCE:
+            case TIP_REFERENCE: {
+
+                final int slot = add(location, PREFILLED_FLAG | (kind == TIP_REFERENCE ? TIP_FLAG : 0));
+                missingTransactions.add(RecordIndex.pointer(slot));
+                return slot;
+            }
+
+            case VALIDITY: {
+
+                final int slot = segment.getInt(offset);
+                index.setState(slot, (index.state(slot) & ~(0xFF << VALIDITY_SHIFT)) | (segment.get(offset + Integer.BYTES) & 0xFF) << VALIDITY_SHIFT);
+                return slot;
+            }
+
+            default:
+                throw new IllegalStateException("Unknown log record kind: " + kind);
+        }
+    }
+
+    private int add(final long location, final int state) {
+
+        final int slot = numberOfSlots;
+        index.add(slot, location);
+        index.setState(slot, state);
+        numberOfSlots = slot + 1;
+        if ((state & TIP_FLAG) != 0) {
+            tips.add(RecordIndex.pointer(slot));
+        }
+        return slot;
+    }
+
+    private void clearTipFlag(final int slot) {
+
+        final int state = index.state(slot);
+        if ((state & TIP_FLAG) != 0) {
+            index.setState(slot, state & ~TIP_FLAG);
+            tips.remove(RecordIndex.pointer(slot));
+        }
+    }
+
+    private int reference(final byte[] hash) { // Returns the slot of an approved transaction, appending a reference if it's unknown
+
+        final int slot = index.find(hash, 0);
+        return slot >= 0 ? slot : apply(REFERENCE, append(REFERENCE, hash, 0, REFERENCE_SIZE));
+    }
+
+    @Override
+    public long transactionPointer(final byte[] hash) {
+
+        return lock.readLong(() -> {
+            final int slot = index.find(hash, 0);
+            if (slot < 0) {
+                return 0;
+            }
+            return (index.state(slot) & PREFILLED_FLAG) != 0 ? -RecordIndex.pointer(slot) : RecordIndex.pointer(slot);
+        });
+    }
+
+    @Override
+    public Transaction loadTransaction(final long pointer) {
+
+        return lock.read(() -> {
+
+            final int slot = RecordIndex.slot(pointer);
+            final long location = index.location(slot);
+            final int state = index.state(slot);
+            final byte[] buffer = AbstractStorage.readBuffer();
+            AbstractStorage.emptyCell(buffer);
+            ((ByteBuffer) segments[(int) (location >>> 32)].duplicate().position((int) location)).get(buffer, Transaction.HASH_OFFSET, (state & PREFILLED_FLAG) != 0 ? REFERENCE_SIZE : TRANSACTION_SIZE);
+            buffer[Transaction.TYPE_OFFSET] = (byte) ((state & PREFILLED_FLAG) != 0 ? AbstractStorage.PREFILLED_SLOT : AbstractStorage.FILLED_SLOT);
+            buffer[Transaction.VALIDITY_OFFSET] = (byte) (state >> VALIDITY_SHIFT);
+            return new Transaction(buffer, pointer);
+        });
+    }
+
+    @Override
+    public Transaction loadTransaction(final byte[] hash) {
+        final long pointer = transactionPointer(hash);
+        return pointer > 0 ? loadTransaction(pointer) : null;
+    }
+
+    @Override
+    public TransactionView loadTransaction(final long pointer, final TransactionView view) {
+
+        final long stamp = lock.tryOptimisticRead();
+        moveTo(view, pointer);
+        if (!lock.validate(stamp)) { // A reference may be being replaced by its transaction right now
+            lock.readLocked(() -> moveTo(view, pointer));
+        }
+        return view;
+    }
+
+    private TransactionView moveTo(final TransactionView view, final long pointer) {
+
+        final int slot = RecordIndex.slot(pointer);
+        final long location = index.location(slot);
+        final int type = (index.state(slot) & PREFILLED_FLAG) != 0 ? AbstractStorage.PREFILLED_SLOT : AbstractStorage.FILLED_SLOT;
+        view.moveTo(segments[(int) (location >>> 32)], (int) location - Transaction.HASH_OFFSET, pointer, type, index.page(slot), RecordIndex.stateOffset(slot));
+        return view;
+    }
+
+    @Override
+    public List<Transaction> loadTransactions(final long[] pointers) {
+
+        return lock.readLocked(() -> {
+            final List<Transaction> transactions = new ArrayList<>(pointers.length);
+            for (final long pointer : pointers) {
+                transactions.add(loadTransaction(pointer));
+            }
+            return transactions;
+        });
+    }
+
+    @Override
+    public long storeTransaction(final byte[] hash, final Transaction transaction, final boolean tip) {
+
+        return lock.writeLong(() -> {
+
+            final int slot = index.find(hash, 0);
+            if (slot >= 0) {
+                if (transaction == null) {
+                    return RecordIndex.pointer(slot);
+                }
+                if ((index.state(slot) & PREFILLED_FLAG) == 0) {
+                    return 0;
+                }
+            }
+
+            if (transaction == null) {
+                final byte kind = tip ? TIP_REFERENCE : REFERENCE;
+                return RecordIndex.pointer(apply(kind, append(kind, hash, 0, REFERENCE_SIZE)));
+            }
+
+            final int trunkSlot = reference(transaction.trunkTransaction);
+            final int branchSlot = Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction) ? trunkSlot : reference(transaction.branchTransaction);
+
+            final byte[] buffer = AbstractStorage.writeBuffer();
+            Transaction.dump(buffer, hash, transaction);
+            AbstractStorage.setValue(buffer, Transaction.TRUNK_TRANSACTION_POINTER_OFFSET, RecordIndex.pointer(trunkSlot));
+            AbstractStorage.setValue(buffer, Transaction.BRANCH_TRANSACTION_POINTER_OFFSET, RecordIndex.pointer(branchSlot));
+            return RecordIndex.pointer(apply(TRANSACTION, append(TRANSACTION, buffer, Transaction.HASH_OFFSET, TRANSACTION_SIZE)));
+        });
+    }
+
+    @Override
+    public void setTransactionValidity(final long pointer, final int validity) {
+
+        lock.write(() -> {
+            final int slot = RecordIndex.slot(pointer);
+            if ((byte) (index.state(slot) >> VALIDITY_SHIFT) != (byte) validity) {
+                final byte[] buffer = AbstractStorage.writeBuffer();
+                ByteBuffer.wrap(buffer).putInt(0, slot).put(Integer.BYTES, (byte) validity);
+                apply(VALIDITY, append(VALIDITY, buffer, 0, VALIDITY_SIZE));
+            }
+        });
+    }
+
+    @Override
+    public long[] bundleTransactions(final byte[] bundle) {
+        return lock.readLocked(() -> index.bundleTransactions(bundle));
+    }
+
+    @Override
+    public long[] addressTransactions(final byte[] address) {
+        return lock.readLocked(() -> index.addressTransactions(address));
+    }
+
+    @Override
+    public long[] tagTransactions(final byte[] tag) {
+        return lock.readLocked(() -> index.tagTransactions(tag));
+    }
+
+    @Override
+    public long[] approveeTransactions(final byte[] approvee) {
+        return lock.readLocked(() -> index.approveeTransactions(approvee));
+    }
+
+    @Override
+    public List<Hash> tips() {
+
+        final long[] pointers = tips.pointers();
+        final List<Hash> tips = new ArrayList<>(pointers.length);
+        final TransactionView view = new TransactionView();
+        for (final long pointer : pointers) {
+            tips.add(loadTransaction(pointer, view).hash());
+        }
+        return tips;
+    }
+
+    @Override
+    public int numberOfTips() {
+        return tips.size();
+    }
+
+    @Override
+    public long randomTipPointer(final Random random) {
+        return tips.random(random);
+    }
+
+    @Override
+    public boolean tipFlag(final long pointer) {
+        return (index.state(RecordIndex.slot(pointer)) & TIP_FLAG) != 0;
+    }
+
+    @Override
+    public boolean transactionToRequest(final byte[] buffer, final int offset) {
+
+        long pointer;
+        while ((pointer = missingTransactions.next()) != 0) {
+
+            final int slot = RecordIndex.slot(pointer);
+            final boolean missing = lock.readLocked(() -> {
+                if ((index.state(slot) & PREFILLED_FLAG) == 0) {
+                    return false;
+                }
+                final long location = index.location(slot);
+                final ByteBuffer segment = segments[(int) (location >>> 32)];
+                for (int i = 0; i < Transaction.HASH_SIZE; i++) {
+                    buffer[offset + i] = segment.get((int) location + i);
+                }
+                return true;
+            });
+            if (missing) {
+                return true;
+            }
+            missingTransactions.remove(pointer);
+        }
+        return false;
+    }
+
+    @Override
+    public void prioritizeMissingTransaction(final long pointer) {
+        missingTransactions.prioritize(pointer);
+    }
+
+    @Override
+    public int numberOfMissingTransactions() {
+        return missingTransactions.size();
+    }
+
+    @Override
+    public long transactionsFilterMemory() {
+        return 0;
+    }
+
+    @Override
+    public long transactionsFilterRejections() {
+        return 0;
+    }
+
+    @Override
+    public double transactionsFilterFalsePositiveRate() {
+        return 0;
+    }
+
+    @Override
+    public long storageSize() {
+        return lock.readLong(() -> sealedSize + position);
+    }
+
+
+    @Override
+    public long dirtyBytes() {
+        return 0;
+    }
+
+    @Override
+    public long flushedBytes() {
+        return 0;
+    }
+
+    @Override
+    public long averageFlushLatency() {
+        return 0;
+    }
+
+    @Override
+    public long maxFlushLatency() {
+        return 0;
+    }
+}
@@ -0,0 +1,362 @@
+package com.iota.iri.service.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Keeps the tangle in direct memory and never touches the disk, for tests, benchmarks and ephemeral nodes.
+ *
+ * Transactions are records in off-heap arenas, appended in arrival order, so the pointer of a transaction is
+ * simply its slot. A record is the cell layout of {@link StorageTransactions}, which is what
+ * {@link TransactionView} reads, and the indexes are those of {@link RecordIndex}.
+ *
+ * The semantics are those of the file engine: referenced transactions get a prefilled record, stored
+ * transactions are tips until they get approved, validity is a byte of the record. Only the tips and the
+ * missing transactions, which don't grow with the tangle, are kept on the heap.
+ */
+public class MemoryStorageProvider implements IStorageProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryStorageProvider.class);
+
+    private static final int RECORD_SIZE = (Transaction.BRANCH_TRANSACTION_POINTER_OFFSET + Transaction.BRANCH_TRANSACTION_POINTER_SIZE + Long.BYTES - 1) & -Long.BYTES;
+
+    private static final int ARENA_SHIFT = 12;
+    private static final int RECORDS_PER_ARENA = 1 << ARENA_SHIFT;
+
+    private static final int TIP_FLAG = 1; // In the state of the slot
+
+    private final StorageLock lock = new StorageLock();
+
+    private volatile ByteBuffer[] arenas;
+    private volatile int numberOfRecords;
+
+    private RecordIndex index;
+
+    private final PointerSet tips = new PointerSet();
+    private MissingTransactions missingTransactions;
+
+    @Override
+    public void init() {
+
+        lock.write(() -> {
+            arenas = new ByteBuffer[16];
+            numberOfRecords = 0;
+            index = new RecordIndex(records);
+            tips.clear();
+            missingTransactions = new MissingTransactions();
+
+            final byte[] buffer = AbstractStorage.writeBuffer(); // The null transaction, which approves itself
+            AbstractStorage.emptyCell(buffer);
+            buffer[Transaction.TYPE_OFFSET] = AbstractStorage.FILLED_SLOT;
+            AbstractStorage.setValue(buffer, Transaction.TRUNK_TRANSACTION_POINTER_OFFSET, NULL_TRANSACTION_POINTER);
+            AbstractStorage.setValue(buffer, Transaction.BRANCH_TRANSACTION_POINTER_OFFSET, NULL_TRANSACTION_POINTER);
+            final int slot = append(buffer, true);
+            index.index(slot, slot, slot);
+        });
+
+        log.info("Memory storage initialized, nothing is persisted");
+    }
+
+    @Override
+    public void shutdown() {
+        lock.write(() -> { // The arenas are freed with their buffers
+            arenas = new ByteBuffer[0];
+            numberOfRecords = 0;
+        });
+    }
+
+    private ByteBuffer arena(final int slot) {
+        return arenas[slot >> ARENA_SHIFT];
+    }
+
+    private static int offset(final int slot) {
+        return (slot & (RECORDS_PER_ARENA - 1)) * RECORD_SIZE;
+    }
+
+    private final RecordIndex.Records records = new RecordIndex.Records() {
+
+        @Override
+        public ByteBuffer buffer(final int slot) {
+            return arena(slot);
+        }
+
+        @Override
+        public int offset(final int slot) {
+            return MemoryStorageProvider.offset(slot);
+        }
+    };
+
+    private int append(final byte[] buffer, final boolean tip) { // Returns the slot of the new record
+
+        final int slot = numberOfRecords;
+        if ((slot & (RECORDS_PER_ARENA - 1)) == 0) {
+            if ((slot >> ARENA_SHIFT) == arenas.length) {
+                arenas = Arrays.copyOf(arenas, arenas.length << 1);
+            }
+            arenas[slot >> ARENA_SHIFT] = ByteBuffer.allocateDirect(RECORDS_PER_ARENA * RECORD_SIZE);
+        }
+        write(slot, buffer);
+        numberOfRecords = slot + 1;
+        index.add(slot, 0);
+        if (tip) {
+            index.setState(slot, TIP_FLAG);
+            tips.add(RecordIndex.pointer(slot));
+        }
+        return slot;
+    }
+
+    private void write(final int slot, final byte[] buffer) {
+        ((ByteBuffer) arena(slot).duplicate().position(offset(slot))).put(buffer, 0, RECORD_SIZE);
+    }
+
+    private int approve(final byte[] hash) { // Returns the slot of the approved transaction, appending a prefilled record if it's unknown
+
+        int slot = index.find(hash, 0);
+        if (slot >= 0) {
+            if ((index.state(slot) & TIP_FLAG) != 0) {
+                index.setState(slot, index.state(slot) & ~TIP_FLAG);
+                tips.remove(RecordIndex.pointer(slot));
+            }
+            return slot;
+        }
+
+        final byte[] buffer = AbstractStorage.readBuffer(); // The write buffer holds the approving transaction
+        Transaction.dump(buffer, hash, null);
+        slot = append(buffer, false);
+        missingTransactions.add(RecordIndex.pointer(slot));
+        return slot;
+    }
+
+    @Override
+    public long transactionPointer(final byte[] hash) {
+        return lock.readLong(() -> transactionPointer(hash, 0));
+    }
+
+    private long transactionPointer(final byte[] hash, final int offset) {
+
+        final int slot = index.find(hash, offset);
+        if (slot < 0) {
+            return 0;
+        }
+        return arena(slot).get(offset(slot) + Transaction.TYPE_OFFSET) == AbstractStorage.PREFILLED_SLOT ? -RecordIndex.pointer(slot) : RecordIndex.pointer(slot);
+    }
+
+    @Override
+    public Transaction loadTransaction(final long pointer) {
+        return lock.read(() -> {
+            final byte[] buffer = AbstractStorage.readBuffer();
+            final int slot = RecordIndex.slot(pointer);
+            ((ByteBuffer) arena(slot).duplicate().position(offset(slot))).get(buffer, 0, RECORD_SIZE);
+            return new Transaction(buffer, pointer);
+        });
+    }
+
+    @Override
+    public Transaction loadTransaction(final byte[] hash) {
+        final long pointer = transactionPointer(hash);
+        return pointer > 0 ? loadTransaction(pointer) : null;
+    }
+
+    @Override
+    public TransactionView loadTransaction(final long pointer, final TransactionView view) {
+
+        final int slot = RecordIndex.slot(pointer);
+        final ByteBuffer arena = arena(slot); // Arenas never move, only the array of arenas does
+        final int offset = offset(slot);
+
+        final long stamp = lock.tryOptimisticRead();
+        int type = arena.get(offset + Transaction.TYPE_OFFSET);
+        if (!lock.validate(stamp)) { // A prefilled record may be being filled right now
+            type = lock.readLocked(() -> (int) arena.get(offset + Transaction.TYPE_OFFSET));
+        }
+        view.moveTo(arena, offset, pointer, type);
+        return view;
+    }
+
+    @Override
+    public List<Transaction> loadTransactions(final long[] pointers) {
+
+        return lock.readLocked(() -> {
+            final List<Transaction> transactions = new ArrayList<>(pointers.length);
+            for (final long pointer : pointers) {
+                transactions.add(loadTransaction(pointer));
+            }
+            return transactions;
+        });
+    }
+
+    @Override
+    public long storeTransaction(final byte[] hash, final Transaction transaction, final boolean tip) {
+
+        return lock.writeLong(() -> {
+
+            int slot = index.find(hash, 0);
+            if (slot >= 0) {
+                if (transaction == null) {
+                    return RecordIndex.pointer(slot);
+                }
+                if (arena(slot).get(offset(slot) + Transaction.TYPE_OFFSET) != AbstractStorage.PREFILLED_SLOT) {
+                    return 0;
+                }
+            }
+
+            final byte[] buffer = AbstractStorage.writeBuffer();
+            Transaction.dump(buffer, hash, transaction);
+            if (transaction == null) {
+                slot = append(buffer, tip);
+                missingTransactions.add(RecordIndex.pointer(slot));
+                return RecordIndex.pointer(slot);
+            }
+
+            final int trunkSlot = approve(transaction.trunkTransaction);
+            final int branchSlot = Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction) ? trunkSlot : approve(transaction.branchTransaction);
+            AbstractStorage.setValue(buffer, Transaction.TRUNK_TRANSACTION_POINTER_OFFSET, RecordIndex.pointer(trunkSlot));
+            AbstractStorage.setValue(buffer, Transaction.BRANCH_TRANSACTION_POINTER_OFFSET, RecordIndex.pointer(branchSlot));
+
+            if (slot < 0) {
+                slot = append(buffer, true);
+            } else {
+                write(slot, buffer);
+                missingTransactions.remove(RecordIndex.pointer(slot));
+            }
+            index.index(slot, trunkSlot, branchSlot);
+            return RecordIndex.pointer(slot);
+        });
+    }
+
+    @Override
+    public void setTransactionValidity(final long pointer, final int validity) {
+
+        lock.write(() -> { // Optimistic readers of the record validate against the writes
+            final int slot = RecordIndex.slot(pointer);
+            arena(slot).put(offset(slot) + Transaction.VALIDITY_OFFSET, (byte) validity);
+        });
+    }
+
+    @Override
+    public long[] bundleTransactions(final byte[] bundle) {
+        return lock.readLocked(() -> index.bundleTransactions(bundle));
+    }
+
+    @Override
+    public long[] addressTransactions(final byte[] address) {
+        return lock.readLocked(() -> index.addressTransactions(address));
+    }
+
+    @Override
+    public long[] tagTransactions(final byte[] tag) {
+        return lock.readLocked(() -> index.tagTransactions(tag));
+    }
+
+    @Override
+    public long[] approveeTransactions(final byte[] approvee) {
+
+        return lock.readLocked(() -> index.approveeTransactions(approvee));
+    }
+
+    @Override
+    public List<Hash> tips() {
+
+        final long[] pointers = tips.pointers();
+        final List<Hash> tips = new ArrayList<>(pointers.length);
+        final TransactionView view = new TransactionView();
+        for (final long pointer : pointers) {
+            tips.add(loadTransaction(pointer, view).hash());
+        }
+        return tips;
+    }
+
+    @Override
+    public int numberOfTips() {
+        return tips.size();
+    }
+
+    @Override
+    public long randomTipPointer(final Random random) {
+        return tips.random(random);
+    }
+
+    @Override
+    public boolean tipFlag(final long pointer) {
+        return (index.state(RecordIndex.slot(pointer)) & TIP_FLAG) != 0;
+    }
+
+    @Override
+    public boolean transactionToRequest(final byte[] buffer, final int offset) {
+
+        long pointer;
+        while ((pointer = missingTransactions.next()) != 0) {
+
+            final int slot = RecordIndex.slot(pointer);
+            final ByteBuffer arena = arena(slot);
+            if (arena.get(offset(slot) + Transaction.TYPE_OFFSET) == AbstractStorage.PREFILLED_SLOT) { // The hash of a record never changes, only its type
+                for (int i = 0; i < Transaction.HASH_SIZE; i++) {
+                    buffer[offset + i] = arena.get(offset(slot) + Transaction.HASH_OFFSET + i);
+                }
+                return true;
+            }
+            missingTransactions.remove(pointer);
+        }
+        return false;
+    }
+
+    @Override
+    public void prioritizeMissingTransaction(final long pointer) {
+        missingTransactions.prioritize(pointer);
+    }
+
+    @Override
+    public int numberOfMissingTransactions() {
+        return missingTransactions.size();
+    }
+
+    @Override
+    public long transactionsFilterMemory() {
+        return 0;
+    }
+
+    @Override
+    public long transactionsFilterRejections() {
+        return 0;
+    }
+
+    @Override
+    public double transactionsFilterFalsePositiveRate() {
+        return 0;
+    }
+
+    @Override
+    public long storageSize() {
+        return 0;
+    }
+
+
+    @Override
+    public long dirtyBytes() {
+        return 0;
+    }
+
+    @Override
+    public long flushedBytes() {
+        return 0;
+    }
+
+    @Override
+    public long averageFlushLatency() {
+        return 0;
+    }
+
+    @Override
+    public long maxFlushLatency() {
+        return 0;
+    }
+}
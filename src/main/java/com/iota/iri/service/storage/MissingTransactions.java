@@ -0,0 +1,107 @@
+package com.iota.iri.service.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Pointers of the prefilled cells, i.e. the transactions which are referenced but haven't arrived yet.
+ *
+ * A pointer is added when a prefilled cell is appended and removed when the cell gets filled, so the next
+ * hash to request is picked in O(1) instead of being searched for. Missing ancestors of the latest milestone
+ * are prioritized: as long as there are any, three requests out of four go to them.
+ *
+ * A pointer may outlive its prefilled state if a snapshot older than the storage was loaded after a crash,
+ * the caller drops such pointers when it comes across them.
+ */
+final class MissingTransactions {
+
+    private static final long MAGIC = 0x495249544d495331L; // "IRITMIS1"
+
+    private final PointerSet missing = new PointerSet();
+    private final PointerSet prioritized = new PointerSet();
+    private int numberOfTakes;
+
+    void add(final long pointer) {
+        missing.add(pointer);
+    }
+
+    void remove(final long pointer) {
+        if (missing.remove(pointer)) {
+            prioritized.remove(pointer);
+        }
+    }
+
+    void prioritize(final long pointer) {
+        if (missing.contains(pointer)) {
+            prioritized.add(pointer);
+        }
+    }
+
+    int size() {
+        return missing.size();
+    }
+
+    long[] pointers() {
+        return missing.pointers();
+    }
+
+    synchronized long next() { // 0 if nothing is missing
+
+        if (prioritized.size() > 0 && (numberOfTakes++ & 3) != 0) {
+            return prioritized.next();
+        }
+        return missing.next();
+    }
+
+    void save(final Path path, final long storageId, final long coveredPointer, final LongPredicate filter) throws IOException { // Only the pointers "filter" accepts, e.g. the ones of a shard
+
+        try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+
+            final long[] pointers = Arrays.stream(missing.pointers()).filter(filter).toArray();
+            output.writeLong(MAGIC);
+            output.writeLong(storageId);
+            output.writeLong(coveredPointer);
+            output.writeInt(pointers.length);
+            for (final long pointer : pointers) {
+                output.writeLong(pointer);
+            }
+        }
+    }
+
+    static long load(final Path path, final long storageId, final MissingTransactions missingTransactions) throws IOException { // Returns the pointer up to which "missingTransactions" is filled, 0 if there is no usable snapshot
+
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+            if (input.readLong() != MAGIC || input.readLong() != storageId) {
+                return 0;
+            }
+            final long coveredPointer = input.readLong();
+            final int numberOfPointers = input.readInt();
+            if (numberOfPointers < 0 || numberOfPointers > Files.size(path) / Long.BYTES) {
+                return 0;
+            }
+            final long[] pointers = new long[numberOfPointers];
+            for (int i = 0; i < numberOfPointers; i++) {
+                pointers[i] = input.readLong();
+            }
+            for (final long pointer : pointers) { // Only once the whole snapshot is read, the set may hold the ones of other shards
+                missingTransactions.add(pointer);
+            }
+            return coveredPointer;
+
+        } catch (final IOException | RuntimeException e) { // Truncated or otherwise broken snapshot, it gets rebuilt
+            return 0;
+        }
+    }
+}
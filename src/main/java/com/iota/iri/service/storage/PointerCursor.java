@@ -0,0 +1,152 @@
+package com.iota.iri.service.storage;
+
+import java.util.List;
+
+/**
+ * Lazy ascending walk over transaction pointers, e.g. over the transactions of an address.
+ *
+ * A cursor sits on its current pointer (none before the first call, 0 once exhausted): {@link #next()} moves
+ * past it, {@link #seek(long)} moves forward to the first pointer greater than or equal to the target and
+ * stays put if the current pointer already is. Cursors over the indexes decode one block at a time, so walking
+ * them, or intersecting them with {@link #intersection(List)}, takes memory bounded by the number of cursors
+ * and skips the blocks the other cursors jump over.
+ */
+public interface PointerCursor {
+
+    PointerCursor EMPTY = new PointerCursor() {
+
+        @Override
+        public long next() {
+            return 0;
+        }
+
+        @Override
+        public long seek(final long target) {
+            return 0;
+        }
+    };
+
+    long next(); // 0 once exhausted
+
+    long seek(final long target); // "target" > 0, returns 0 once exhausted
+
+    static PointerCursor of(final long[] pointers) { // "pointers" sorted
+
+        return pointers.length == 0 ? EMPTY : new PointerCursor() {
+
+            private int index = -1;
+
+            @Override
+            public long next() {
+                return index < pointers.length && ++index < pointers.length ? pointers[index] : 0;
+            }
+
+            @Override
+            public long seek(final long target) {
+
+                if (index < 0) {
+                    index = 0;
+                }
+                if (index >= pointers.length || pointers[index] >= target) {
+                    return index < pointers.length ? pointers[index] : 0;
+                }
+                int low = index + 1, high = pointers.length;
+                while (low < high) {
+                    final int middle = (low + high) >>> 1;
+                    if (pointers[middle] < target) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                index = low;
+                return index < pointers.length ? pointers[index] : 0;
+            }
+        };
+    }
+
+    static PointerCursor union(final List<PointerCursor> cursors) { // Each pointer once
+
+        if (cursors.isEmpty()) {
+            return EMPTY;
+        }
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        final PointerCursor[] heads = cursors.toArray(new PointerCursor[cursors.size()]);
+        final long[] pointers = new long[heads.length];
+
+        return new PointerCursor() {
+
+            private long current;
+
+            @Override
+            public long next() {
+                return seek(current + 1);
+            }
+
+            @Override
+            public long seek(final long target) {
+
+                if (current < 0 || current >= target) {
+                    return Math.max(current, 0);
+                }
+                long minimum = Long.MAX_VALUE;
+                for (int i = 0; i < heads.length; i++) {
+                    if (pointers[i] >= 0 && pointers[i] < target) {
+                        pointers[i] = heads[i].seek(target);
+                        if (pointers[i] == 0) {
+                            pointers[i] = -1; // Exhausted
+                        }
+                    }
+                    if (pointers[i] > 0 && pointers[i] < minimum) {
+                        minimum = pointers[i];
+                    }
+                }
+                current = minimum == Long.MAX_VALUE ? -1 : minimum;
+                return Math.max(current, 0);
+            }
+        };
+    }
+
+    static PointerCursor intersection(final List<PointerCursor> cursors) { // Leapfrogs, the most selective cursor first is the fastest
+
+        if (cursors.isEmpty()) {
+            return EMPTY;
+        }
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        final PointerCursor[] heads = cursors.toArray(new PointerCursor[cursors.size()]);
+
+        return new PointerCursor() {
+
+            private long current;
+
+            @Override
+            public long next() {
+                return seek(current + 1);
+            }
+
+            @Override
+            public long seek(final long target) {
+
+                if (current < 0 || current >= target) {
+                    return Math.max(current, 0);
+                }
+                long candidate = heads[0].seek(target);
+                for (int i = 1; candidate != 0 && i < heads.length; ) {
+                    final long pointer = heads[i].seek(candidate);
+                    if (pointer == candidate) {
+                        i++;
+                    } else {
+                        candidate = pointer == 0 ? 0 : heads[0].seek(pointer);
+                        i = 1;
+                    }
+                }
+                current = candidate == 0 ? -1 : candidate;
+                return candidate;
+            }
+        };
+    }
+}
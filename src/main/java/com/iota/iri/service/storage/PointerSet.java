@@ -0,0 +1,81 @@
+package com.iota.iri.service.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Set of cell pointers kept densely packed, with the position of each pointer on the side.
+ *
+ * Adding, removing, counting, picking a random pointer and cycling through the pointers are all O(1), and
+ * enumerating them is O(size), whatever the size of the storage. Used for the tips and for the missing
+ * transactions, which are both maintained incrementally as transactions get stored.
+ */
+final class PointerSet {
+
+    private final Map<Long, Integer> positions = new HashMap<>();
+
+    private long[] pointers = new long[1 << 10];
+    private volatile int size;
+    private int cursor;
+
+    synchronized boolean add(final long pointer) {
+
+        if (positions.putIfAbsent(pointer, size) != null) {
+            return false;
+        }
+        if (size == pointers.length) {
+            pointers = Arrays.copyOf(pointers, size << 1);
+        }
+        pointers[size] = pointer;
+        size++;
+        return true;
+    }
+
+    synchronized boolean remove(final long pointer) {
+
+        final Integer position = positions.remove(pointer);
+        if (position == null) {
+            return false;
+        }
+
+        final long lastPointer = pointers[--size];
+        if (position != size) {
+            pointers[position] = lastPointer;
+            positions.put(lastPointer, position);
+        }
+        return true;
+    }
+
+    synchronized boolean contains(final long pointer) {
+        return positions.containsKey(pointer);
+    }
+
+    int size() {
+        return size;
+    }
+
+    synchronized long[] pointers() {
+        return Arrays.copyOf(pointers, size);
+    }
+
+    synchronized long random(final Random random) { // 0 if the set is empty
+        return size == 0 ? 0 : pointers[random.nextInt(size)];
+    }
+
+    synchronized long next() { // Cycles through the pointers, most recently added first, 0 if the set is empty
+
+        if (size == 0) {
+            return 0;
+        }
+        cursor = (cursor <= 0 || cursor > size ? size : cursor) - 1;
+        return pointers[cursor];
+    }
+
+    synchronized void clear() {
+        positions.clear();
+        size = 0;
+        cursor = 0;
+    }
+}
@@ -0,0 +1,455 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.iota.iri.model.Transaction;
+
+/**
+ * Sorted lists of transaction pointers of the index storages (bundles, addresses, tags, approvers), one per key.
+ *
+ * A list is a chain of blocks, one per cell, the first one being the leaf cell which holds the key. A block keeps
+ * its first pointer as is and the following ones as varint deltas of their cell numbers, so a list of
+ * transactions stored close to each other takes 1 or 2 bytes per pointer instead of 8. The trailer of a block
+ * (first pointer, last pointer, number of pointers, next block) lets scans skip whole blocks without decoding
+ * them, and the leaf keeps the last block and the size of the list, so the usual append of a new transaction
+ * doesn't walk the chain. A transaction which was prefilled is indexed once it arrives, behind transactions
+ * with greater pointers: its block is decoded, the pointer inserted, and the block split if it overflows.
+ *
+ * Adding a pointer survives the death of the process at any point, so that the journal can be replayed over the
+ * lists as they are: new cells are only linked once whole, by a single store, the leaf being added to is recorded
+ * into the super groups of the file until its fields are up to date, and a block rewritten by an insertion is
+ * first copied next to it. {@link #init(long)} completes the addition which was in progress, if any.
+ *
+ * Only written under the storage write lock, read under the read lock.
+ */
+final class PostingList {
+
+    interface Cells {
+
+        long append(byte[] cell); // Returns the pointer of the new cell
+    }
+
+    static final long FORMAT = 0x504f5354494e4731L; // "POSTING1" at pointer 0 of the file, never a valid cell pointer
+
+    private static final long[] NO_POINTERS = new long[0];
+
+    static final long INTENT_POINTER = AbstractStorage.CELL_SIZE, SHADOW_POINTER = 2 * AbstractStorage.CELL_SIZE; // Cells of the super groups, unused otherwise
+    static final int PENDING_LEAF_OFFSET = 0, PENDING_BLOCK_OFFSET = Long.BYTES; // In the intent cell, 0 when no addition is in progress
+
+    private static final int NEXT_BLOCK_OFFSET = AbstractStorage.CELL_SIZE - Long.BYTES;
+    static final int LAST_POINTER_OFFSET = NEXT_BLOCK_OFFSET - Long.BYTES;
+    private static final int FIRST_POINTER_OFFSET = LAST_POINTER_OFFSET - Long.BYTES;
+    private static final int COUNT_OFFSET = FIRST_POINTER_OFFSET - Long.BYTES;
+    private static final int END_OFFSET = COUNT_OFFSET - Long.BYTES; // Where the varints end
+
+    private static final int TAIL_OFFSET = Transaction.HASH_OFFSET + Transaction.ADDRESS_SIZE + 7 & -Long.BYTES; // Of the leaf, after the longest key
+    private static final int SIZE_OFFSET = TAIL_OFFSET + Long.BYTES;
+    private static final int LEAF_DATA_OFFSET = SIZE_OFFSET + Long.BYTES;
+    private static final int BLOCK_DATA_OFFSET = Long.BYTES; // The first byte of a cell which isn't a leaf stays 0
+
+    static final int MAX_BLOCK_SIZE = END_OFFSET - BLOCK_DATA_OFFSET + 1; // A varint takes at least 1 byte
+
+    private final String fileName;
+    private final ByteBuffer[] chunks;
+    private final DirtyPages dirtyPages;
+    private final Cells cells;
+
+    private final byte[] cell = new byte[AbstractStorage.CELL_SIZE], splitCell = new byte[AbstractStorage.CELL_SIZE];
+    private final long[] block = new long[MAX_BLOCK_SIZE + 1];
+
+    PostingList(final String fileName, final ByteBuffer[] chunks, final DirtyPages dirtyPages, final Cells cells) { // "cells" marks the cells it appends
+        this.fileName = fileName;
+        this.chunks = chunks;
+        this.dirtyPages = dirtyPages;
+        this.cells = cells;
+    }
+
+    void init(final long nextPointer) throws IOException { // Called once the cells are mapped
+
+        if (nextPointer == AbstractStorage.SUPER_GROUPS_SIZE) {
+            AbstractStorage.setCellValue(chunks, 0, 0, FORMAT);
+            dirtyPages.mark(0);
+        } else if (AbstractStorage.cellValue(chunks, 0, 0) != FORMAT) {
+            throw StorageConverter.unconverted(fileName);
+        } else {
+            recover();
+        }
+    }
+
+    private void recover() { // Completes the addition the process died in the middle of, if any
+
+        final long blockPointer = AbstractStorage.cellValue(chunks, INTENT_POINTER, PENDING_BLOCK_OFFSET);
+        if (blockPointer != 0) { // Its copy is whole, the block itself may not be
+            AbstractStorage.readCell(chunks, SHADOW_POINTER, cell);
+            AbstractStorage.writeCell(chunks, blockPointer, cell);
+            dirtyPages.mark(blockPointer);
+            setPending(PENDING_BLOCK_OFFSET, 0);
+        }
+
+        final long leaf = AbstractStorage.cellValue(chunks, INTENT_POINTER, PENDING_LEAF_OFFSET);
+        if (leaf != 0) { // The count of a block tells whether a pointer appended to it is in, its other fields and the ones of the leaf are derived again
+
+            long size = 0, tail = leaf;
+            for (long next = leaf; next != 0; next = AbstractStorage.cellValue(chunks, next, NEXT_BLOCK_OFFSET)) {
+                size += AbstractStorage.cellValue(chunks, next, COUNT_OFFSET);
+                tail = next;
+            }
+            AbstractStorage.readCell(chunks, tail, cell);
+            final int dataOffset = tail == leaf ? LEAF_DATA_OFFSET : BLOCK_DATA_OFFSET;
+            encode(cell, dataOffset, block, 0, decode(cell, dataOffset, block));
+            AbstractStorage.writeCell(chunks, tail, cell);
+            dirtyPages.mark(tail);
+            setTail(leaf, tail);
+            AbstractStorage.setCellValue(chunks, leaf, SIZE_OFFSET, size);
+            setPending(PENDING_LEAF_OFFSET, 0);
+        }
+    }
+
+    long create(final byte[] key, final int keySize, final long[] pointers, final int size) { // Appends the leaf of a new key, "pointers" sorted, returns the pointer of the leaf
+
+        AbstractStorage.emptyCell(cell);
+        cell[Transaction.TYPE_OFFSET] = AbstractStorage.FILLED_SLOT;
+        System.arraycopy(key, 0, cell, Transaction.HASH_OFFSET, keySize);
+        AbstractStorage.setValue(cell, SIZE_OFFSET, size);
+
+        int encoded = encode(cell, LEAF_DATA_OFFSET, pointers, 0, size);
+        if (encoded == size) {
+            final long leaf = cells.append(cell);
+            setTail(leaf, leaf);
+            return leaf;
+        }
+
+        final long leaf = cells.append(cell); // The following blocks are appended right after it
+        long tail = leaf;
+        while (encoded < size) {
+            AbstractStorage.emptyCell(cell);
+            final int from = encoded;
+            encoded = encode(cell, BLOCK_DATA_OFFSET, pointers, from, size);
+            final long next = cells.append(cell);
+            AbstractStorage.setCellValue(chunks, tail, NEXT_BLOCK_OFFSET, next);
+            dirtyPages.mark(tail);
+            tail = next;
+        }
+        setTail(leaf, tail);
+        return leaf;
+    }
+
+    void add(final long leaf, final long pointer) { // Does nothing if the list holds "pointer" already
+
+        setPending(PENDING_LEAF_OFFSET, leaf);
+        final long tail = tail(leaf);
+        final long last = AbstractStorage.cellValue(chunks, tail, LAST_POINTER_OFFSET);
+        boolean added = true;
+        if (pointer > last) {
+
+            final int end = (int) AbstractStorage.cellValue(chunks, tail, END_OFFSET);
+            final int length = writeVarint(cell, 0, (pointer >> 11) - (last >> 11));
+            if (end + length <= END_OFFSET) { // Written in place, the trailer last, the count publishes the pointer
+
+                final ByteBuffer chunk = chunks[(int) (tail >> 27)];
+                final int offset = (int) (tail & (AbstractStorage.CHUNK_SIZE - 1)) + end;
+                for (int i = 0; i < length; i++) {
+                    chunk.put(offset + i, cell[i]);
+                }
+                AbstractStorage.setCellValue(chunks, tail, END_OFFSET, end + length);
+                AbstractStorage.setCellValue(chunks, tail, COUNT_OFFSET, AbstractStorage.cellValue(chunks, tail, COUNT_OFFSET) + 1);
+                AbstractStorage.setCellValue(chunks, tail, LAST_POINTER_OFFSET, pointer);
+                dirtyPages.mark(tail);
+
+            } else {
+
+                AbstractStorage.emptyCell(splitCell);
+                block[0] = pointer;
+                encode(splitCell, BLOCK_DATA_OFFSET, block, 0, 1);
+                final long next = cells.append(splitCell);
+                AbstractStorage.setCellValue(chunks, tail, NEXT_BLOCK_OFFSET, next);
+                dirtyPages.mark(tail);
+                setTail(leaf, next);
+            }
+
+        } else if (pointer == last) {
+
+            added = false;
+
+        } else {
+
+            long blockPointer = leaf;
+            while (AbstractStorage.cellValue(chunks, blockPointer, LAST_POINTER_OFFSET) < pointer) { // Skips the blocks before the one "pointer" belongs to
+                blockPointer = AbstractStorage.cellValue(chunks, blockPointer, NEXT_BLOCK_OFFSET);
+            }
+            added = insert(leaf, blockPointer, pointer);
+        }
+        if (added) {
+            AbstractStorage.setCellValue(chunks, leaf, SIZE_OFFSET, size(leaf) + 1);
+            dirtyPages.mark(leaf);
+        }
+        setPending(PENDING_LEAF_OFFSET, 0);
+    }
+
+    void addAll(final StorageTrie trie, final int keySize, final byte[][] keys, final long[] pointers, final int size) { // A batch grouped by key: one trie lookup and one new leaf per key, then appends in order
+
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> {
+            for (int k = 0; k < keySize; k++) {
+                if (keys[i][k] != keys[j][k]) {
+                    return keys[i][k] - keys[j][k];
+                }
+            }
+            return Long.compare(pointers[i], pointers[j]);
+        });
+
+        final long[] run = new long[size];
+        for (int from = 0, to; from < size; from = to) {
+
+            final byte[] key = keys[order[from]];
+            int runSize = 0;
+            for (to = from; to < size && sameKey(key, keys[order[to]], keySize); to++) {
+                if (runSize == 0 || run[runSize - 1] != pointers[order[to]]) { // A replayed batch may hold a transaction twice
+                    run[runSize++] = pointers[order[to]];
+                }
+            }
+
+            final long leaf = trie.get(key, 0);
+            if (leaf == 0) {
+                trie.put(key, create(key, keySize, run, runSize));
+            } else {
+                for (int i = 0; i < runSize; i++) {
+                    add(leaf, run[i]);
+                }
+            }
+        }
+    }
+
+    private static boolean sameKey(final byte[] key, final byte[] otherKey, final int keySize) {
+
+        for (int i = 0; i < keySize; i++) {
+            if (key[i] != otherKey[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean insert(final long leaf, final long blockPointer, final long pointer) { // False if the block holds "pointer" already
+
+        AbstractStorage.readCell(chunks, blockPointer, cell);
+        final int dataOffset = blockPointer == leaf ? LEAF_DATA_OFFSET : BLOCK_DATA_OFFSET;
+        int count = decode(cell, dataOffset, block);
+        int i = count;
+        while (i > 0 && block[i - 1] > pointer) {
+            i--;
+        }
+        if (i > 0 && block[i - 1] == pointer) {
+            return false;
+        }
+        System.arraycopy(block, i, block, i + 1, count - i);
+        block[i] = pointer;
+        count++;
+
+        final long next = AbstractStorage.value(cell, NEXT_BLOCK_OFFSET);
+        long tail = 0; // Of the list, if the split cells end it and the block isn't the leaf
+        int encoded = encode(cell, dataOffset, block, 0, count);
+        if (encoded < count) { // Split in halves, so that the next insertions have room
+
+            encoded = encode(cell, dataOffset, block, 0, count >> 1);
+            long previous = 0;
+            long first = 0;
+            while (encoded < count) {
+                AbstractStorage.emptyCell(splitCell);
+                final int from = encoded;
+                encoded = encode(splitCell, BLOCK_DATA_OFFSET, block, from, count);
+                final long split = cells.append(splitCell);
+                if (previous == 0) {
+                    first = split;
+                } else {
+                    AbstractStorage.setCellValue(chunks, previous, NEXT_BLOCK_OFFSET, split);
+                    dirtyPages.mark(previous);
+                }
+                previous = split;
+            }
+            AbstractStorage.setCellValue(chunks, previous, NEXT_BLOCK_OFFSET, next);
+            dirtyPages.mark(previous);
+            AbstractStorage.setValue(cell, NEXT_BLOCK_OFFSET, first);
+            if (next == 0) {
+                if (blockPointer == leaf) {
+                    AbstractStorage.setValue(cell, TAIL_OFFSET, previous);
+                } else {
+                    tail = previous;
+                }
+            }
+        }
+
+        AbstractStorage.writeCell(chunks, SHADOW_POINTER, cell);
+        dirtyPages.mark(SHADOW_POINTER);
+        setPending(PENDING_BLOCK_OFFSET, blockPointer);
+        AbstractStorage.writeCell(chunks, blockPointer, cell); // With the fields of the leaf if it's the leaf
+        dirtyPages.mark(blockPointer);
+        setPending(PENDING_BLOCK_OFFSET, 0);
+        if (tail != 0) {
+            setTail(leaf, tail);
+        }
+        return true;
+    }
+
+    long size(final long leaf) {
+        return AbstractStorage.cellValue(chunks, leaf, SIZE_OFFSET);
+    }
+
+    long[] pointers(final long leaf) { // Sorted
+
+        if (leaf == 0) {
+            return NO_POINTERS;
+        }
+        final long[] pointers = new long[(int) size(leaf)];
+        int size = 0;
+        for (long blockPointer = leaf; blockPointer != 0; blockPointer = AbstractStorage.cellValue(chunks, blockPointer, NEXT_BLOCK_OFFSET)) {
+            size += decode(chunks, blockPointer, blockPointer == leaf ? LEAF_DATA_OFFSET : BLOCK_DATA_OFFSET, pointers, size);
+        }
+        return pointers;
+    }
+
+    PointerCursor cursor(final long leaf, final StorageLock lock) { // Reads the list one block at a time, each under the read lock
+
+        return leaf == 0 ? PointerCursor.EMPTY : new PointerCursor() {
+
+            private final long[] pointers = new long[MAX_BLOCK_SIZE];
+            private int count, index;
+            private long blockPointer; // Of the block decoded last, its next block is read anew as it may have been split meanwhile
+            private long current; // -1 once exhausted
+
+            @Override
+            public long next() {
+                return seek(current + 1);
+            }
+
+            @Override
+            public long seek(final long target) {
+
+                if (current < 0 || current >= target) {
+                    return Math.max(current, 0);
+                }
+                while (count == 0 || pointers[count - 1] < target) {
+                    if ((count = lock.readLocked(() -> decodeBlock(target))) == 0) {
+                        current = -1;
+                        return 0;
+                    }
+                    index = 0;
+                }
+                while (pointers[index] < target) {
+                    index++;
+                }
+                return current = pointers[index];
+            }
+
+            private int decodeBlock(final long target) { // Decodes the first following block which holds a pointer >= "target", returns 0 if none
+
+                long next = blockPointer == 0 ? leaf : AbstractStorage.cellValue(chunks, blockPointer, NEXT_BLOCK_OFFSET);
+                while (next != 0 && AbstractStorage.cellValue(chunks, next, LAST_POINTER_OFFSET) < target) { // Skipped by the trailer
+                    blockPointer = next;
+                    next = AbstractStorage.cellValue(chunks, next, NEXT_BLOCK_OFFSET);
+                }
+                if (next == 0) {
+                    return 0;
+                }
+                blockPointer = next;
+                return decode(chunks, next, next == leaf ? LEAF_DATA_OFFSET : BLOCK_DATA_OFFSET, pointers, 0);
+            }
+        };
+    }
+
+    private long tail(final long leaf) {
+        return AbstractStorage.cellValue(chunks, leaf, TAIL_OFFSET);
+    }
+
+    private void setTail(final long leaf, final long tail) {
+        AbstractStorage.setCellValue(chunks, leaf, TAIL_OFFSET, tail);
+        dirtyPages.mark(leaf);
+    }
+
+    private void setPending(final int offset, final long value) {
+        AbstractStorage.setCellValue(chunks, INTENT_POINTER, offset, value);
+        dirtyPages.mark(INTENT_POINTER);
+    }
+
+    private static int encode(final byte[] cell, final int dataOffset, final long[] pointers, final int from, final int to) { // Fills the block with as many pointers as fit, returns the index of the first one left out
+
+        int end = dataOffset;
+        int i = from + 1;
+        for (; i < to; i++) {
+            final long delta = (pointers[i] >> 11) - (pointers[i - 1] >> 11);
+            if (end + varintLength(delta) > END_OFFSET) {
+                break;
+            }
+            end = writeVarint(cell, end, delta);
+        }
+        for (int j = end; j < END_OFFSET; j++) {
+            cell[j] = 0;
+        }
+        AbstractStorage.setValue(cell, END_OFFSET, end);
+        AbstractStorage.setValue(cell, COUNT_OFFSET, i - from);
+        AbstractStorage.setValue(cell, FIRST_POINTER_OFFSET, pointers[from]);
+        AbstractStorage.setValue(cell, LAST_POINTER_OFFSET, pointers[i - 1]);
+        return i;
+    }
+
+    private static int decode(final byte[] cell, final int dataOffset, final long[] pointers) { // Returns the number of pointers
+
+        final int count = (int) AbstractStorage.value(cell, COUNT_OFFSET);
+        long pointer = AbstractStorage.value(cell, FIRST_POINTER_OFFSET);
+        pointers[0] = pointer;
+        int offset = dataOffset;
+        for (int i = 1; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = cell[offset++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            pointers[i] = pointer += delta << 11;
+        }
+        return count;
+    }
+
+    private static int decode(final ByteBuffer[] chunks, final long blockPointer, final int dataOffset, final long[] pointers, final int index) { // Straight from the chunk, nothing is copied
+
+        final ByteBuffer chunk = chunks[(int) (blockPointer >> 27)];
+        final int cellOffset = (int) (blockPointer & (AbstractStorage.CHUNK_SIZE - 1));
+        final int count = (int) AbstractStorage.value(chunk, cellOffset + COUNT_OFFSET);
+        long pointer = AbstractStorage.value(chunk, cellOffset + FIRST_POINTER_OFFSET);
+        pointers[index] = pointer;
+        int offset = cellOffset + dataOffset;
+        for (int i = 1; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = chunk.get(offset++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            pointers[index + i] = pointer += delta << 11;
+        }
+        return count;
+    }
+
+    private static int varintLength(final long value) {
+        return value == 0 ? 1 : (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    private static int writeVarint(final byte[] cell, int offset, long value) { // Returns the offset after it
+
+        while ((value & ~0x7FL) != 0) {
+            cell[offset++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        cell[offset++] = (byte) value;
+        return offset;
+    }
+}
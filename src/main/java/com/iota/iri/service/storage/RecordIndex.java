@@ -0,0 +1,307 @@
+package com.iota.iri.service.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.iota.iri.model.Transaction;
+
+/**
+ * Off-heap indexes of the engines which keep their transactions as records numbered in arrival order
+ * ({@link MemoryStorageProvider}, {@link LogStorageProvider}), the number of a record being its slot.
+ *
+ * Each slot gets a fixed entry in direct memory: the links which chain the transactions with the same bundle,
+ * address or tag, the approvers of the transaction (one link per approved transaction), an int of state and a
+ * long the engine can use to locate the record. Hashes, bundles, addresses and tags are found through open
+ * addressing tables pointing at the first and the last slot of each chain, which compare the searched key
+ * with the one in the record instead of storing a copy, so an entry costs 8 bytes whatever the key size.
+ *
+ * Only written under the write lock of the engine. Tables and pages are replaced rather than resized in place,
+ * so optimistic readers never see a half rehashed table, they only need to be validated.
+ */
+final class RecordIndex {
+
+    interface Records { // Where the cell layout of a slot starts, its fields are at the offsets of Transaction
+
+        ByteBuffer buffer(int slot);
+
+        int offset(int slot);
+    }
+
+    // Links hold a slot + 1, 0 ends a chain. Approver links are (slot << 1 | 1 if approved as branch) + 1.
+    private static final int NEXT_IN_BUNDLE_OFFSET = 0, NEXT_IN_ADDRESS_OFFSET = NEXT_IN_BUNDLE_OFFSET + Integer.BYTES, NEXT_IN_TAG_OFFSET = NEXT_IN_ADDRESS_OFFSET + Integer.BYTES;
+    private static final int FIRST_APPROVER_OFFSET = NEXT_IN_TAG_OFFSET + Integer.BYTES, LAST_APPROVER_OFFSET = FIRST_APPROVER_OFFSET + Integer.BYTES;
+    private static final int NEXT_TRUNK_APPROVER_OFFSET = LAST_APPROVER_OFFSET + Integer.BYTES, NEXT_BRANCH_APPROVER_OFFSET = NEXT_TRUNK_APPROVER_OFFSET + Integer.BYTES;
+    private static final int STATE_OFFSET = NEXT_BRANCH_APPROVER_OFFSET + Integer.BYTES;
+    private static final int LOCATION_OFFSET = STATE_OFFSET + Integer.BYTES;
+    private static final int ENTRY_SIZE = LOCATION_OFFSET + Long.BYTES;
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int SLOTS_PER_PAGE = 1 << PAGE_SHIFT;
+
+    private static final long[] NO_POINTERS = new long[0];
+
+    private final Records records;
+
+    private volatile ByteBuffer[] pages = new ByteBuffer[16];
+    private final KeyTable transactions = new KeyTable(Transaction.HASH_OFFSET, Transaction.HASH_SIZE);
+    private final KeyTable bundles = new KeyTable(Transaction.BUNDLE_OFFSET, Transaction.BUNDLE_SIZE);
+    private final KeyTable addresses = new KeyTable(Transaction.ADDRESS_OFFSET, Transaction.ADDRESS_SIZE);
+    private final KeyTable tags = new KeyTable(Transaction.TAG_OFFSET, Transaction.TAG_SIZE);
+
+    RecordIndex(final Records records) {
+        this.records = records;
+    }
+
+    static long pointer(final int slot) {
+        return IStorageProvider.NULL_TRANSACTION_POINTER + ((long) slot << 11);
+    }
+
+    static int slot(final long pointer) {
+        return (int) ((pointer - IStorageProvider.NULL_TRANSACTION_POINTER) >> 11);
+    }
+
+    int find(final byte[] hash, final int offset) { // The slot of the transaction, -1 if it's unknown
+        final int entry = transactions.find(hash, offset);
+        return entry < 0 ? -1 : transactions.first(entry);
+    }
+
+    void add(final int slot, final long location) { // Registers the hash of a new slot, slots are added in order
+
+        if ((slot & (SLOTS_PER_PAGE - 1)) == 0) {
+            ByteBuffer[] pages = this.pages;
+            if ((slot >> PAGE_SHIFT) == pages.length) {
+                this.pages = pages = Arrays.copyOf(pages, pages.length << 1);
+            }
+            pages[slot >> PAGE_SHIFT] = ByteBuffer.allocateDirect(SLOTS_PER_PAGE * ENTRY_SIZE);
+        }
+        setLocation(slot, location); // Before the hash is inserted, the engine may need it to find the record
+        transactions.insert(slot);
+    }
+
+    void index(final int slot, final int trunkSlot, final int branchSlot) { // Once the transaction of "slot" is known
+
+        bundles.chain(slot, NEXT_IN_BUNDLE_OFFSET);
+        addresses.chain(slot, NEXT_IN_ADDRESS_OFFSET);
+        final ByteBuffer buffer = records.buffer(slot);
+        for (int i = 0; i < Transaction.TAG_SIZE; i++) {
+            if (buffer.get(records.offset(slot) + Transaction.TAG_OFFSET + i) != 0) {
+                tags.chain(slot, NEXT_IN_TAG_OFFSET);
+                break;
+            }
+        }
+
+        addApprover(trunkSlot, slot << 1);
+        if (branchSlot != trunkSlot) {
+            addApprover(branchSlot, slot << 1 | 1);
+        }
+    }
+
+    private void addApprover(final int slot, final int approver) {
+
+        final int last = link(slot, LAST_APPROVER_OFFSET);
+        if (last == 0) {
+            setLink(slot, FIRST_APPROVER_OFFSET, approver + 1);
+        } else {
+            setLink((last - 1) >> 1, ((last - 1) & 1) == 0 ? NEXT_TRUNK_APPROVER_OFFSET : NEXT_BRANCH_APPROVER_OFFSET, approver + 1);
+        }
+        setLink(slot, LAST_APPROVER_OFFSET, approver + 1);
+    }
+
+    long[] bundleTransactions(final byte[] bundle) {
+        return bundles.chain(bundle, NEXT_IN_BUNDLE_OFFSET);
+    }
+
+    long[] addressTransactions(final byte[] address) {
+        return addresses.chain(address, NEXT_IN_ADDRESS_OFFSET);
+    }
+
+    long[] tagTransactions(final byte[] tag) {
+        return tags.chain(tag, NEXT_IN_TAG_OFFSET);
+    }
+
+    long[] approveeTransactions(final byte[] approvee) { // Sorted
+
+        final int approveeSlot = find(approvee, 0);
+        if (approveeSlot < 0) {
+            return NO_POINTERS;
+        }
+        int size = 0;
+        for (int approver = link(approveeSlot, FIRST_APPROVER_OFFSET); approver != 0; approver = nextApprover(approver)) {
+            size++;
+        }
+        final long[] approvers = new long[size];
+        size = 0;
+        for (int approver = link(approveeSlot, FIRST_APPROVER_OFFSET); approver != 0; approver = nextApprover(approver)) {
+            approvers[size++] = pointer((approver - 1) >> 1);
+        }
+        Arrays.sort(approvers);
+        return approvers;
+    }
+
+    private int nextApprover(final int approver) {
+        return link((approver - 1) >> 1, ((approver - 1) & 1) == 0 ? NEXT_TRUNK_APPROVER_OFFSET : NEXT_BRANCH_APPROVER_OFFSET);
+    }
+
+    ByteBuffer page(final int slot) { // Where the state of "slot" is, for views which read a byte of it straight away
+        return pages[slot >> PAGE_SHIFT];
+    }
+
+    static int stateOffset(final int slot) {
+        return (slot & (SLOTS_PER_PAGE - 1)) * ENTRY_SIZE + STATE_OFFSET;
+    }
+
+    int state(final int slot) {
+        return page(slot).getInt(stateOffset(slot));
+    }
+
+    void setState(final int slot, final int state) {
+        page(slot).putInt(stateOffset(slot), state);
+    }
+
+    long location(final int slot) {
+        return page(slot).getLong((slot & (SLOTS_PER_PAGE - 1)) * ENTRY_SIZE + LOCATION_OFFSET);
+    }
+
+    void setLocation(final int slot, final long location) {
+        page(slot).putLong((slot & (SLOTS_PER_PAGE - 1)) * ENTRY_SIZE + LOCATION_OFFSET, location);
+    }
+
+    private int link(final int slot, final int linkOffset) {
+        return page(slot).getInt((slot & (SLOTS_PER_PAGE - 1)) * ENTRY_SIZE + linkOffset);
+    }
+
+    private void setLink(final int slot, final int linkOffset, final int value) {
+        page(slot).putInt((slot & (SLOTS_PER_PAGE - 1)) * ENTRY_SIZE + linkOffset, value);
+    }
+
+    /**
+     * Open addressing table from a key to the first and the last slot holding it, linear probing.
+     */
+    private final class KeyTable {
+
+        private static final int KEY_ENTRY_SIZE = Integer.BYTES * 2; // First slot + 1, last slot + 1
+
+        private final int keyOffset, keySize;
+
+        private volatile ByteBuffer entries = ByteBuffer.allocateDirect((1 << 16) * KEY_ENTRY_SIZE);
+        private int size;
+
+        KeyTable(final int keyOffset, final int keySize) {
+            this.keyOffset = keyOffset;
+            this.keySize = keySize;
+        }
+
+        int find(final byte[] key, final int offset) { // Returns the entry of "key", -1 if there is none
+
+            final ByteBuffer entries = this.entries;
+            final int mask = entries.capacity() / KEY_ENTRY_SIZE - 1;
+            for (int entry = hash(key, offset) & mask; ; entry = (entry + 1) & mask) {
+
+                final int first = entries.getInt(entry * KEY_ENTRY_SIZE);
+                if (first == 0) {
+                    return -1;
+                }
+                final ByteBuffer buffer = records.buffer(first - 1);
+                final int keyOffset = records.offset(first - 1) + this.keyOffset;
+                int i = 0;
+                while (i < keySize && buffer.get(keyOffset + i) == key[offset + i]) {
+                    i++;
+                }
+                if (i == keySize) {
+                    return entry;
+                }
+            }
+        }
+
+        int first(final int entry) {
+            return entries.getInt(entry * KEY_ENTRY_SIZE) - 1;
+        }
+
+        void insert(final int slot) { // The key of "slot" mustn't be in the table yet
+
+            if ((size + 1) * 2 * KEY_ENTRY_SIZE > entries.capacity()) {
+                final ByteBuffer previousEntries = entries;
+                final ByteBuffer entries = ByteBuffer.allocateDirect(previousEntries.capacity() << 1);
+                for (int entry = 0; entry < previousEntries.capacity() / KEY_ENTRY_SIZE; entry++) {
+                    final int first = previousEntries.getInt(entry * KEY_ENTRY_SIZE);
+                    if (first != 0) {
+                        put(entries, first - 1, previousEntries.getInt(entry * KEY_ENTRY_SIZE + Integer.BYTES) - 1);
+                    }
+                }
+                this.entries = entries;
+            }
+            put(entries, slot, slot);
+            size++;
+        }
+
+        private void put(final ByteBuffer entries, final int first, final int last) {
+
+            final int mask = entries.capacity() / KEY_ENTRY_SIZE - 1;
+            int entry = hash(records.buffer(first), records.offset(first) + keyOffset) & mask;
+            while (entries.getInt(entry * KEY_ENTRY_SIZE) != 0) {
+                entry = (entry + 1) & mask;
+            }
+            entries.putInt(entry * KEY_ENTRY_SIZE + Integer.BYTES, last + 1);
+            entries.putInt(entry * KEY_ENTRY_SIZE, first + 1); // Last, so that an optimistic reader never sees an entry without its last slot
+        }
+
+        void chain(final int slot, final int linkOffset) { // Appends "slot" to the chain of its key
+
+            final ByteBuffer buffer = records.buffer(slot);
+            final byte[] key = new byte[keySize];
+            for (int i = 0; i < keySize; i++) {
+                key[i] = buffer.get(records.offset(slot) + keyOffset + i);
+            }
+
+            final int entry = find(key, 0);
+            if (entry < 0) {
+                insert(slot);
+            } else {
+                setLink(entries.getInt(entry * KEY_ENTRY_SIZE + Integer.BYTES) - 1, linkOffset, slot + 1);
+                entries.putInt(entry * KEY_ENTRY_SIZE + Integer.BYTES, slot + 1);
+            }
+        }
+
+        long[] chain(final byte[] key, final int linkOffset) { // Sorted pointers of the transactions holding "key"
+
+            final int entry = find(key, 0);
+            if (entry < 0) {
+                return NO_POINTERS;
+            }
+            int size = 0;
+            for (int slot = first(entry); slot >= 0; slot = link(slot, linkOffset) - 1) {
+                size++;
+            }
+            final long[] pointers = new long[size];
+            size = 0;
+            for (int slot = first(entry); slot >= 0; slot = link(slot, linkOffset) - 1) {
+                pointers[size++] = pointer(slot);
+            }
+            Arrays.sort(pointers); // Prefilled transactions are chained when they arrive
+            return pointers;
+        }
+
+        private int hash(final byte[] key, final int offset) {
+
+            int hash = 0;
+            for (int i = 0; i < keySize; i++) {
+                hash = hash * 31 + key[offset + i];
+            }
+            return mix(hash);
+        }
+
+        private int hash(final ByteBuffer buffer, final int offset) { // Same as above for a key stored in a record
+
+            int hash = 0;
+            for (int i = 0; i < keySize; i++) {
+                hash = hash * 31 + buffer.get(offset + i);
+            }
+            return mix(hash);
+        }
+
+        private int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -1,18 +1,29 @@
 package com.iota.iri.service.storage;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.iota.iri.Milestone;
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
 
@@ -23,11 +34,18 @@ public class Storage extends AbstractStorage {
 	
     private static final Logger log = LoggerFactory.getLogger(Storage.class);
 
-    public static final byte[][] approvedTransactionsToStore = new byte[2][];
+    private static final String[] INDEX_FILE_NAMES = { // With their manifests, besides the tries of the shards
+            StorageBundle.BUNDLES_FILE_NAME, StorageBundle.BUNDLES_MANIFEST_FILE_NAME, StorageBundle.BUNDLES_TRIE_FILE_NAME, StorageBundle.BUNDLES_TRIE_MANIFEST_FILE_NAME,
+            StorageAddresses.ADDRESSES_FILE_NAME, StorageAddresses.ADDRESSES_MANIFEST_FILE_NAME, StorageAddresses.ADDRESSES_TRIE_FILE_NAME, StorageAddresses.ADDRESSES_TRIE_MANIFEST_FILE_NAME,
+            StorageTags.TAGS_FILE_NAME, StorageTags.TAGS_MANIFEST_FILE_NAME, StorageTags.TAGS_TRIE_FILE_NAME, StorageTags.TAGS_TRIE_MANIFEST_FILE_NAME,
+            StorageApprovers.APPROVERS_FILE_NAME, StorageApprovers.APPROVERS_MANIFEST_FILE_NAME, StorageApprovers.APPROVERS_TRIE_FILE_NAME, StorageApprovers.APPROVERS_TRIE_MANIFEST_FILE_NAME};
 
     private volatile boolean launched;
 
-    public static int numberOfApprovedTransactionsToStore;
+    private volatile StorageJournal journal;
+    private volatile boolean shuttingDown;
+    private Thread syncer;
+    private StorageFlusher flusher;
 
     private StorageTransactions storageTransactionInstance = StorageTransactions.instance();
     private StorageBundle storageBundleInstance = StorageBundle.instance();
@@ -40,14 +58,103 @@ public class Storage extends AbstractStorage {
     public void init() throws IOException {
 
         synchronized (Storage.class) {
-            storageTransactionInstance.init();
-            storageBundleInstance.init();
-            storageAddressesInstance.init();
-            storageTags.init();
-            storageApprovers.init();
-            storageScratchpad.init();
+
+            final long beginningTime = System.currentTimeMillis();
+
+            final List<Integer> generations = StorageJournal.generations(); // Only left behind if the node died
+            final boolean compacting = StorageCompactor.pending();
+            boolean rebuilt = false;
+            if (compacting) {
+                log.info("Compacting the storage into {}, the transactions pruned since the last startup are dropped", StorageLayout.configured());
+                StorageCompactor.prepare();
+                deleteIndexes();
+
+            } else if (!generations.isEmpty() && StorageJournal.trusted(generations) && indexesIntact()) {
+                log.warn("Storage wasn't shut down cleanly, the journal is replayed over its indexes");
+
+            } else if (!generations.isEmpty()) {
+                log.warn("Storage wasn't shut down cleanly and the machine may have crashed, its indexes are rebuilt from the transactions");
+                for (final int generation : generations) { // Until the rebuild is over, so that it starts over if the node dies meanwhile
+                    StorageJournal.distrust(generation);
+                }
+                rebuilt = true;
+                deleteIndexes();
+                final StorageLayout layout = StorageLayout.configured();
+                for (int i = 0; i < layout.numberOfShards(); i++) {
+                    if (Files.exists(path(layout.fileName(i, StorageLayout.TRANSACTIONS_EXTENSION)))) {
+                        StorageConverter.buildTransactionsTrie(layout, i);
+                    }
+                }
+
+            } else if (StorageConverter.pending()) {
+                log.warn("Storage was written by an older version, it is converted first");
+                StorageConverter.convert();
+            }
+
+            // The files are independent, only updateBundleAddressTagApprovers() needs all of them
+            final AbstractStorage[] storages = {storageTransactionInstance, storageBundleInstance, storageAddressesInstance, storageTags, storageApprovers, storageScratchpad};
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.min(storages.length, Runtime.getRuntime().availableProcessors()));
+            try {
+                final List<Future<?>> inits = new ArrayList<>(storages.length);
+                for (final AbstractStorage storage : storages) {
+                    inits.add(executor.submit(() -> {
+                        final long storageBeginningTime = System.currentTimeMillis();
+                        storage.init();
+                        log.info("{} initialized in {} ms", storage.getClass().getSimpleName(), System.currentTimeMillis() - storageBeginningTime);
+                        return null;
+                    }));
+                }
+                for (final Future<?> init : inits) {
+                    init.get();
+                }
+
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while initializing storage", e);
+
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Storage initialization failed", e.getCause());
+
+            } finally {
+                executor.shutdownNow();
+            }
+
             storageTransactionInstance.updateBundleAddressTagApprovers();
+            if (compacting) {
+                StorageCompactor.compact(storageTransactionInstance);
+            }
+
+            final int syncInterval = Configuration.integer(DefaultConfSettings.JOURNAL_SYNC_INTERVAL);
+            journal = new StorageJournal(syncInterval == 0);
+            journal.open(generations.isEmpty() ? 0 : generations.get(generations.size() - 1) + 1);
+            if (!generations.isEmpty()) {
+                recover(generations, rebuilt);
+            } else if (compacting) {
+                checkpoint();
+            }
+            if (compacting) {
+                StorageCompactor.finish();
+            }
+
+            final int flushRate = Configuration.integer(DefaultConfSettings.FLUSH_RATE);
+            flusher = new StorageFlusher(Math.max(Configuration.integer(DefaultConfSettings.FLUSH_INTERVAL), 1), flushRate);
+            for (final AbstractStorage storage : storages) {
+                storage.register(flusher);
+            }
+            if (flushRate > 0) {
+                flusher.start();
+            }
+
+            shuttingDown = false;
+            syncer = new Thread(() -> sync(syncInterval, Configuration.integer(DefaultConfSettings.CHECKPOINT_INTERVAL)), "Storage Syncer");
+            syncer.setDaemon(true);
+            syncer.start();
             launched = true;
+
+            log.info("Storage initialized in {} ms", System.currentTimeMillis() - beginningTime);
         }
     }
 
@@ -56,25 +163,171 @@ public class Storage extends AbstractStorage {
 
         synchronized (Storage.class) {
             if (launched) {
-                storageTransactionInstance.shutdown();
-                storageBundleInstance.shutdown();
-                storageAddressesInstance.shutdown();
-                storageTags.shutdown();
-                storageApprovers.shutdown();
-                storageScratchpad.shutdown();
+                shuttingDown = true; // Not interrupted, that would close the channel it may be forcing
+                try {
+                    syncer.join();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                flusher.shutdown(); // What it forced is clean, the shutdown only forces the rest
+
+                storageTransactionInstance.write(() -> storageLock.write(() -> { // Waits for the stores in progress, if any
+                    storageTransactionInstance.shutdown();
+                    storageBundleInstance.shutdown();
+                    storageAddressesInstance.shutdown();
+                    storageTags.shutdown();
+                    storageApprovers.shutdown();
+                    storageScratchpad.shutdown();
+                    try {
+                        journal.close(true); // Everything it holds is in the flushed cells
+                    } catch (final IOException e) {
+                        log.error("Closing the storage journal error: ", e);
+                    }
+                    journal = null;
+                }));
+                launched = false;
 
                 log.info("DB successfully flushed");
             }
         }
     }
 
-    void updateBundleAddressTagAndApprovers(final long transactionPointer) {
+    private void recover(final List<Integer> generations, final boolean rebuilt) throws IOException { // Brings back the transactions journaled since the last checkpoint, and completes the stores the node died in the middle of
 
-        final Transaction transaction = new Transaction(mainBuffer, transactionPointer);
-        for (int j = 0; j < numberOfApprovedTransactionsToStore; j++) {
-            StorageTransactions.instance().storeTransaction(approvedTransactionsToStore[j], null, false);
+        final long beginningTime = System.currentTimeMillis();
+        if (rebuilt) { // The transaction cells are all there is, the journal brings back the ones which may not have reached the disk
+            storageTransactionInstance.recover();
         }
-        numberOfApprovedTransactionsToStore = 0;
+
+        for (final int generation : generations) {
+            final List<Transaction> transactions = new ArrayList<>();
+            final int numberOfRecords = StorageJournal.replay(generation, cell -> {
+                transactions.add(new Transaction(cell, 0));
+                if (transactions.size() == 1024) {
+                    storageTransactionInstance.replayTransactions(transactions); // Journaled again, into the new generation
+                    transactions.clear();
+                }
+            });
+            storageTransactionInstance.replayTransactions(transactions);
+            log.info("{} transactions replayed from journal generation #{}", numberOfRecords, generation);
+        }
+
+        checkpoint(); // Drops the replayed generations
+        log.info("Storage recovered in {} ms", System.currentTimeMillis() - beginningTime);
+    }
+
+    private static boolean indexesIntact() throws IOException { // Every file derived from the transaction cells is there, with a valid manifest
+
+        final StorageLayout layout = StorageLayout.configured();
+        for (int i = 0; i < layout.numberOfShards(); i++) {
+            if (Files.exists(path(layout.fileName(i, StorageLayout.TRANSACTIONS_EXTENSION)))
+                    && !intact(layout.fileName(i, StorageLayout.TRIE_EXTENSION), layout.fileName(i, StorageLayout.TRIE_MANIFEST_EXTENSION))) {
+                return false;
+            }
+        }
+        for (int i = 0; i < INDEX_FILE_NAMES.length; i += 2) {
+            if (!intact(INDEX_FILE_NAMES[i], INDEX_FILE_NAMES[i + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean intact(final String fileName, final String manifestFileName) throws IOException {
+
+        if (!Files.exists(path(fileName)) || !StorageManifest.valid(manifestFileName)) {
+            log.warn("{} is missing or has no valid manifest", fileName);
+            return false;
+        }
+        return true;
+    }
+
+    private static void deleteIndexes() throws IOException { // Every file derived from the transaction cells which a crash may have left inconsistent
+
+        StorageLayout.configured().deleteFiles(StorageLayout.TRIE_EXTENSION, StorageLayout.TRIE_MANIFEST_EXTENSION);
+        for (final String fileName : INDEX_FILE_NAMES) {
+            Files.deleteIfExists(path(fileName));
+        }
+    }
+
+    private void sync(final int syncInterval, final int checkpointInterval) { // Group commit of the journal, and a checkpoint now and then
+
+        long lastCheckpointTime = System.currentTimeMillis();
+        while (!shuttingDown) {
+
+            try {
+                Thread.sleep(syncInterval > 0 ? syncInterval : 1000);
+                if (syncInterval > 0) {
+                    journal.sync();
+                }
+                if (checkpointInterval > 0 && System.currentTimeMillis() - lastCheckpointTime >= checkpointInterval) {
+                    checkpoint();
+                    lastCheckpointTime = System.currentTimeMillis();
+                }
+
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+
+            } catch (final IOException e) {
+                log.error("Storage journal sync error: ", e);
+            }
+        }
+    }
+
+    void checkpoint() throws IOException { // Forces the cells of every transaction journaled so far, then deletes the generations which held them
+
+        final long beginningTime = System.currentTimeMillis();
+        journal.sync(); // Outside of the locks, the rotation only has what was appended since to force
+        final int[] closedGeneration = new int[1];
+        try {
+            storageTransactionInstance.write(() -> { // No store is in progress, a generation only holds the ones which are over
+                try {
+                    closedGeneration[0] = journal.rotate();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        storageTransactionInstance.checkpoint();
+        for (final int generation : StorageJournal.generations()) {
+            if (generation <= closedGeneration[0]) {
+                StorageJournal.delete(generation);
+            }
+        }
+        log.debug("Storage checkpointed in {} ms", System.currentTimeMillis() - beginningTime);
+    }
+
+    void journal(final byte[] cell) { // Called under the write locks of the shards for every transaction written into a cell
+
+        final StorageJournal journal = this.journal;
+        if (journal != null) {
+            try {
+                journal.append(cell);
+            } catch (final IOException e) {
+                log.error("Storage journal append error, nothing is journaled until the next checkpoint and the indexes are rebuilt if the node dies meanwhile: ", e);
+            }
+        }
+    }
+
+    void prune(final long[] pointers) throws IOException {
+        StorageCompactor.prune(pointers);
+    }
+
+    StorageFlusher flusher() {
+        return flusher;
+    }
+
+    @Override
+    long size() {
+        return storageTransactionInstance.size() + storageBundleInstance.size() + storageAddressesInstance.size() + storageTags.size() + storageApprovers.size();
+    }
+
+    void updateBundleAddressTagAndApprovers(final long transactionPointer) { // The approved transactions are stored already
+
+        final Transaction transaction = StorageTransactions.instance().loadTransaction(transactionPointer);
 
         StorageBundle.instance().updateBundle(transactionPointer, transaction);
         StorageAddresses.instance().updateAddresses(transactionPointer, transaction);
@@ -86,6 +339,37 @@ public class Storage extends AbstractStorage {
         }
     }
     
+    void updateBundleAddressTagAndApprovers(final Transaction[] transactions, final long[] transactionPointers, final int size) { // The approved transactions of each one are stored already
+
+        final byte[][] bundles = new byte[size][], addresses = new byte[size][], tags = new byte[size][], approvees = new byte[size << 1][];
+        final long[] tagged = new long[size], approvers = new long[size << 1];
+        int numberOfTags = 0, numberOfApprovees = 0;
+        for (int i = 0; i < size; i++) {
+
+            final Transaction transaction = transactions[i];
+            bundles[i] = transaction.bundle;
+            addresses[i] = transaction.address;
+            for (int j = 0; j < Transaction.TAG_SIZE; j++) {
+                if (transaction.tag[j] != 0) { // Empty tags aren't indexed
+                    tags[numberOfTags] = transaction.tag;
+                    tagged[numberOfTags++] = transactionPointers[i];
+                    break;
+                }
+            }
+            approvees[numberOfApprovees] = transaction.trunkTransaction;
+            approvers[numberOfApprovees++] = transactionPointers[i];
+            if (!Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction)) {
+                approvees[numberOfApprovees] = transaction.branchTransaction;
+                approvers[numberOfApprovees++] = transactionPointers[i];
+            }
+        }
+
+        StorageBundle.instance().updateBundles(bundles, transactionPointers, size);
+        StorageAddresses.instance().updateAddresses(addresses, transactionPointers, size);
+        StorageTags.instance().updateTags(tags, tagged, numberOfTags);
+        StorageApprovers.instance().updateApprovers(approvees, approvers, numberOfApprovees);
+    }
+
     // methods helper
     
     private static Storage instance = new Storage();
@@ -3,15 +3,11 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.LinkedList;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
 
 public class StorageAddresses extends AbstractStorage {
@@ -19,44 +15,43 @@ public class StorageAddresses extends AbstractStorage {
 	private static final Logger log = LoggerFactory.getLogger(StorageAddresses.class);
 
 	private static final StorageAddresses instance = new StorageAddresses();
-	private static final String ADDRESSES_FILE_NAME = "addresses.iri";
+	static final String ADDRESSES_FILE_NAME = "addresses.iri";
+	static final String ADDRESSES_MANIFEST_FILE_NAME = "addresses.manifest";
+	static final String ADDRESSES_TRIE_FILE_NAME = "addresses.trie";
+	static final String ADDRESSES_TRIE_MANIFEST_FILE_NAME = "addresses-trie.manifest";
 
 	private FileChannel addressesChannel;
+	private StorageManifest addressesManifest;
 	private final ByteBuffer[] addressesChunks = new ByteBuffer[MAX_NUMBER_OF_CHUNKS];
+	private final StorageTrie addressesTrie = new StorageTrie(ADDRESSES_TRIE_FILE_NAME, ADDRESSES_TRIE_MANIFEST_FILE_NAME, Transaction.ADDRESS_SIZE, addressesChunks);
 	private volatile long addressesNextPointer = SUPER_GROUPS_SIZE;
+	private final DirtyPages addressesDirtyPages = new DirtyPages();
+	private final PostingList addressesPostings = new PostingList(ADDRESSES_FILE_NAME, addressesChunks, addressesDirtyPages, buffer -> {
+		final long pointer = addressesNextPointer;
+		appendToAddresses(buffer);
+		return pointer;
+	});
 
 	@Override
 	public void init() throws IOException {
-		addressesChannel = FileChannel.open(Paths.get(ADDRESSES_FILE_NAME), StandardOpenOption.CREATE,
+		addressesChannel = FileChannel.open(path(ADDRESSES_FILE_NAME), StandardOpenOption.CREATE,
 		        StandardOpenOption.READ, StandardOpenOption.WRITE);
 		addressesChunks[0] = addressesChannel.map(FileChannel.MapMode.READ_WRITE, 0, SUPER_GROUPS_SIZE);
-		final long addressesChannelSize = addressesChannel.size();
-		while (true) {
-
-			if ((addressesNextPointer & (CHUNK_SIZE - 1)) == 0) {
-				addressesChunks[(int) (addressesNextPointer >> 27)] = addressesChannel
-				        .map(FileChannel.MapMode.READ_WRITE, addressesNextPointer, CHUNK_SIZE);
-			}
-
-			if (addressesChannelSize - addressesNextPointer > CHUNK_SIZE) {
-				addressesNextPointer += CHUNK_SIZE;
-			} else {
+		addressesManifest = new StorageManifest(ADDRESSES_MANIFEST_FILE_NAME);
+		addressesNextPointer = mapChunks(addressesChannel, 0, addressesChunks, addressesManifest);
+		addressesPostings.init(addressesNextPointer);
+		addressesTrie.init(addressesNextPointer);
+	}
 
-				addressesChunks[(int) (addressesNextPointer >> 27)].get(mainBuffer);
-				boolean empty = true;
-				for (final int value : mainBuffer) {
+	@Override
+	void register(final StorageFlusher flusher) {
+		flusher.register(ADDRESSES_FILE_NAME, addressesChunks, addressesDirtyPages);
+		addressesTrie.register(flusher);
+	}
 
-					if (value != 0) {
-						empty = false;
-						break;
-					}
-				}
-				if (empty) {
-					break;
-				}
-				addressesNextPointer += CELL_SIZE;
-			}
-		}
+	@Override
+	long size() {
+		return addressesNextPointer - SUPER_GROUPS_SIZE + addressesTrie.size();
 	}
 
 	@Override
@@ -65,7 +60,10 @@ public class StorageAddresses extends AbstractStorage {
 			log.info("Flushing addresses chunk #" + i);
 			flush(addressesChunks[i]);
 		}
+		addressesTrie.shutdown();
 		try {
+			addressesManifest.checkpoint(addressesNextPointer, true);
+			addressesManifest.close();
 			addressesChannel.close();
 		} catch (IOException e) {
 			log.error("Shutting down Storage Addresses error: ", e);
@@ -73,177 +71,41 @@ public class StorageAddresses extends AbstractStorage {
 	}
 
 	public long addressPointer(final byte[] hash) {
-        synchronized (Storage.class) {
-        long pointer = ((hash[0] + 128) + ((hash[1] + 128) << 8)) << 11;
-        for (int depth = 2; depth < Transaction.ADDRESS_SIZE; depth++) {
-
-            ((ByteBuffer)addressesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-            if (mainBuffer[Transaction.TYPE_OFFSET] == GROUP) {
-                if ((pointer = value(mainBuffer, (hash[depth] + 128) << 3)) == 0) {
-                    return 0;
-                }
-            } else {
-
-                for (; depth < Transaction.ADDRESS_SIZE; depth++) {
-                    if (mainBuffer[Transaction.HASH_OFFSET + depth] != hash[depth]) {
-                        return 0;
-                    }
-                }
-                return pointer;
-            }
-        }
-		}
-        throw new IllegalStateException("Corrupted storage");
+        return storageLock.readLong(() -> addressesTrie.get(hash, 0));
     }
-	
-	public List<Long> addressTransactions(final long pointer) {
 
-        synchronized (Storage.class) {
-        final List<Long> addressTransactions = new LinkedList<>();
-
-        if (pointer != 0) {
-
-            ((ByteBuffer) addressesChunks[(int) (pointer >> 27)].position((int) (pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-            int offset = ZEROTH_POINTER_OFFSET - Long.BYTES;
-            while (true) {
-
-                while ((offset += Long.BYTES) < CELL_SIZE - Long.BYTES) {
-
-                    final long transactionPointer = value(mainBuffer, offset);
-                    if (transactionPointer == 0) {
-                        break;
-                    } else {
-                        addressTransactions.add(transactionPointer);
-                    }
-                }
-                if (offset == CELL_SIZE - Long.BYTES) {
+    public long[] addressTransactions(final long pointer) { // Sorted
+        return storageLock.readLocked(() -> addressesPostings.pointers(pointer));
+    }
 
-                    final long nextCellPointer = value(mainBuffer, offset);
-                    if (nextCellPointer == 0) {
-                        break;
-                    } else {
-                        ((ByteBuffer) addressesChunks[(int) (nextCellPointer >> 27)].position((int) (nextCellPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-                        offset = -Long.BYTES;
-                    }
-                } else {
-                    break;
-                }
-            }
-        }
-        
-        return addressTransactions;
-        }
+    public PointerCursor addressTransactionsCursor(final long pointer) {
+        return addressesPostings.cursor(pointer, storageLock);
     }
 	
-	public void updateAddresses(final long transactionPointer, final Transaction transaction) {
-		{
-            long pointer = ((transaction.address[0] + 128) + ((transaction.address[1] + 128) << 8)) << 11, prevPointer = 0;
-            for (int depth = 2; depth < Transaction.ADDRESS_SIZE; depth++) {
-
-                ((ByteBuffer)addressesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-
-                if (mainBuffer[Transaction.TYPE_OFFSET] == GROUP) {
-
-                    prevPointer = pointer;
-                    if ((pointer = value(mainBuffer, (transaction.address[depth] + 128) << 3)) == 0) {
-
-                        setValue(mainBuffer, (transaction.address[depth] + 128) << 3, addressesNextPointer);
-                        ((ByteBuffer)addressesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-
-                        System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                        mainBuffer[Transaction.TYPE_OFFSET] = FILLED_SLOT;
-                        System.arraycopy(transaction.address, 0, mainBuffer, 8, Transaction.ADDRESS_SIZE);
-                        setValue(mainBuffer, ZEROTH_POINTER_OFFSET, transactionPointer);
-                        appendToAddresses();
-
-                        break;
-                    }
-
-                } else {
-
-                    boolean sameAddress = true;
-
-                    for (int i = depth; i < Transaction.ADDRESS_SIZE; i++) {
-
-                        if (mainBuffer[Transaction.HASH_OFFSET + i] != transaction.address[i]) {
-
-                            final int differentHashByte = mainBuffer[Transaction.HASH_OFFSET + i];
-
-                            ((ByteBuffer)addressesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-                            setValue(mainBuffer, (transaction.address[depth - 1] + 128) << 3, addressesNextPointer);
-                            ((ByteBuffer)addressesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-
-                            for (int j = depth; j < i; j++) {
-
-                                System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                                setValue(mainBuffer, (transaction.address[j] + 128) << 3, addressesNextPointer + CELL_SIZE);
-                                appendToAddresses();
-                            }
-
-                            System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                            setValue(mainBuffer, (differentHashByte + 128) << 3, pointer);
-                            setValue(mainBuffer, (transaction.address[i] + 128) << 3, addressesNextPointer + CELL_SIZE);
-                            appendToAddresses();
-
-                            System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                            mainBuffer[Transaction.TYPE_OFFSET] = FILLED_SLOT;
-                            System.arraycopy(transaction.address, 0, mainBuffer, 8, Transaction.ADDRESS_SIZE);
-                            setValue(mainBuffer, ZEROTH_POINTER_OFFSET, transactionPointer);
-                            appendToAddresses();
-
-                            sameAddress = false;
-
-                            break;
-                        }
-                    }
-
-                    if (sameAddress) {
-
-                        int offset = ZEROTH_POINTER_OFFSET;
-                        while (true) {
-
-                            while ((offset += Long.BYTES) < CELL_SIZE - Long.BYTES && value(mainBuffer, offset) != 0) {
-
-                                // Do nothing
-                            }
-                            if (offset == CELL_SIZE - Long.BYTES) {
-
-                                final long nextCellPointer = value(mainBuffer, offset);
-                                if (nextCellPointer == 0) {
-
-                                    setValue(mainBuffer, offset, addressesNextPointer);
-                                    ((ByteBuffer)addressesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-
-                                    System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                                    setValue(mainBuffer, 0, transactionPointer);
-                                    appendToAddresses();
-                                    break;
+    public void updateAddresses(final byte[][] addresses, final long[] transactionPointers, final int size) {
+        storageLock.write(() -> addressesPostings.addAll(addressesTrie, Transaction.ADDRESS_SIZE, addresses, transactionPointers, size));
+    }
 
-                                } else {
-                                    pointer = nextCellPointer;
-                                    ((ByteBuffer)addressesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-                                    offset = -Long.BYTES;
-                                }
-                            } else {
-                                setValue(mainBuffer, offset, transactionPointer);
-                                ((ByteBuffer)addressesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-                                break;
-                            }
-                        }
-                    }
-                    break;
-                }
+	public void updateAddresses(final long transactionPointer, final Transaction transaction) {
+        storageLock.write(() -> {
+            final long pointer = addressesTrie.get(transaction.address, 0);
+            if (pointer == 0) {
+                addressesTrie.put(transaction.address, addressesPostings.create(transaction.address, Transaction.ADDRESS_SIZE, new long[] {transactionPointer}, 1));
+            } else {
+                addressesPostings.add(pointer, transactionPointer);
             }
-        }
+        });
 	}
 	
-    private void appendToAddresses() {
+    private void appendToAddresses(final byte[] buffer) {
 
-        ((ByteBuffer)addressesChunks[(int)(addressesNextPointer >> 27)].position((int)(addressesNextPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+        writeCell(addressesChunks, addressesNextPointer, buffer);
+        addressesDirtyPages.mark(addressesNextPointer);
         if (((addressesNextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0) {
 
             try {
                 addressesChunks[(int)(addressesNextPointer >> 27)] = addressesChannel.map(FileChannel.MapMode.READ_WRITE, addressesNextPointer, CHUNK_SIZE);
+                addressesManifest.checkpoint(addressesNextPointer, false);
             } catch (final IOException e) {
             	log.error("Caught exception on appendToAddresses:", e);
             }
@@ -254,8 +116,4 @@ public class StorageAddresses extends AbstractStorage {
 	public static StorageAddresses instance() {
 		return instance;
 	}
-
-	public List<Long> addressesOf(final Hash hash) {
-		return addressTransactions(addressPointer(hash.bytes()));
-	}
 }
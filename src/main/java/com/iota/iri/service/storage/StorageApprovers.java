@@ -3,10 +3,7 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.LinkedList;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,42 +16,43 @@ public class StorageApprovers extends AbstractStorage {
 
 	private static final StorageApprovers instance = new StorageApprovers();
 
-	private static final String APPROVERS_FILE_NAME = "approvers.iri";
+	static final String APPROVERS_FILE_NAME = "approvers.iri";
+	static final String APPROVERS_MANIFEST_FILE_NAME = "approvers.manifest";
+	static final String APPROVERS_TRIE_FILE_NAME = "approvers.trie";
+	static final String APPROVERS_TRIE_MANIFEST_FILE_NAME = "approvers-trie.manifest";
 	private FileChannel approversChannel;
+	private StorageManifest approversManifest;
 	private final ByteBuffer[] approversChunks = new ByteBuffer[MAX_NUMBER_OF_CHUNKS];
+	private final StorageTrie approversTrie = new StorageTrie(APPROVERS_TRIE_FILE_NAME, APPROVERS_TRIE_MANIFEST_FILE_NAME, Transaction.HASH_SIZE, approversChunks);
 	private volatile long approversNextPointer = SUPER_GROUPS_SIZE;
+	private final DirtyPages approversDirtyPages = new DirtyPages();
+	private final PostingList approversPostings = new PostingList(APPROVERS_FILE_NAME, approversChunks, approversDirtyPages, buffer -> {
+		final long pointer = approversNextPointer;
+		appendToApprovers(buffer);
+		return pointer;
+	});
 
 	@Override
 	public void init() throws IOException {
-		approversChannel = FileChannel.open(Paths.get(APPROVERS_FILE_NAME), 
+		approversChannel = FileChannel.open(path(APPROVERS_FILE_NAME), 
 				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
 		
 		approversChunks[0] = approversChannel.map(FileChannel.MapMode.READ_WRITE, 0, SUPER_GROUPS_SIZE);
-		final long approversChannelSize = approversChannel.size();
-		while (true) {
-
-			if ((approversNextPointer & (CHUNK_SIZE - 1)) == 0) {
-				approversChunks[(int) (approversNextPointer >> 27)] = approversChannel
-				        .map(FileChannel.MapMode.READ_WRITE, approversNextPointer, CHUNK_SIZE);
-			}
-			if (approversChannelSize - approversNextPointer > CHUNK_SIZE) {
-				approversNextPointer += CHUNK_SIZE;
-			} else {
-				approversChunks[(int) (approversNextPointer >> 27)].get(mainBuffer);
-				boolean empty = true;
-				for (final int value : mainBuffer) {
-
-					if (value != 0) {
-						empty = false;
-						break;
-					}
-				}
-				if (empty) {
-					break;
-				}
-				approversNextPointer += CELL_SIZE;
-			}
-		}
+		approversManifest = new StorageManifest(APPROVERS_MANIFEST_FILE_NAME);
+		approversNextPointer = mapChunks(approversChannel, 0, approversChunks, approversManifest);
+		approversPostings.init(approversNextPointer);
+		approversTrie.init(approversNextPointer);
+	}
+
+	@Override
+	void register(final StorageFlusher flusher) {
+		flusher.register(APPROVERS_FILE_NAME, approversChunks, approversDirtyPages);
+		approversTrie.register(flusher);
+	}
+
+	@Override
+	long size() {
+		return approversNextPointer - SUPER_GROUPS_SIZE + approversTrie.size();
 	}
 
 	@Override
@@ -63,8 +61,11 @@ public class StorageApprovers extends AbstractStorage {
         	log.info("Flushing approvers chunk #" + i);
             flush(approversChunks[i]);
         }
+        approversTrie.shutdown();
 
         try {
+            approversManifest.checkpoint(approversNextPointer, true);
+            approversManifest.close();
             approversChannel.close();
         } catch (final Exception e) {
         	log.error("Shutting down Storage Approvers error: ", e);
@@ -72,174 +73,45 @@ public class StorageApprovers extends AbstractStorage {
 	}
 	
 	public long approveePointer(final byte[] hash) {
-		synchronized (Storage.class) {
-
-        long pointer = ((hash[0] + 128) + ((hash[1] + 128) << 8)) << 11;
-        for (int depth = 2; depth < Transaction.HASH_SIZE; depth++) {
-
-            ((ByteBuffer)approversChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-
-            if (mainBuffer[Transaction.TYPE_OFFSET] == GROUP) {
-                if ((pointer = value(mainBuffer, (hash[depth] + 128) << 3)) == 0) {
-                    return 0;
-                }
-
-            } else {
-
-                for (; depth < Transaction.HASH_SIZE; depth++) {
-                    if (mainBuffer[Transaction.HASH_OFFSET + depth] != hash[depth]) {
-                        return 0;
-                    }
-                }
-
-                return pointer;
-            }
-        }
-        }
-        throw new IllegalStateException("Corrupted storage");
+        return storageLock.readLong(() -> approversTrie.get(hash, 0));
     }
 
-    public List<Long> approveeTransactions(final long pointer) {
-
-    	synchronized (Storage.class) {
-        final List<Long> approveeTransactions = new LinkedList<>();
-
-        if (pointer != 0) {
-
-            ((ByteBuffer) approversChunks[(int) (pointer >> 27)].position((int) (pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-            int offset = ZEROTH_POINTER_OFFSET - Long.BYTES;
-            while (true) {
-
-                while ((offset += Long.BYTES) < CELL_SIZE - Long.BYTES) {
-
-                    final long transactionPointer = value(mainBuffer, offset);
-                    if (transactionPointer == 0) {
-                        break;
-                    } else {
-                        approveeTransactions.add(transactionPointer);
-                    }
-                }
-                if (offset == CELL_SIZE - Long.BYTES) {
-
-                    final long nextCellPointer = value(mainBuffer, offset);
-                    if (nextCellPointer == 0) {
-                        break;
-                    } else {
-                        ((ByteBuffer) approversChunks[(int) (nextCellPointer >> 27)].position((int) (nextCellPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-                        offset = -Long.BYTES;
-                    }
-                } else {
-                    break;
-                }
-            }
-        }
+    public long[] approveeTransactions(final long pointer) { // Sorted
+        return storageLock.readLocked(() -> approversPostings.pointers(pointer));
+    }
 
-        return approveeTransactions;
-    	}
+    public PointerCursor approveeTransactionsCursor(final long pointer) {
+        return approversPostings.cursor(pointer, storageLock);
     }
 
-    private void appendToApprovers() {
+    private void appendToApprovers(final byte[] buffer) {
 
-        ((ByteBuffer)approversChunks[(int)(approversNextPointer >> 27)].position((int)(approversNextPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+        writeCell(approversChunks, approversNextPointer, buffer);
+        approversDirtyPages.mark(approversNextPointer);
         if (((approversNextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0) {
 
             try {
                 approversChunks[(int)(approversNextPointer >> 27)] = approversChannel.map(FileChannel.MapMode.READ_WRITE, approversNextPointer, CHUNK_SIZE);
+                approversManifest.checkpoint(approversNextPointer, false);
             } catch (final IOException e) {
             	log.error("Caught exception on appendToApprovers:", e);
             }
         }
     }
     
-    public void updateApprover(final byte[] hash, final long transactionPointer) {
-
-        long pointer = ((hash[0] + 128) + ((hash[1] + 128) << 8)) << 11, prevPointer = 0;
-        for (int depth = 2; depth < Transaction.HASH_SIZE; depth++) {
-
-            ((ByteBuffer)approversChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-
-            if (mainBuffer[Transaction.TYPE_OFFSET] == GROUP) {
-
-                prevPointer = pointer;
-                if ((pointer = value(mainBuffer, (hash[depth] + 128) << 3)) == 0) {
-
-                    setValue(mainBuffer, (hash[depth] + 128) << 3, approversNextPointer);
-                    ((ByteBuffer)approversChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-
-                    System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                    mainBuffer[Transaction.TYPE_OFFSET] = FILLED_SLOT;
-                    System.arraycopy(hash, 0, mainBuffer, 8, Transaction.HASH_SIZE);
-                    setValue(mainBuffer, ZEROTH_POINTER_OFFSET, transactionPointer);
-                    appendToApprovers();
-
-                    return;
-                }
+    public void updateApprovers(final byte[][] hashes, final long[] transactionPointers, final int size) {
+        storageLock.write(() -> approversPostings.addAll(approversTrie, Transaction.HASH_SIZE, hashes, transactionPointers, size));
+    }
 
+    public void updateApprover(final byte[] hash, final long transactionPointer) {
+        storageLock.write(() -> {
+            final long pointer = approversTrie.get(hash, 0);
+            if (pointer == 0) {
+                approversTrie.put(hash, approversPostings.create(hash, Transaction.HASH_SIZE, new long[] {transactionPointer}, 1));
             } else {
-
-                for (int i = depth; i < Transaction.HASH_SIZE; i++) {
-
-                    if (mainBuffer[Transaction.HASH_OFFSET + i] != hash[i]) {
-
-                        final int differentHashByte = mainBuffer[Transaction.HASH_OFFSET + i];
-
-                        ((ByteBuffer)approversChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-                        setValue(mainBuffer, (hash[depth - 1] + 128) << 3, approversNextPointer);
-                        ((ByteBuffer)approversChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-
-                        for (int j = depth; j < i; j++) {
-
-                            System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                            setValue(mainBuffer, (hash[j] + 128) << 3, approversNextPointer + CELL_SIZE);
-                            appendToApprovers();
-                        }
-
-                        System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                        setValue(mainBuffer, (differentHashByte + 128) << 3, pointer);
-                        setValue(mainBuffer, (hash[i] + 128) << 3, approversNextPointer + CELL_SIZE);
-                        appendToApprovers();
-
-                        System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                        mainBuffer[Transaction.TYPE_OFFSET] = FILLED_SLOT;
-                        System.arraycopy(hash, 0, mainBuffer, 8, Transaction.HASH_SIZE);
-                        setValue(mainBuffer, ZEROTH_POINTER_OFFSET, transactionPointer);
-                        appendToApprovers();
-
-                        return;
-                    }
-                }
-
-                int offset = ZEROTH_POINTER_OFFSET;
-                while (true) {
-                    while ((offset += Long.BYTES) < CELL_SIZE - Long.BYTES && value(mainBuffer, offset) != 0) {
-                        // Do nothing
-                    }
-                    if (offset == CELL_SIZE - Long.BYTES) {
-
-                        final long nextCellPointer = value(mainBuffer, offset);
-                        if (nextCellPointer == 0) {
-
-                            setValue(mainBuffer, offset, approversNextPointer);
-                            ((ByteBuffer)approversChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-
-                            System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
-                            setValue(mainBuffer, 0, transactionPointer);
-                            appendToApprovers();
-
-                            return;
-                        } else {
-                            pointer = nextCellPointer;
-                            ((ByteBuffer)approversChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-                            offset = -Long.BYTES;
-                        }
-                    } else {
-                        setValue(mainBuffer, offset, transactionPointer);
-                        ((ByteBuffer)approversChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-                        return;
-                    }
-                }
+                approversPostings.add(pointer, transactionPointer);
             }
-        }
+        });
     }
 
 	public static StorageApprovers instance() {
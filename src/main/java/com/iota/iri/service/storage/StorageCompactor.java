@@ -0,0 +1,206 @@
+package com.iota.iri.service.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Drops the transactions pruned below a local snapshot from transactions.iri and from every index, and lays the
+ * storage out into the configured {@link StorageLayout} when it isn't anymore.
+ *
+ * Pointers are offsets into the files and every trie, posting list and cell refers to others by them, so
+ * cells can't be dropped in place. Pruning only records their pointers into transactions.pruned while the
+ * node runs; the storage is compacted at the next startup, before anything reads it. The layout the storage
+ * is in is recorded into transactions.compacting, every shard file is renamed to .old, the derived files are
+ * deleted, and the cells that are kept are stored again, shard after shard in their former order, into the
+ * shards of the configured layout. Their pointers change, and so do the indexes, the tips and the trunk and
+ * branch pointers, all rebuilt as they are stored. Changing the number of shards or their directories compacts
+ * the storage the same way, with nothing pruned.
+ *
+ * Kept transactions which approve pruned ones get prefilled cells for them, these aren't missing and aren't
+ * requested. Only the transactions already missing before the compaction still are.
+ *
+ * Once the new cells are forced the configured layout is written into transactions.shards and
+ * transactions.compacting is renamed to transactions.compacted, which commits the compaction; transactions.pruned
+ * and the .old files are deleted after. A compaction which is interrupted before starts over from the .old files.
+ */
+final class StorageCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageCompactor.class);
+
+    private static final String PRUNED_FILE_NAME = "transactions.pruned";
+    private static final String SOURCE_LAYOUT_FILE_NAME = "transactions.compacting";
+    private static final String COMPACTED_FILE_NAME = "transactions.compacted";
+
+    private static final int BATCH_SIZE = 1024;
+
+    private StorageCompactor() {
+    }
+
+    static synchronized void prune(final long[] pointers) throws IOException { // Appended, the pointers of several snapshots add up until the next startup
+
+        final ByteBuffer buffer = ByteBuffer.allocate(pointers.length * Long.BYTES);
+        for (final long pointer : pointers) {
+            buffer.putLong(pointer);
+        }
+        buffer.flip();
+        try (final FileChannel channel = FileChannel.open(AbstractStorage.path(PRUNED_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    static boolean pending() throws IOException { // Deletes the leftovers of a compaction which went through
+
+        if (Files.exists(AbstractStorage.path(COMPACTED_FILE_NAME))) {
+            cleanUp();
+        }
+        if (Files.exists(AbstractStorage.path(SOURCE_LAYOUT_FILE_NAME))) { // Interrupted
+            return true;
+        }
+
+        final StorageLayout stored = StorageLayout.stored(), configured = StorageLayout.configured();
+        if (!Files.exists(AbstractStorage.path(PRUNED_FILE_NAME)) && stored.equals(configured)) {
+            stored.deleteFiles(StorageLayout.OLD_EXTENSION);
+            return false;
+        }
+        if (!stored.exists()) { // A new storage, laid out as configured from the start
+            Files.deleteIfExists(AbstractStorage.path(PRUNED_FILE_NAME));
+            configured.write(StorageLayout.LAYOUT_FILE_NAME);
+            return false;
+        }
+        return true;
+    }
+
+    static void prepare() throws IOException { // Sets the shards aside, and deletes the files derived from them apart from the indexes, which the caller deletes
+
+        if (!Files.exists(AbstractStorage.path(SOURCE_LAYOUT_FILE_NAME))) {
+            StorageLayout.stored().write(SOURCE_LAYOUT_FILE_NAME);
+        }
+        final StorageLayout source = StorageLayout.read(SOURCE_LAYOUT_FILE_NAME), target = StorageLayout.configured();
+        for (int i = 0; i < source.numberOfShards(); i++) {
+            if (Files.exists(AbstractStorage.path(source.fileName(i, StorageLayout.OLD_EXTENSION)))) { // Set aside before an interruption, the new cells are dropped
+                Files.deleteIfExists(AbstractStorage.path(source.fileName(i, StorageLayout.TRANSACTIONS_EXTENSION)));
+            } else if (Files.exists(AbstractStorage.path(source.fileName(i, StorageLayout.TRANSACTIONS_EXTENSION)))) {
+                Files.move(AbstractStorage.path(source.fileName(i, StorageLayout.TRANSACTIONS_EXTENSION)), AbstractStorage.path(source.fileName(i, StorageLayout.OLD_EXTENSION)), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        target.deleteFiles(StorageLayout.TRANSACTIONS_EXTENSION);
+        for (final StorageLayout layout : new StorageLayout[] {source, target}) {
+            layout.deleteFiles(StorageLayout.MANIFEST_EXTENSION, StorageLayout.INDEX_EXTENSION, StorageLayout.FILTER_EXTENSION, StorageLayout.MISSING_EXTENSION, StorageLayout.TRIE_EXTENSION, StorageLayout.TRIE_MANIFEST_EXTENSION);
+        }
+    }
+
+    static void compact(final StorageTransactions storageTransactions) throws IOException { // Into the empty storage, before the journal is opened
+
+        final long beginningTime = System.currentTimeMillis();
+        final StorageLayout source = StorageLayout.read(SOURCE_LAYOUT_FILE_NAME);
+        final long[] prunedPointers = prunedPointers();
+        final Set<Hash> missingTransactions = new HashSet<>();
+        final List<Transaction> transactions = new ArrayList<>(BATCH_SIZE);
+        long numberOfTransactions = 0;
+
+        for (int i = 0; i < source.numberOfShards(); i++) {
+            if (!Files.exists(AbstractStorage.path(source.fileName(i, StorageLayout.OLD_EXTENSION)))) {
+                continue;
+            }
+            try (final FileChannel channel = FileChannel.open(AbstractStorage.path(source.fileName(i, StorageLayout.OLD_EXTENSION)), StandardOpenOption.READ)) {
+
+                final ByteBuffer cell = ByteBuffer.allocate(AbstractStorage.CELL_SIZE);
+                for (long position = AbstractStorage.CELLS_OFFSET; position + AbstractStorage.CELL_SIZE <= channel.size(); position += AbstractStorage.CELL_SIZE) {
+
+                    cell.clear();
+                    while (cell.hasRemaining() && channel.read(cell, position + cell.position()) > 0);
+                    final long pointer = source.pointer(i, position - AbstractStorage.SUPER_GROUPS_OFFSET);
+                    final byte type = cell.get(Transaction.TYPE_OFFSET);
+                    if (type == AbstractStorage.PREFILLED_SLOT) {
+                        missingTransactions.add(new Hash(cell.array(), Transaction.HASH_OFFSET, Transaction.HASH_SIZE));
+
+                    } else if (type == AbstractStorage.FILLED_SLOT && pointer != IStorageProvider.NULL_TRANSACTION_POINTER // The null transaction is there already
+                            && Arrays.binarySearch(prunedPointers, pointer) < 0) {
+
+                        final byte[] buffer = new byte[AbstractStorage.CELL_SIZE]; // Without the trunk and branch pointers, they are resolved again
+                        System.arraycopy(cell.array(), 0, buffer, 0, Transaction.VALIDITY_OFFSET + Transaction.VALIDITY_SIZE);
+                        transactions.add(new Transaction(buffer, 0));
+                        if (transactions.size() == BATCH_SIZE) {
+                            numberOfTransactions += store(storageTransactions, transactions);
+                        }
+                    }
+                }
+            }
+        }
+        numberOfTransactions += store(storageTransactions, transactions);
+
+        storageTransactions.keepMissingTransactions(missingTransactions);
+        log.info("{} transactions kept, {} pruned, from {} into {}, in {} ms", numberOfTransactions, prunedPointers.length, source, storageTransactions.layout(), System.currentTimeMillis() - beginningTime);
+    }
+
+    static void finish() throws IOException { // Once the new cells are forced
+
+        StorageLayout.configured().write(StorageLayout.LAYOUT_FILE_NAME);
+        Files.move(AbstractStorage.path(SOURCE_LAYOUT_FILE_NAME), AbstractStorage.path(COMPACTED_FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        cleanUp();
+    }
+
+    private static void cleanUp() throws IOException { // Once the compaction is committed, the .old files of the former layout are deleted
+
+        Files.deleteIfExists(AbstractStorage.path(PRUNED_FILE_NAME));
+        StorageLayout.read(COMPACTED_FILE_NAME).deleteFiles(StorageLayout.OLD_EXTENSION);
+        Files.delete(AbstractStorage.path(COMPACTED_FILE_NAME));
+    }
+
+    private static long store(final StorageTransactions storageTransactions, final List<Transaction> transactions) {
+
+        final long[] pointers = storageTransactions.storeTransactions(transactions);
+        for (int i = 0; i < pointers.length; i++) {
+            if (pointers[i] != 0 && transactions.get(i).validity() != 0) {
+                storageTransactions.setTransactionValidity(pointers[i], transactions.get(i).validity());
+            }
+        }
+        final int numberOfTransactions = transactions.size();
+        transactions.clear();
+        return numberOfTransactions;
+    }
+
+    private static long[] prunedPointers() throws IOException { // Sorted, none when only the layout changed
+
+        if (!Files.exists(AbstractStorage.path(PRUNED_FILE_NAME))) {
+            return new long[0];
+        }
+        long[] pointers = new long[1024];
+        int size = 0;
+        try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(AbstractStorage.path(PRUNED_FILE_NAME))))) {
+            while (true) {
+                final long pointer = input.readLong();
+                if (size == pointers.length) {
+                    pointers = Arrays.copyOf(pointers, size << 1);
+                }
+                pointers[size++] = pointer;
+            }
+        } catch (final EOFException e) {
+            // A torn last pointer is dropped with the end of the file, its transaction is kept
+        }
+        pointers = Arrays.copyOf(pointers, size);
+        Arrays.sort(pointers);
+        return pointers;
+    }
+}
@@ -0,0 +1,263 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Converts a database written by a former version into the files of the current one: the storages get their
+ * {@link StorageTrie} instead of a trie of one group cell per key byte, and the index files their
+ * {@link PostingList}s instead of chains of raw pointers. {@link Storage} runs it at startup when it finds such
+ * a database, it can also be run offline beforehand:
+ *
+ *   java -cp iri.jar com.iota.iri.service.storage.StorageConverter <database directory>
+ *
+ * The index files (bundles, addresses, tags, approvers) are rewritten, without their group cells. The cells of
+ * transactions.iri (or of each of its shards) can't move, the indexes and the trunk and branch pointers point at
+ * them, so its group cells are left as they are and only the trie is built. A trie file only appears once its storage is converted and an
+ * index file is only replaced once it's complete, so an interrupted conversion is simply run again.
+ */
+public final class StorageConverter {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageConverter.class);
+
+    private static final String CONVERTING_SUFFIX = ".converting";
+
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length != 1) {
+            System.err.println("Usage: java -cp iri.jar " + StorageConverter.class.getName() + " <database directory>");
+            System.exit(1);
+        }
+        Configuration.put(DefaultConfSettings.DB_PATH, args[0]);
+        convert();
+    }
+
+    static boolean pending() throws IOException { // Whether a file is in a former format, or its conversion was interrupted
+
+        final StorageLayout layout = StorageLayout.stored();
+        for (int i = 0; i < layout.numberOfShards(); i++) {
+            if (Files.exists(AbstractStorage.path(layout.fileName(i, StorageLayout.TRANSACTIONS_EXTENSION))) && !Files.exists(AbstractStorage.path(layout.fileName(i, StorageLayout.TRIE_EXTENSION)))) {
+                return true;
+            }
+        }
+        return pending(StorageBundle.BUNDLES_FILE_NAME, StorageBundle.BUNDLES_TRIE_FILE_NAME)
+                || pending(StorageAddresses.ADDRESSES_FILE_NAME, StorageAddresses.ADDRESSES_TRIE_FILE_NAME)
+                || pending(StorageTags.TAGS_FILE_NAME, StorageTags.TAGS_TRIE_FILE_NAME)
+                || pending(StorageApprovers.APPROVERS_FILE_NAME, StorageApprovers.APPROVERS_TRIE_FILE_NAME);
+    }
+
+    private static boolean pending(final String fileName, final String trieFileName) throws IOException {
+
+        if (!Files.exists(AbstractStorage.path(fileName))) {
+            return false;
+        }
+        if (!Files.exists(AbstractStorage.path(trieFileName))) {
+            return true;
+        }
+        try (final FileChannel channel = FileChannel.open(AbstractStorage.path(fileName), StandardOpenOption.READ)) {
+            final ByteBuffer format = ByteBuffer.allocate(Long.BYTES);
+            while (format.hasRemaining() && channel.read(format, format.position()) > 0);
+            return AbstractStorage.value(format, 0) != PostingList.FORMAT;
+        }
+    }
+
+    static void convert() throws IOException { // Of the files which need it, the others are left as they are
+
+        convertTransactions();
+        convertIndex(StorageBundle.BUNDLES_FILE_NAME, StorageBundle.BUNDLES_MANIFEST_FILE_NAME, StorageBundle.BUNDLES_TRIE_FILE_NAME, StorageBundle.BUNDLES_TRIE_MANIFEST_FILE_NAME, Transaction.BUNDLE_SIZE);
+        convertIndex(StorageAddresses.ADDRESSES_FILE_NAME, StorageAddresses.ADDRESSES_MANIFEST_FILE_NAME, StorageAddresses.ADDRESSES_TRIE_FILE_NAME, StorageAddresses.ADDRESSES_TRIE_MANIFEST_FILE_NAME, Transaction.ADDRESS_SIZE);
+        convertIndex(StorageTags.TAGS_FILE_NAME, StorageTags.TAGS_MANIFEST_FILE_NAME, StorageTags.TAGS_TRIE_FILE_NAME, StorageTags.TAGS_TRIE_MANIFEST_FILE_NAME, Transaction.TAG_SIZE);
+        convertIndex(StorageApprovers.APPROVERS_FILE_NAME, StorageApprovers.APPROVERS_MANIFEST_FILE_NAME, StorageApprovers.APPROVERS_TRIE_FILE_NAME, StorageApprovers.APPROVERS_TRIE_MANIFEST_FILE_NAME, Transaction.HASH_SIZE);
+
+        log.info("Database converted");
+    }
+
+    private static void convertTransactions() throws IOException {
+
+        final StorageLayout layout = StorageLayout.stored();
+        for (int i = 0; i < layout.numberOfShards(); i++) {
+            if (!Files.exists(AbstractStorage.path(layout.fileName(i, StorageLayout.TRANSACTIONS_EXTENSION))) || Files.exists(AbstractStorage.path(layout.fileName(i, StorageLayout.TRIE_EXTENSION)))) {
+                log.info("{} has nothing to convert", layout.fileName(i, StorageLayout.TRANSACTIONS_EXTENSION));
+            } else {
+                buildTransactionsTrie(layout, i);
+            }
+        }
+    }
+
+    static void buildTransactionsTrie(final StorageLayout layout, final int shard) throws IOException { // Also rebuilds the trie of a shard after a crash, once Storage has deleted it
+
+        final String fileName = layout.fileName(shard, StorageLayout.TRANSACTIONS_EXTENSION);
+        final ByteBuffer[] chunks = new ByteBuffer[AbstractStorage.MAX_NUMBER_OF_CHUNKS]; // Of the shard
+        final ByteBuffer[] cells = new ByteBuffer[AbstractStorage.MAX_NUMBER_OF_CHUNKS]; // The same, by pointer, as the trie holds pointers
+        try (final FileChannel channel = FileChannel.open(AbstractStorage.path(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            chunks[0] = channel.map(FileChannel.MapMode.READ_WRITE, AbstractStorage.SUPER_GROUPS_OFFSET, AbstractStorage.SUPER_GROUPS_SIZE);
+            final StorageManifest manifest = new StorageManifest(layout.fileName(shard, StorageLayout.MANIFEST_EXTENSION));
+            final long nextPointer = AbstractStorage.mapChunks(channel, AbstractStorage.SUPER_GROUPS_OFFSET, chunks, manifest);
+            for (int i = 1; i < AbstractStorage.MAX_NUMBER_OF_CHUNKS && chunks[i] != null; i++) {
+                cells[layout.chunk(shard, i)] = chunks[i];
+            }
+
+            final String trieFileName = layout.fileName(shard, StorageLayout.TRIE_EXTENSION), trieManifestFileName = layout.fileName(shard, StorageLayout.TRIE_MANIFEST_EXTENSION);
+            final StorageTrie trie = new StorageTrie(trieFileName + CONVERTING_SUFFIX, trieManifestFileName + CONVERTING_SUFFIX, Transaction.HASH_SIZE, cells);
+            trie.init(AbstractStorage.SUPER_GROUPS_SIZE);
+
+            final byte[] hash = new byte[Transaction.HASH_SIZE];
+            long numberOfTransactions = 0;
+            for (long pointer = AbstractStorage.SUPER_GROUPS_SIZE; pointer < nextPointer; pointer += AbstractStorage.CELL_SIZE) {
+                if (AbstractStorage.cellType(chunks, pointer) != AbstractStorage.GROUP) {
+
+                    ((ByteBuffer) chunks[(int) (pointer >> 27)].duplicate().position((int) (pointer & (AbstractStorage.CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET)).get(hash);
+                    trie.put(hash, layout.pointer(shard, pointer));
+                    if (++numberOfTransactions % 100000 == 0) {
+                        log.info("{}: {} transactions", fileName, numberOfTransactions);
+                    }
+                }
+            }
+            trie.shutdown();
+
+            manifest.checkpoint(nextPointer, true);
+            manifest.close();
+            rename(trieManifestFileName);
+            rename(trieFileName);
+            log.info("{}: {} transactions indexed", fileName, numberOfTransactions);
+        }
+    }
+
+    private static void convertIndex(final String fileName, final String manifestFileName, final String trieFileName, final String trieManifestFileName, final int keySize) throws IOException {
+
+        if (!Files.exists(AbstractStorage.path(fileName))) {
+            log.info("{} has nothing to convert", fileName);
+            return;
+        }
+
+        final ByteBuffer[] chunks = new ByteBuffer[AbstractStorage.MAX_NUMBER_OF_CHUNKS];
+        final ByteBuffer[] convertedChunks = new ByteBuffer[AbstractStorage.MAX_NUMBER_OF_CHUNKS];
+        try (final FileChannel channel = FileChannel.open(AbstractStorage.path(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            chunks[0] = channel.map(FileChannel.MapMode.READ_WRITE, 0, AbstractStorage.SUPER_GROUPS_SIZE);
+            final StorageManifest manifest = new StorageManifest(manifestFileName);
+            final long nextPointer = AbstractStorage.mapChunks(channel, 0, chunks, manifest);
+
+            if (AbstractStorage.cellValue(chunks, 0, 0) == PostingList.FORMAT) { // Interrupted after the cells were converted, only the trie is missing
+
+                manifest.checkpoint(nextPointer, true);
+                manifest.close();
+                if (!Files.exists(AbstractStorage.path(trieFileName))) {
+                    buildTrie(fileName, trieFileName, trieManifestFileName, keySize, chunks, nextPointer);
+                }
+                return;
+            }
+
+            // Only leaves start with a non-zero byte, continuation and group cells start with a pointer, whose low byte is 0
+            final long[] convertedNextPointer = {AbstractStorage.SUPER_GROUPS_SIZE};
+            final long numberOfKeys;
+            try (final FileChannel convertedChannel = FileChannel.open(AbstractStorage.path(fileName + CONVERTING_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+                convertedChunks[0] = convertedChannel.map(FileChannel.MapMode.READ_WRITE, 0, AbstractStorage.SUPER_GROUPS_SIZE);
+                final PostingList postings = new PostingList(fileName, convertedChunks, new DirtyPages(), cell -> { // Forced as a whole once converted
+                    final long pointer = convertedNextPointer[0];
+                    if (convertedChunks[(int) (pointer >> 27)] == null) {
+                        try {
+                            convertedChunks[(int) (pointer >> 27)] = convertedChannel.map(FileChannel.MapMode.READ_WRITE, pointer, AbstractStorage.CHUNK_SIZE);
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    AbstractStorage.writeCell(convertedChunks, pointer, cell);
+                    convertedNextPointer[0] += AbstractStorage.CELL_SIZE;
+                    return pointer;
+                });
+                postings.init(AbstractStorage.SUPER_GROUPS_SIZE);
+
+                final byte[] buffer = new byte[AbstractStorage.CELL_SIZE];
+                final byte[] key = new byte[keySize];
+                long[] pointers = new long[1024];
+                long keys = 0;
+                for (long pointer = AbstractStorage.SUPER_GROUPS_SIZE; pointer < nextPointer; pointer += AbstractStorage.CELL_SIZE) {
+                    if (AbstractStorage.cellType(chunks, pointer) == AbstractStorage.FILLED_SLOT) {
+
+                        AbstractStorage.readCell(chunks, pointer, buffer);
+                        System.arraycopy(buffer, Transaction.HASH_OFFSET, key, 0, keySize);
+                        int size = 0;
+                        int offset = AbstractStorage.ZEROTH_POINTER_OFFSET;
+                        while (true) { // Raw pointers up to the first 0, the last long of a cell is the next one
+                            final long transactionPointer = offset < AbstractStorage.CELL_SIZE - Long.BYTES ? AbstractStorage.value(buffer, offset) : 0;
+                            if (transactionPointer != 0) {
+                                if (size == pointers.length) {
+                                    pointers = Arrays.copyOf(pointers, size << 1);
+                                }
+                                pointers[size++] = transactionPointer;
+                                offset += Long.BYTES;
+                            } else if (offset == AbstractStorage.CELL_SIZE - Long.BYTES && AbstractStorage.value(buffer, offset) != 0) {
+                                AbstractStorage.readCell(chunks, AbstractStorage.value(buffer, offset), buffer);
+                                offset = 0;
+                            } else {
+                                break;
+                            }
+                        }
+                        Arrays.sort(pointers, 0, size);
+                        postings.create(key, keySize, pointers, size);
+                        if (++keys % 100000 == 0) {
+                            log.info("{}: {} keys", fileName, keys);
+                        }
+                    }
+                }
+                numberOfKeys = keys;
+
+                for (int i = 0; i < AbstractStorage.MAX_NUMBER_OF_CHUNKS && convertedChunks[i] != null; i++) {
+                    AbstractStorage.flush(convertedChunks[i]);
+                }
+            }
+
+            // The manifest was checkpointed as not clean by mapChunks, if the move isn't followed by the checkpoint the next start scans the converted file
+            Files.deleteIfExists(AbstractStorage.path(trieFileName)); // Built for the former cells, if any
+            Files.move(AbstractStorage.path(fileName + CONVERTING_SUFFIX), AbstractStorage.path(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            manifest.checkpoint(convertedNextPointer[0], true);
+            manifest.close();
+            log.info("{}: {} keys, {} MB instead of {} MB", fileName, numberOfKeys, (convertedNextPointer[0] - AbstractStorage.SUPER_GROUPS_SIZE) >> 20, (nextPointer - AbstractStorage.SUPER_GROUPS_SIZE) >> 20);
+
+            buildTrie(fileName, trieFileName, trieManifestFileName, keySize, convertedChunks, convertedNextPointer[0]);
+        }
+    }
+
+    private static void buildTrie(final String fileName, final String trieFileName, final String trieManifestFileName, final int keySize, final ByteBuffer[] chunks, final long nextPointer) throws IOException {
+
+        final StorageTrie trie = new StorageTrie(trieFileName + CONVERTING_SUFFIX, trieManifestFileName + CONVERTING_SUFFIX, keySize, chunks);
+        trie.init(AbstractStorage.SUPER_GROUPS_SIZE);
+
+        final byte[] key = new byte[keySize];
+        for (long pointer = AbstractStorage.SUPER_GROUPS_SIZE; pointer < nextPointer; pointer += AbstractStorage.CELL_SIZE) {
+            if (AbstractStorage.cellType(chunks, pointer) == AbstractStorage.FILLED_SLOT) {
+                ((ByteBuffer) chunks[(int) (pointer >> 27)].duplicate().position((int) (pointer & (AbstractStorage.CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET)).get(key);
+                trie.put(key, pointer);
+            }
+        }
+        trie.shutdown();
+
+        rename(trieManifestFileName);
+        rename(trieFileName);
+        log.info("{}: trie built", fileName);
+    }
+
+    static IOException unconverted(final String fileName) { // For the storages which find their files in a former format, which Storage converts before they are opened
+        return new IOException(AbstractStorage.path(fileName).toAbsolutePath().getParent() + " was created by an older version and wasn't converted, convert it with: java -cp iri.jar " + StorageConverter.class.getName() + " <database directory>");
+    }
+
+    private static void rename(final String fileName) throws IOException {
+        Files.move(AbstractStorage.path(fileName + CONVERTING_SUFFIX), AbstractStorage.path(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,163 @@
+package com.iota.iri.service.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forces the dirty chunks of the mapped files in the background, so that the OS never has much to write back on
+ * its own in the middle of a burst and the shutdown only has the last second of writes left to flush.
+ *
+ * Every pass walks the chunks marked in the {@link DirtyPages} of the files, where the former pass stopped, and
+ * forces them until the bytes of their dirty pages exceed the budget of the pass (the rate times the interval).
+ * A pass forces at least one chunk, so a chunk bigger than the budget is forced too, only alone. Forcing happens
+ * outside of the storage lock, writers go on meanwhile.
+ */
+final class StorageFlusher {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageFlusher.class);
+
+    private static final class MappedFile {
+
+        final String name;
+        final ByteBuffer[] chunks;
+        final DirtyPages dirtyPages;
+
+        MappedFile(final String name, final ByteBuffer[] chunks, final DirtyPages dirtyPages) {
+            this.name = name;
+            this.chunks = chunks;
+            this.dirtyPages = dirtyPages;
+        }
+    }
+
+    private final List<MappedFile> files = new ArrayList<>();
+    private final int interval; // ms
+    private final long budget; // Bytes per pass
+
+    private Thread thread;
+    private volatile boolean shuttingDown;
+
+    private int file, chunk; // Where the next pass starts
+
+    private volatile long numberOfFlushes, flushedBytes, flushNanos, maxFlushNanos;
+
+    StorageFlusher(final int interval, final int rate) { // "rate" in MB/s
+        this.interval = interval;
+        budget = ((long) rate << 20) * interval / 1000;
+    }
+
+    void register(final String name, final ByteBuffer[] chunks, final DirtyPages dirtyPages) { // Before start()
+        files.add(new MappedFile(name, chunks, dirtyPages));
+    }
+
+    void start() {
+
+        shuttingDown = false;
+        thread = new Thread(() -> {
+            while (!shuttingDown) {
+                try {
+                    Thread.sleep(interval);
+                    flush();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (final RuntimeException e) {
+                    log.error("Storage flusher error: ", e);
+                }
+            }
+        }, "Storage Flusher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void shutdown() { // Not interrupted, that would close the channel it may be forcing
+
+        shuttingDown = true;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void flush() {
+
+        if (files.isEmpty()) {
+            return;
+        }
+        long spent = 0;
+        for (int visitedFiles = 0; visitedFiles <= files.size() && !shuttingDown; visitedFiles++) {
+
+            final MappedFile mappedFile = files.get(file);
+            int dirtyChunk;
+            while ((dirtyChunk = mappedFile.dirtyPages.nextDirtyChunk(chunk)) >= 0) {
+
+                final long bytes = (long) mappedFile.dirtyPages.dirtyPages(dirtyChunk) << DirtyPages.PAGE_SHIFT;
+                if (spent > 0 && spent + bytes > budget) {
+                    chunk = dirtyChunk; // Resumed by the next pass
+                    return;
+                }
+                spent += bytes;
+                force(mappedFile, dirtyChunk);
+                chunk = dirtyChunk + 1;
+            }
+            file = (file + 1) % files.size();
+            chunk = 0;
+        }
+    }
+
+    private void force(final MappedFile mappedFile, final int dirtyChunk) {
+
+        final ByteBuffer buffer = mappedFile.chunks[dirtyChunk];
+        final int pages = mappedFile.dirtyPages.drain(dirtyChunk);
+        if (buffer == null) {
+            return;
+        }
+
+        final long beginningTime = System.nanoTime();
+        if (!AbstractStorage.flush(buffer)) {
+            log.error("Flushing {} chunk #{} failed", mappedFile.name, dirtyChunk);
+            mappedFile.dirtyPages.mark((long) dirtyChunk << 27); // Tried again by the next pass
+            return;
+        }
+        final long nanos = System.nanoTime() - beginningTime;
+
+        numberOfFlushes++;
+        flushedBytes += (long) pages << DirtyPages.PAGE_SHIFT;
+        flushNanos += nanos;
+        if (nanos > maxFlushNanos) {
+            maxFlushNanos = nanos;
+        }
+    }
+
+    // metrics, the bytes are those of the dirty pages and the latencies those of a chunk force, in microseconds
+
+    long dirtyBytes() {
+
+        long bytes = 0;
+        for (final MappedFile mappedFile : files) {
+            bytes += mappedFile.dirtyPages.dirtyBytes();
+        }
+        return bytes;
+    }
+
+    long flushedBytes() {
+        return flushedBytes;
+    }
+
+    long averageFlushLatency() {
+        final long flushes = numberOfFlushes;
+        return flushes == 0 ? 0 : flushNanos / flushes / 1000;
+    }
+
+    long maxFlushLatency() {
+        return maxFlushNanos / 1000;
+    }
+}
@@ -0,0 +1,265 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import com.iota.iri.model.Transaction;
+
+/**
+ * Write-ahead journal of the transactions stored in the shards of transactions.iri since the last checkpoint,
+ * a single one whatever the number of shards.
+ *
+ * A record is the cell of a transaction from its hash to its validity, the fields nothing can rebuild, preceded
+ * by its CRC32. It is appended before the transaction touches any cell, trie or posting list, under the write
+ * lock of its shard, and written to the file right away, so that the page cache holds it even if the process
+ * dies the next instant. The fsync is left to {@link #sync()}, called every few milliseconds by the syncer of
+ * {@link Storage}, so it is shared by every store of the interval (group commit).
+ *
+ * The journal is split into generations: a checkpoint opens a new one, forces the cells, then deletes the
+ * former ones, so the cells are never forced under the storage locks. The last generation is deleted at a
+ * clean shutdown, hence a journal found at startup means the node died and the storage must be recovered.
+ *
+ * The mapped files are written back by the OS whenever it likes and in any order. If only the process died,
+ * the page cache still holds every write it made, and replaying the generations left behind is enough to
+ * complete the stores it was in the middle of. If the machine went down, a trie or a posting list may point at
+ * cells which never reached the disk, and the indexes are rebuilt from the cells. Each generation starts with
+ * a header holding the boot id of the machine which wrote it, which tells the two cases apart.
+ *
+ * If an append fails, the generation is truncated back to its last whole record and its boot id is cleared:
+ * it takes no further record, and if the node dies before the next checkpoint the indexes are rebuilt.
+ */
+final class StorageJournal {
+
+    private static final String GENERATION_FILE_NAME = "transactions-%06d.journal";
+    private static final String GENERATION_GLOB = "transactions-*.journal";
+
+    private static final long MAGIC = 0x49524a4f55524e4cL; // "IRJOURNL"
+    private static final int HEADER_SIZE = 4 * Long.BYTES; // Magic, boot id, CRC32 of the former
+    private static final Path BOOT_ID_PATH = Paths.get("/proc/sys/kernel/random/boot_id");
+
+    static final int RECORD_SIZE = Transaction.VALIDITY_OFFSET - Transaction.HASH_OFFSET;
+
+    private final ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final boolean syncOnAppend;
+
+    private FileChannel channel;
+    private int generation;
+    private long size; // Written to the channel, in bytes, up to the last whole record
+    private boolean failed; // An append failed since the generation was opened
+
+    StorageJournal(final boolean syncOnAppend) {
+        this.syncOnAppend = syncOnAppend;
+    }
+
+    static List<Integer> generations() throws IOException { // Left by the former run, in ascending order
+
+        final List<Integer> generations = new ArrayList<>();
+        final Path directory = AbstractStorage.path(GENERATION_FILE_NAME).toAbsolutePath().getParent();
+        if (Files.isDirectory(directory)) {
+            try (final DirectoryStream<Path> paths = Files.newDirectoryStream(directory, GENERATION_GLOB)) {
+                for (final Path path : paths) {
+                    final String name = path.getFileName().toString();
+                    try {
+                        generations.add(Integer.parseInt(name.substring(name.indexOf('-') + 1, name.indexOf('.'))));
+                    } catch (final NumberFormatException e) {
+                        // Not a generation
+                    }
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    static boolean trusted(final List<Integer> generations) throws IOException { // True if every generation was written since the machine booted, the page cache then holds every write of the former run
+
+        final UUID bootId = bootId();
+        if (bootId == null) {
+            return false;
+        }
+        for (final int generation : generations) {
+            try (final FileChannel channel = FileChannel.open(path(generation), StandardOpenOption.READ)) {
+                if (!bootId.equals(header(channel))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static void distrust(final int generation) throws IOException { // Clears the boot id of the generation, so that the recovery doesn't trust the indexes until it is replayed
+
+        try (final FileChannel channel = FileChannel.open(path(generation), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (header(channel) != null) {
+                writeHeader(channel, new UUID(0, 0));
+                channel.force(false);
+            }
+        }
+    }
+
+    static int replay(final int generation, final Consumer<byte[]> consumer) throws IOException { // Hands each intact record over as a cell, stops at the first torn one
+
+        int numberOfRecords = 0;
+        try (final FileChannel channel = FileChannel.open(path(generation), StandardOpenOption.READ)) {
+
+            final ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + RECORD_SIZE);
+            final CRC32 crc = new CRC32();
+            final ByteBuffer magic = ByteBuffer.allocate(Long.BYTES);
+            while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0);
+            if (magic.hasRemaining() || magic.getLong(0) != MAGIC) { // The node died before the header was written, so before any append
+                return 0;
+            }
+            long position = HEADER_SIZE;
+            while (true) {
+
+                record.clear();
+                while (record.hasRemaining() && channel.read(record, position + record.position()) > 0);
+                if (record.hasRemaining()) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record.array(), Integer.BYTES, RECORD_SIZE);
+                if (record.getInt(0) != (int) crc.getValue()) {
+                    break;
+                }
+
+                final byte[] cell = new byte[AbstractStorage.CELL_SIZE];
+                cell[Transaction.TYPE_OFFSET] = AbstractStorage.FILLED_SLOT;
+                System.arraycopy(record.array(), Integer.BYTES, cell, Transaction.HASH_OFFSET, RECORD_SIZE);
+                consumer.accept(cell);
+                numberOfRecords++;
+                position += record.capacity();
+            }
+        }
+        return numberOfRecords;
+    }
+
+    static void delete(final int generation) throws IOException {
+        Files.deleteIfExists(path(generation));
+    }
+
+    synchronized void open(final int generation) throws IOException {
+
+        this.generation = generation;
+        channel = FileChannel.open(path(generation), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        final UUID bootId = bootId();
+        writeHeader(channel, bootId == null ? new UUID(0, 0) : bootId);
+        size = HEADER_SIZE;
+        failed = false;
+    }
+
+    synchronized void append(final byte[] cell) throws IOException { // "cell" as dumped by StorageTransactions, called under the write lock of its shard before the cell is written
+
+        if (failed) {
+            return;
+        }
+        crc.reset();
+        crc.update(cell, Transaction.HASH_OFFSET, RECORD_SIZE);
+        record.clear();
+        record.putInt((int) crc.getValue());
+        record.put(cell, Transaction.HASH_OFFSET, RECORD_SIZE);
+        record.flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record, size + record.position());
+            }
+            if (syncOnAppend) {
+                channel.force(false);
+            }
+        } catch (final IOException e) {
+            fail();
+            throw e;
+        }
+        size += record.capacity();
+    }
+
+    private void fail() { // Drops the torn record, if any, and distrusts the generation, whose records no longer cover every store
+
+        failed = true;
+        try {
+            channel.truncate(size);
+            writeHeader(channel, new UUID(0, 0));
+            channel.force(false);
+        } catch (final IOException e) {
+            // The drive is gone, the replay stops at the torn record anyway
+        }
+    }
+
+    void sync() throws IOException { // The fsync is done outside of the monitor, appends go on meanwhile
+
+        final FileChannel channel;
+        synchronized (this) {
+            channel = this.channel;
+        }
+        channel.force(false);
+    }
+
+    synchronized int rotate() throws IOException { // Called by the thread which syncs, with every shard locked, returns the generation that was closed, every record of which has its store completed
+
+        channel.force(false);
+        channel.close();
+        open(generation + 1);
+        return generation - 1;
+    }
+
+    synchronized void close(final boolean delete) throws IOException { // Deleted once everything it holds is in the forced cells
+
+        channel.force(false);
+        channel.close();
+        if (delete) {
+            delete(generation);
+        }
+    }
+
+    private static UUID bootId() { // Null if the OS doesn't tell, the indexes are never trusted then
+
+        try {
+            return UUID.fromString(new String(Files.readAllBytes(BOOT_ID_PATH), StandardCharsets.US_ASCII).trim());
+        } catch (final IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static UUID header(final FileChannel channel) throws IOException { // The boot id, null if the generation has no valid header
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0);
+        if (header.hasRemaining() || header.getLong(0) != MAGIC) {
+            return null;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, 3 * Long.BYTES);
+        return header.getLong(3 * Long.BYTES) == crc.getValue() ? new UUID(header.getLong(Long.BYTES), header.getLong(2 * Long.BYTES)) : null;
+    }
+
+    private static void writeHeader(final FileChannel channel, final UUID bootId) throws IOException {
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(MAGIC).putLong(bootId.getMostSignificantBits()).putLong(bootId.getLeastSignificantBits());
+        final CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, 3 * Long.BYTES);
+        header.putLong(crc.getValue());
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private static Path path(final int generation) {
+        return AbstractStorage.path(String.format(GENERATION_FILE_NAME, generation));
+    }
+}
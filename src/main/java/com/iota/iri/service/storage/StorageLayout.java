@@ -0,0 +1,203 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+
+/**
+ * The shards transactions.iri is split into, and how hashes and pointers map onto them.
+ *
+ * A transaction goes to the shard picked by the first byte of its hash, so a lookup knows its shard before it
+ * walks a trie. A hash byte packs 5 trits, i.e. one of 243 values from -121 to 121, which are split evenly over
+ * the shards, the null hash going to shard #0. Every shard is a file laid out like transactions.iri, with its own trie, filter, index, tips
+ * flags and lock, and the shards are spread over the configured directories, e.g. one per drive. The chunks of
+ * the shards interleave in the pointer space: chunk #k of shard #s (k > 0, chunk #0 holds the super groups) is
+ * chunk #(k - 1) * shards + s + 1 of the storage. Pointers stay unique and spaced by {@link AbstractStorage#CELL_SIZE}
+ * from the null transaction, which is the first cell of shard #0, and they grow about evenly as the shards fill.
+ * Each shard holds up to 1 / shards of the chunks, so a full shard refuses the transactions which hash to it
+ * while the others may still have room.
+ * A single shard is transactions.iri itself, pointers and files are those of the storage before sharding.
+ *
+ * The layout of the storage is kept in transactions.shards, a storage without one is a single transactions.iri in
+ * the database directory. A storage laid out otherwise than configured is re-sharded at startup by
+ * {@link StorageCompactor}.
+ */
+final class StorageLayout {
+
+    static final String LAYOUT_FILE_NAME = "transactions.shards";
+    static final int MAX_NUMBER_OF_SHARDS = 64;
+
+    static final String TRANSACTIONS_EXTENSION = ".iri";
+    static final String MANIFEST_EXTENSION = ".manifest";
+    static final String INDEX_EXTENSION = ".index";
+    static final String FILTER_EXTENSION = ".filter";
+    static final String MISSING_EXTENSION = ".missing";
+    static final String TRIE_EXTENSION = ".trie";
+    static final String TRIE_MANIFEST_EXTENSION = "-trie.manifest";
+    static final String OLD_EXTENSION = ".old";
+
+    private static final int NUMBER_OF_HASH_BYTE_VALUES = 243; // 3^5
+
+    private static final String SINGLE_SHARD_NAME = "transactions";
+    private static final String SHARD_NAME = "transactions-%02d";
+
+    private final String[] names; // Of the shards without extension, relative to the database directory unless absolute
+    private final int bits;
+
+    private StorageLayout(final String[] names) {
+        this.names = names;
+        bits = Integer.numberOfTrailingZeros(names.length);
+    }
+
+    static StorageLayout configured() throws IOException {
+
+        final int numberOfShards = Configuration.integer(DefaultConfSettings.STORAGE_SHARDS);
+        if (numberOfShards < 1 || numberOfShards > MAX_NUMBER_OF_SHARDS || Integer.bitCount(numberOfShards) != 1) {
+            throw new IOException("The number of storage shards must be a power of 2 up to " + MAX_NUMBER_OF_SHARDS + ", not " + numberOfShards);
+        }
+        final List<String> directories = new ArrayList<>();
+        for (final String directory : Configuration.string(DefaultConfSettings.STORAGE_PATHS).split(",")) {
+            if (!directory.trim().isEmpty()) {
+                directories.add(directory.trim());
+            }
+        }
+
+        final String[] names = new String[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            final String name = numberOfShards == 1 ? SINGLE_SHARD_NAME : String.format(SHARD_NAME, i);
+            names[i] = directories.isEmpty() ? name : Paths.get(directories.get(i % directories.size()), name).toString();
+        }
+        return new StorageLayout(names);
+    }
+
+    static StorageLayout stored() throws IOException { // The one the storage was last laid out in
+        return Files.exists(AbstractStorage.path(LAYOUT_FILE_NAME)) ? read(LAYOUT_FILE_NAME) : new StorageLayout(new String[] {SINGLE_SHARD_NAME});
+    }
+
+    static StorageLayout read(final String fileName) throws IOException {
+
+        final List<String> names = new ArrayList<>();
+        for (final String line : Files.readAllLines(AbstractStorage.path(fileName), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                if (!line.trim().endsWith(TRANSACTIONS_EXTENSION)) {
+                    throw new IOException(fileName + " holds a file which isn't a shard: " + line);
+                }
+                names.add(line.trim().substring(0, line.trim().length() - TRANSACTIONS_EXTENSION.length()));
+            }
+        }
+        if (names.isEmpty() || names.size() > MAX_NUMBER_OF_SHARDS || Integer.bitCount(names.size()) != 1) {
+            throw new IOException(fileName + " holds " + names.size() + " shards, not a power of 2 up to " + MAX_NUMBER_OF_SHARDS);
+        }
+        return new StorageLayout(names.toArray(new String[names.size()]));
+    }
+
+    void write(final String fileName) throws IOException { // Replaces the file atomically, one shard file per line
+
+        final StringBuilder content = new StringBuilder();
+        for (final String name : names) {
+            content.append(name).append(TRANSACTIONS_EXTENSION).append('\n');
+        }
+        final Path path = AbstractStorage.path(fileName), temporaryPath = AbstractStorage.path(fileName + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    int numberOfShards() {
+        return names.length;
+    }
+
+    String fileName(final int shard, final String extension) { // Of a file of the shard, for AbstractStorage.path()
+        return names[shard] + extension;
+    }
+
+    boolean exists() throws IOException { // Whether any shard has cells, or had them before a compaction set them aside
+
+        for (int i = 0; i < names.length; i++) {
+            if (Files.exists(AbstractStorage.path(fileName(i, TRANSACTIONS_EXTENSION))) || Files.exists(AbstractStorage.path(fileName(i, OLD_EXTENSION)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void createDirectories() throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            Files.createDirectories(AbstractStorage.path(fileName(i, TRANSACTIONS_EXTENSION)).toAbsolutePath().getParent());
+        }
+    }
+
+    void deleteFiles(final String... extensions) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            for (final String extension : extensions) {
+                Files.deleteIfExists(AbstractStorage.path(fileName(i, extension)));
+            }
+        }
+    }
+
+    // Hashes and pointers
+
+    int shard(final byte firstHashByte) { // The values from 0 up come first, so that the shards get as many of them each whatever their number
+        return (firstHashByte + NUMBER_OF_HASH_BYTE_VALUES) % NUMBER_OF_HASH_BYTE_VALUES * names.length / NUMBER_OF_HASH_BYTE_VALUES;
+    }
+
+    int shard(final long pointer) {
+        return (int) ((pointer >> 27) - 1) & (names.length - 1);
+    }
+
+    int numberOfShardChunks() { // A shard holds chunks #1 to #(this - 1), so that the chunks of every shard stay below AbstractStorage.MAX_NUMBER_OF_CHUNKS in the storage
+        return AbstractStorage.MAX_NUMBER_OF_CHUNKS >> bits;
+    }
+
+    int chunk(final int shard, final int shardChunk) { // In the storage, of chunk #"shardChunk" of the shard
+        return ((shardChunk - 1) << bits) + shard + 1;
+    }
+
+    long pointer(final int shard, final long shardPointer) { // Of the cell at "shardPointer" in the shard, i.e. its offset from the super groups
+        return (long) chunk(shard, (int) (shardPointer >> 27)) << 27 | (shardPointer & (AbstractStorage.CHUNK_SIZE - 1));
+    }
+
+    long shardPointer(final long pointer) {
+        return (long) ((((int) (pointer >> 27) - 1) >> bits) + 1) << 27 | (pointer & (AbstractStorage.CHUNK_SIZE - 1));
+    }
+
+    @Override
+    public boolean equals(final Object object) { // Same shards in the same files
+
+        if (!(object instanceof StorageLayout) || ((StorageLayout) object).names.length != names.length) {
+            return false;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (!AbstractStorage.path(names[i]).toAbsolutePath().normalize().equals(AbstractStorage.path(((StorageLayout) object).names[i]).toAbsolutePath().normalize())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return names.length; // The names may differ for the same files
+    }
+
+    @Override
+    public String toString() {
+        return names.length + (names.length == 1 ? " shard" : " shards");
+    }
+}
@@ -0,0 +1,117 @@
+package com.iota.iri.service.storage;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Guards the mapped storage files.
+ *
+ * Writers are exclusive and reentrant (a store may trigger further stores and index updates).
+ * Bounded readers (trie lookups, single cell loads) run optimistically without taking any lock and
+ * are retried under the shared read lock only if a writer interfered. Unbounded readers (chain and
+ * cell scans) take the shared read lock straight away.
+ */
+final class StorageLock {
+
+    private final StampedLock lock = new StampedLock();
+    private final ThreadLocal<int[]> readHoldCount = ThreadLocal.withInitial(() -> new int[1]);
+
+    private volatile Thread writer;
+
+    boolean isWriter() {
+        return writer == Thread.currentThread();
+    }
+
+    long readLong(final LongSupplier reader) {
+
+        if (isWriter()) {
+            return reader.getAsLong();
+        }
+
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                final long result = reader.getAsLong();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (final RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        return readLocked(() -> reader.getAsLong());
+    }
+
+    <T> T read(final Supplier<T> reader) {
+
+        if (isWriter()) {
+            return reader.get();
+        }
+
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                final T result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (final RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        return readLocked(reader);
+    }
+
+    long tryOptimisticRead() { // For readers that can't afford a lambda per read, 0 means a writer holds the lock
+        return lock.tryOptimisticRead();
+    }
+
+    boolean validate(final long stamp) {
+        return stamp != 0 && lock.validate(stamp);
+    }
+
+    <T> T readLocked(final Supplier<T> reader) {
+
+        final int[] holdCount = readHoldCount.get();
+        if (isWriter() || holdCount[0] > 0) {
+            return reader.get();
+        }
+
+        final long stamp = lock.readLock();
+        holdCount[0]++;
+        try {
+            return reader.get();
+        } finally {
+            holdCount[0]--;
+            lock.unlockRead(stamp);
+        }
+    }
+
+    long writeLong(final LongSupplier mutator) {
+
+        if (isWriter()) {
+            return mutator.getAsLong();
+        }
+
+        final long stamp = lock.writeLock();
+        writer = Thread.currentThread();
+        try {
+            return mutator.getAsLong();
+        } finally {
+            writer = null;
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void write(final Runnable mutator) {
+        writeLong(() -> {
+            mutator.run();
+            return 0;
+        });
+    }
+}
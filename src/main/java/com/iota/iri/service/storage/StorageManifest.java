@@ -0,0 +1,101 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Small checksummed header kept next to a storage file.
+ *
+ * It records the next free cell pointer and whether the file was closed cleanly. After a clean shutdown
+ * the store starts without looking at its cells, after a crash it only scans what was appended since the
+ * last checkpoint. A checkpoint is taken at startup, whenever a new chunk is mapped and at shutdown, and
+ * for transactions.iri also by the periodic checkpoints of {@link Storage}. A missing or invalid manifest of an
+ * index makes the recovery of {@link Storage} rebuild the indexes.
+ * The random id of the file lets derived files (e.g. lookup snapshots) recognize the storage they were
+ * built from.
+ */
+final class StorageManifest {
+
+    private static final long MAGIC = 0x49524953544f5245L; // "IRISTORE"
+    private static final int SIZE = 5 * Long.BYTES;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+
+    private long id;
+    private long nextPointer;
+    private boolean clean;
+
+    StorageManifest(final String fileName) throws IOException {
+
+        channel = FileChannel.open(AbstractStorage.path(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        buffer.clear();
+        if (channel.read(buffer, 0) == SIZE && buffer.getLong(0) == MAGIC && buffer.getLong(4 * Long.BYTES) == checksum()) {
+            id = buffer.getLong(Long.BYTES);
+            nextPointer = buffer.getLong(2 * Long.BYTES);
+            clean = buffer.getLong(3 * Long.BYTES) != 0;
+        } else {
+            id = ThreadLocalRandom.current().nextLong();
+        }
+    }
+
+    static boolean valid(final String fileName) throws IOException { // Without creating it
+
+        if (!Files.exists(AbstractStorage.path(fileName))) {
+            return false;
+        }
+        try (final FileChannel channel = FileChannel.open(AbstractStorage.path(fileName), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+            if (channel.read(buffer, 0) != SIZE || buffer.getLong(0) != MAGIC) {
+                return false;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, 4 * Long.BYTES);
+            return buffer.getLong(4 * Long.BYTES) == crc.getValue();
+        }
+    }
+
+    long id() {
+        return id;
+    }
+
+    long nextPointer() { // 0 if there is no valid manifest
+        return nextPointer;
+    }
+
+    boolean clean() {
+        return clean;
+    }
+
+    synchronized void checkpoint(final long nextPointer, final boolean clean) throws IOException { // Also called by the checkpoints of Storage, outside of the storage lock
+
+        buffer.clear();
+        buffer.putLong(0, MAGIC);
+        buffer.putLong(Long.BYTES, id);
+        buffer.putLong(2 * Long.BYTES, nextPointer);
+        buffer.putLong(3 * Long.BYTES, clean ? 1 : 0);
+        buffer.putLong(4 * Long.BYTES, checksum());
+        channel.write(buffer, 0);
+        channel.force(false);
+
+        this.nextPointer = nextPointer;
+        this.clean = clean;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private long checksum() {
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, 4 * Long.BYTES);
+        return crc.getValue();
+    }
+}
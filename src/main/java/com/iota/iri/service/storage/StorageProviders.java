@@ -0,0 +1,55 @@
+package com.iota.iri.service.storage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+
+/**
+ * Registry of the storage engines, the one named by {@link DefaultConfSettings#STORAGE_ENGINE} is created on first use.
+ */
+public final class StorageProviders {
+
+    private static final Map<String, Supplier<IStorageProvider>> engines = new LinkedHashMap<>();
+
+    static {
+        engines.put("file", FileStorageProvider::new);
+        engines.put("memory", MemoryStorageProvider::new);
+        engines.put("log", LogStorageProvider::new);
+    }
+
+    private static volatile IStorageProvider instance;
+
+    private StorageProviders() {}
+
+    public static Set<String> engines() {
+        return engines.keySet();
+    }
+
+    public static IStorageProvider instance() {
+
+        IStorageProvider provider = instance;
+        if (provider == null) {
+            synchronized (StorageProviders.class) {
+                if ((provider = instance) == null) {
+                    final String engine = Configuration.string(DefaultConfSettings.STORAGE_ENGINE);
+                    final Supplier<IStorageProvider> factory = engines.get(engine);
+                    if (factory == null) {
+                        throw new IllegalArgumentException("Unknown storage engine: " + engine);
+                    }
+                    instance = provider = factory.get();
+                }
+            }
+        }
+        return provider;
+    }
+
+    static void reset() { // The next call of instance() creates the engine configured then, for the tests which run against every engine
+        synchronized (StorageProviders.class) {
+            instance = null;
+        }
+    }
+}
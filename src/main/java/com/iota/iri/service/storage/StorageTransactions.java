@@ -1,17 +1,24 @@
 package com.iota.iri.service.storage;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
 
@@ -20,257 +27,863 @@ public class StorageTransactions extends AbstractStorage {
 	private static final Logger log = LoggerFactory.getLogger(StorageTransactions.class);
 	
 	private static final StorageTransactions instance = new StorageTransactions();
-	private static final String TRANSACTIONS_FILE_NAME = "transactions.iri";
-	
-	private FileChannel transactionsChannel;
-    private ByteBuffer transactionsTipsFlags;
-    
-    private final ByteBuffer[] transactionsChunks = new ByteBuffer[MAX_NUMBER_OF_CHUNKS];
-    
-    public static long transactionsNextPointer = CELLS_OFFSET - SUPER_GROUPS_OFFSET;
-    
+
+    // Kept in the cell of the null transaction, tells which cell format upgrades the file has been through
+    private static final int FORMAT_OFFSET = Transaction.BRANCH_TRANSACTION_POINTER_OFFSET + Transaction.BRANCH_TRANSACTION_POINTER_SIZE;
+    private static final long FORMAT_APPROVED_TRANSACTION_POINTERS = 1;
+
+    private static final long FIRST_SHARD_POINTER = CELLS_OFFSET - SUPER_GROUPS_OFFSET; // Of the first cell of a shard, in the shard
+    private static final long REJECTED_POINTER = Long.MIN_VALUE; // Returned by the optimistic read of a lookup which the filter rejected, never a pointer
+
+    /**
+     * One file of cells of the {@link StorageLayout}, with everything derived from them. Writers lock every shard
+     * they write to (the one of the transaction and the ones of its approved transactions) in ascending order,
+     * then the indexes, so stores into distinct shards only wait for each other to update the indexes. Readers
+     * only lock, if at all, the shard they read from.
+     */
+    private static final class Shard {
+
+        final int number;
+        final StorageLock lock = new StorageLock();
+        final ByteBuffer[] chunks = new ByteBuffer[MAX_NUMBER_OF_CHUNKS]; // By shard pointer, the array of the storage holds them too
+        final DirtyPages tipsFlagsDirtyPages = new DirtyPages();
+        final PointerSet tips = new PointerSet();
+
+        FileChannel channel;
+        StorageManifest manifest;
+        ByteBuffer tipsFlags; // One bit per cell the shard can hold
+        StorageTrie trie;
+        TransactionFilter filter;
+        volatile TransactionIndex index; // Null unless enabled
+        volatile long nextPointer = FIRST_SHARD_POINTER; // Shard pointers are offsets from the super groups of the file, like the pointers of the storage before sharding
+        boolean full; // Logged once a store was refused for lack of cells
+
+        Shard(final int number) {
+            this.number = number;
+        }
+    }
+
+    private StorageLayout layout;
+    private Shard[] shards = new Shard[0];
+
+    private final ByteBuffer[] transactionsChunks = new ByteBuffer[MAX_NUMBER_OF_CHUNKS]; // Of every shard, by pointer
+    private final DirtyPages transactionsDirtyPages = new DirtyPages();
+    private final MissingTransactions missingTransactions = new MissingTransactions();
+    private final ThreadLocal<byte[][]> approvedTransactionsToStore = ThreadLocal.withInitial(() -> new byte[2][]); // Queued by dump(), stores into distinct shards run concurrently
+
     @Override
 	public void init() throws IOException {
-		
-        transactionsChannel = FileChannel.open(Paths.get(TRANSACTIONS_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
-        transactionsTipsFlags = transactionsChannel.map(FileChannel.MapMode.READ_WRITE, TIPS_FLAGS_OFFSET, TIPS_FLAGS_SIZE);
-        transactionsChunks[0] = transactionsChannel.map(FileChannel.MapMode.READ_WRITE, SUPER_GROUPS_OFFSET, SUPER_GROUPS_SIZE);
-        final long transactionsChannelSize = transactionsChannel.size();
-        while (true) {
-
-            if ((transactionsNextPointer & (CHUNK_SIZE - 1)) == 0) {
-                transactionsChunks[(int)(transactionsNextPointer >> 27)] = transactionsChannel.map(FileChannel.MapMode.READ_WRITE, SUPER_GROUPS_OFFSET + transactionsNextPointer, CHUNK_SIZE);
+
+        layout = StorageLayout.configured();
+        layout.createDirectories();
+        final Shard[] shards = new Shard[layout.numberOfShards()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+            init(shards[i]);
+        }
+        this.shards = shards;
+        log.info("{}, tips: {}", layout, numberOfTips());
+	}
+
+    private void init(final Shard shard) throws IOException {
+
+        shard.channel = FileChannel.open(path(layout.fileName(shard.number, StorageLayout.TRANSACTIONS_EXTENSION)), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        shard.tipsFlags = shard.channel.map(FileChannel.MapMode.READ_WRITE, TIPS_FLAGS_OFFSET, (long) layout.numberOfShardChunks() * CELLS_PER_CHUNK / Byte.SIZE); // The rest of TIPS_FLAGS_SIZE stays a hole
+        shard.chunks[0] = shard.channel.map(FileChannel.MapMode.READ_WRITE, SUPER_GROUPS_OFFSET, SUPER_GROUPS_SIZE);
+        shard.manifest = new StorageManifest(layout.fileName(shard.number, StorageLayout.MANIFEST_EXTENSION));
+        shard.nextPointer = mapChunks(shard.channel, SUPER_GROUPS_OFFSET, shard.chunks, shard.manifest);
+        for (int i = 1; i < MAX_NUMBER_OF_CHUNKS && shard.chunks[i] != null; i++) {
+            transactionsChunks[layout.chunk(shard.number, i)] = shard.chunks[i];
+        }
+        shard.trie = new StorageTrie(layout.fileName(shard.number, StorageLayout.TRIE_EXTENSION), layout.fileName(shard.number, StorageLayout.TRIE_MANIFEST_EXTENSION), Transaction.HASH_SIZE, transactionsChunks);
+        shard.trie.init(shard.nextPointer);
+        dropUnindexedCell(shard);
+
+        initLookups(shard);
+        initTips(shard);
+    }
+
+    private void dropUnindexedCell(final Shard shard) { // Stores put a cell into the trie right after appending it, so only the last one may be missing from it, if the process died in between
+
+        if (shard.nextPointer == FIRST_SHARD_POINTER) {
+            return;
+        }
+        final long shardPointer = shard.nextPointer - CELL_SIZE;
+        final long pointer = layout.pointer(shard.number, shardPointer);
+        if (shard.trie.get(shard.chunks[(int) (shardPointer >> 27)], (int) (shardPointer & (CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET) != pointer) {
+
+            writeCell(shard.chunks, shardPointer, ZEROED_BUFFER); // Its transaction is stored again when the journal is replayed
+            transactionsDirtyPages.mark(pointer);
+            final long index = (shardPointer - FIRST_SHARD_POINTER) >> 11;
+            shard.tipsFlags.put((int) (index >> 3), (byte) (shard.tipsFlags.get((int) (index >> 3)) & (0xFF ^ (1 << (index & 7)))));
+            shard.tipsFlagsDirtyPages.mark(index >> 3);
+            shard.nextPointer = shardPointer;
+            log.info("{}: dropped the last cell, which isn't in the trie", layout.fileName(shard.number, StorageLayout.TRANSACTIONS_EXTENSION));
+        }
+    }
+
+    private void initLookups(final Shard shard) throws IOException { // Loads the snapshots of the filter, the index and the missing transactions and adds the cells appended since they were saved
+
+        final long numberOfCells = (shard.nextPointer - FIRST_SHARD_POINTER) / CELL_SIZE;
+
+        final TransactionFilter filter = new TransactionFilter(numberOfCells);
+        long filterPointer = TransactionFilter.load(path(layout.fileName(shard.number, StorageLayout.FILTER_EXTENSION)), shard.manifest.id(), filter);
+        if (filterPointer < FIRST_SHARD_POINTER || filterPointer > shard.nextPointer) { // Cells never move, so a snapshot only misses the ones appended since
+            filterPointer = FIRST_SHARD_POINTER;
+        }
+
+        TransactionIndex index = null;
+        long indexPointer = shard.nextPointer;
+        if (Configuration.booling(DefaultConfSettings.TRANSACTION_INDEX)) {
+            index = new TransactionIndex(numberOfCells);
+            indexPointer = TransactionIndex.load(path(layout.fileName(shard.number, StorageLayout.INDEX_EXTENSION)), shard.manifest.id(), index);
+            if (indexPointer < FIRST_SHARD_POINTER || indexPointer > shard.nextPointer) {
+                indexPointer = FIRST_SHARD_POINTER;
             }
-            if (transactionsChannelSize - transactionsNextPointer - SUPER_GROUPS_OFFSET > CHUNK_SIZE) {
-                transactionsNextPointer += CHUNK_SIZE;
-            } else {
-            	
-                transactionsChunks[(int) (transactionsNextPointer >> 27)].get(mainBuffer);
-                boolean empty = true;
-                for (final int value : mainBuffer) {
-                    if (value != 0) {
-                        empty = false;
-                        break;
-                    }
+        }
+
+        long missingPointer = MissingTransactions.load(path(layout.fileName(shard.number, StorageLayout.MISSING_EXTENSION)), shard.manifest.id(), missingTransactions);
+        if (missingPointer < FIRST_SHARD_POINTER || missingPointer > shard.nextPointer) { // Prefilled cells are only ever appended, so the same goes for them
+            missingPointer = FIRST_SHARD_POINTER;
+        }
+
+        for (long shardPointer = Math.min(Math.min(filterPointer, indexPointer), missingPointer); shardPointer < shard.nextPointer; shardPointer += CELL_SIZE) {
+            final int type = cellType(shard.chunks, shardPointer);
+            if (type != GROUP) {
+
+                final long pointer = layout.pointer(shard.number, shardPointer);
+                final ByteBuffer chunk = shard.chunks[(int)(shardPointer >> 27)];
+                final int hashOffset = (int)(shardPointer & (CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET;
+                if (shardPointer >= filterPointer) {
+                    filter.add(chunk, hashOffset);
                 }
-                if (empty) {
-                    break;
+                if (index != null && shardPointer >= indexPointer && !index.put(TransactionIndex.key(chunk, hashOffset), pointer)) {
+                    log.warn("Too many transactions for the transaction index, it is disabled");
+                    index = null;
+                }
+                if (type == PREFILLED_SLOT && shardPointer >= missingPointer) {
+                    missingTransactions.add(pointer);
                 }
-                transactionsNextPointer += CELL_SIZE;
             }
         }
-	}
 
-	public void updateBundleAddressTagApprovers() {
-		if (transactionsNextPointer == CELLS_OFFSET - SUPER_GROUPS_OFFSET) {
+        shard.filter = filter;
+        shard.index = index;
+    }
 
-            // No need to zero "mainBuffer", it already contains only zeros
-            setValue(mainBuffer, Transaction.TYPE_OFFSET, FILLED_SLOT);
-            appendToTransactions(true);
+    private void initTips(final Shard shard) { // Rebuilds the tip registry from the tip flags of the cells
 
-            emptyMainBuffer();
-            setValue(mainBuffer, 128 << 3, CELLS_OFFSET - SUPER_GROUPS_OFFSET);
-            ((ByteBuffer)transactionsChunks[0].position((128 + (128 << 8)) << 11)).put(mainBuffer);
+        final long numberOfCells = (shard.nextPointer - FIRST_SHARD_POINTER) >> 11;
+        for (int i = 0; i < (numberOfCells + 7) >> 3; i++) {
 
-            emptyMainBuffer();
-            Storage.instance().updateBundleAddressTagAndApprovers(CELLS_OFFSET - SUPER_GROUPS_OFFSET);
+            int flags = shard.tipsFlags.get(i) & 0xFF;
+            while (flags != 0) {
+
+                final long index = ((long) i << 3) + Integer.numberOfTrailingZeros(flags);
+                if (index < numberOfCells) {
+                    shard.tips.add(layout.pointer(shard.number, FIRST_SHARD_POINTER + (index << 11)));
+                }
+                flags &= flags - 1;
+            }
         }
+    }
+
+    private void index(final Shard shard, final long pointer) { // Called for every new leaf cell, once its hash is written
+
+        final ByteBuffer chunk = transactionsChunks[(int)(pointer >> 27)];
+        final int hashOffset = (int)(pointer & (CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET;
+        shard.filter.add(chunk, hashOffset);
+
+        final TransactionIndex index = shard.index;
+        if (index != null && !index.put(TransactionIndex.key(chunk, hashOffset), pointer)) {
+            log.warn("Too many transactions for the transaction index, it is disabled");
+            shard.index = null;
+        }
+    }
+
+	public void updateBundleAddressTagApprovers() {
+        write(() -> {
+            final Shard shard = shards[0]; // The one of the null hash, its first cell is the null transaction
+            final byte[] mainBuffer = writeBuffer();
+            if (shard.nextPointer == FIRST_SHARD_POINTER) {
+
+                emptyCell(mainBuffer);
+                setValue(mainBuffer, Transaction.TYPE_OFFSET, FILLED_SLOT);
+                append(shard, mainBuffer, true);
+                index(shard, IStorageProvider.NULL_TRANSACTION_POINTER);
+
+                shard.trie.put(Hash.NULL_HASH.bytes(), IStorageProvider.NULL_TRANSACTION_POINTER);
+
+                emptyCell(mainBuffer);
+                storeApprovedTransactions(IStorageProvider.NULL_TRANSACTION_POINTER);
+                Storage.instance().updateBundleAddressTagAndApprovers(IStorageProvider.NULL_TRANSACTION_POINTER);
+                setCellValue(transactionsChunks, IStorageProvider.NULL_TRANSACTION_POINTER, FORMAT_OFFSET, FORMAT_APPROVED_TRANSACTION_POINTERS);
+                transactionsDirtyPages.mark(IStorageProvider.NULL_TRANSACTION_POINTER);
+
+            } else if (cellValue(transactionsChunks, IStorageProvider.NULL_TRANSACTION_POINTER, FORMAT_OFFSET) < FORMAT_APPROVED_TRANSACTION_POINTERS) {
+
+                log.info("Storing trunk and branch pointers of existing transactions");
+                int numberOfUpdatedTransactions = 0;
+                for (final Shard otherShard : shards) {
+                    for (long shardPointer = FIRST_SHARD_POINTER; shardPointer < otherShard.nextPointer; shardPointer += CELL_SIZE) {
+                        final long pointer = layout.pointer(otherShard.number, shardPointer);
+                        if (cellType(transactionsChunks, pointer) == FILLED_SLOT && cellValue(transactionsChunks, pointer, Transaction.TRUNK_TRANSACTION_POINTER_OFFSET) == 0) {
+                            updateApprovedTransactionPointers(pointer);
+                            numberOfUpdatedTransactions++;
+                        }
+                    }
+                }
+                setCellValue(transactionsChunks, IStorageProvider.NULL_TRANSACTION_POINTER, FORMAT_OFFSET, FORMAT_APPROVED_TRANSACTION_POINTERS);
+                transactionsDirtyPages.mark(IStorageProvider.NULL_TRANSACTION_POINTER);
+                log.info("{} transactions updated", numberOfUpdatedTransactions);
+            }
+        });
 	}
+
+    void updateApprovedTransactionPointers(final long pointer) { // Resolves the trunk and branch hashes once so that loads don't walk the trie again
+
+        final ByteBuffer chunk = transactionsChunks[(int)(pointer >> 27)];
+        final int offset = (int)(pointer & (CHUNK_SIZE - 1));
+        setCellValue(transactionsChunks, pointer, Transaction.TRUNK_TRANSACTION_POINTER_OFFSET, Math.abs(transactionPointer(chunk, offset + Transaction.TRUNK_TRANSACTION_OFFSET)));
+        setCellValue(transactionsChunks, pointer, Transaction.BRANCH_TRANSACTION_POINTER_OFFSET, Math.abs(transactionPointer(chunk, offset + Transaction.BRANCH_TRANSACTION_OFFSET)));
+        transactionsDirtyPages.mark(pointer);
+    }
+
+    private void storeApprovedTransactions(final long pointer) { // Gives the approved transactions queued by dump() a prefilled cell, then resolves the pointers of the transaction at "pointer"
+
+        final byte[][] approvedTransactions = approvedTransactionsToStore.get();
+        for (int i = 0; i < approvedTransactions.length && approvedTransactions[i] != null; i++) {
+            storeTransaction(approvedTransactions[i], null, false);
+            approvedTransactions[i] = null;
+        }
+        updateApprovedTransactionPointers(pointer);
+    }
 	
+    @Override
+    void register(final StorageFlusher flusher) {
+        flusher.register("transactions", transactionsChunks, transactionsDirtyPages);
+        for (final Shard shard : shards) {
+            flusher.register(layout.fileName(shard.number, StorageLayout.TRANSACTIONS_EXTENSION) + " tips flags", new ByteBuffer[] {shard.tipsFlags}, shard.tipsFlagsDirtyPages);
+            shard.trie.register(flusher);
+        }
+    }
+
+    @Override
+    long size() { // The super groups and the tips flags are sparse, only the bytes of the cells appended so far count
+        long size = 0;
+        for (final Shard shard : shards) {
+            final long nextPointer = shard.nextPointer;
+            size += nextPointer - SUPER_GROUPS_SIZE + nextPointer / CELL_SIZE / Byte.SIZE + shard.trie.size();
+        }
+        return size;
+    }
+
     @Override
 	public void shutdown() {
-        ((MappedByteBuffer) transactionsTipsFlags).force();
-        for (int i = 0; i < MAX_NUMBER_OF_CHUNKS && transactionsChunks[i] != null; i++) {
-            log.info("Flushing transactions chunk #" + i);
-            flush(transactionsChunks[i]);
+        for (final Shard shard : shards) {
+            final String fileName = layout.fileName(shard.number, StorageLayout.TRANSACTIONS_EXTENSION);
+            ((MappedByteBuffer) shard.tipsFlags).force();
+            for (int i = 0; i < MAX_NUMBER_OF_CHUNKS && shard.chunks[i] != null; i++) {
+                log.info("Flushing {} chunk #{}", fileName, i);
+                flush(shard.chunks[i]);
+            }
+            shard.trie.shutdown();
+            try {
+                shard.filter.save(path(layout.fileName(shard.number, StorageLayout.FILTER_EXTENSION)), shard.manifest.id(), shard.nextPointer);
+                missingTransactions.save(path(layout.fileName(shard.number, StorageLayout.MISSING_EXTENSION)), shard.manifest.id(), shard.nextPointer, pointer -> layout.shard(pointer) == shard.number);
+                final TransactionIndex index = shard.index;
+                if (index != null) {
+                    index.save(path(layout.fileName(shard.number, StorageLayout.INDEX_EXTENSION)), shard.manifest.id(), shard.nextPointer);
+                }
+                shard.manifest.checkpoint(shard.nextPointer, true);
+                shard.manifest.close();
+                shard.channel.close();
+            } catch (IOException e) {
+                log.error("Shutting down Storage Transaction error: ", e);
+            }
         }
-        try {
-			transactionsChannel.close();
-		} catch (IOException e) {
-			log.error("Shutting down Storage Transaction error: ", e);
-		}
+        Arrays.fill(transactionsChunks, null); // The next init may lay the shards out otherwise
 	}
 	
-    public void appendToTransactions(final boolean tip) {
+    void checkpoint() throws IOException { // Forces the cells of every transaction journaled before, outside of the locks, the shards in parallel as they may be on distinct drives
+
+        try {
+            Arrays.stream(shards).parallel().forEach(shard -> {
+                final long nextPointer = shard.nextPointer;
+                for (int i = 0; i <= (int) ((nextPointer - 1) >> 27); i++) {
+                    if (!flush(shard.chunks[i])) {
+                        throw new UncheckedIOException(new IOException("Flushing " + layout.fileName(shard.number, StorageLayout.TRANSACTIONS_EXTENSION) + " chunk #" + i + " failed"));
+                    }
+                }
+                try {
+                    shard.manifest.checkpoint(nextPointer, false);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    StorageLayout layout() {
+        return layout;
+    }
 
-        ((ByteBuffer)transactionsChunks[(int)(transactionsNextPointer >> 27)].position((int)(transactionsNextPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+    void keepMissingTransactions(final Set<Hash> hashes) { // Drops the other prefilled cells from the transactions to request, and saves the result right away
+
+        write(() -> {
+            for (final long pointer : missingTransactions.pointers()) {
+                final ByteBuffer chunk = transactionsChunks[(int)(pointer >> 27)];
+                if (!hashes.contains(new Hash(chunk, (int)(pointer & (CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET, Transaction.HASH_SIZE))) {
+                    missingTransactions.remove(pointer);
+                }
+            }
+            try {
+                for (final Shard shard : shards) {
+                    missingTransactions.save(path(layout.fileName(shard.number, StorageLayout.MISSING_EXTENSION)), shard.manifest.id(), shard.nextPointer, pointer -> layout.shard(pointer) == shard.number);
+                }
+            } catch (final IOException e) {
+                log.error("Saving the missing transactions error: ", e);
+            }
+        });
+    }
+
+    void recover() { // After a crash of the machine, once the tries are rebuilt from the cells: rebuilds the tips, the trunk and branch pointers and the indexes from the cells too
+
+        write(() -> {
+
+            final long[] lastPointers = new long[shards.length]; // The prefilled cells appended below are neither tips nor indexed
+            for (final Shard shard : shards) {
+
+                final long lastPointer = lastPointers[shard.number] = shard.nextPointer;
+                long numberOfFlags;
+                try {
+                    numberOfFlags = Math.min(shard.channel.size() - CELLS_OFFSET, (long) shard.tipsFlags.capacity() << 14) >> 11; // Cells past the end may have been written before the crash, their flags too
+                } catch (final IOException e) {
+                    numberOfFlags = (lastPointer - FIRST_SHARD_POINTER) >> 11;
+                }
+                for (int i = 0; i < (numberOfFlags + 7) >> 3; i++) {
+                    shard.tipsFlags.put(i, (byte) 0);
+                    shard.tipsFlagsDirtyPages.mark(i);
+                }
+                shard.tips.clear();
+                for (long shardPointer = FIRST_SHARD_POINTER; shardPointer < lastPointer; shardPointer += CELL_SIZE) {
+                    if (cellType(shard.chunks, shardPointer) == FILLED_SLOT) {
+                        setTipFlag(shard, layout.pointer(shard.number, shardPointer));
+                    }
+                }
+            }
+
+            final int batchSize = 1024;
+            final Transaction[] transactions = new Transaction[batchSize];
+            final long[] pointers = new long[batchSize];
+            final byte[] buffer = new byte[CELL_SIZE]; // Storing the approved transactions uses the write buffer
+            int size = 0;
+            long numberOfTransactions = 0;
+            for (final Shard shard : shards) {
+                for (long shardPointer = FIRST_SHARD_POINTER; shardPointer < lastPointers[shard.number]; shardPointer += CELL_SIZE) {
+                    if (cellType(shard.chunks, shardPointer) == FILLED_SLOT) {
+
+                        final long pointer = layout.pointer(shard.number, shardPointer);
+                        readCell(transactionsChunks, pointer, buffer);
+                        final Transaction transaction = new Transaction(buffer, pointer);
+                        approve(transaction.trunkTransaction);
+                        if (!Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction)) {
+                            approve(transaction.branchTransaction);
+                        }
+                        storeApprovedTransactions(pointer);
+
+                        transactions[size] = transaction;
+                        pointers[size++] = pointer;
+                        if (size == batchSize) {
+                            Storage.instance().updateBundleAddressTagAndApprovers(transactions, pointers, size);
+                            size = 0;
+                        }
+                        if (++numberOfTransactions % 100000 == 0) {
+                            log.info("{} transactions indexed", numberOfTransactions);
+                        }
+                    }
+                }
+            }
+            Storage.instance().updateBundleAddressTagAndApprovers(transactions, pointers, size);
+            log.info("{} transactions indexed, {} tips", numberOfTransactions, numberOfTips());
+        });
+    }
+
+    private long append(final Shard shard, final byte[] buffer, final boolean tip) { // Returns the pointer of the new cell
+
+        final long pointer = layout.pointer(shard.number, shard.nextPointer);
+        writeCell(transactionsChunks, pointer, buffer);
+        transactionsDirtyPages.mark(pointer);
 
         if (tip) {
-            final long index = (transactionsNextPointer - (CELLS_OFFSET - SUPER_GROUPS_OFFSET)) >> 11;
-            transactionsTipsFlags.put((int) (index >> 3), (byte) (transactionsTipsFlags.get((int) (index >> 3)) | (1 << (index & 7))));
+            setTipFlag(shard, pointer);
         }
 
-        if (((transactionsNextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0) {
+        if (((shard.nextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0 && (shard.nextPointer >> 27) < layout.numberOfShardChunks()) { // Once full, fits() refuses the stores
 
             try {
-                transactionsChunks[(int)(transactionsNextPointer >> 27)] = transactionsChannel.map(FileChannel.MapMode.READ_WRITE, SUPER_GROUPS_OFFSET + transactionsNextPointer, CHUNK_SIZE);
+                final int chunk = (int) (shard.nextPointer >> 27);
+                shard.chunks[chunk] = shard.channel.map(FileChannel.MapMode.READ_WRITE, SUPER_GROUPS_OFFSET + shard.nextPointer, CHUNK_SIZE);
+                transactionsChunks[layout.chunk(shard.number, chunk)] = shard.chunks[chunk];
+                shard.manifest.checkpoint(shard.nextPointer, false);
             } catch (final IOException e) {
             	log.error("Caught exception on appendToTransactions:", e);
             }
         }
+        return pointer;
+    }
+
+    private boolean fits(final Shard shard, final boolean appended, final Transaction transaction) { // Whether the cells a store appends, its own if "appended" and the prefilled ones of the unknown transactions it approves, fit in their shards
+
+        if (room(shard) >= 3 && (transaction == null || room(shard(transaction.trunkTransaction[0])) >= 3 && room(shard(transaction.branchTransaction[0])) >= 3)) {
+            return true;
+        }
+
+        final int[] numberOfCells = new int[shards.length];
+        if (appended) {
+            numberOfCells[shard.number]++;
+        }
+        if (transaction != null) {
+            if (transactionPointer(transaction.trunkTransaction) == 0) {
+                numberOfCells[layout.shard(transaction.trunkTransaction[0])]++;
+            }
+            if (!Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction) && transactionPointer(transaction.branchTransaction) == 0) {
+                numberOfCells[layout.shard(transaction.branchTransaction[0])]++;
+            }
+        }
+        for (final Shard otherShard : shards) {
+            if (numberOfCells[otherShard.number] > room(otherShard)) {
+                if (!otherShard.full) {
+                    log.error("{} is full, the transactions it should hold are refused from now on", layout.fileName(otherShard.number, StorageLayout.TRANSACTIONS_EXTENSION));
+                    otherShard.full = true;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long room(final Shard shard) { // Cells left in the shard
+        return (((long) layout.numberOfShardChunks() << 27) - shard.nextPointer) >> 11;
+    }
+
+    private Shard shard(final byte firstHashByte) {
+        return shards[layout.shard(firstHashByte)];
+    }
+
+    private Shard shard(final long pointer) {
+        return shards[layout.shard(pointer)];
+    }
+
+    void write(final Runnable mutator) { // With every shard locked, e.g. to wait for the stores in progress
+        writeLong(shards.length == 0 ? 0 : -1L >>> (Long.SIZE - shards.length), () -> {
+            mutator.run();
+            return 0;
+        });
+    }
+
+    private long writeLong(final long shardMask, final LongSupplier mutator) { // Under the write locks of the shards of "shardMask", taken in ascending order so that writers sharing shards don't deadlock
+        if (shardMask == 0) {
+            return mutator.getAsLong();
+        }
+        return shards[Long.numberOfTrailingZeros(shardMask)].lock.writeLong(() -> writeLong(shardMask & (shardMask - 1), mutator));
+    }
+
+    private <T> T readLocked(final long shardMask, final Supplier<T> reader) { // Same for the read locks
+        if (shardMask == 0) {
+            return reader.get();
+        }
+        return shards[Long.numberOfTrailingZeros(shardMask)].lock.readLocked(() -> readLocked(shardMask & (shardMask - 1), reader));
     }
     
     public long transactionPointer(final byte[] hash) { // Returns a negative value if the transaction hasn't been seen yet but was referenced
+        final Shard shard = shard(hash[0]);
+        final long pointer = shard.lock.readLong(() -> shard.filter.mightContain(hash) ? storedTransactionPointer(shard, hash) : REJECTED_POINTER);
+        if (pointer == REJECTED_POINTER) { // The counters are updated once the read is validated, it may have been run more than once
+            shard.filter.rejection();
+            return 0;
+        }
+        if (pointer == 0) {
+            shard.filter.falsePositive();
+        }
+        return pointer;
+    }
 
-        synchronized (Storage.class) {
-        long pointer = ((hash[0] + 128) + ((hash[1] + 128) << 8)) << 11;
-        for (int depth = 2; depth < Transaction.HASH_SIZE; depth++) {
+    private long storedTransactionPointer(final Shard shard, final byte[] hash) {
 
-            ((ByteBuffer)transactionsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(auxBuffer);
+        final TransactionIndex index = shard.index;
+        if (index != null) {
 
-            if (auxBuffer[Transaction.TYPE_OFFSET] == GROUP) {
-                if ((pointer = value(auxBuffer, (hash[depth] + 128) << 3)) == 0) {
-                    return 0;
+            final long indexedPointer = index.get(TransactionIndex.key(hash));
+            if (indexedPointer == 0) {
+                return 0;
+            }
+            if (indexedPointer != TransactionIndex.AMBIGUOUS) {
+
+                final ByteBuffer chunk = transactionsChunks[(int)(indexedPointer >> 27)];
+                final int offset = (int)(indexedPointer & (CHUNK_SIZE - 1));
+                for (int i = Long.BYTES; i < Transaction.HASH_SIZE; i++) {
+                    if (chunk.get(offset + Transaction.HASH_OFFSET + i) != hash[i]) {
+                        return 0;
+                    }
                 }
+                return chunk.get(offset + Transaction.TYPE_OFFSET) == PREFILLED_SLOT ? -indexedPointer : indexedPointer;
+            }
+        }
 
-            } else {
+        final long pointer = shard.trie.get(hash, 0);
+        return pointer != 0 && cellType(transactionsChunks, pointer) == PREFILLED_SLOT ? -pointer : pointer;
+    }
 
-                for (; depth < Transaction.HASH_SIZE; depth++) {
-                    if (auxBuffer[Transaction.HASH_OFFSET + depth] != hash[depth]) {
-                        return 0;
+    long transactionPointer(final ByteBuffer hashChunk, final int hashOffset) { // Same as above for a hash stored in a cell, e.g. a trunk or a branch
+        final Shard shard = shard(hashChunk.get(hashOffset));
+        return shard.lock.readLong(() -> {
+
+            final TransactionIndex index = shard.index;
+            if (index != null) {
+
+                final long indexedPointer = index.get(TransactionIndex.key(hashChunk, hashOffset));
+                if (indexedPointer == 0) {
+                    return 0;
+                }
+                if (indexedPointer != TransactionIndex.AMBIGUOUS) {
+
+                    final ByteBuffer chunk = transactionsChunks[(int)(indexedPointer >> 27)];
+                    final int offset = (int)(indexedPointer & (CHUNK_SIZE - 1));
+                    for (int i = Long.BYTES; i < Transaction.HASH_SIZE; i++) {
+                        if (chunk.get(offset + Transaction.HASH_OFFSET + i) != hashChunk.get(hashOffset + i)) {
+                            return 0;
+                        }
                     }
+                    return chunk.get(offset + Transaction.TYPE_OFFSET) == PREFILLED_SLOT ? -indexedPointer : indexedPointer;
                 }
+            }
+
+            final long pointer = shard.trie.get(hashChunk, hashOffset);
+            return pointer != 0 && cellType(transactionsChunks, pointer) == PREFILLED_SLOT ? -pointer : pointer;
+        });
+    }
+
+    public TransactionView loadTransaction(final long pointer, final TransactionView view) { // Positions "view" over the cell, nothing is copied
 
-                return auxBuffer[Transaction.TYPE_OFFSET] == PREFILLED_SLOT ? -pointer : pointer;
+        final ByteBuffer chunk = transactionsChunks[(int)(pointer >> 27)];
+        final int offset = (int)(pointer & (CHUNK_SIZE - 1));
+        final StorageLock lock = shard(pointer).lock;
+
+        int type;
+        if (lock.isWriter()) {
+            type = chunk.get(offset + Transaction.TYPE_OFFSET);
+        } else {
+            final long stamp = lock.tryOptimisticRead();
+            type = chunk.get(offset + Transaction.TYPE_OFFSET);
+            if (!lock.validate(stamp)) { // A prefilled cell may be being filled right now
+                type = lock.readLocked(() -> (int) chunk.get(offset + Transaction.TYPE_OFFSET));
             }
         }
-        }
-        throw new IllegalStateException("Corrupted storage");
+        view.moveTo(chunk, offset, pointer, type);
+        return view;
     }
 
     public Transaction loadTransaction(final long pointer) {
-        synchronized (Storage.class) {
-            ((ByteBuffer)transactionsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-            return new Transaction(mainBuffer, pointer);
-    	}
+        return shard(pointer).lock.read(() -> {
+            final byte[] buffer = readBuffer();
+            readCell(transactionsChunks, pointer, buffer);
+            return new Transaction(buffer, pointer);
+        });
     }
 
     public Transaction loadTransaction(final byte[] hash) {
-        synchronized (Storage.class) {
-            final long pointer = transactionPointer(hash);
-            return pointer > 0 ? loadTransaction(pointer) : null;
+        final long pointer = transactionPointer(hash);
+        return pointer > 0 ? loadTransaction(pointer) : null;
+    }
+
+    public List<Transaction> loadTransactions(final long[] pointers) { // The whole batch is read under one lock per shard
+
+        long shardMask = 0;
+        for (final long pointer : pointers) {
+            shardMask |= 1L << layout.shard(pointer);
         }
+        return readLocked(shardMask, () -> {
+            final List<Transaction> transactions = new ArrayList<>(pointers.length);
+            final byte[] buffer = readBuffer();
+            for (final long pointer : pointers) {
+                readCell(transactionsChunks, pointer, buffer);
+                transactions.add(new Transaction(buffer, pointer));
+            }
+            return transactions;
+        });
     }
     
-    public void setTransactionValidity(final long pointer, final int validity) {
-        synchronized (Storage.class) {
-            transactionsChunks[(int)(pointer >> 27)].put(((int)(pointer & (CHUNK_SIZE - 1))) + Transaction.VALIDITY_OFFSET, (byte)validity);
-        }
+    public void setTransactionValidity(final long pointer, final int validity) { // A single absolute byte write of a filled cell, readers see either the old or the new value
+        transactionsChunks[(int)(pointer >> 27)].put(((int)(pointer & (CHUNK_SIZE - 1))) + Transaction.VALIDITY_OFFSET, (byte)validity);
+        transactionsDirtyPages.mark(pointer);
     }
 	
     public boolean tipFlag(final long pointer) {
-    	synchronized (Storage.class) {
-            final long index = (pointer - (CELLS_OFFSET - SUPER_GROUPS_OFFSET)) >> 11;
-            return (transactionsTipsFlags.get((int)(index >> 3)) & (1 << (index & 7))) != 0;
-        }
+        final Shard shard = shard(pointer);
+        final long index = (layout.shardPointer(pointer) - FIRST_SHARD_POINTER) >> 11;
+        return (shard.tipsFlags.get((int)(index >> 3)) & (1 << (index & 7))) != 0;
     }
     
+    private void setTipFlag(final Shard shard, final long pointer) {
+
+        final long index = (layout.shardPointer(pointer) - FIRST_SHARD_POINTER) >> 11;
+        shard.tipsFlags.put((int) (index >> 3), (byte) (shard.tipsFlags.get((int) (index >> 3)) | (1 << (index & 7))));
+        shard.tipsFlagsDirtyPages.mark(index >> 3);
+        shard.tips.add(pointer);
+    }
+
+    public void clearTipFlag(final long pointer) { // Called when a stored transaction gets approved, under the lock of its shard
+
+        final Shard shard = shard(pointer);
+        final long index = (layout.shardPointer(pointer) - FIRST_SHARD_POINTER) >> 11;
+        shard.tipsFlags.put((int) (index >> 3), (byte) (shard.tipsFlags.get((int) (index >> 3)) & (0xFF ^ (1 << (index & 7)))));
+        shard.tipsFlagsDirtyPages.mark(index >> 3);
+        shard.tips.remove(pointer);
+    }
+
     public List<Hash> tips() {
-    	synchronized (Storage.class) {
-            final List<Hash> tips = new LinkedList<>();
-    
-            long pointer = CELLS_OFFSET - SUPER_GROUPS_OFFSET;
-            while (pointer < transactionsNextPointer) {
-    
-                if (tipFlag(pointer)) {
-                    tips.add(new Hash(loadTransaction(pointer).hash, 0, Transaction.HASH_SIZE));
+
+        final List<Hash> tips = new ArrayList<>(numberOfTips());
+        final TransactionView view = new TransactionView();
+        for (final Shard shard : shards) {
+            for (final long pointer : shard.tips.pointers()) {
+                tips.add(loadTransaction(pointer, view).hash());
+            }
+        }
+        return tips;
+    }
+
+    public int numberOfTips() {
+        int numberOfTips = 0;
+        for (final Shard shard : shards) {
+            numberOfTips += shard.tips.size();
+        }
+        return numberOfTips;
+    }
+
+    public long randomTipPointer(final Random random) { // 0 if there are no tips, every tip is as likely whatever its shard
+
+        final int numberOfTips = numberOfTips();
+        if (numberOfTips == 0) {
+            return 0;
+        }
+        int index = random.nextInt(numberOfTips);
+        for (final Shard shard : shards) {
+            final int size = shard.tips.size();
+            if (index < size) {
+                final long pointer = shard.tips.random(random);
+                if (pointer != 0) {
+                    return pointer;
                 }
-                pointer += CELL_SIZE;
             }
-            return tips;
-    	}
+            index -= size;
+        }
+        for (final Shard shard : shards) { // The tips changed meanwhile
+            final long pointer = shard.tips.random(random);
+            if (pointer != 0) {
+                return pointer;
+            }
+        }
+        return 0;
     }
     
     public long storeTransaction(final byte[] hash, final Transaction transaction, final boolean tip) { // Returns the pointer or 0 if the transaction was already in the storage and "transaction" value is not null
 
-    	synchronized (Storage.class) {
-        long pointer = ((hash[0] + 128) + ((hash[1] + 128) << 8)) << 11, prevPointer = 0;
+        final Shard shard = shard(hash[0]);
+        final long shardMask = transaction == null ? 1L << shard.number // The approved transactions are looked up, and stored if unknown, under the locks of their shards
+                : 1L << shard.number | 1L << layout.shard(transaction.trunkTransaction[0]) | 1L << layout.shard(transaction.branchTransaction[0]);
+        return writeLong(shardMask, () -> {
+            final byte[] mainBuffer = writeBuffer();
+            long pointer = shard.trie.get(hash, 0);
 
-    MAIN_LOOP:
-        for (int depth = 2; depth < Transaction.HASH_SIZE; depth++) {
+            if (pointer == 0) {
+
+                if (!fits(shard, true, transaction)) {
+                    return 0;
+                }
+                dump(mainBuffer, hash, transaction);
+                pointer = append(shard, mainBuffer, transaction != null || tip);
+                shard.trie.put(hash, pointer);
+                index(shard, pointer);
+                if (transaction != null) {
+                    storeApprovedTransactions(pointer);
+                    Storage.instance().updateBundleAddressTagAndApprovers(pointer);
+                } else {
+                    missingTransactions.add(pointer);
+                }
 
-            ((ByteBuffer)transactionsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
+            } else if (transaction != null) {
+
+                if (cellType(transactionsChunks, pointer) == PREFILLED_SLOT && fits(shard, false, transaction)) {
+                    dump(mainBuffer, hash, transaction);
+                    writeCell(transactionsChunks, pointer, mainBuffer);
+                    transactionsDirtyPages.mark(pointer);
+                    missingTransactions.remove(pointer);
+                    storeApprovedTransactions(pointer);
+                    Storage.instance().updateBundleAddressTagAndApprovers(pointer);
+                } else {
+                    pointer = 0;
+                }
+            }
 
-            if (mainBuffer[Transaction.TYPE_OFFSET] == GROUP) {
+            return pointer;
+        });
+    }
 
-                prevPointer = pointer;
-                if ((pointer = value(mainBuffer, (hash[depth] + 128) << 3)) == 0) {
+    public long[] storeTransactions(final List<Transaction> transactions) { // Returns the pointers in the order of "transactions", 0 for the ones which were already in the storage
+        return storeTransactions(transactions, false);
+    }
 
-                    setValue(mainBuffer, (hash[depth] + 128) << 3, pointer = transactionsNextPointer);
-                    ((ByteBuffer)transactionsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+    void replayTransactions(final List<Transaction> transactions) { // Same, but the ones which were already in the storage are written again and indexed wherever they aren't yet
+        storeTransactions(transactions, true);
+    }
 
-                    Transaction.dump(mainBuffer, hash, transaction);
-                    appendToTransactions(transaction != null || tip);
-                    if (transaction != null) {
-                        Storage.instance().updateBundleAddressTagAndApprovers(pointer);
-                    }
+    private long[] storeTransactions(final List<Transaction> transactions, final boolean replaying) {
 
-                    break MAIN_LOOP;
+        final Integer[] order = new Integer[transactions.size()];
+        long shardMask = 0;
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            final Transaction transaction = transactions.get(i);
+            shardMask |= 1L << layout.shard(transaction.hash[0]) | 1L << layout.shard(transaction.trunkTransaction[0]) | 1L << layout.shard(transaction.branchTransaction[0]);
+        }
+        Arrays.sort(order, (i, j) -> { // In the order of the tries, neighbours share their nodes
+            final byte[] hash = transactions.get(i).hash, otherHash = transactions.get(j).hash;
+            for (int k = 0; k < Transaction.HASH_SIZE; k++) {
+                if (hash[k] != otherHash[k]) {
+                    return hash[k] - otherHash[k];
+                }
+            }
+            return 0;
+        });
+
+        final long[] pointers = new long[order.length];
+        writeLong(shardMask, () -> {
+            final byte[] mainBuffer = writeBuffer();
+            final Transaction[] storedTransactions = new Transaction[order.length];
+            final long[] storedPointers = new long[order.length];
+            int numberOfStoredTransactions = 0;
+            for (final int i : order) {
+
+                final Transaction transaction = transactions.get(i);
+                final Shard shard = shard(transaction.hash[0]);
+                long pointer = shard.trie.get(transaction.hash, 0);
+                final boolean storing = pointer == 0 || cellType(transactionsChunks, pointer) == PREFILLED_SLOT || replaying;
+                if (!storing || !fits(shard, pointer == 0, transaction)) {
+                    continue;
                 }
 
-            } else {
+                if (pointer == 0) {
 
-                for (int i = depth; i < Transaction.HASH_SIZE; i++) {
+                    dump(mainBuffer, transaction.hash, transaction);
+                    pointer = append(shard, mainBuffer, true);
+                    shard.trie.put(transaction.hash, pointer);
+                    index(shard, pointer);
 
-                    if (mainBuffer[Transaction.HASH_OFFSET + i] != hash[i]) {
+                } else if (cellType(transactionsChunks, pointer) == PREFILLED_SLOT) {
 
-                        final int differentHashByte = mainBuffer[Transaction.HASH_OFFSET + i];
+                    dump(mainBuffer, transaction.hash, transaction);
+                    writeCell(transactionsChunks, pointer, mainBuffer);
+                    transactionsDirtyPages.mark(pointer);
+                    missingTransactions.remove(pointer);
 
-                        ((ByteBuffer)transactionsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-                        setValue(mainBuffer, (hash[depth - 1] + 128) << 3, transactionsNextPointer);
-                        ((ByteBuffer)transactionsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                } else { // Replayed, the process may have died in the middle of storing it
 
-                        for (int j = depth; j < i; j++) {
+                    dump(mainBuffer, transaction.hash, transaction);
+                    ((ByteBuffer) transactionsChunks[(int) (pointer >> 27)].duplicate().position((int) (pointer & (CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET)).put(mainBuffer, Transaction.HASH_OFFSET, StorageJournal.RECORD_SIZE); // Not its validity, which may have been set since
+                    transactionsDirtyPages.mark(pointer);
+                }
 
-                            emptyMainBuffer();
-                            setValue(mainBuffer, (hash[j] + 128) << 3, transactionsNextPointer + CELL_SIZE);
-                            appendToTransactions(false);
-                        }
+                storeApprovedTransactions(pointer);
+                pointers[i] = pointer;
+                storedTransactions[numberOfStoredTransactions] = transaction;
+                storedPointers[numberOfStoredTransactions++] = pointer;
+            }
+            Storage.instance().updateBundleAddressTagAndApprovers(storedTransactions, storedPointers, numberOfStoredTransactions); // Each index once for the whole batch
+            return 0;
+        });
+        return pointers;
+    }
 
-                        emptyMainBuffer();
-                        setValue(mainBuffer, (differentHashByte + 128) << 3, pointer);
-                        setValue(mainBuffer, (hash[i] + 128) << 3, transactionsNextPointer + CELL_SIZE);
-                        appendToTransactions(false);
+    private void dump(final byte[] mainBuffer, final byte[] hash, final Transaction transaction) { // Also journals the transaction before anything is written, clears the tip flags of the approved transactions and queues the unknown ones
 
-                        Transaction.dump(mainBuffer, hash, transaction);
-                        pointer = transactionsNextPointer;
-                        appendToTransactions(transaction != null || tip);
-                        if (transaction != null) {
-                            Storage.instance().updateBundleAddressTagAndApprovers(pointer);
-                        }
+        Transaction.dump(mainBuffer, hash, transaction);
+        if (transaction != null) {
+            Storage.instance().journal(mainBuffer);
+            approve(transaction.trunkTransaction);
+            if (!Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction)) {
+                approve(transaction.branchTransaction);
+            }
+        }
+    }
 
-                        break MAIN_LOOP;
-                    }
-                }
+    private void approve(final byte[] approvedTransaction) {
 
-                if (transaction != null) {
+        final long approvedTransactionPointer = transactionPointer(approvedTransaction);
+        if (approvedTransactionPointer == 0) {
+            final byte[][] approvedTransactions = approvedTransactionsToStore.get();
+            approvedTransactions[approvedTransactions[0] == null ? 0 : 1] = approvedTransaction;
+        } else {
+            clearTipFlag(Math.abs(approvedTransactionPointer));
+        }
+    }
 
-                    if (mainBuffer[Transaction.TYPE_OFFSET] == PREFILLED_SLOT) {
-                        Transaction.dump(mainBuffer, hash, transaction);
-                        ((ByteBuffer)transactionsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-                        Storage.instance().updateBundleAddressTagAndApprovers(pointer);
-                    } else {
-                        pointer = 0;
-                    }
+    public boolean transactionToRequest(final byte[] buffer, final int offset) { // Copies the hash of a missing transaction into "buffer", false if none is missing
+
+        long pointer;
+        while ((pointer = missingTransactions.next()) != 0) {
+
+            final ByteBuffer chunk = transactionsChunks[(int)(pointer >> 27)];
+            final int cellOffset = (int)(pointer & (CHUNK_SIZE - 1));
+            if (chunk.get(cellOffset + Transaction.TYPE_OFFSET) == PREFILLED_SLOT) { // The hash of a cell never changes, only its type
+                for (int i = 0; i < Transaction.HASH_SIZE; i++) {
+                    buffer[offset + i] = chunk.get(cellOffset + Transaction.HASH_OFFSET + i);
                 }
-                break MAIN_LOOP;
+                return true;
             }
+            missingTransactions.remove(pointer);
         }
+        return false;
+    }
 
-        return pointer;
-    	}
+    public void prioritizeMissingTransaction(final long pointer) { // For missing ancestors of the latest milestone
+        missingTransactions.prioritize(pointer);
+    }
+
+    public int numberOfMissingTransactions() {
+        return missingTransactions.size();
+    }
+
+    public long transactionsFilterMemory() {
+        long memory = 0;
+        for (final Shard shard : shards) {
+            memory += shard.filter.memory();
+        }
+        return memory;
+    }
+
+    public long transactionsFilterRejections() {
+        long rejections = 0;
+        for (final Shard shard : shards) {
+            rejections += shard.filter.rejections();
+        }
+        return rejections;
+    }
+
+    public double transactionsFilterFalsePositiveRate() { // Among the lookups of absent hashes, of every shard
+        long falsePositives = 0, rejections = 0;
+        for (final Shard shard : shards) {
+            falsePositives += shard.filter.falsePositives();
+            rejections += shard.filter.rejections();
+        }
+        return falsePositives + rejections == 0 ? 0 : (double) falsePositives / (falsePositives + rejections);
     }
 
-    public ByteBuffer transactionsTipsFlags() {
-		return transactionsTipsFlags;
-	}
-    
 	public static StorageTransactions instance() {
 		return instance;
 	}
-
-	public Transaction loadMilestone(final Hash latestMilestone) {
-		return loadTransaction(transactionPointer(latestMilestone.bytes()));
-	}
 }
 
@@ -0,0 +1,312 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.model.Transaction;
+
+/**
+ * Path-compressed radix trie from the keys of the cells of a storage (the hash of a transaction, a bundle, an
+ * address...) to the pointers of these cells, kept in its own file next to the cells.
+ *
+ * The first two bytes of a key select one of the 65536 references of the root table, like the super groups did.
+ * A reference is either the pointer of a cell, whose low bits are always 0, or a node, with its type, the key
+ * byte it branches on and its position packed in the reference itself. Nodes only exist where keys diverge and
+ * the bytes in between are skipped, so a lookup walks one node per divergence and compares the whole key with
+ * the cell it ends on. Nodes come in 3 sizes: up to 4 children (40 bytes), up to 16 (152 bytes), and one slot
+ * per byte value (a full cell) for the crowded levels. A node outgrowing its size is copied to the next one,
+ * the old copy is left behind.
+ *
+ * Nodes are appended and never straddle a cell, so the end of the file is found by the scan of
+ * {@link AbstractStorage#mapChunks}. A new or grown node is written whole before a single store links it, so
+ * the trie survives the death of the process at any point; after a crash of the machine it is rebuilt from the
+ * cells, see {@link StorageJournal}. Writes happen under the storage write lock, reads are validated by the caller.
+ */
+final class StorageTrie {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageTrie.class);
+
+    private static final int ROOT_SIZE = (1 << 16) * Long.BYTES;
+
+    private static final int VALUE = 0, NODE4 = 1, NODE16 = 2, NODE256 = 3; // Low 2 bits of a reference, then 6 bits of depth
+    private static final int KIND_MASK = 3, DEPTH_SHIFT = 2, DEPTH_MASK = 63, NODE_SHIFT = 8;
+
+    private static final int COUNT_OFFSET = 0, KEYS_OFFSET = 1;
+    private static final int NODE4_REFERENCES_OFFSET = Long.BYTES, NODE4_SIZE = NODE4_REFERENCES_OFFSET + 4 * Long.BYTES;
+    private static final int NODE16_REFERENCES_OFFSET = 3 * Long.BYTES, NODE16_SIZE = NODE16_REFERENCES_OFFSET + 16 * Long.BYTES;
+    private static final int NODE256_SIZE = 256 * Long.BYTES;
+
+    private final String fileName, manifestFileName;
+    private final int keySize;
+    private final ByteBuffer[] cells; // Of the storage, the key of a cell is at Transaction.HASH_OFFSET
+
+    private FileChannel channel;
+    private StorageManifest manifest;
+    private final ByteBuffer[] chunks = new ByteBuffer[AbstractStorage.MAX_NUMBER_OF_CHUNKS];
+    private final DirtyPages dirtyPages = new DirtyPages();
+    private volatile long nextPointer;
+
+    StorageTrie(final String fileName, final String manifestFileName, final int keySize, final ByteBuffer[] cells) {
+        this.fileName = fileName;
+        this.manifestFileName = manifestFileName;
+        this.keySize = keySize;
+        this.cells = cells;
+    }
+
+    void init(final long cellsNextPointer) throws IOException { // Called once the cells are mapped
+
+        if (!Files.exists(AbstractStorage.path(fileName)) && cellsNextPointer > AbstractStorage.SUPER_GROUPS_SIZE) {
+            throw StorageConverter.unconverted(fileName);
+        }
+        if (cellsNextPointer == AbstractStorage.SUPER_GROUPS_SIZE) { // No cells, whatever the trie holds is stale
+            Files.deleteIfExists(AbstractStorage.path(fileName));
+            Files.deleteIfExists(AbstractStorage.path(manifestFileName));
+        }
+
+        channel = FileChannel.open(AbstractStorage.path(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        chunks[0] = channel.map(FileChannel.MapMode.READ_WRITE, 0, ROOT_SIZE);
+        manifest = new StorageManifest(manifestFileName);
+        nextPointer = AbstractStorage.mapChunks(channel, 0, chunks, manifest);
+    }
+
+    void shutdown() {
+
+        for (int i = 0; i < AbstractStorage.MAX_NUMBER_OF_CHUNKS && chunks[i] != null; i++) {
+            AbstractStorage.flush(chunks[i]);
+            chunks[i] = null;
+        }
+        try {
+            manifest.checkpoint(nextPointer, true);
+            manifest.close();
+            channel.close();
+        } catch (final IOException e) {
+            log.error("Shutting down trie " + fileName + " error: ", e);
+        }
+    }
+
+    void register(final StorageFlusher flusher) {
+        flusher.register(fileName, chunks, dirtyPages);
+    }
+
+    long size() {
+        return ROOT_SIZE + nextPointer - AbstractStorage.SUPER_GROUPS_SIZE;
+    }
+
+    long get(final byte[] key, final int offset) { // The pointer of the cell holding "key", 0 if there is none
+
+        long reference = AbstractStorage.value(chunks[0], root(key[offset], key[offset + 1]));
+        for (int i = 2; i < keySize && kind(reference) != VALUE; i++) { // Depths strictly grow, a longer walk means a torn read
+            reference = child(reference, key[offset + depth(reference)]);
+        }
+        if (reference == 0 || kind(reference) != VALUE) {
+            return 0;
+        }
+
+        final ByteBuffer chunk = cells[(int) (reference >> 27)];
+        final int keyOffset = (int) (reference & (AbstractStorage.CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET;
+        for (int i = 0; i < keySize; i++) {
+            if (chunk.get(keyOffset + i) != key[offset + i]) {
+                return 0;
+            }
+        }
+        return reference;
+    }
+
+    long get(final ByteBuffer key, final int offset) { // Same as above for a key stored in a cell, e.g. a trunk or a branch
+
+        long reference = AbstractStorage.value(chunks[0], root(key.get(offset), key.get(offset + 1)));
+        for (int i = 2; i < keySize && kind(reference) != VALUE; i++) {
+            reference = child(reference, key.get(offset + depth(reference)));
+        }
+        if (reference == 0 || kind(reference) != VALUE) {
+            return 0;
+        }
+
+        final ByteBuffer chunk = cells[(int) (reference >> 27)];
+        final int keyOffset = (int) (reference & (AbstractStorage.CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET;
+        for (int i = 0; i < keySize; i++) {
+            if (chunk.get(keyOffset + i) != key.get(offset + i)) {
+                return 0;
+            }
+        }
+        return reference;
+    }
+
+    void put(final byte[] key, final long pointer) { // "key" mustn't be in the trie yet, it's already in the cell of "pointer"
+
+        long slot = root(key[0], key[1]);
+        long reference = AbstractStorage.value(chunks[0], (int) slot);
+        if (reference == 0) {
+            AbstractStorage.setCellValue(chunks, slot, 0, pointer);
+            dirtyPages.mark(slot);
+            return;
+        }
+
+        long leaf = reference; // The cell sharing the longest prefix with "key", the new branch goes where they diverge
+        while (kind(leaf) != VALUE) {
+            final long child = child(leaf, key[depth(leaf)]);
+            leaf = child != 0 ? child : anyChild(leaf);
+        }
+        final ByteBuffer leafChunk = cells[(int) (leaf >> 27)];
+        final int leafKeyOffset = (int) (leaf & (AbstractStorage.CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET;
+        int depth = 2;
+        while (leafChunk.get(leafKeyOffset + depth) == key[depth]) {
+            if (++depth == keySize) {
+                throw new IllegalStateException("Key already in " + fileName);
+            }
+        }
+
+        while (kind(reference) != VALUE && depth(reference) < depth) { // Every node above the divergence has a child for "key"
+            slot = childSlot(reference, key[depth(reference)]);
+            reference = AbstractStorage.cellValue(chunks, slot, 0);
+        }
+
+        if (kind(reference) != VALUE && depth(reference) == depth) {
+            addChild(slot, reference, key[depth], pointer);
+
+        } else {
+
+            final long node = allocate(NODE4_SIZE);
+            final ByteBuffer chunk = chunks[(int) (node >> 27)];
+            final int offset = (int) (node & (AbstractStorage.CHUNK_SIZE - 1));
+            chunk.put(offset + KEYS_OFFSET, leafChunk.get(leafKeyOffset + depth));
+            chunk.put(offset + KEYS_OFFSET + 1, key[depth]);
+            AbstractStorage.setCellValue(chunks, node, NODE4_REFERENCES_OFFSET, reference);
+            AbstractStorage.setCellValue(chunks, node, NODE4_REFERENCES_OFFSET + Long.BYTES, pointer);
+            chunk.put(offset + COUNT_OFFSET, (byte) 2);
+            dirtyPages.mark(node);
+            AbstractStorage.setCellValue(chunks, slot, 0, reference(node, depth, NODE4));
+            dirtyPages.mark(slot);
+        }
+    }
+
+    private void addChild(final long slot, final long reference, final byte keyByte, final long pointer) {
+
+        final long node = reference >>> NODE_SHIFT;
+        final ByteBuffer chunk = chunks[(int) (node >> 27)];
+        final int offset = (int) (node & (AbstractStorage.CHUNK_SIZE - 1));
+
+        if (kind(reference) == NODE256) {
+            AbstractStorage.setCellValue(chunks, node, (keyByte + 128) << 3, pointer);
+            dirtyPages.mark(node);
+            return;
+        }
+
+        final int count = chunk.get(offset + COUNT_OFFSET);
+        final int referencesOffset = kind(reference) == NODE4 ? NODE4_REFERENCES_OFFSET : NODE16_REFERENCES_OFFSET;
+        if (count < (kind(reference) == NODE4 ? 4 : 16)) { // The count is written last, readers never see a child without its reference
+            chunk.put(offset + KEYS_OFFSET + count, keyByte);
+            AbstractStorage.setCellValue(chunks, node, referencesOffset + (count << 3), pointer);
+            chunk.put(offset + COUNT_OFFSET, (byte) (count + 1));
+            dirtyPages.mark(node);
+            return;
+        }
+
+        final long grownNode;
+        if (kind(reference) == NODE4) {
+
+            grownNode = allocate(NODE16_SIZE);
+            final ByteBuffer grownChunk = chunks[(int) (grownNode >> 27)];
+            final int grownOffset = (int) (grownNode & (AbstractStorage.CHUNK_SIZE - 1));
+            for (int i = 0; i < count; i++) {
+                grownChunk.put(grownOffset + KEYS_OFFSET + i, chunk.get(offset + KEYS_OFFSET + i));
+                AbstractStorage.setCellValue(chunks, grownNode, NODE16_REFERENCES_OFFSET + (i << 3), AbstractStorage.cellValue(chunks, node, referencesOffset + (i << 3)));
+            }
+            grownChunk.put(grownOffset + KEYS_OFFSET + count, keyByte);
+            AbstractStorage.setCellValue(chunks, grownNode, NODE16_REFERENCES_OFFSET + (count << 3), pointer);
+            grownChunk.put(grownOffset + COUNT_OFFSET, (byte) (count + 1));
+            dirtyPages.mark(grownNode);
+            AbstractStorage.setCellValue(chunks, slot, 0, reference(grownNode, depth(reference), NODE16));
+            dirtyPages.mark(slot);
+
+        } else {
+
+            grownNode = allocate(NODE256_SIZE);
+            for (int i = 0; i < count; i++) {
+                AbstractStorage.setCellValue(chunks, grownNode, (chunk.get(offset + KEYS_OFFSET + i) + 128) << 3, AbstractStorage.cellValue(chunks, node, referencesOffset + (i << 3)));
+            }
+            AbstractStorage.setCellValue(chunks, grownNode, (keyByte + 128) << 3, pointer);
+            dirtyPages.mark(grownNode);
+            AbstractStorage.setCellValue(chunks, slot, 0, reference(grownNode, depth(reference), NODE256));
+            dirtyPages.mark(slot);
+        }
+    }
+
+    private long allocate(final int size) { // Nodes never straddle a cell, a full node takes a whole one
+
+        if ((nextPointer & (AbstractStorage.CELL_SIZE - 1)) + size > AbstractStorage.CELL_SIZE) {
+            nextPointer = (nextPointer + AbstractStorage.CELL_SIZE - 1) & -AbstractStorage.CELL_SIZE;
+        }
+        final long node = nextPointer;
+        if (chunks[(int) (node >> 27)] == null) {
+            try {
+                chunks[(int) (node >> 27)] = channel.map(FileChannel.MapMode.READ_WRITE, node & -AbstractStorage.CHUNK_SIZE, AbstractStorage.CHUNK_SIZE);
+                manifest.checkpoint(node, false);
+            } catch (final IOException e) {
+                log.error("Caught exception on allocate in " + fileName + ":", e);
+            }
+        }
+        nextPointer = node + size;
+        return node;
+    }
+
+    private static int root(final byte firstByte, final byte secondByte) {
+        return ((firstByte + 128) + ((secondByte + 128) << 8)) << 3;
+    }
+
+    private static long reference(final long node, final int depth, final int kind) {
+        return node << NODE_SHIFT | depth << DEPTH_SHIFT | kind;
+    }
+
+    private static int kind(final long reference) {
+        return (int) reference & KIND_MASK;
+    }
+
+    private static int depth(final long reference) {
+        return (int) (reference >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    private long child(final long reference, final byte keyByte) { // 0 if there is none
+
+        final long slot = childSlot(reference, keyByte);
+        return slot == 0 ? 0 : AbstractStorage.cellValue(chunks, slot, 0);
+    }
+
+    private long childSlot(final long reference, final byte keyByte) { // Where the child for "keyByte" is, 0 if there is none
+
+        final long node = reference >>> NODE_SHIFT;
+        if (kind(reference) == NODE256) {
+            return node + ((keyByte + 128) << 3);
+        }
+
+        final ByteBuffer chunk = chunks[(int) (node >> 27)];
+        final int offset = (int) (node & (AbstractStorage.CHUNK_SIZE - 1));
+        final int count = chunk.get(offset + COUNT_OFFSET);
+        for (int i = 0; i < count; i++) {
+            if (chunk.get(offset + KEYS_OFFSET + i) == keyByte) {
+                return node + (kind(reference) == NODE4 ? NODE4_REFERENCES_OFFSET : NODE16_REFERENCES_OFFSET) + (i << 3);
+            }
+        }
+        return 0;
+    }
+
+    private long anyChild(final long reference) {
+
+        final long node = reference >>> NODE_SHIFT;
+        if (kind(reference) == NODE256) {
+            for (int i = 0; ; i += Long.BYTES) {
+                final long child = AbstractStorage.cellValue(chunks, node, i);
+                if (child != 0) {
+                    return child;
+                }
+            }
+        }
+        return AbstractStorage.cellValue(chunks, node, kind(reference) == NODE4 ? NODE4_REFERENCES_OFFSET : NODE16_REFERENCES_OFFSET);
+    }
+}
@@ -0,0 +1,189 @@
+package com.iota.iri.service.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Blocked Bloom filter over the hashes of all transaction cells (filled and prefilled).
+ *
+ * All the bits of a hash live in one 512-bit block (a single cache line), so a miss costs one memory access
+ * instead of a trie walk. When a stage holds as many hashes as it was sized for, a new stage twice as large
+ * is added, which keeps the false positive rate roughly constant as the tangle grows.
+ *
+ * Writes happen under the storage write lock, reads are validated by the caller.
+ */
+final class TransactionFilter {
+
+    private static final int MAX_NUMBER_OF_CELLS = AbstractStorage.MAX_NUMBER_OF_CHUNKS * AbstractStorage.CELLS_PER_CHUNK;
+    private static final int BLOCK_SIZE = 8; // Longs, 512 bits
+    private static final int BITS_PER_HASH = 16;
+    private static final int NUMBER_OF_PROBES = 8;
+    private static final long MIN_CAPACITY = 1 << 16, MAX_CAPACITY = (long) MAX_NUMBER_OF_CELLS << 1;
+    private static final long MAGIC = 0x4952495446494c31L; // "IRITFIL1"
+
+    private static final class Stage {
+
+        final long[] words;
+        final int blockMask;
+        final long capacity;
+        long size;
+
+        Stage(final long capacity) {
+            this.capacity = capacity;
+            final int numberOfBlocks = (int) Math.max(1, Long.highestOneBit(capacity * BITS_PER_HASH / (BLOCK_SIZE * Long.SIZE)));
+            words = new long[numberOfBlocks * BLOCK_SIZE];
+            blockMask = numberOfBlocks - 1;
+        }
+    }
+
+    private volatile Stage[] stages;
+
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    TransactionFilter(final long expectedSize) {
+        stages = new Stage[] {new Stage(Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, expectedSize * 2)))};
+    }
+
+    private static boolean test(final Stage stage, final long h1, final long h2, final boolean set) {
+
+        final int block = ((int) (h1 >>> 32) & stage.blockMask) * BLOCK_SIZE;
+        boolean present = true;
+        for (int i = 0; i < NUMBER_OF_PROBES; i++) {
+
+            final int bit = (int) (h2 + i * (h1 | 1)) & (BLOCK_SIZE * Long.SIZE - 1);
+            final long mask = 1L << bit;
+            if ((stage.words[block + (bit >>> 6)] & mask) == 0) {
+                if (!set) {
+                    return false;
+                }
+                present = false;
+                stage.words[block + (bit >>> 6)] |= mask;
+            }
+        }
+        return present;
+    }
+
+    private static long h1(final long prefix) {
+        return prefix * 0x9E3779B97F4A7C15L;
+    }
+
+    private static long h2(final long infix) {
+        return infix * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    boolean mightContain(final byte[] hash) {
+
+        final long h1 = h1(AbstractStorage.value(hash, 0)), h2 = h2(AbstractStorage.value(hash, Long.BYTES));
+        for (final Stage stage : stages) {
+            if (test(stage, h1, h2, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(final ByteBuffer chunk, final int hashOffset) {
+
+        final long h1 = h1(AbstractStorage.value(chunk, hashOffset)), h2 = h2(AbstractStorage.value(chunk, hashOffset + Long.BYTES));
+        Stage[] stages = this.stages;
+        Stage stage = stages[stages.length - 1];
+        if (stage.size >= stage.capacity) {
+
+            final Stage[] grownStages = new Stage[stages.length + 1];
+            System.arraycopy(stages, 0, grownStages, 0, stages.length);
+            grownStages[stages.length] = stage = new Stage(Math.min(MAX_CAPACITY, stage.capacity * 2));
+            this.stages = stages = grownStages;
+        }
+        if (!test(stage, h1, h2, true)) {
+            stage.size++;
+        }
+    }
+
+    void rejection() { // Reported by the caller once a lookup which the filter rejected is over, a retried optimistic read counts once
+        rejections.increment();
+    }
+
+    void falsePositive() { // Reported by the caller when a hash that passed the filter turned out to be absent
+        falsePositives.increment();
+    }
+
+    long memory() {
+
+        long memory = 0;
+        for (final Stage stage : stages) {
+            memory += (long) stage.words.length * Long.BYTES;
+        }
+        return memory;
+    }
+
+    long rejections() {
+        return rejections.sum();
+    }
+
+    long falsePositives() { // The false positive rate is among the lookups of absent hashes, i.e. the rejections and the false positives
+        return falsePositives.sum();
+    }
+
+    void save(final Path path, final long storageId, final long coveredPointer) throws IOException {
+
+        try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+
+            final Stage[] stages = this.stages;
+            output.writeLong(MAGIC);
+            output.writeLong(storageId);
+            output.writeLong(coveredPointer);
+            output.writeInt(stages.length);
+            for (final Stage stage : stages) {
+                output.writeLong(stage.capacity);
+                output.writeLong(stage.size);
+                for (final long word : stage.words) {
+                    output.writeLong(word);
+                }
+            }
+        }
+    }
+
+    static long load(final Path path, final long storageId, final TransactionFilter filter) throws IOException { // Returns the pointer up to which "filter" is filled, 0 if there is no usable snapshot
+
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+            if (input.readLong() != MAGIC || input.readLong() != storageId) {
+                return 0;
+            }
+            final long coveredPointer = input.readLong();
+            final int numberOfStages = input.readInt();
+            if (numberOfStages < 1 || numberOfStages > Long.SIZE) {
+                return 0;
+            }
+            final Stage[] stages = new Stage[numberOfStages];
+            for (int i = 0; i < stages.length; i++) {
+                final long capacity = input.readLong();
+                if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY) {
+                    return 0;
+                }
+                stages[i] = new Stage(capacity);
+                stages[i].size = input.readLong();
+                for (int j = 0; j < stages[i].words.length; j++) {
+                    stages[i].words[j] = input.readLong();
+                }
+            }
+            filter.stages = stages;
+            return coveredPointer;
+
+        } catch (final IOException | RuntimeException e) { // Truncated or otherwise broken snapshot, it gets rebuilt
+            return 0;
+        }
+    }
+}
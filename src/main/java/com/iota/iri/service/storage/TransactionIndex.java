@@ -0,0 +1,155 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Off-heap open-addressing table from the first 8 bytes of a transaction hash to its cell pointer.
+ *
+ * It sits in front of the transaction trie: a lookup is one or two slot reads plus the cell itself to
+ * confirm the rest of the hash. Prefixes shared by several stored hashes are marked {@link #AMBIGUOUS}
+ * and resolved by the trie. The table holds every cell (filled or prefilled), so a missing prefix means
+ * the hash isn't stored.
+ *
+ * Not thread safe, writes happen under the storage write lock and reads are validated by the caller.
+ */
+final class TransactionIndex {
+
+    static final long AMBIGUOUS = -1;
+
+    private static final int SLOT_SIZE = 2 * Long.BYTES; // Key, pointer (0 for an empty slot)
+    private static final int MIN_CAPACITY = 1 << 16, MAX_CAPACITY = 1 << 26; // Up to 1 GB
+    private static final long MAGIC = 0x4952495449445831L; // "IRITIDX1"
+    private static final int HEADER_SIZE = 5 * Long.BYTES;
+
+    private ByteBuffer slots;
+    private int mask;
+    private int size;
+
+    TransactionIndex(final long expectedSize) {
+        allocate((int) Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, Long.highestOneBit(Math.max(1, expectedSize) * 2) << 1)));
+    }
+
+    private void allocate(final int capacity) {
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    static long key(final byte[] hash) {
+        return AbstractStorage.value(hash, 0);
+    }
+
+    static long key(final ByteBuffer chunk, final int hashOffset) {
+        return AbstractStorage.value(chunk, hashOffset);
+    }
+
+    private static int slot(final long key, final int mask) {
+        final long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    long get(final long key) { // 0 if absent
+
+        final ByteBuffer slots = this.slots; // May be replaced by a concurrent resize, the caller validates the result
+        final int mask = slots.capacity() / SLOT_SIZE - 1;
+        for (int slot = slot(key, mask); ; slot = (slot + 1) & mask) {
+
+            final long pointer = slots.getLong(slot * SLOT_SIZE + Long.BYTES);
+            if (pointer == 0 || slots.getLong(slot * SLOT_SIZE) == key) {
+                return pointer;
+            }
+        }
+    }
+
+    boolean put(final long key, final long pointer) { // Returns false once the table can't grow any more
+
+        if ((size + 1) * 2 > mask + 1) {
+            if (mask + 1 == MAX_CAPACITY) {
+                return false;
+            }
+
+            final ByteBuffer previousSlots = slots;
+            allocate((mask + 1) << 1);
+            for (int i = 0; i < previousSlots.capacity(); i += SLOT_SIZE) {
+                final long previousPointer = previousSlots.getLong(i + Long.BYTES);
+                if (previousPointer != 0) {
+                    insert(previousSlots.getLong(i), previousPointer);
+                }
+            }
+        }
+
+        insert(key, pointer);
+        return true;
+    }
+
+    private void insert(final long key, final long pointer) {
+
+        for (int slot = slot(key, mask); ; slot = (slot + 1) & mask) {
+
+            final long slotPointer = slots.getLong(slot * SLOT_SIZE + Long.BYTES);
+            if (slotPointer == 0) {
+                slots.putLong(slot * SLOT_SIZE, key);
+                slots.putLong(slot * SLOT_SIZE + Long.BYTES, pointer);
+                size++;
+                return;
+            }
+            if (slots.getLong(slot * SLOT_SIZE) == key) {
+                if (slotPointer != pointer) {
+                    slots.putLong(slot * SLOT_SIZE + Long.BYTES, AMBIGUOUS);
+                }
+                return;
+            }
+        }
+    }
+
+    void save(final Path path, final long storageId, final long coveredPointer) throws IOException { // "coveredPointer" is the next pointer of the transactions at the time of saving
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putLong(storageId).putLong(coveredPointer).putLong(mask + 1).putLong(size).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            final ByteBuffer content = slots.duplicate();
+            content.clear();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(false);
+        }
+    }
+
+    static long load(final Path path, final long storageId, final TransactionIndex index) throws IOException { // Returns the pointer up to which "index" is filled, 0 if there is no usable snapshot
+
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getLong(0) != MAGIC || header.getLong(Long.BYTES) != storageId) {
+                return 0;
+            }
+            final long capacity = header.getLong(3 * Long.BYTES);
+            if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY || Long.bitCount(capacity) != 1 || channel.size() != HEADER_SIZE + capacity * SLOT_SIZE) {
+                return 0;
+            }
+
+            index.allocate((int) capacity);
+            final ByteBuffer content = index.slots.duplicate();
+            content.clear();
+            while (content.hasRemaining() && channel.read(content) >= 0);
+            index.size = (int) header.getLong(4 * Long.BYTES);
+            return header.getLong(2 * Long.BYTES);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.iota.iri.service.storage;
+
+import java.nio.ByteBuffer;
+
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Read-only window over a stored transaction cell.
+ *
+ * Unlike {@link Transaction} nothing is copied, fields are decoded straight from the mapped chunk when
+ * asked for, so a traversal that reuses one view allocates nothing per visited transaction.
+ * The type is captured when the view is positioned: a filled cell never changes afterwards (except its
+ * validity byte), a view over a prefilled cell keeps reporting {@link AbstractStorage#PREFILLED_SLOT}
+ * even if the transaction arrives meanwhile, and only its hash is meaningful.
+ */
+public final class TransactionView {
+
+    private ByteBuffer chunk;
+    private int offset;
+    private long pointer;
+    private int type;
+    private ByteBuffer validityBuffer;
+    private int validityOffset;
+
+    void moveTo(final ByteBuffer chunk, final int offset, final long pointer, final int type) {
+        moveTo(chunk, offset, pointer, type, chunk, offset + Transaction.VALIDITY_OFFSET);
+    }
+
+    void moveTo(final ByteBuffer chunk, final int offset, final long pointer, final int type, final ByteBuffer validityBuffer, final int validityOffset) { // For engines which keep the validity out of the record
+
+        this.chunk = chunk;
+        this.offset = offset;
+        this.pointer = pointer;
+        this.type = type;
+        this.validityBuffer = validityBuffer;
+        this.validityOffset = validityOffset;
+    }
+
+    public long pointer() {
+        return pointer;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    public Hash hash() {
+        return new Hash(chunk, offset + Transaction.HASH_OFFSET, Transaction.HASH_SIZE);
+    }
+
+    public Hash address() {
+        return new Hash(chunk, offset + Transaction.ADDRESS_OFFSET, Transaction.ADDRESS_SIZE);
+    }
+
+    public long value() {
+        return type == AbstractStorage.FILLED_SLOT ? AbstractStorage.value(chunk, offset + Transaction.VALUE_OFFSET) : 0;
+    }
+
+    public long currentIndex() {
+        return type == AbstractStorage.FILLED_SLOT ? AbstractStorage.value(chunk, offset + Transaction.CURRENT_INDEX_OFFSET) : 0;
+    }
+
+    public long lastIndex() {
+        return type == AbstractStorage.FILLED_SLOT ? AbstractStorage.value(chunk, offset + Transaction.LAST_INDEX_OFFSET) : 0;
+    }
+
+    public Hash bundle() {
+        return new Hash(chunk, offset + Transaction.BUNDLE_OFFSET, Transaction.BUNDLE_SIZE);
+    }
+
+    public long trunkTransactionPointer() { // The null transaction unless the cell is filled, traversals check the type before following it
+        return approvedTransactionPointer(Transaction.TRUNK_TRANSACTION_POINTER_OFFSET, Transaction.TRUNK_TRANSACTION_OFFSET);
+    }
+
+    public long branchTransactionPointer() {
+        return approvedTransactionPointer(Transaction.BRANCH_TRANSACTION_POINTER_OFFSET, Transaction.BRANCH_TRANSACTION_OFFSET);
+    }
+
+    private long approvedTransactionPointer(final int pointerOffset, final int hashOffset) {
+
+        if (type != AbstractStorage.FILLED_SLOT) {
+            return IStorageProvider.NULL_TRANSACTION_POINTER;
+        }
+        long pointer = AbstractStorage.value(chunk, offset + pointerOffset);
+        if (pointer == 0) { // Not resolved yet, looked up by the engine which laid the record out
+            final byte[] hash = new byte[Transaction.HASH_SIZE];
+            ((ByteBuffer) chunk.duplicate().position(offset + hashOffset)).get(hash);
+            pointer = Math.abs(StorageProviders.instance().transactionPointer(hash));
+        }
+        return pointer != 0 ? pointer : IStorageProvider.NULL_TRANSACTION_POINTER; // A traversal never follows 0
+    }
+
+    public int validity() {
+        return validityBuffer.get(validityOffset);
+    }
+
+    public Transaction transaction() { // Full copy, for the rare places which need the bytes or the trits
+        return StorageProviders.instance().loadTransaction(pointer);
+    }
+}
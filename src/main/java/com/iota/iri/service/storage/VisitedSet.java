@@ -0,0 +1,107 @@
+package com.iota.iri.service.storage;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Set of transaction cells visited by a traversal.
+ *
+ * One bit per cell, in pages of {@link #CELLS_PER_PAGE} cells allocated on first use. Each page is stamped
+ * with the epoch it was last cleared in and a page stamped with an older epoch counts as empty, so
+ * {@link #clear()} only bumps the epoch and a traversal costs what it visits instead of what is stored.
+ *
+ * Traversals take a set from a per-thread pool with {@link #acquire()} and give it back with {@link #close()},
+ * so concurrent traversals don't share anything and a thread reuses the pages of its previous traversals.
+ * A set must be closed by the thread which acquired it and isn't thread safe.
+ */
+public final class VisitedSet implements AutoCloseable {
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int CELLS_PER_PAGE = 1 << PAGE_SHIFT;
+    private static final long FIRST_POINTER = AbstractStorage.CELLS_OFFSET - AbstractStorage.SUPER_GROUPS_OFFSET;
+
+    private static final ThreadLocal<ArrayDeque<VisitedSet>> pool = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private long[][] pages = new long[0][];
+    private int[] pageEpochs = new int[0];
+    private int[] touchedPages = new int[16]; // Pages stamped with the current epoch
+    private int numberOfTouchedPages;
+    int epoch = 1; // Package-visible so that a wrap around can be tested without 2^32 clears
+
+    public static VisitedSet acquire() { // An empty set, nested traversals get distinct ones
+
+        final VisitedSet set = pool.get().poll();
+        if (set == null) {
+            return new VisitedSet();
+        }
+        set.clear();
+        return set;
+    }
+
+    @Override
+    public void close() {
+        pool.get().push(this);
+    }
+
+    public void clear() {
+
+        if (++epoch == 0) { // Wrapped around, stale stamps could look current again
+            Arrays.fill(pageEpochs, 0);
+            epoch = 1;
+        }
+        numberOfTouchedPages = 0;
+    }
+
+    public boolean contains(final long pointer) {
+
+        final long index = (pointer - FIRST_POINTER) >> 11;
+        final int page = (int) (index >> PAGE_SHIFT);
+        return page < pageEpochs.length && pageEpochs[page] == epoch
+                && (pages[page][(int) (index & (CELLS_PER_PAGE - 1)) >> 6] & (1L << index)) != 0;
+    }
+
+    public boolean add(final long pointer) { // Returns false if the cell was already visited
+
+        final long index = (pointer - FIRST_POINTER) >> 11;
+        final long[] words = touch((int) (index >> PAGE_SHIFT));
+        final int word = (int) (index & (CELLS_PER_PAGE - 1)) >> 6;
+        if ((words[word] & (1L << index)) != 0) {
+            return false;
+        }
+        words[word] |= 1L << index;
+        return true;
+    }
+
+    public void copyFrom(final VisitedSet set) { // Replaces the content with the one of "set", in time proportional to its touched pages
+
+        clear();
+        for (int i = 0; i < set.numberOfTouchedPages; i++) {
+            final int page = set.touchedPages[i];
+            System.arraycopy(set.pages[page], 0, touch(page), 0, CELLS_PER_PAGE / Long.SIZE);
+        }
+    }
+
+    private long[] touch(final int page) {
+
+        if (page >= pageEpochs.length) {
+            final int length = Math.max(page + 1, pageEpochs.length << 1);
+            pages = Arrays.copyOf(pages, length);
+            pageEpochs = Arrays.copyOf(pageEpochs, length);
+        }
+
+        long[] words = pages[page];
+        if (pageEpochs[page] != epoch) {
+            if (words == null) {
+                pages[page] = words = new long[CELLS_PER_PAGE / Long.SIZE];
+            } else {
+                Arrays.fill(words, 0);
+            }
+            pageEpochs[page] = epoch;
+            if (numberOfTouchedPages == touchedPages.length) {
+                touchedPages = Arrays.copyOf(touchedPages, numberOfTouchedPages << 1);
+            }
+            touchedPages[numberOfTouchedPages++] = page;
+        }
+        return words;
+    }
+}
@@ -54,6 +54,35 @@ public class APIIntegrationTests {
                 body(containsString("time")).
                 body(containsString("tips")).
                 body(containsString("transactionsToRequest")).
+                body(containsString("requestsInFlight")).
+                body(containsString("requestsAnswered")).
+                body(containsString("requestsTimedOut")).
+                body(containsString("requestsDuplicated")).
+                statusCode(200);
+    }
+
+    /**
+     * curl http://localhost:14265 \
+     -X POST \
+     -H 'Content-Type: application/json' \
+     -d '{"command": "getStorageInfo"}'
+     */
+    @Test
+    public void shouldTestGetStorageInfo() {
+
+        final Map<String, Object> request = new HashMap<>();
+        request.put("command", "getStorageInfo");
+
+        given().
+                contentType("application/json").
+                body(gson.toJson(request)).
+            when().
+                post("/").
+            then().
+                body(containsString("duration")).
+                body(containsString("transactionFilterMemory")).
+                body(containsString("transactionFilterRejections")).
+                body(containsString("transactionFilterFalsePositiveRate")).
                 statusCode(200);
     }
 
@@ -80,6 +109,8 @@ public class APIIntegrationTests {
                 body(containsString("numberOfAllTransactions")).
                 body(containsString("numberOfInvalidTransactions")).
                 body(containsString("numberOfNewTransactions")).
+                body(containsString("numberOfAnsweredRequests")).
+                body(containsString("numberOfTimedOutRequests")).
                 statusCode(200);
     }
 
@@ -175,6 +206,31 @@ public class APIIntegrationTests {
                 statusCode(200);
     }
 
+    /**
+     * curl http://localhost:14265 \
+     -X POST \
+     -H 'Content-Type: application/json' \
+     -d '{"command": "findTransactions", "addresses": ["RVORZ9SIIP9RCYMREUIXXVPQIPHVCNPQ9HZWYKFWYWZRE9JQKG9REPKIASHUUECPSQO9JT9XNMVKWYGVAZETAIRPTM"], "offset": 10, "limit": 10}'
+     */
+    @Test
+    public void shouldTestFindTransactionsPage() {
+
+        final Map<String, Object> request = new HashMap<>();
+        request.put("command", "findTransactions");
+        request.put("addresses", new String [] {"RVORZ9SIIP9RCYMREUIXXVPQIPHVCNPQ9HZWYKFWYWZRE9JQKG9REPKIASHUUECPSQO9JT9XNMVKWYGVAZETAIRPTM"});
+        request.put("offset", 10);
+        request.put("limit", 10);
+        given().
+                contentType("application/json").
+                body(gson.toJson(request)).
+                when().
+                post("/").
+                then().
+                body(containsString("hashes")).
+                body(containsString("duration")).
+                statusCode(200);
+    }
+
     /**
      * curl http://localhost:14265 \
      -X POST \
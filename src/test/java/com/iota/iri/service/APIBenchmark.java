@@ -0,0 +1,134 @@
+package com.iota.iri.service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.iota.iri.Milestone;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.service.dto.AbstractResponse;
+import com.iota.iri.service.storage.BenchmarkStorage;
+import com.iota.iri.service.storage.StorageProviders;
+import com.iota.iri.utils.Converter;
+
+/**
+ * Concurrent clients mixing the API calls which traverse the tangle (getBalances, getInclusionStates,
+ * getTransactionsToApprove) with the gossip request path, over a throwaway tangle in which every
+ * transaction approves two earlier ones. Run with 1, 2, 4... threads up to the number of cores to see
+ * whether the traversals still wait for each other.
+ *
+ * Run main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class APIBenchmark {
+
+    private static final int NUMBER_OF_TRANSACTIONS = 20_000;
+    private static final InetSocketAddress LOCALHOST = new InetSocketAddress("127.0.0.1", 14265);
+
+    private Path directory;
+    private String getBalances, getInclusionStates, getTransactionsToApprove;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        directory = BenchmarkStorage.open();
+
+        final Random random = new Random(0);
+        final Hash[] hashes = new Hash[NUMBER_OF_TRANSACTIONS];
+        final int[] hashTrits = new int[Transaction.TRUNK_TRANSACTION_TRINARY_SIZE];
+        for (int i = 0; i < hashes.length; i++) {
+
+            final int[] trits = BenchmarkStorage.randomTransaction(random).trits();
+            Converter.copyTrits(1, trits, Transaction.CURRENT_INDEX_TRINARY_OFFSET, Transaction.CURRENT_INDEX_TRINARY_SIZE); // No tails, so no bundle is validated
+            Converter.getTrits(i == 0 ? Hash.NULL_HASH.bytes() : hashes[random.nextInt(i)].bytes(), hashTrits);
+            System.arraycopy(hashTrits, 0, trits, Transaction.TRUNK_TRANSACTION_TRINARY_OFFSET, hashTrits.length);
+            Converter.getTrits(i == 0 ? Hash.NULL_HASH.bytes() : hashes[Math.max(0, i - 1 - random.nextInt(16))].bytes(), hashTrits);
+            System.arraycopy(hashTrits, 0, trits, Transaction.BRANCH_TRANSACTION_TRINARY_OFFSET, hashTrits.length);
+
+            final Transaction transaction = new Transaction(trits);
+            StorageProviders.instance().storeTransaction(transaction.hash, transaction, false);
+            hashes[i] = new Hash(transaction.hash, 0, Transaction.HASH_SIZE);
+        }
+
+        final Hash milestone = hashes[hashes.length * 3 / 4], tip = hashes[hashes.length - 1];
+        Milestone.latestMilestone = tip;
+        Milestone.latestSolidSubtangleMilestone = milestone;
+        Milestone.latestSolidSubtangleMilestoneIndex = Milestone.MILESTONE_START_INDEX + 1;
+
+        final Transaction transaction = StorageProviders.instance().loadTransaction(hashes[hashes.length / 2].bytes());
+        getBalances = "{'command': 'getBalances', 'addresses': ['" + Converter.trytes(transaction.trits(), Transaction.ADDRESS_TRINARY_OFFSET, Transaction.ADDRESS_TRINARY_SIZE) + "'], 'threshold': 100}";
+        getInclusionStates = "{'command': 'getInclusionStates', 'transactions': ['" + hashes[1] + "', '" + hashes[hashes.length / 2] + "'], 'tips': ['" + tip + "']}";
+        getTransactionsToApprove = "{'command': 'getTransactionsToApprove', 'depth': 1}";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkStorage.close(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        int numberOfCalls;
+        final byte[] requestedHash = new byte[Transaction.HASH_SIZE];
+    }
+
+    @Benchmark
+    public Object mixed(final Client client) throws IOException { // Each client cycles through the calls, so every call is made concurrently with the others
+        switch (client.numberOfCalls++ & 3) {
+            case 0: return API.instance().process(getBalances, LOCALHOST);
+            case 1: return API.instance().process(getInclusionStates, LOCALHOST);
+            case 2: return API.instance().process(getTransactionsToApprove, LOCALHOST);
+            default: {
+                StorageProviders.instance().transactionToRequest(client.requestedHash, 0);
+                return client.requestedHash;
+            }
+        }
+    }
+
+    @Benchmark
+    public AbstractResponse getBalances() throws IOException {
+        return API.instance().process(getBalances, LOCALHOST);
+    }
+
+    @Benchmark
+    public AbstractResponse getInclusionStates() throws IOException {
+        return API.instance().process(getInclusionStates, LOCALHOST);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        for (int threads = 1; ; threads <<= 1) {
+            final int numberOfThreads = Math.min(threads, Runtime.getRuntime().availableProcessors());
+            new Runner(new OptionsBuilder()
+                    .include(APIBenchmark.class.getSimpleName())
+                    .threads(numberOfThreads)
+                    .build()).run();
+            if (numberOfThreads == Runtime.getRuntime().availableProcessors()) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.iota.iri.service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.iota.iri.model.Transaction;
+import com.iota.iri.service.dto.AbstractResponse;
+import com.iota.iri.service.storage.BenchmarkStorage;
+import com.iota.iri.service.storage.StorageProviders;
+import com.iota.iri.utils.Converter;
+
+/**
+ * findTransactions over a hot address, one transaction out of two like the deposit address of an exchange, alone
+ * and intersected with a tag. A page of the result should cost about the same whatever the size of the index,
+ * the whole result should cost in proportion to its size.
+ *
+ * Run main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FindTransactionsBenchmark {
+
+    private static final int NUMBER_OF_TRANSACTIONS = 50_000;
+    private static final InetSocketAddress LOCALHOST = new InetSocketAddress("127.0.0.1", 14265);
+
+    private Path directory;
+    private String hotAddress, hotAddressPage, hotAddressAndTag, hotAddressAndTagPage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        directory = BenchmarkStorage.open();
+
+        final Random random = new Random(0);
+        final int[] addressTrits = BenchmarkStorage.randomTrits(random);
+        final int[] tagTrits = BenchmarkStorage.randomTrits(random);
+        for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+
+            final int[] trits = BenchmarkStorage.randomTrits(random);
+            if ((i & 1) == 0) {
+                System.arraycopy(addressTrits, Transaction.ADDRESS_TRINARY_OFFSET, trits, Transaction.ADDRESS_TRINARY_OFFSET, Transaction.ADDRESS_TRINARY_SIZE);
+            }
+            if (i % 10 == 0) {
+                System.arraycopy(tagTrits, Transaction.TAG_TRINARY_OFFSET, trits, Transaction.TAG_TRINARY_OFFSET, Transaction.TAG_TRINARY_SIZE);
+            }
+            final Transaction transaction = new Transaction(trits);
+            StorageProviders.instance().storeTransaction(transaction.hash, transaction, false);
+        }
+
+        final String address = Converter.trytes(addressTrits, Transaction.ADDRESS_TRINARY_OFFSET, Transaction.ADDRESS_TRINARY_SIZE);
+        final String tag = Converter.trytes(tagTrits, Transaction.TAG_TRINARY_OFFSET, Transaction.TAG_TRINARY_SIZE);
+        hotAddress = "{'command': 'findTransactions', 'addresses': ['" + address + "']}";
+        hotAddressPage = "{'command': 'findTransactions', 'addresses': ['" + address + "'], 'offset': 1000, 'limit': 100}";
+        hotAddressAndTag = "{'command': 'findTransactions', 'addresses': ['" + address + "'], 'tags': ['" + tag + "']}";
+        hotAddressAndTagPage = "{'command': 'findTransactions', 'addresses': ['" + address + "'], 'tags': ['" + tag + "'], 'offset': 1000, 'limit': 100}";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkStorage.close(directory);
+    }
+
+    @Benchmark
+    public AbstractResponse hotAddress() throws IOException {
+        return API.instance().process(hotAddress, LOCALHOST);
+    }
+
+    @Benchmark
+    public AbstractResponse hotAddressPage() throws IOException {
+        return API.instance().process(hotAddressPage, LOCALHOST);
+    }
+
+    @Benchmark
+    public AbstractResponse hotAddressAndTag() throws IOException {
+        return API.instance().process(hotAddressAndTag, LOCALHOST);
+    }
+
+    @Benchmark
+    public AbstractResponse hotAddressAndTagPage() throws IOException {
+        return API.instance().process(hotAddressAndTagPage, LOCALHOST);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FindTransactionsBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
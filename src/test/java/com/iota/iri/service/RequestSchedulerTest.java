@@ -0,0 +1,231 @@
+package com.iota.iri.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iota.iri.Neighbor;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+public class RequestSchedulerTest {
+
+    private static final long REQUEST_TIMEOUT = 2000, MIN_BACKOFF = 2000, MAX_BACKOFF = 5 * 60 * 1000, FORGET_DELAY = 2 * MAX_BACKOFF;
+
+    private final ArrayDeque<Hash> missingHashes = new ArrayDeque<>();
+    private final RequestScheduler.Source source = new RequestScheduler.Source() {
+
+        @Override
+        public boolean transactionToRequest(final byte[] buffer, final int offset) { // Cycles through the missing hashes
+
+            final Hash hash = missingHashes.poll();
+            if (hash == null) {
+                return false;
+            }
+            missingHashes.add(hash);
+            System.arraycopy(hash.bytes(), 0, buffer, offset, Transaction.HASH_SIZE);
+            return true;
+        }
+    };
+
+    private long now = 1_000_000;
+    private int numberOfNeighbors = 1;
+    private RequestScheduler scheduler;
+    private final Neighbor neighbor = new Neighbor(InetSocketAddress.createUnresolved("neighbor", 14265)),
+            otherNeighbor = new Neighbor(InetSocketAddress.createUnresolved("other-neighbor", 14265));
+
+    @Before
+    public void setUp() {
+        scheduler = new RequestScheduler(() -> now, source, () -> numberOfNeighbors);
+    }
+
+    @Test
+    public void testNoRequestWhileInFlight() {
+
+        final Hash hash = missing(1);
+        assertEquals(hash, request(neighbor));
+        assertEquals(Hash.NULL_HASH, request(neighbor));
+        assertEquals(Hash.NULL_HASH, request(otherNeighbor));
+        assertEquals(1, scheduler.getNumberOfRequestsInFlight());
+        assertEquals(1, neighbor.getNumberOfRequestsInFlight());
+
+        now += REQUEST_TIMEOUT - 1;
+        assertEquals(Hash.NULL_HASH, request(otherNeighbor));
+        assertEquals(0, scheduler.getNumberOfTimedOutRequests());
+    }
+
+    @Test
+    public void testAnswer() {
+
+        final Hash hash = missing(1);
+        assertEquals(hash, request(neighbor));
+        scheduler.transactionReceived(neighbor, hash.bytes());
+        assertEquals(0, scheduler.getNumberOfRequestsInFlight());
+        assertEquals(0, neighbor.getNumberOfRequestsInFlight());
+        assertEquals(1, neighbor.getNumberOfAnsweredRequests());
+        assertEquals(1, scheduler.getNumberOfAnsweredRequests());
+
+        scheduler.transactionReceived(neighbor, hash.bytes()); // A duplicate, not counted twice
+        assertEquals(1, neighbor.getNumberOfAnsweredRequests());
+        assertEquals(1, scheduler.getNumberOfAnsweredRequests());
+        assertEquals(0, scheduler.getNumberOfRequestsInFlight());
+
+        now += REQUEST_TIMEOUT;
+        assertEquals(hash, request(neighbor)); // Still missing, asked for as a new hash
+        assertEquals(0, scheduler.getNumberOfTimedOutRequests());
+        assertEquals(0, scheduler.getNumberOfDuplicatedRequests());
+    }
+
+    @Test
+    public void testAnswerFromAnotherNeighbor() {
+
+        final Hash hash = missing(1);
+        assertEquals(hash, request(neighbor));
+        scheduler.transactionReceived(otherNeighbor, hash.bytes()); // Frees the slot of the neighbor it was asked from, credits nobody
+        assertEquals(0, scheduler.getNumberOfRequestsInFlight());
+        assertEquals(0, neighbor.getNumberOfRequestsInFlight());
+        assertEquals(0, neighbor.getNumberOfAnsweredRequests());
+        assertEquals(0, otherNeighbor.getNumberOfAnsweredRequests());
+        assertEquals(0, scheduler.getNumberOfAnsweredRequests());
+
+        now += REQUEST_TIMEOUT;
+        request(neighbor);
+        assertEquals(0, scheduler.getNumberOfTimedOutRequests());
+        assertEquals(0, neighbor.getNumberOfTimedOutRequests());
+    }
+
+    @Test
+    public void testTimeoutAndBackoff() {
+
+        final Hash hash = missing(1);
+        long backoff = MIN_BACKOFF;
+        for (int attempt = 1; attempt <= 12; attempt++) {
+
+            assertEquals(hash, request(neighbor));
+            now += REQUEST_TIMEOUT;
+            assertEquals(Hash.NULL_HASH, request(neighbor)); // Timed out by the sweep, waits for its backoff
+            assertEquals(attempt, scheduler.getNumberOfTimedOutRequests());
+            assertEquals(attempt, neighbor.getNumberOfTimedOutRequests());
+            assertEquals(0, scheduler.getNumberOfRequestsInFlight());
+            assertEquals(0, neighbor.getNumberOfRequestsInFlight());
+
+            now += backoff - 1;
+            assertEquals(Hash.NULL_HASH, request(neighbor));
+            now++;
+            backoff = Math.min(MAX_BACKOFF, backoff << 1);
+        }
+        assertEquals(MAX_BACKOFF, backoff);
+        assertEquals(hash, request(neighbor));
+        assertEquals(12, scheduler.getNumberOfDuplicatedRequests());
+    }
+
+    @Test
+    public void testRetryWithAnotherNeighbor() {
+
+        final Hash hash = missing(1);
+        numberOfNeighbors = 2;
+        assertEquals(hash, request(neighbor));
+        now += REQUEST_TIMEOUT;
+        assertEquals(Hash.NULL_HASH, request(otherNeighbor));
+        now += MIN_BACKOFF;
+        assertEquals(Hash.NULL_HASH, request(neighbor)); // Not to the neighbor which let it time out
+        assertEquals(hash, request(otherNeighbor));
+        assertEquals(1, scheduler.getNumberOfDuplicatedRequests());
+    }
+
+    @Test
+    public void testArrivedMeanwhile() {
+
+        final Hash hash = missing(1);
+        assertEquals(hash, request(neighbor));
+        now += REQUEST_TIMEOUT;
+        assertEquals(Hash.NULL_HASH, request(neighbor));
+
+        scheduler.transactionReceived(otherNeighbor, hash.bytes()); // While it waits for its backoff, so asking for it again is no duplicate
+        assertEquals(hash, request(neighbor));
+        assertEquals(0, scheduler.getNumberOfDuplicatedRequests());
+    }
+
+    @Test
+    public void testForgetNoLongerMissing() {
+
+        final Hash hash = missing(1);
+        assertEquals(hash, request(neighbor));
+        now += REQUEST_TIMEOUT;
+        assertEquals(Hash.NULL_HASH, request(neighbor));
+
+        missingHashes.clear(); // Stored some other way
+        now += FORGET_DELAY - 1;
+        request(neighbor);
+        missingHashes.add(hash);
+        assertEquals(hash, request(neighbor)); // Still remembered, after its backoff
+        assertEquals(1, scheduler.getNumberOfDuplicatedRequests());
+
+        now += REQUEST_TIMEOUT;
+        missingHashes.clear();
+        request(neighbor);
+        now += FORGET_DELAY;
+        request(neighbor);
+        missingHashes.add(hash);
+        assertEquals(hash, request(neighbor)); // Forgotten, no duplicate this time
+        assertEquals(1, scheduler.getNumberOfDuplicatedRequests());
+        assertEquals(2, scheduler.getNumberOfTimedOutRequests());
+    }
+
+    @Test
+    public void testRequestsInFlightPerNeighbor() {
+
+        for (int i = 0; i < 200; i++) {
+            missing(i);
+        }
+        assertEquals(64, requestAll(neighbor).size()); // New neighbors get the most
+        assertEquals(0, requestAll(neighbor).size());
+        now += REQUEST_TIMEOUT;
+        final List<Hash> hashes = requestAll(neighbor); // Timed out by the sweep, then 4 + 60 * 1 / 65
+        assertEquals(64, neighbor.getNumberOfTimedOutRequests());
+        assertEquals(4, hashes.size());
+
+        assertEquals(64, requestAll(otherNeighbor).size());
+
+        for (final Hash hash : hashes) {
+            scheduler.transactionReceived(neighbor, hash.bytes());
+        }
+        assertEquals(0, neighbor.getNumberOfRequestsInFlight());
+        assertEquals(4, neighbor.getNumberOfAnsweredRequests());
+        assertEquals(8, requestAll(neighbor).size()); // 4 + 60 * 5 / 69
+        assertEquals(64 + 8, scheduler.getNumberOfRequestsInFlight());
+    }
+
+    private Hash missing(final int seed) {
+
+        final byte[] bytes = new byte[Transaction.HASH_SIZE];
+        bytes[0] = (byte) (seed >> 8);
+        bytes[1] = (byte) seed;
+        bytes[Transaction.HASH_SIZE - 1] = 1;
+        final Hash hash = new Hash(bytes, 0, Transaction.HASH_SIZE);
+        missingHashes.add(hash);
+        return hash;
+    }
+
+    private Hash request(final Neighbor neighbor) {
+
+        final byte[] buffer = new byte[Transaction.HASH_SIZE + 1];
+        scheduler.transactionToRequest(neighbor, buffer, 1);
+        return new Hash(buffer, 1, Transaction.HASH_SIZE);
+    }
+
+    private List<Hash> requestAll(final Neighbor neighbor) { // Until the scheduler sends nothing
+
+        final List<Hash> hashes = new ArrayList<>();
+        for (Hash hash; !(hash = request(neighbor)).equals(Hash.NULL_HASH); ) {
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,76 @@
+package com.iota.iri.service.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Opens a throwaway storage for the benchmarks, so they never touch the database of a real node.
+ */
+public class BenchmarkStorage {
+
+    public static Path open() throws IOException {
+        final Path directory = Files.createTempDirectory("iri-benchmark");
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        StorageProviders.instance().init();
+        return directory;
+    }
+
+    public static void close(final Path directory) throws IOException {
+        StorageProviders.instance().shutdown();
+        FileUtils.deleteDirectory(new File(directory.toString()));
+    }
+
+    public static Transaction randomTransaction(final Random random) {
+        return new Transaction(randomTrits(random));
+    }
+
+    public static int[] randomTrits(final Random random) {
+        final int[] trits = new int[Transaction.TRINARY_SIZE];
+        for (int i = 0; i < trits.length; i++) {
+            trits[i] = random.nextInt(3) - 1;
+        }
+        for (int i = Transaction.VALUE_TRINARY_OFFSET; i < Transaction.VALUE_TRINARY_OFFSET + Transaction.VALUE_TRINARY_SIZE; i++) {
+            trits[i] = 0;
+        }
+        return trits;
+    }
+
+    public static Transaction[] randomTangle(final int numberOfTransactions, final long seed) { // Each transaction approves two of the last ones, the first one approves the null transaction
+
+        final Random random = new Random(seed);
+        final Transaction[] transactions = new Transaction[numberOfTransactions];
+        for (int i = 0; i < numberOfTransactions; i++) {
+            final int[] trits = randomTrits(random);
+            if (i == 0) {
+                Arrays.fill(trits, Transaction.TRUNK_TRANSACTION_TRINARY_OFFSET, Transaction.BRANCH_TRANSACTION_TRINARY_OFFSET + Transaction.BRANCH_TRANSACTION_TRINARY_SIZE, 0);
+            } else {
+                System.arraycopy(new Hash(transactions[i - 1 - random.nextInt(Math.min(i, 64))].hash, 0, Transaction.HASH_SIZE).trits(), 0, trits, Transaction.TRUNK_TRANSACTION_TRINARY_OFFSET, Transaction.TRUNK_TRANSACTION_TRINARY_SIZE);
+                System.arraycopy(new Hash(transactions[i - 1 - random.nextInt(Math.min(i, 64))].hash, 0, Transaction.HASH_SIZE).trits(), 0, trits, Transaction.BRANCH_TRANSACTION_TRINARY_OFFSET, Transaction.BRANCH_TRANSACTION_TRINARY_SIZE);
+            }
+            transactions[i] = new Transaction(trits);
+        }
+        return transactions;
+    }
+
+    public static byte[][] storeRandomTransactions(final int numberOfTransactions, final long seed) {
+        final Random random = new Random(seed);
+        final byte[][] hashes = new byte[numberOfTransactions][];
+        for (int i = 0; i < numberOfTransactions; i++) {
+            final Transaction transaction = randomTransaction(random);
+            StorageProviders.instance().storeTransaction(transaction.hash, transaction, false);
+            hashes[i] = transaction.hash;
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,351 @@
+package com.iota.iri.service.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Transaction;
+
+public class PostingListTest {
+
+    private static final long FIRST_POINTER = AbstractStorage.SUPER_GROUPS_SIZE; // Of the transactions the lists point to
+
+    private Path directory;
+    private final ByteBuffer[] chunks = new ByteBuffer[AbstractStorage.MAX_NUMBER_OF_CHUNKS];
+    private long nextPointer = AbstractStorage.SUPER_GROUPS_SIZE;
+    private int appendedCells, numberOfKeys;
+    private final StorageLock lock = new StorageLock();
+    private PostingList postings;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("iri-postings");
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        try (final FileChannel channel = FileChannel.open(directory.resolve("postings"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            chunks[0] = channel.map(FileChannel.MapMode.READ_WRITE, 0, AbstractStorage.SUPER_GROUPS_SIZE);
+            chunks[1] = channel.map(FileChannel.MapMode.READ_WRITE, AbstractStorage.SUPER_GROUPS_SIZE, AbstractStorage.CHUNK_SIZE); // Sparse, only the appended cells are touched
+        }
+        postings = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(directory.toString()));
+    }
+
+    @Test
+    public void testAppendsAcrossBlocks() {
+
+        final TreeSet<Long> expected = new TreeSet<>();
+        final long leaf = create(expected, FIRST_POINTER);
+        for (int i = 1; i < 3 * PostingList.MAX_BLOCK_SIZE; i++) { // 1 byte deltas, several tail blocks get full
+            add(expected, leaf, FIRST_POINTER + (long) i * AbstractStorage.CELL_SIZE);
+        }
+        assertTrue(appendedCells >= 3);
+        assertPostings(expected, leaf);
+    }
+
+    @Test
+    public void testCreateAcrossBlocks() {
+
+        final long[] pointers = new long[2 * PostingList.MAX_BLOCK_SIZE];
+        final TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < pointers.length; i++) {
+            pointers[i] = FIRST_POINTER + (long) i * 3 * AbstractStorage.CELL_SIZE;
+            expected.add(pointers[i]);
+        }
+        final long leaf = postings.create(key(++numberOfKeys), Transaction.HASH_SIZE, pointers, pointers.length);
+        assertTrue(appendedCells >= 2);
+        assertPostings(expected, leaf);
+
+        add(expected, leaf, pointers[pointers.length - 1] + AbstractStorage.CELL_SIZE); // Onto the tail block
+        add(expected, leaf, FIRST_POINTER + AbstractStorage.CELL_SIZE); // Into the leaf
+        assertPostings(expected, leaf);
+    }
+
+    @Test
+    public void testOutOfOrderInserts() {
+
+        final Random random = new Random(1);
+        final TreeSet<Long> expected = new TreeSet<>();
+        final long leaf = create(expected, FIRST_POINTER + 1_000_000L * AbstractStorage.CELL_SIZE);
+        for (int i = 0; i < 5 * PostingList.MAX_BLOCK_SIZE; i++) { // Mostly inserts into full blocks, which split
+            final long pointer = FIRST_POINTER + random.nextInt(2_000_000) * (long) AbstractStorage.CELL_SIZE;
+            if (!expected.contains(pointer)) {
+                add(expected, leaf, pointer);
+            }
+            if (i % 1000 == 0) {
+                assertPostings(expected, leaf);
+            }
+        }
+        assertPostings(expected, leaf);
+    }
+
+    @Test
+    public void testLargeDeltas() {
+
+        final TreeSet<Long> expected = new TreeSet<>();
+        final long leaf = create(expected, FIRST_POINTER);
+        long pointer = FIRST_POINTER;
+        for (final long delta : new long[] {1, 127, 128, 16383, 16384, 2097151, 2097152, 1L << 28, 1L << 29}) { // Each varint length, short of the largest pointer
+            pointer += delta * AbstractStorage.CELL_SIZE;
+            add(expected, leaf, pointer);
+        }
+        add(expected, leaf, FIRST_POINTER + (1L << 29) * AbstractStorage.CELL_SIZE); // Inserted between the two largest deltas
+        assertPostings(expected, leaf);
+
+        final long[] pointers = new long[expected.size()];
+        int i = 0;
+        for (final long expectedPointer : expected) {
+            pointers[i++] = expectedPointer;
+        }
+        assertPostings(expected, postings.create(key(++numberOfKeys), Transaction.HASH_SIZE, pointers, pointers.length));
+    }
+
+    @Test
+    public void testUnionAndIntersection() {
+
+        final Random random = new Random(2);
+        final List<TreeSet<Long>> sets = new ArrayList<>();
+        final List<Long> leaves = new ArrayList<>();
+        for (int list = 0; list < 4; list++) {
+            final TreeSet<Long> set = new TreeSet<>();
+            final long leaf = create(set, FIRST_POINTER + random.nextInt(20) * (long) AbstractStorage.CELL_SIZE);
+            for (int i = 0; i < 3000 >> list; i++) { // From dense to sparse, so that the walks skip blocks
+                final long pointer = FIRST_POINTER + random.nextInt(6000) * (long) AbstractStorage.CELL_SIZE;
+                if (!set.contains(pointer)) {
+                    add(set, leaf, pointer);
+                }
+            }
+            sets.add(set);
+            leaves.add(leaf);
+        }
+
+        final TreeSet<Long> union = new TreeSet<>(), intersection = new TreeSet<>(sets.get(0));
+        for (final TreeSet<Long> set : sets) {
+            union.addAll(set);
+            intersection.retainAll(set);
+        }
+        assertTrue(!intersection.isEmpty());
+        assertCursor(union, PointerCursor.union(cursors(leaves)));
+        assertCursor(intersection, PointerCursor.intersection(cursors(leaves)));
+
+        final List<Long> reversedLeaves = new ArrayList<>(leaves); // The most selective cursor first
+        Collections.reverse(reversedLeaves);
+        assertCursor(intersection, PointerCursor.intersection(cursors(reversedLeaves)));
+
+        final List<PointerCursor> mixedCursors = cursors(leaves); // An in-memory cursor among the stored ones
+        mixedCursors.set(1, PointerCursor.of(postings.pointers(leaves.get(1))));
+        assertCursor(union, PointerCursor.union(mixedCursors));
+
+        mixedCursors.clear();
+        mixedCursors.add(PointerCursor.EMPTY);
+        mixedCursors.addAll(cursors(leaves));
+        assertCursor(new TreeSet<>(), PointerCursor.intersection(mixedCursors));
+        assertCursor(new TreeSet<>(), PointerCursor.union(Collections.emptyList()));
+    }
+
+    @Test
+    public void testIdempotentAdds() {
+
+        final Random random = new Random(3);
+        final TreeSet<Long> expected = new TreeSet<>();
+        final long leaf = create(expected, FIRST_POINTER);
+        for (int i = 0; i < 2 * PostingList.MAX_BLOCK_SIZE; i++) {
+            add(expected, leaf, FIRST_POINTER + random.nextInt(50_000) * (long) AbstractStorage.CELL_SIZE);
+        }
+        final int numberOfCells = appendedCells;
+        for (final long pointer : expected) { // As a replayed journal adds them again, the last one onto the tail, the others into their blocks
+            postings.add(leaf, pointer);
+        }
+        assertEquals(numberOfCells, appendedCells);
+        assertPostings(expected, leaf);
+    }
+
+    @Test
+    public void testRecoveryOfInterruptedAppend() throws IOException {
+
+        final TreeSet<Long> expected = new TreeSet<>();
+        final long leaf = create(expected, FIRST_POINTER);
+        for (int i = 1; i < PostingList.MAX_BLOCK_SIZE + 10; i++) { // The tail is a block of its own
+            add(expected, leaf, FIRST_POINTER + (long) i * AbstractStorage.CELL_SIZE);
+        }
+        final byte[][] cells = cells();
+        final long pointer = expected.last() + AbstractStorage.CELL_SIZE;
+        add(expected, leaf, pointer);
+
+        final long tail = changedBlock(cells, leaf);
+        AbstractStorage.setCellValue(chunks, tail, PostingList.LAST_POINTER_OFFSET, pointer - AbstractStorage.CELL_SIZE); // Died after the count was written, before the last pointer and the size
+        AbstractStorage.writeCell(chunks, leaf, cells[index(leaf)]);
+        AbstractStorage.setCellValue(chunks, PostingList.INTENT_POINTER, PostingList.PENDING_LEAF_OFFSET, leaf);
+
+        postings = open();
+        assertPostings(expected, leaf);
+        postings.add(leaf, pointer); // Then replayed
+        add(expected, leaf, pointer + AbstractStorage.CELL_SIZE);
+        assertPostings(expected, leaf);
+    }
+
+    @Test
+    public void testRecoveryOfInterruptedInsert() throws IOException {
+
+        final long[] pointers = new long[2 * PostingList.MAX_BLOCK_SIZE];
+        final TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < pointers.length; i++) {
+            pointers[i] = FIRST_POINTER + (long) i * 2 * AbstractStorage.CELL_SIZE;
+            expected.add(pointers[i]);
+        }
+        final long leaf = postings.create(key(++numberOfKeys), Transaction.HASH_SIZE, pointers, pointers.length);
+        final byte[][] cells = cells();
+        add(expected, leaf, pointers[pointers.length - 10] + AbstractStorage.CELL_SIZE); // Into a block with room, no split
+
+        final long block = changedBlock(cells, leaf);
+        final byte[] insertedCell = new byte[AbstractStorage.CELL_SIZE], tornCell = cells[index(block)].clone();
+        AbstractStorage.readCell(chunks, block, insertedCell);
+        System.arraycopy(insertedCell, 0, tornCell, 0, AbstractStorage.CELL_SIZE / 2); // Died in the middle of writing the block
+        AbstractStorage.writeCell(chunks, PostingList.SHADOW_POINTER, insertedCell);
+        AbstractStorage.writeCell(chunks, block, tornCell);
+        AbstractStorage.writeCell(chunks, leaf, cells[index(leaf)]);
+        AbstractStorage.setCellValue(chunks, PostingList.INTENT_POINTER, PostingList.PENDING_LEAF_OFFSET, leaf);
+        AbstractStorage.setCellValue(chunks, PostingList.INTENT_POINTER, PostingList.PENDING_BLOCK_OFFSET, block);
+
+        postings = open();
+        assertPostings(expected, leaf);
+        assertEquals(0, AbstractStorage.cellValue(chunks, PostingList.INTENT_POINTER, PostingList.PENDING_LEAF_OFFSET));
+        assertEquals(0, AbstractStorage.cellValue(chunks, PostingList.INTENT_POINTER, PostingList.PENDING_BLOCK_OFFSET));
+    }
+
+    private PostingList open() throws IOException { // Over the cells as they are, as after a restart
+
+        final PostingList postings = new PostingList("postings", chunks, new DirtyPages(), cell -> {
+            final long pointer = nextPointer;
+            AbstractStorage.writeCell(chunks, pointer, cell);
+            nextPointer += AbstractStorage.CELL_SIZE;
+            appendedCells++;
+            return pointer;
+        });
+        postings.init(nextPointer);
+        return postings;
+    }
+
+    private byte[][] cells() { // Copies of the appended cells
+
+        final byte[][] cells = new byte[(int) ((nextPointer - AbstractStorage.SUPER_GROUPS_SIZE) / AbstractStorage.CELL_SIZE)][AbstractStorage.CELL_SIZE];
+        for (int i = 0; i < cells.length; i++) {
+            AbstractStorage.readCell(chunks, AbstractStorage.SUPER_GROUPS_SIZE + (long) i * AbstractStorage.CELL_SIZE, cells[i]);
+        }
+        return cells;
+    }
+
+    private long changedBlock(final byte[][] cells, final long leaf) { // The only cell besides the leaf an addition changed
+
+        final byte[] cell = new byte[AbstractStorage.CELL_SIZE];
+        long block = 0;
+        for (int i = 0; i < cells.length; i++) {
+            final long pointer = AbstractStorage.SUPER_GROUPS_SIZE + (long) i * AbstractStorage.CELL_SIZE;
+            AbstractStorage.readCell(chunks, pointer, cell);
+            if (pointer != leaf && !Arrays.equals(cells[i], cell)) {
+                assertEquals(0, block);
+                block = pointer;
+            }
+        }
+        assertTrue(block != 0);
+        return block;
+    }
+
+    private static int index(final long pointer) {
+        return (int) ((pointer - AbstractStorage.SUPER_GROUPS_SIZE) / AbstractStorage.CELL_SIZE);
+    }
+
+    private long create(final NavigableSet<Long> expected, final long pointer) {
+
+        expected.add(pointer);
+        return postings.create(key(++numberOfKeys), Transaction.HASH_SIZE, new long[] {pointer}, 1);
+    }
+
+    private void add(final NavigableSet<Long> expected, final long leaf, final long pointer) {
+
+        expected.add(pointer);
+        postings.add(leaf, pointer);
+    }
+
+    private static byte[] key(final int seed) {
+
+        final byte[] key = new byte[Transaction.HASH_SIZE];
+        new Random(seed).nextBytes(key);
+        return key;
+    }
+
+    private List<PointerCursor> cursors(final List<Long> leaves) {
+
+        final List<PointerCursor> cursors = new ArrayList<>();
+        for (final long leaf : leaves) {
+            cursors.add(postings.cursor(leaf, lock));
+        }
+        return cursors;
+    }
+
+    private void assertPostings(final NavigableSet<Long> expected, final long leaf) {
+
+        assertEquals(expected.size(), postings.size(leaf));
+        final long[] expectedPointers = new long[expected.size()];
+        int i = 0;
+        for (final long pointer : expected) {
+            expectedPointers[i++] = pointer;
+        }
+        assertArrayEquals(expectedPointers, postings.pointers(leaf));
+        assertCursor(expected, postings.cursor(leaf, lock));
+
+        final Random random = new Random(leaf);
+        final PointerCursor cursor = postings.cursor(leaf, lock); // Seeks forward to arbitrary targets, the pointers themselves or between them
+        long target = FIRST_POINTER;
+        while (true) {
+            final Long expectedPointer = expected.ceiling(target);
+            assertEquals(expectedPointer == null ? 0 : expectedPointer, cursor.seek(target));
+            if (expectedPointer == null) {
+                break;
+            }
+            target = random.nextBoolean() ? expectedPointer : expectedPointer + 1 + random.nextInt(4 * AbstractStorage.CELL_SIZE);
+        }
+        assertEquals(0, cursor.next());
+    }
+
+    private static void assertCursor(final NavigableSet<Long> expected, final PointerCursor cursor) {
+
+        final long[] expectedPointers = new long[expected.size()];
+        int i = 0;
+        for (final long pointer : expected) {
+            expectedPointers[i++] = pointer;
+        }
+        final long[] pointers = new long[expected.size() + 1];
+        int size = 0;
+        for (long pointer; size < pointers.length && (pointer = cursor.next()) != 0; ) {
+            pointers[size++] = pointer;
+        }
+        assertArrayEquals(expectedPointers, Arrays.copyOf(pointers, size));
+        assertEquals(0, cursor.next());
+    }
+}
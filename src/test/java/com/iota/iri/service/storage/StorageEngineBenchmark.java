@@ -0,0 +1,108 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Hash;
+
+/**
+ * The same reads against each storage engine, the in-memory one being the baseline of the mmapped tries and the log.
+ * Every benchmark runs in its own fork, so each one gets the engine of its parameter.
+ *
+ * Run main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageEngineBenchmark {
+
+    private static final int NUMBER_OF_TRANSACTIONS = 50_000;
+
+    @Param({"file", "memory", "log"})
+    public String storageEngine;
+
+    private Path directory;
+    private byte[][] hashes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Configuration.put(DefaultConfSettings.STORAGE_ENGINE, storageEngine);
+        directory = BenchmarkStorage.open();
+        hashes = BenchmarkStorage.storeRandomTransactions(NUMBER_OF_TRANSACTIONS, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkStorage.close(directory);
+    }
+
+    private byte[] randomHash() {
+        return hashes[ThreadLocalRandom.current().nextInt(hashes.length)];
+    }
+
+    @Benchmark
+    public long transactionPointer() {
+        return StorageProviders.instance().transactionPointer(randomHash());
+    }
+
+    @State(Scope.Thread)
+    public static class View {
+        final TransactionView view = new TransactionView();
+    }
+
+    @Benchmark
+    public long loadTransactionView(final View state) { // One traversal step: the transaction and where its trunk and branch are
+        final TransactionView view = StorageProviders.instance().loadTransaction(transactionPointer(), state.view);
+        return view.value() + view.trunkTransactionPointer() + view.branchTransactionPointer();
+    }
+
+    @Benchmark
+    public int addressTransactions(final View state) {
+        final TransactionView view = StorageProviders.instance().loadTransaction(transactionPointer(), state.view);
+        return StorageProviders.instance().addressTransactions(view.address().bytes()).length;
+    }
+
+    @Benchmark
+    public int approveeTransactions(final View state) { // The approvers of a referenced transaction, as walked by the tip selection
+        final TransactionView view = StorageProviders.instance().loadTransaction(transactionPointer(), state.view);
+        final Hash trunkTransaction = StorageProviders.instance().loadTransaction(view.trunkTransactionPointer(), view).hash();
+        return StorageProviders.instance().approveeTransactions(trunkTransaction.bytes()).length;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        for (int threads = 1; ; threads <<= 1) {
+            final int numberOfThreads = Math.min(threads, Runtime.getRuntime().availableProcessors());
+            new Runner(new OptionsBuilder()
+                    .include(StorageEngineBenchmark.class.getSimpleName())
+                    .threads(numberOfThreads)
+                    .build()).run();
+            if (numberOfThreads == Runtime.getRuntime().availableProcessors()) {
+                break;
+            }
+        }
+    }
+}
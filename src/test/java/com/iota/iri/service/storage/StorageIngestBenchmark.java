@@ -0,0 +1,102 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Time to store a transaction into each storage engine, and the disk bytes it costs once stored.
+ *
+ * Every iteration stores transactions the storage hasn't seen yet, each one approving two of the last ones,
+ * so the storage grows like the one of a node does, one by one or in batches like storeTransactions requests.
+ * The bytes per transaction are printed when the fork ends.
+ *
+ * Run main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageIngestBenchmark {
+
+    private static final int TRANSACTIONS_PER_ITERATION = 5_000;
+    private static final int NUMBER_OF_ITERATIONS = 2 + 5;
+
+    @Param({"file", "memory", "log"})
+    public String storageEngine;
+
+    @Param({"1", "64"})
+    public int batchSize; // 1 stores one transaction at a time, like the receiver does
+
+    private Path directory;
+    private Transaction[] transactions;
+    private int numberOfStoredTransactions;
+    private long initialStorageSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Configuration.put(DefaultConfSettings.STORAGE_ENGINE, storageEngine);
+        directory = BenchmarkStorage.open();
+        transactions = BenchmarkStorage.randomTangle(TRANSACTIONS_PER_ITERATION * NUMBER_OF_ITERATIONS, 0);
+        initialStorageSize = StorageProviders.instance().storageSize();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println(storageEngine + " engine: " + (StorageProviders.instance().storageSize() - initialStorageSize) / numberOfStoredTransactions
+                + " bytes per transaction on disk, " + StorageProviders.instance().storageSize() + " bytes in use");
+        BenchmarkStorage.close(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS_PER_ITERATION)
+    public long storeTransactions() {
+        long pointers = 0;
+        if (batchSize == 1) {
+            for (int i = 0; i < TRANSACTIONS_PER_ITERATION; i++) {
+                final Transaction transaction = transactions[numberOfStoredTransactions++];
+                pointers += StorageProviders.instance().storeTransaction(transaction.hash, transaction, false);
+            }
+        } else {
+            for (int i = 0; i < TRANSACTIONS_PER_ITERATION; i += batchSize) {
+                final int size = Math.min(batchSize, TRANSACTIONS_PER_ITERATION - i);
+                for (final long pointer : StorageProviders.instance().storeTransactions(Arrays.asList(transactions).subList(numberOfStoredTransactions, numberOfStoredTransactions + size))) {
+                    pointers += pointer;
+                }
+                numberOfStoredTransactions += size;
+            }
+        }
+        return pointers;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder() // Single-threaded, stores are serialized by the engines anyway
+                .include(StorageIngestBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,101 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Lookups and loads from many threads at once, run with 1, 2, 4... threads up to the number of cores
+ * to see how reads scale now that they don't serialize on a global monitor, with and without the
+ * transaction index.
+ *
+ * Run main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageLookupBenchmark {
+
+    private static final int NUMBER_OF_TRANSACTIONS = 100_000;
+
+    @Param({"false", "true"})
+    public boolean transactionIndex; // Trie walk only, or the in-memory index in front of it
+
+    private Path directory;
+    private byte[][] hashes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Configuration.put(DefaultConfSettings.TRANSACTION_INDEX, Boolean.toString(transactionIndex));
+        directory = BenchmarkStorage.open();
+        hashes = BenchmarkStorage.storeRandomTransactions(NUMBER_OF_TRANSACTIONS, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkStorage.close(directory);
+    }
+
+    private byte[] randomHash() {
+        return hashes[ThreadLocalRandom.current().nextInt(hashes.length)];
+    }
+
+    @Benchmark
+    public long transactionPointer() {
+        return StorageProviders.instance().transactionPointer(randomHash());
+    }
+
+    @Benchmark
+    public Transaction loadTransaction() {
+        return StorageProviders.instance().loadTransaction(randomHash());
+    }
+
+    @State(Scope.Thread)
+    public static class View {
+        final TransactionView view = new TransactionView();
+    }
+
+    @Benchmark
+    public long loadTransactionView(final View state) { // What a traversal step costs: no copy, only the fields it needs
+        final TransactionView view = StorageProviders.instance().loadTransaction(transactionPointer(), state.view);
+        return view.value() + view.trunkTransactionPointer() + view.branchTransactionPointer();
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        for (int threads = 1; ; threads <<= 1) {
+            final int numberOfThreads = Math.min(threads, Runtime.getRuntime().availableProcessors());
+            new Runner(new OptionsBuilder()
+                    .include(StorageLookupBenchmark.class.getSimpleName())
+                    .threads(numberOfThreads)
+                    .build()).run();
+            if (numberOfThreads == Runtime.getRuntime().availableProcessors()) {
+                break;
+            }
+        }
+    }
+}
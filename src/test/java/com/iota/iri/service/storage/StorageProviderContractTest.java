@@ -0,0 +1,229 @@
+package com.iota.iri.service.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+/**
+ * What the API relies on, checked against every engine of {@link StorageProviders}.
+ */
+@RunWith(Parameterized.class)
+public class StorageProviderContractTest {
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        return StorageProviders.engines().stream().map(engine -> new Object[] {engine}).collect(Collectors.toList());
+    }
+
+    private final String engine;
+    private Path directory;
+    private IStorageProvider storage;
+
+    public StorageProviderContractTest(final String engine) {
+        this.engine = engine;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("iri-contract");
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        Configuration.put(DefaultConfSettings.CHECKPOINT_INTERVAL, "0");
+        Configuration.put(DefaultConfSettings.STORAGE_ENGINE, engine);
+        StorageProviders.reset(); // The pointers which aren't resolved in a record are looked up through the instance
+        storage = StorageProviders.instance();
+        storage.init();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        storage.shutdown();
+        Configuration.put(DefaultConfSettings.STORAGE_ENGINE, "file");
+        StorageProviders.reset();
+        FileUtils.deleteDirectory(new File(directory.toString()));
+    }
+
+    @Test
+    public void testStoreAndLoad() {
+
+        final Transaction[] tangle = BenchmarkStorage.randomTangle(300, 1);
+        final long[] pointers = new long[tangle.length];
+        for (int i = 0; i < 200; i++) {
+            pointers[i] = storage.storeTransaction(tangle[i].hash, tangle[i], false);
+        }
+        System.arraycopy(storage.storeTransactions(Arrays.asList(tangle).subList(200, tangle.length)), 0, pointers, 200, tangle.length - 200);
+
+        final Set<Long> distinctPointers = new HashSet<>();
+        for (int i = 0; i < tangle.length; i++) {
+
+            assertTrue(pointers[i] > 0);
+            assertTrue(distinctPointers.add(pointers[i]));
+            assertEquals(pointers[i], storage.transactionPointer(tangle[i].hash));
+            assertArrayEquals(tangle[i].bytes, storage.loadTransaction(pointers[i]).bytes);
+            assertArrayEquals(tangle[i].bytes, storage.loadTransaction(tangle[i].hash).bytes);
+            assertEquals(storage.transactionPointer(tangle[i].trunkTransaction), storage.loadTransaction(pointers[i]).trunkTransactionPointer);
+
+            final TransactionView view = storage.loadTransaction(pointers[i], new TransactionView());
+            assertEquals(new Hash(tangle[i].hash, 0, Transaction.HASH_SIZE), view.hash());
+            assertEquals(AbstractStorage.FILLED_SLOT, view.type());
+            assertEquals(storage.transactionPointer(tangle[i].trunkTransaction), view.trunkTransactionPointer());
+            assertEquals(storage.transactionPointer(tangle[i].branchTransaction), view.branchTransactionPointer());
+        }
+
+        final long[] loadedPointers = new long[] {pointers[2], pointers[0], pointers[1]};
+        assertEquals(Arrays.asList(pointers[2], pointers[0], pointers[1]), storage.loadTransactions(loadedPointers).stream().map(transaction -> transaction.pointer).collect(Collectors.toList()));
+
+        assertEquals(0, storage.storeTransaction(tangle[0].hash, tangle[0], false)); // Already stored
+        assertEquals(pointers[0], storage.storeTransaction(tangle[0].hash, null, false));
+        assertEquals(0, storage.storeTransactions(Arrays.asList(tangle[1], tangle[2]))[1]);
+    }
+
+    @Test
+    public void testIndexes() {
+
+        final Transaction[] tangle = BenchmarkStorage.randomTangle(300, 2);
+        final Map<Hash, TreeSet<Long>> addresses = new HashMap<>(), bundles = new HashMap<>(), tags = new HashMap<>(), approvers = new HashMap<>();
+        for (final Transaction transaction : tangle) {
+
+            final long pointer = storage.storeTransaction(transaction.hash, transaction, false);
+            addresses.computeIfAbsent(new Hash(transaction.address, 0, Transaction.ADDRESS_SIZE), key -> new TreeSet<>()).add(pointer);
+            bundles.computeIfAbsent(new Hash(transaction.bundle, 0, Transaction.BUNDLE_SIZE), key -> new TreeSet<>()).add(pointer);
+            tags.computeIfAbsent(new Hash(transaction.tag, 0, Transaction.TAG_SIZE), key -> new TreeSet<>()).add(pointer);
+            for (final byte[] approvee : new byte[][] {transaction.trunkTransaction, transaction.branchTransaction}) {
+                approvers.computeIfAbsent(new Hash(approvee, 0, Transaction.HASH_SIZE), key -> new TreeSet<>()).add(pointer);
+            }
+        }
+        approvers.get(Hash.NULL_HASH).add(IStorageProvider.NULL_TRANSACTION_POINTER); // Which approves itself
+
+        for (final Map.Entry<Hash, TreeSet<Long>> entry : addresses.entrySet()) {
+            assertArrayEquals(array(entry.getValue()), sorted(storage.addressTransactions(entry.getKey().bytes())));
+            assertArrayEquals(array(entry.getValue()), array(storage.addressTransactionsCursor(entry.getKey().bytes())));
+        }
+        for (final Map.Entry<Hash, TreeSet<Long>> entry : bundles.entrySet()) {
+            assertArrayEquals(array(entry.getValue()), sorted(storage.bundleTransactions(entry.getKey().bytes())));
+        }
+        for (final Map.Entry<Hash, TreeSet<Long>> entry : tags.entrySet()) {
+            assertArrayEquals(array(entry.getValue()), sorted(storage.tagTransactions(entry.getKey().bytes())));
+        }
+        for (final Map.Entry<Hash, TreeSet<Long>> entry : approvers.entrySet()) {
+            assertArrayEquals(array(entry.getValue()), sorted(storage.approveeTransactions(entry.getKey().bytes())));
+            assertArrayEquals(array(entry.getValue()), array(storage.approveeTransactionsCursor(entry.getKey().bytes())));
+        }
+        assertEquals(0, storage.addressTransactions(Arrays.copyOf(tangle[0].hash, Transaction.ADDRESS_SIZE)).length); // No such address
+    }
+
+    @Test
+    public void testTips() {
+
+        final Transaction[] tangle = BenchmarkStorage.randomTangle(300, 3);
+        final Set<Hash> expectedTips = new HashSet<>();
+        for (final Transaction transaction : tangle) {
+            storage.storeTransaction(transaction.hash, transaction, false);
+            expectedTips.add(new Hash(transaction.hash, 0, Transaction.HASH_SIZE));
+        }
+        for (final Transaction transaction : tangle) {
+            expectedTips.remove(new Hash(transaction.trunkTransaction, 0, Transaction.HASH_SIZE));
+            expectedTips.remove(new Hash(transaction.branchTransaction, 0, Transaction.HASH_SIZE));
+        }
+
+        assertEquals(expectedTips, new HashSet<>(storage.tips()));
+        assertEquals(expectedTips.size(), storage.numberOfTips());
+        for (final Transaction transaction : tangle) {
+            final long pointer = storage.transactionPointer(transaction.hash);
+            assertEquals(expectedTips.contains(new Hash(transaction.hash, 0, Transaction.HASH_SIZE)), storage.tipFlag(pointer));
+        }
+        final long tipPointer = storage.randomTipPointer(new Random(3));
+        assertTrue(expectedTips.contains(storage.loadTransaction(tipPointer, new TransactionView()).hash()));
+    }
+
+    @Test
+    public void testMissingTransactions() {
+
+        final Transaction[] tangle = BenchmarkStorage.randomTangle(10, 4);
+        for (int i = 1; i < tangle.length; i++) { // The first one is only referenced
+            storage.storeTransaction(tangle[i].hash, tangle[i], false);
+        }
+
+        final long missingPointer = storage.transactionPointer(tangle[0].hash);
+        assertTrue(missingPointer < 0);
+        assertEquals(AbstractStorage.PREFILLED_SLOT, storage.loadTransaction(-missingPointer, new TransactionView()).type());
+        assertEquals(1, storage.numberOfMissingTransactions());
+        final byte[] buffer = new byte[Transaction.HASH_SIZE + 1];
+        assertTrue(storage.transactionToRequest(buffer, 1));
+        assertArrayEquals(tangle[0].hash, Arrays.copyOfRange(buffer, 1, buffer.length));
+
+        assertEquals(-missingPointer, storage.storeTransaction(tangle[0].hash, tangle[0], false)); // Filled where it was referenced
+        assertEquals(-missingPointer, storage.transactionPointer(tangle[0].hash));
+        assertArrayEquals(tangle[0].bytes, storage.loadTransaction(-missingPointer).bytes);
+        assertTrue(!storage.transactionToRequest(buffer, 1) || !Arrays.equals(tangle[0].hash, Arrays.copyOfRange(buffer, 1, buffer.length)));
+
+        final byte[] unknownHash = BenchmarkStorage.randomTangle(1, 5)[0].hash;
+        assertEquals(0, storage.transactionPointer(unknownHash));
+        assertEquals(null, storage.loadTransaction(unknownHash));
+    }
+
+    @Test
+    public void testValidity() {
+
+        final Transaction transaction = BenchmarkStorage.randomTangle(1, 6)[0];
+        final long pointer = storage.storeTransaction(transaction.hash, transaction, false);
+        assertEquals(0, storage.loadTransaction(pointer).validity());
+
+        storage.setTransactionValidity(pointer, 1);
+        assertEquals(1, storage.loadTransaction(pointer).validity());
+        assertEquals(1, storage.loadTransaction(pointer, new TransactionView()).validity());
+        storage.setTransactionValidity(pointer, -1);
+        assertEquals(-1, storage.loadTransaction(pointer).validity());
+        assertNotNull(storage.loadTransaction(transaction.hash));
+    }
+
+    private static long[] array(final TreeSet<Long> pointers) {
+        return pointers.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long[] sorted(final long[] pointers) {
+        final long[] copy = pointers.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static long[] array(final PointerCursor cursor) { // Already ascending
+        final List<Long> pointers = new ArrayList<>();
+        long pointer;
+        while ((pointer = cursor.next()) != 0) {
+            pointers.add(pointer);
+        }
+        return pointers.stream().mapToLong(Long::longValue).toArray();
+    }
+}
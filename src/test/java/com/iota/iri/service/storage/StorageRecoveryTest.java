@@ -0,0 +1,314 @@
+package com.iota.iri.service.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+public class StorageRecoveryTest {
+
+    private static final int COPY_BLOCK_SIZE = 1 << 20;
+
+    private final List<Path> directories = new ArrayList<>();
+    private final List<Transaction> transactions = new ArrayList<>();
+    private boolean running;
+
+    @Before
+    public void setUp() throws IOException {
+
+        Configuration.put(DefaultConfSettings.CHECKPOINT_INTERVAL, "0"); // Checkpointed by the tests only
+        open(Files.createTempDirectory("iri-recovery"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        if (running) {
+            StorageProviders.instance().shutdown();
+        }
+        for (final Path directory : directories) {
+            FileUtils.deleteDirectory(new File(directory.toString()));
+        }
+    }
+
+    @Test
+    public void testReplayAfterCheckpoint() throws IOException {
+
+        store(BenchmarkStorage.randomTangle(300, 1));
+        Storage.instance().checkpoint();
+        store(BenchmarkStorage.randomTangle(200, 2));
+
+        final Path crashed = crash();
+        final List<Integer> generations = generations(crashed);
+        assertEquals(1, generations.size()); // The transactions stored before the checkpoint are no longer journaled
+        assertEquals(200, replay(crashed, generations.get(0)));
+
+        final long manifestId = manifestId(crashed);
+        open(crashed);
+        assertRecovered();
+        assertEquals(manifestId, manifestId(crashed)); // Replayed over the indexes, not rebuilt
+    }
+
+    @Test
+    public void testTruncatedJournalTail() throws IOException {
+
+        store(BenchmarkStorage.randomTangle(300, 3));
+
+        final Path crashed = crash();
+        final int generation = generations(crashed).get(0);
+        final Path journal = crashed.resolve(String.format("transactions-%06d.journal", generation));
+        try (final FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - StorageJournal.RECORD_SIZE / 2); // The last record was being written
+        }
+        assertEquals(299, replay(crashed, generation));
+
+        open(crashed);
+        assertRecovered(); // The torn record reached the cells before the process died
+    }
+
+    @Test
+    public void testIdempotentReplay() throws IOException {
+
+        store(BenchmarkStorage.randomTangle(300, 4));
+        Storage.instance().checkpoint();
+        store(BenchmarkStorage.randomTangle(300, 5));
+
+        final Path crashed = crash();
+        final int generation = generations(crashed).get(0);
+        Files.copy(crashed.resolve(String.format("transactions-%06d.journal", generation)), crashed.resolve(String.format("transactions-%06d.journal", generation + 1))); // Every record is replayed twice
+
+        open(crashed);
+        assertRecovered();
+        assertEquals(Arrays.asList(generation + 3), generations(crashed)); // The replayed ones are dropped by the checkpoint after it
+
+        store(BenchmarkStorage.randomTangle(100, 6)); // Stores go on as usual after the recovery
+        final Path crashedAgain = crash();
+        open(crashedAgain);
+        assertRecovered();
+    }
+
+    @Test
+    public void testReplayOfStoresMissingFromTheCells() throws IOException {
+
+        store(BenchmarkStorage.randomTangle(300, 7));
+        Storage.instance().checkpoint();
+        final Transaction[] tangle = BenchmarkStorage.randomTangle(200, 8);
+        store(Arrays.copyOfRange(tangle, 0, 100));
+
+        final Path crashed = copy();
+        store(Arrays.copyOfRange(tangle, 100, tangle.length));
+        final int generation = generations(directories.get(directories.size() - 1)).get(0);
+        final String journal = String.format("transactions-%06d.journal", generation);
+        Files.copy(directories.get(directories.size() - 1).resolve(journal), crashed.resolve(journal), StandardCopyOption.REPLACE_EXISTING); // Journaled, never written into the cells
+        StorageProviders.instance().shutdown();
+        running = false;
+
+        open(crashed);
+        assertRecovered();
+    }
+
+    @Test
+    public void testRebuildAfterMachineCrash() throws IOException {
+
+        store(BenchmarkStorage.randomTangle(300, 9));
+        Storage.instance().checkpoint();
+        store(BenchmarkStorage.randomTangle(200, 10));
+
+        final Path crashed = crash();
+        final List<Integer> generations = generations(crashed);
+        Configuration.put(DefaultConfSettings.DB_PATH, crashed.toString());
+        assumeTrue(StorageJournal.trusted(generations)); // Only if the OS tells the boot id
+        for (final int generation : generations) { // Written before another boot
+            StorageJournal.distrust(generation);
+        }
+        assertFalse(StorageJournal.trusted(generations));
+
+        final long manifestId = manifestId(crashed);
+        open(crashed);
+        assertRecovered();
+        assertNotEquals(manifestId, manifestId(crashed));
+    }
+
+    @Test
+    public void testConversionAtStartup() throws IOException {
+
+        store(BenchmarkStorage.randomTangle(300, 11));
+        StorageProviders.instance().shutdown();
+        running = false;
+
+        final Path directory = directories.get(directories.size() - 1);
+        final StorageLayout layout = StorageLayout.stored();
+        for (final String fileName : new String[] {layout.fileName(0, StorageLayout.TRIE_EXTENSION), layout.fileName(0, StorageLayout.TRIE_MANIFEST_EXTENSION),
+                StorageAddresses.ADDRESSES_TRIE_FILE_NAME, StorageAddresses.ADDRESSES_TRIE_MANIFEST_FILE_NAME}) { // As an interrupted conversion leaves them
+            Files.delete(directory.resolve(fileName));
+        }
+        assertTrue(StorageConverter.pending());
+
+        open(directory);
+        assertRecovered();
+        assertFalse(StorageConverter.pending());
+    }
+
+    private void open(final Path directory) throws IOException {
+
+        directories.add(directory);
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        StorageProviders.instance().init();
+        running = true;
+    }
+
+    private void store(final Transaction[] transactions) {
+
+        for (final Transaction transaction : transactions) {
+            StorageProviders.instance().storeTransaction(transaction.hash, transaction, false);
+            this.transactions.add(transaction);
+        }
+    }
+
+    private Path crash() throws IOException { // Leaves the files as a process that died does, then shuts the storage down
+
+        final Path copy = copy();
+        StorageProviders.instance().shutdown();
+        running = false;
+        return copy;
+    }
+
+    private Path copy() throws IOException { // Of the files as the page cache holds them
+
+        final Path source = directories.get(directories.size() - 1), copy = Files.createTempDirectory("iri-recovery");
+        final ByteBuffer block = ByteBuffer.allocate(COPY_BLOCK_SIZE);
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(source)) {
+            for (final Path file : files) {
+                try (final FileChannel sourceChannel = FileChannel.open(file, StandardOpenOption.READ);
+                     final FileChannel copyChannel = FileChannel.open(copy.resolve(file.getFileName()), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+
+                    final long size = sourceChannel.size();
+                    for (long position = 0; position < size; position += COPY_BLOCK_SIZE) { // Sparse, the mapped files are mostly holes
+                        block.clear();
+                        while (block.hasRemaining() && sourceChannel.read(block, position + block.position()) > 0);
+                        block.flip();
+                        if (!zeros(block)) {
+                            while (block.hasRemaining()) {
+                                copyChannel.write(block, position + block.position());
+                            }
+                        }
+                    }
+                    if (copyChannel.size() < size) {
+                        copyChannel.write(ByteBuffer.allocate(1), size - 1);
+                    }
+                }
+            }
+        }
+        return copy;
+    }
+
+    private void assertRecovered() { // Every transaction once in each of its lists, and the tips are the transactions nobody approves
+
+        final IStorageProvider storage = StorageProviders.instance();
+        final Map<Hash, TreeSet<Long>> addresses = new HashMap<>(), bundles = new HashMap<>(), approvers = new HashMap<>();
+        approvers.put(Hash.NULL_HASH, new TreeSet<>(Arrays.asList(IStorageProvider.NULL_TRANSACTION_POINTER))); // Which approves itself
+        final Set<Hash> approved = new HashSet<>();
+        final Map<Hash, Long> pointers = new HashMap<>();
+        for (final Transaction transaction : transactions) {
+
+            final long pointer = storage.transactionPointer(transaction.hash);
+            assertTrue(pointer != 0);
+            assertArrayEquals(transaction.bytes, storage.loadTransaction(pointer).bytes);
+            pointers.put(new Hash(transaction.hash, 0, Transaction.HASH_SIZE), pointer);
+            addresses.computeIfAbsent(new Hash(transaction.address, 0, Transaction.ADDRESS_SIZE), key -> new TreeSet<>()).add(pointer);
+            bundles.computeIfAbsent(new Hash(transaction.bundle, 0, Transaction.BUNDLE_SIZE), key -> new TreeSet<>()).add(pointer);
+            for (final byte[] approvee : new byte[][] {transaction.trunkTransaction, transaction.branchTransaction}) {
+                final Hash hash = new Hash(approvee, 0, Transaction.HASH_SIZE);
+                approvers.computeIfAbsent(hash, key -> new TreeSet<>()).add(pointer);
+                approved.add(hash);
+            }
+        }
+
+        for (final Map.Entry<Hash, TreeSet<Long>> entry : addresses.entrySet()) {
+            assertArrayEquals(array(entry.getValue()), storage.addressTransactions(entry.getKey().bytes()));
+        }
+        for (final Map.Entry<Hash, TreeSet<Long>> entry : bundles.entrySet()) {
+            assertArrayEquals(array(entry.getValue()), storage.bundleTransactions(entry.getKey().bytes()));
+        }
+        for (final Map.Entry<Hash, TreeSet<Long>> entry : approvers.entrySet()) {
+            assertArrayEquals(array(entry.getValue()), storage.approveeTransactions(entry.getKey().bytes()));
+        }
+
+        final Set<Hash> expectedTips = new HashSet<>(pointers.keySet());
+        expectedTips.removeAll(approved);
+        assertEquals(expectedTips, new HashSet<>(storage.tips()));
+    }
+
+    private static List<Integer> generations(final Path directory) throws IOException {
+
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        return StorageJournal.generations();
+    }
+
+    private static int replay(final Path directory, final int generation) throws IOException {
+
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        return StorageJournal.replay(generation, cell -> { });
+    }
+
+    private static long manifestId(final Path directory) throws IOException { // Of the address index, a new one once the indexes are rebuilt
+
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        final StorageManifest manifest = new StorageManifest(StorageAddresses.ADDRESSES_MANIFEST_FILE_NAME);
+        try {
+            return manifest.id();
+        } finally {
+            manifest.close();
+        }
+    }
+
+    private static boolean zeros(final ByteBuffer block) {
+
+        int i = block.position();
+        for (; i + Long.BYTES <= block.limit(); i += Long.BYTES) {
+            if (block.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < block.limit(); i++) {
+            if (block.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] array(final TreeSet<Long> pointers) {
+        return pointers.stream().mapToLong(Long::longValue).toArray();
+    }
+}
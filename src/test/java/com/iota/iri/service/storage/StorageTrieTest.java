@@ -0,0 +1,170 @@
+package com.iota.iri.service.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Transaction;
+
+public class StorageTrieTest {
+
+    private static final String TRIE_FILE_NAME = "test.trie", TRIE_MANIFEST_FILE_NAME = "test-trie.manifest";
+    private static final long FIRST_CELL_POINTER = AbstractStorage.SUPER_GROUPS_SIZE; // Cells of chunk #1, as in transactions.iri
+
+    private Path directory;
+    private final ByteBuffer[] cells = new ByteBuffer[AbstractStorage.MAX_NUMBER_OF_CHUNKS];
+    private final List<byte[]> keys = new ArrayList<>();
+    private final List<Long> pointers = new ArrayList<>();
+    private StorageTrie trie;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("iri-trie");
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        try (final FileChannel channel = FileChannel.open(directory.resolve("cells"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            cells[1] = channel.map(FileChannel.MapMode.READ_WRITE, 0, AbstractStorage.CHUNK_SIZE); // Sparse, only the cells of the keys are touched
+        }
+        trie = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        trie.shutdown();
+        FileUtils.deleteDirectory(new File(directory.toString()));
+    }
+
+    @Test
+    public void testGrowthThroughEveryNodeType() {
+
+        final byte[] key = new byte[Transaction.HASH_SIZE];
+        for (int value = Byte.MIN_VALUE; value <= Byte.MAX_VALUE; value++) { // All under one root reference, a node 4, then 16, then 256
+            key[2] = (byte) value;
+            put(key.clone());
+            assertAllFound();
+        }
+    }
+
+    @Test
+    public void testLongSharedPrefixes() {
+
+        final byte[] key = new byte[Transaction.HASH_SIZE];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (i + 1);
+        }
+        put(key.clone());
+        for (final int depth : new int[] {40, 44, Transaction.HASH_SIZE - 1, 20, 2, 30, 41}) { // A new node below, then above the ones in place
+            final byte[] otherKey = key.clone();
+            otherKey[depth]++;
+            put(otherKey);
+            assertAllFound();
+        }
+        for (int depth = 2; depth < Transaction.HASH_SIZE; depth++) { // Every depth diverges from the first key now
+            final byte[] otherKey = key.clone();
+            otherKey[depth] += 2;
+            put(otherKey);
+        }
+        assertAllFound();
+    }
+
+    @Test
+    public void testMissingKeys() {
+
+        final byte[] key = new byte[Transaction.HASH_SIZE];
+        assertEquals(0, trie.get(key, 0)); // Empty root reference
+        put(key.clone());
+
+        final byte[] otherKey = key.clone();
+        otherKey[Transaction.HASH_SIZE - 1] = 1;
+        assertEquals(0, trie.get(otherKey, 0)); // Ends on a cell holding another key
+
+        otherKey[10] = 1;
+        put(otherKey.clone());
+        final byte[] missingKey = key.clone();
+        missingKey[10] = 2;
+        assertEquals(0, trie.get(missingKey, 0)); // No child for the byte of the node
+        missingKey[10] = 1;
+        missingKey[20] = 1;
+        assertEquals(0, trie.get(missingKey, 0)); // The skipped bytes differ
+
+        missingKey[1] = 1;
+        assertEquals(0, trie.get(missingKey, 0)); // Another root reference
+        assertEquals(0, trie.get(ByteBuffer.wrap(missingKey), 0));
+        assertAllFound();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateKey() {
+
+        final byte[] key = new byte[Transaction.HASH_SIZE];
+        put(key.clone());
+        key[Transaction.HASH_SIZE - 1] = 1;
+        put(key.clone());
+        trie.put(key, FIRST_CELL_POINTER + (long) keys.size() * AbstractStorage.CELL_SIZE);
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+
+        final Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            final byte[] key = new byte[Transaction.HASH_SIZE];
+            random.nextBytes(key);
+            key[0] = (byte) (i & 3); // Crowds a few root references
+            key[1] = 0;
+            put(key);
+        }
+        trie.shutdown();
+
+        trie = open();
+        assertAllFound();
+        for (int i = 0; i < 1000; i++) { // Appended after the nodes of the former run
+            final byte[] key = new byte[Transaction.HASH_SIZE];
+            random.nextBytes(key);
+            key[0] = (byte) (i & 3);
+            key[1] = 0;
+            put(key);
+        }
+        assertAllFound();
+    }
+
+    private StorageTrie open() throws IOException {
+
+        final StorageTrie trie = new StorageTrie(TRIE_FILE_NAME, TRIE_MANIFEST_FILE_NAME, Transaction.HASH_SIZE, cells);
+        trie.init(FIRST_CELL_POINTER + (long) keys.size() * AbstractStorage.CELL_SIZE);
+        return trie;
+    }
+
+    private void put(final byte[] key) { // Into the next cell, then into the trie
+
+        final long pointer = FIRST_CELL_POINTER + (long) keys.size() * AbstractStorage.CELL_SIZE;
+        ((ByteBuffer) cells[1].duplicate().position((int) (pointer & (AbstractStorage.CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET)).put(key);
+        trie.put(key, pointer);
+        keys.add(key);
+        pointers.add(pointer);
+    }
+
+    private void assertAllFound() {
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals((long) pointers.get(i), trie.get(keys.get(i), 0));
+            assertEquals((long) pointers.get(i), trie.get(ByteBuffer.wrap(keys.get(i)), 0));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.iota.iri.service.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class VisitedSetTest {
+
+    private static final long FIRST_POINTER = AbstractStorage.CELLS_OFFSET - AbstractStorage.SUPER_GROUPS_OFFSET;
+    private static final int CELLS_PER_PAGE = 4096;
+
+    @Test
+    public void testAddAndContains() {
+
+        final VisitedSet set = new VisitedSet();
+        final TreeSet<Long> expected = new TreeSet<>();
+        final Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) { // Over pages allocated out of order
+            final long pointer = pointer(random.nextInt(100 * CELLS_PER_PAGE));
+            assertEquals(expected.add(pointer), set.add(pointer));
+        }
+        assertMatches(expected, set, 100 * CELLS_PER_PAGE);
+    }
+
+    @Test
+    public void testClear() {
+
+        final VisitedSet set = new VisitedSet();
+        set.add(pointer(0));
+        set.add(pointer(5 * CELLS_PER_PAGE + 63));
+        set.clear();
+        assertFalse(set.contains(pointer(0)));
+        assertFalse(set.contains(pointer(5 * CELLS_PER_PAGE + 63)));
+
+        assertTrue(set.add(pointer(1))); // A page of the former epoch, reused
+        assertTrue(set.contains(pointer(1)));
+        assertFalse(set.contains(pointer(0)));
+    }
+
+    @Test
+    public void testEpochWrapAround() {
+
+        final VisitedSet set = new VisitedSet();
+        set.add(pointer(0)); // Stamped with epoch 1, which the wrapped epoch starts again from
+        set.epoch = -2;
+        set.clear();
+        set.add(pointer(CELLS_PER_PAGE));
+        assertTrue(set.contains(pointer(CELLS_PER_PAGE)));
+        assertFalse(set.contains(pointer(0)));
+
+        set.clear(); // From -1 to 0, then to 1
+        assertEquals(1, set.epoch);
+        assertFalse(set.contains(pointer(0)));
+        assertFalse(set.contains(pointer(CELLS_PER_PAGE)));
+
+        assertTrue(set.add(pointer(CELLS_PER_PAGE + 1)));
+        assertTrue(set.contains(pointer(CELLS_PER_PAGE + 1)));
+        assertFalse(set.contains(pointer(CELLS_PER_PAGE)));
+        assertFalse(set.add(pointer(CELLS_PER_PAGE + 1)));
+
+        set.epoch = Integer.MAX_VALUE; // Through the negative epochs without any reset
+        set.clear();
+        assertFalse(set.contains(pointer(CELLS_PER_PAGE + 1)));
+        assertTrue(set.add(pointer(2)));
+        assertTrue(set.contains(pointer(2)));
+    }
+
+    @Test
+    public void testCopyFrom() {
+
+        final Random random = new Random(2);
+        final VisitedSet set = new VisitedSet(), otherSet = new VisitedSet();
+        final TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 1000; i++) {
+            final long pointer = pointer(random.nextInt(20 * CELLS_PER_PAGE));
+            set.add(pointer);
+            expected.add(pointer);
+        }
+        for (int i = 0; i < 1000; i++) { // Pages which the copy doesn't overwrite must not show through
+            otherSet.add(pointer(random.nextInt(40 * CELLS_PER_PAGE)));
+        }
+
+        otherSet.copyFrom(set);
+        assertMatches(expected, otherSet, 40 * CELLS_PER_PAGE);
+
+        final long pointer = pointer(30 * CELLS_PER_PAGE);
+        assertTrue(otherSet.add(pointer)); // The copy owns its pages
+        assertFalse(set.contains(pointer));
+        assertMatches(expected, set, 40 * CELLS_PER_PAGE);
+
+        set.clear();
+        otherSet.copyFrom(set);
+        assertMatches(new TreeSet<>(), otherSet, 40 * CELLS_PER_PAGE);
+    }
+
+    @Test
+    public void testPool() {
+
+        final VisitedSet set;
+        try (final VisitedSet acquiredSet = VisitedSet.acquire()) {
+            set = acquiredSet;
+            set.add(pointer(7));
+            set.add(pointer(3 * CELLS_PER_PAGE));
+            try (final VisitedSet nestedSet = VisitedSet.acquire()) {
+                assertNotSame(set, nestedSet);
+                assertFalse(nestedSet.contains(pointer(7)));
+            }
+        }
+
+        try (final VisitedSet acquiredSet = VisitedSet.acquire()) { // The last one given back, emptied
+            assertSame(set, acquiredSet);
+            assertFalse(acquiredSet.contains(pointer(7)));
+            assertFalse(acquiredSet.contains(pointer(3 * CELLS_PER_PAGE)));
+            assertTrue(acquiredSet.add(pointer(7)));
+        }
+    }
+
+    private static long pointer(final int cell) {
+        return FIRST_POINTER + (long) cell * AbstractStorage.CELL_SIZE;
+    }
+
+    private static void assertMatches(final TreeSet<Long> expected, final VisitedSet set, final int numberOfCells) {
+
+        for (int cell = 0; cell < numberOfCells; cell++) {
+            assertEquals(expected.contains(pointer(cell)), set.contains(pointer(cell)));
+        }
+    }
+}